@@ -19,7 +19,6 @@ import java.util.HashMap;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.update.configurator.*;
-import org.w3c.dom.*;
 
 public class Configuration implements IConfigurationConstants {
 	
@@ -31,6 +30,7 @@ public class Configuration implements IConfigurationConstants {
 	private boolean transientConfig;
 	private boolean isDirty;
 	private Configuration linkedConfig; // shared configuration
+	private ScanIndex scanIndex;
 	private URL associatedInstallURL = Utils.getInstallURL();
 	
 	public Configuration() {
@@ -52,6 +52,7 @@ public class Configuration implements IConfigurationConstants {
 	
 	public void setLinkedConfig(Configuration linkedConfig) {
 		this.linkedConfig = linkedConfig;
+		linkedConfig.scanIndex = scanIndex;
 		// make all the sites read-only
 		SiteEntry[] linkedSites = linkedConfig.getSites();
 		for (int i=0; i<linkedSites.length; i++)
@@ -72,7 +73,23 @@ public class Configuration implements IConfigurationConstants {
 	public void setDirty(boolean dirty) {
 		isDirty = dirty;
 	}
-	
+
+	/**
+	 * Sets the index used by the sites to skip unchanged plug-ins and
+	 * features when they are detected. The index is shared with the
+	 * linked configuration.
+	 * @param scanIndex the index, or <code>null</code> to always parse
+	 */
+	public void setScanIndex(ScanIndex scanIndex) {
+		this.scanIndex = scanIndex;
+		if (linkedConfig != null)
+			linkedConfig.scanIndex = scanIndex;
+	}
+
+	public ScanIndex getScanIndex() {
+		return scanIndex;
+	}
+
 	public void addSiteEntry(String url, SiteEntry site) {
 		url = Utils.canonicalizeURL(url);
 		// only add the same site once
@@ -143,34 +160,28 @@ public class Configuration implements IConfigurationConstants {
 		return (SiteEntry[]) combinedSites.toArray(new SiteEntry[combinedSites.size()]);
 	}
 	
-	public Element toXML(Document doc) throws CoreException {	
-		try {
-			Element configElement = doc.createElement(CFG);
-
-			configElement.setAttribute(CFG_VERSION, VERSION);
-			configElement.setAttribute(CFG_DATE, String.valueOf(date.getTime()));
-			String transitory = isTransient() ? "true" : "false"; //$NON-NLS-1$ //$NON-NLS-2$
-			configElement.setAttribute(CFG_TRANSIENT, transitory);
-						
-			if (linkedConfig != null) {
-				// make externalized URL install relative 
-				configElement.setAttribute(CFG_SHARED_URL, Utils.makeRelative(getInstallURL(), linkedConfig.getURL()).toExternalForm());
-			}
+	public void write(ConfigurationWriter writer) throws IOException {	
+		HashMap attributes = new HashMap();
+		attributes.put(CFG_VERSION, VERSION);
+		attributes.put(CFG_DATE, String.valueOf(date.getTime()));
+		String transitory = isTransient() ? "true" : "false"; //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.put(CFG_TRANSIENT, transitory);
+					
+		if (linkedConfig != null) {
+			// make externalized URL install relative 
+			attributes.put(CFG_SHARED_URL, Utils.makeRelative(getInstallURL(), linkedConfig.getURL()).toExternalForm());
+		}
+		writer.startElement(CFG, attributes);
 
-			// collect site entries
-			SiteEntry[] list = (SiteEntry[]) sites.values().toArray(new SiteEntry[0]);
-			for (int i = 0; i < list.length; i++) {
-				if (linkedConfig != null && linkedConfig.getSiteEntry(list[i].getURL().toExternalForm()) != null)
-					continue;
-				Element siteElement = list[i].toXML(doc);
-				configElement.appendChild(siteElement);
-			}
-			
-			return configElement;
-			
-		} catch (Exception e) {
-			throw Utils.newCoreException("", e); //$NON-NLS-1$
-		} 
+		// collect site entries
+		SiteEntry[] list = (SiteEntry[]) sites.values().toArray(new SiteEntry[0]);
+		for (int i = 0; i < list.length; i++) {
+			if (linkedConfig != null && linkedConfig.getSiteEntry(list[i].getURL().toExternalForm()) != null)
+				continue;
+			list[i].write(writer);
+		}
+		
+		writer.endElement(CFG);
 	}
 	
 	public boolean isTransient() {
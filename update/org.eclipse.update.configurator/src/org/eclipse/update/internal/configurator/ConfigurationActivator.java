@@ -191,12 +191,32 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 			// Get the list of cached bundles and compare with the ones to be installed.
 			// Uninstall all the cached bundles that do not appear on the new list
 			Bundle[] cachedBundles = context.getBundles();
-			URL[] plugins = configuration.getPluginPath();
-
-			// starts the list of bundles to refresh with all currently unresolved bundles (see bug 50680)
-			List toRefresh = getUnresolvedBundles();
+			InstalledPlugins lastPlugins = InstalledPlugins.load(getInstalledPluginsFile());
+			InstalledPlugins plugins = lastPlugins.update(configuration.getConfiguredSites(), Utils.getInstallURL());
+
+			// When the bundles we installed are the ones recorded last time, only the
+			// plug-ins of the sites that changed since then need to be reconciled
+			Map installedBundles = getInstalledBundles(cachedBundles);
+			Bundle[] bundlesToUninstall;
+			String[] bundlesToInstall;
+			List toRefresh;
+			if (lastPlugins.matches(installedBundles)) {
+				bundlesToUninstall = getBundles(installedBundles, plugins.getRemovedLocations(lastPlugins));
+				bundlesToInstall = plugins.getAddedLocations(lastPlugins);
+				Utils.debug("Reconciling changed sites: " + bundlesToInstall.length + " bundles to install, " + bundlesToUninstall.length + " to uninstall"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				// unresolved bundles can only be affected when bundles come or go
+				if (bundlesToUninstall.length == 0 && bundlesToInstall.length == 0)
+					toRefresh = new ArrayList();
+				else
+					toRefresh = getUnresolvedBundles();
+			} else {
+				String[] locations = plugins.getLocations();
+				bundlesToUninstall = getBundlesToUninstall(cachedBundles, locations);
+				bundlesToInstall = getBundlesToInstall(cachedBundles, locations);
+				// starts the list of bundles to refresh with all currently unresolved bundles (see bug 50680)
+				toRefresh = getUnresolvedBundles();
+			}
 
-			Bundle[] bundlesToUninstall = getBundlesToUninstall(cachedBundles, plugins);
 			for (int i = 0; i < bundlesToUninstall.length; i++) {
 				try {
 					if (DEBUG)
@@ -209,15 +229,13 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 				}
 			}
 
-			// Get the urls to install
-			String[] bundlesToInstall = getBundlesToInstall(cachedBundles, plugins);
 			ArrayList lazyActivationBundles = new ArrayList(bundlesToInstall.length);
 			for (int i = 0; i < bundlesToInstall.length; i++) {
 				try {
 					if (DEBUG)
 						Utils.debug("Installing " + bundlesToInstall[i]); //$NON-NLS-1$
+					// the framework installs a reference stream in place, without copying the plug-in
 					URL bundleURL = new URL("reference:file:" + bundlesToInstall[i]); //$NON-NLS-1$
-					//Bundle target = context.installBundle(bundlesToInstall[i]);
 					Bundle target = context.installBundle(UPDATE_PREFIX + bundlesToInstall[i], bundleURL.openStream());
 					// any new bundle should be refreshed as well
 					toRefresh.add(target);
@@ -227,6 +245,7 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 					if (hasLazyActivationPolicy(target))
 						lazyActivationBundles.add(target);
 				} catch (Exception e) {
+					plugins.setFailed(bundlesToInstall[i]);
 					if (!Utils.isAutomaticallyStartedBundle(bundlesToInstall[i]))
 						Utils.log(NLS.bind(Messages.ConfigurationActivator_installBundle, (new String[] {bundlesToInstall[i]})) + "   " + e.getMessage()); //$NON-NLS-1$
 				}
@@ -248,6 +267,7 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 			}
 			// keep track of the last config successfully processed
 			writePlatformConfigurationTimeStamp();
+			plugins.save();
 			return true;
 		} catch (Exception e) {
 			return false;
@@ -329,7 +349,39 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 		return unresolved;
 	}
 
-	private String[] getBundlesToInstall(Bundle[] cachedBundles, URL[] newPlugins) {
+	/*
+	 * Returns the bundles we installed, by location without the prefix
+	 */
+	private Map getInstalledBundles(Bundle[] cachedBundles) {
+		HashMap installed = new HashMap(cachedBundles.length);
+		int offset = UPDATE_PREFIX.length();
+		for (int i = 0; i < cachedBundles.length; i++) {
+			if (cachedBundles[i].getBundleId() == 0)
+				continue; // skip the system bundle
+			String bundleLocation = cachedBundles[i].getLocation();
+			if (bundleLocation.startsWith(UPDATE_PREFIX))
+				installed.put(bundleLocation.substring(offset), cachedBundles[i]);
+		}
+		return installed;
+	}
+
+	private Bundle[] getBundles(Map installedBundles, String[] locations) {
+		ArrayList bundles = new ArrayList(locations.length);
+		for (int i = 0; i < locations.length; i++) {
+			Bundle bundle = (Bundle) installedBundles.get(locations[i]);
+			if (bundle != null)
+				bundles.add(bundle);
+		}
+		return (Bundle[]) bundles.toArray(new Bundle[bundles.size()]);
+	}
+
+	private File getInstalledPluginsFile() {
+		if (configLocation.isReadOnly())
+			return null;
+		return new File(configLocation.getURL().getFile() + File.separator + NAME_SPACE + File.separator + InstalledPlugins.LAST_PLUGINS);
+	}
+
+	private String[] getBundlesToInstall(Bundle[] cachedBundles, String[] newPlugins) {
 		// First, create a map of the cached bundles, for faster lookup
 		HashSet cachedBundlesSet = new HashSet(cachedBundles.length);
 		int offset = UPDATE_PREFIX.length();
@@ -350,7 +402,7 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 
 		ArrayList bundlesToInstall = new ArrayList(newPlugins.length);
 		for (int i = 0; i < newPlugins.length; i++) {
-			String location = Utils.makeRelative(Utils.getInstallURL(), newPlugins[i]).getFile();
+			String location = newPlugins[i];
 			// check if already installed
 			if (cachedBundlesSet.contains(location))
 				continue;
@@ -362,12 +414,12 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 		return (String[]) bundlesToInstall.toArray(new String[bundlesToInstall.size()]);
 	}
 
-	private Bundle[] getBundlesToUninstall(Bundle[] cachedBundles, URL[] newPlugins) {
+	private Bundle[] getBundlesToUninstall(Bundle[] cachedBundles, String[] newPlugins) {
 		// First, create a map for faster lookups
 		HashSet newPluginsSet = new HashSet(newPlugins.length);
 		for (int i = 0; i < newPlugins.length; i++) {
 
-			String pluginLocation = Utils.makeRelative(Utils.getInstallURL(), newPlugins[i]).getFile();
+			String pluginLocation = newPlugins[i];
 			newPluginsSet.add(pluginLocation);
 			// On windows, we will be doing case insensitive search as well, so lower it now
 			if (Utils.isWindows)
@@ -0,0 +1,664 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * The past configurations of the history directory, stored in a single
+ * compressed, append-only file instead of one platform.xml copy each.
+ * <p>
+ * Every few configurations, a configuration is stored whole, as a base.
+ * The configurations in between are stored as line deltas against the
+ * last base: since platform.xml has one tag per line, consecutive
+ * configurations share nearly all their lines. Rebuilding a configuration
+ * takes at most one base and one delta.
+ * </p>
+ * <p>
+ * A configuration keeps its usual name in the history directory,
+ * <code>&lt;timestamp&gt;.xml</code>, although no such file exists.
+ * Configurations saved as files by earlier versions are left as they are.
+ * Removed configurations are marked as removed in the store, which is
+ * compacted once it holds too many of them or grows too large.
+ * </p>
+ * <p>
+ * The number of configurations is not limited by the store: the update
+ * manager removes the configurations beyond its history size preference,
+ * and tells its listeners. The store only limits its size, to 4MB unless
+ * set otherwise with the <code>org.eclipse.update.configurator.historyMaxSize</code>
+ * system property, and optionally the number of configurations with
+ * <code>org.eclipse.update.configurator.historyMaxCount</code>. As for the
+ * update manager history, the oldest configuration, the original one, is
+ * always kept.
+ * </p>
+ * <p>
+ * A store that cannot be read is never written to, so that it is not
+ * lost: configurations are then saved as files, as they used to be. A
+ * compacted store replaces the store by a rename. Where a file cannot be
+ * renamed over another one, the store is first renamed to a backup, which
+ * is put back if the store is found missing.
+ * </p>
+ * <p>
+ * File format:
+ * <pre>
+ * int         magic number
+ * int         version
+ * records:
+ *   long      timestamp
+ *   byte      BASE, DELTA or REMOVED
+ *   int       length of the data
+ *   byte[]    data, deflated
+ * </pre>
+ * The data of a base is the configuration. The data of a delta is the
+ * timestamp of its base followed by COPY (first line, line count) and
+ * INSERT (line count, lines) operations, and END. Inserted lines are
+ * written as their length followed by their bytes.
+ * </p>
+ */
+public class ConfigurationHistory {
+	public static final String HISTORY_STORE = "history.store"; //$NON-NLS-1$
+	static final String PROP_MAX_COUNT = "org.eclipse.update.configurator.historyMaxCount"; //$NON-NLS-1$
+	static final String PROP_MAX_SIZE = "org.eclipse.update.configurator.historyMaxSize"; //$NON-NLS-1$
+	private static final String BACKUP_SUFFIX = ".bak"; //$NON-NLS-1$
+	private static final String XML_SUFFIX = ".xml"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x48495354; // "HIST"
+	private static final int VERSION = 1;
+	private static final byte BASE = 1;
+	private static final byte DELTA = 2;
+	private static final byte REMOVED = 3;
+	private static final byte COPY = 1;
+	private static final byte INSERT = 2;
+	private static final byte END = 3;
+
+	// a base every BASE_INTERVAL configurations
+	private static final int BASE_INTERVAL = 16;
+	private static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+	// lines are kept as ISO-8859-1 strings, which map bytes one to one
+	private static final String LINE_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
+
+	// history store File -> ConfigurationHistory
+	private static HashMap histories = new HashMap();
+
+	private File file;
+	// limits of the store, 0 for none
+	private int maxCount;
+	private long maxSize;
+	// the length and time stamp of the file when it was last read or written
+	private long length;
+	private long lastModified;
+	// the file exists but could not be read
+	private boolean unreadable;
+	// Long timestamp -> Record, of the configurations that were not removed
+	private HashMap records = new HashMap();
+	// Record in the order they were added
+	private ArrayList order = new ArrayList();
+	// Long timestamp -> Record, of all the bases, deltas may still refer to removed ones
+	private HashMap bases = new HashMap();
+	private int removedCount;
+	// the base and the number of configurations stored since
+	private Record lastBase;
+	private int sinceBase;
+
+	private static class Record {
+		long timestamp;
+		byte kind;
+		long offset; // of the data
+		int length;
+	}
+
+	private ConfigurationHistory(File file) {
+		this.file = file;
+		maxCount = (int) getLimit(PROP_MAX_COUNT, 0);
+		maxSize = getLimit(PROP_MAX_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	private static long getLimit(String property, long defaultValue) {
+		String value = System.getProperty(property);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Math.max(0, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			Utils.log(Utils.newStatus("Invalid value of " + property + ": " + value, e)); //$NON-NLS-1$ //$NON-NLS-2$
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the history store of a history directory.
+	 */
+	public static ConfigurationHistory getHistory(File historyDir) {
+		File file = new File(historyDir, HISTORY_STORE).getAbsoluteFile();
+		synchronized (histories) {
+			ConfigurationHistory history = (ConfigurationHistory) histories.get(file);
+			if (history == null) {
+				history = new ConfigurationHistory(file);
+				histories.put(file, history);
+			}
+			return history;
+		}
+	}
+
+	/**
+	 * Returns the content of a past configuration file of a history
+	 * directory, from the history store, or <code>null</code> if the
+	 * store does not have this configuration.
+	 */
+	public static InputStream getInputStream(File historyFile) throws IOException {
+		long timestamp = getTimestamp(historyFile);
+		if (timestamp == -1)
+			return null;
+		byte[] content = getHistory(historyFile.getParentFile()).get(timestamp);
+		return content == null ? null : new ByteArrayInputStream(content);
+	}
+
+	/**
+	 * Deletes a past configuration file of a history directory, whether it
+	 * is a file or is kept in the history store.
+	 */
+	public static void delete(File historyFile) {
+		if (historyFile.exists()) {
+			historyFile.delete();
+			return;
+		}
+		long timestamp = getTimestamp(historyFile);
+		if (timestamp != -1)
+			getHistory(historyFile.getParentFile()).remove(timestamp);
+	}
+
+	/**
+	 * Returns the names of the configurations of the store,
+	 * <code>&lt;timestamp&gt;.xml</code>, oldest first.
+	 */
+	public synchronized String[] getNames() {
+		refresh();
+		String[] names = new String[order.size()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = String.valueOf(((Record) order.get(i)).timestamp) + XML_SUFFIX;
+		return names;
+	}
+
+	/**
+	 * Sets the limits of the store, enforced when a configuration is added.
+	 * @param maxCount the maximum number of configurations, 0 for no limit
+	 * @param maxSize the maximum size of the store in bytes, 0 for no limit
+	 */
+	public synchronized void setLimits(int maxCount, long maxSize) {
+		this.maxCount = Math.max(0, maxCount);
+		this.maxSize = Math.max(0, maxSize);
+	}
+
+	public synchronized boolean contains(long timestamp) {
+		refresh();
+		return records.containsKey(new Long(timestamp));
+	}
+
+	/**
+	 * Adds the content of a configuration file to the store.
+	 * @exception IOException if the configuration could not be stored
+	 */
+	public synchronized void add(long timestamp, File configFile) throws IOException {
+		byte[] content = new byte[(int) configFile.length()];
+		RandomAccessFile in = new RandomAccessFile(configFile, "r"); //$NON-NLS-1$
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		refresh();
+		RandomAccessFile out = open();
+		try {
+			append(out, timestamp, content);
+		} finally {
+			close(out);
+		}
+		trim();
+	}
+
+	/**
+	 * Returns the content of a configuration, or <code>null</code> if the
+	 * store does not have it.
+	 */
+	public synchronized byte[] get(long timestamp) throws IOException {
+		refresh();
+		Record record = (Record) records.get(new Long(timestamp));
+		if (record == null)
+			return null;
+		RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			return read(in, record);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Removes a configuration from the store.
+	 */
+	public synchronized void remove(long timestamp) {
+		refresh();
+		Record record = (Record) records.get(new Long(timestamp));
+		if (record == null)
+			return;
+		try {
+			RandomAccessFile out = open();
+			try {
+				markRemoved(out, record);
+			} finally {
+				close(out);
+			}
+			if (removedCount > order.size() / 2)
+				compact();
+		} catch (IOException e) {
+			Utils.log(Utils.newStatus("Unable to remove configuration " + timestamp + " from " + file, e)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/*
+	 * Reads the records of the file again if it changed since it was last
+	 * read or written.
+	 */
+	private void refresh() {
+		if (!file.exists())
+			restoreBackup();
+		if (file.length() == length && file.lastModified() == lastModified)
+			return;
+		records.clear();
+		order.clear();
+		bases.clear();
+		removedCount = 0;
+		lastBase = null;
+		sinceBase = 0;
+		length = 0;
+		lastModified = 0;
+		unreadable = false;
+		if (!file.exists())
+			return;
+
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			long fileLength = in.length();
+			// an empty file is left by a store that was never written
+			if (fileLength > 0) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					throw new IOException("unsupported format"); //$NON-NLS-1$
+				// a record cut short by a failed append is ignored, and overwritten
+				while (in.getFilePointer() + 13 <= fileLength) {
+					Record record = new Record();
+					record.timestamp = in.readLong();
+					record.kind = in.readByte();
+					record.length = in.readInt();
+					record.offset = in.getFilePointer();
+					if (record.length < 0)
+						throw new IOException("Invalid record at " + record.offset); //$NON-NLS-1$
+					if (record.offset + record.length > fileLength)
+						break;
+					in.seek(record.offset + record.length);
+					if (record.kind == REMOVED) {
+						Record removed = (Record) records.get(new Long(record.timestamp));
+						if (removed != null)
+							removed(removed);
+					} else
+						added(record);
+					length = in.getFilePointer();
+				}
+				if (length == 0)
+					length = 8;
+			}
+			lastModified = file.lastModified();
+		} catch (IOException e) {
+			Utils.log(Utils.newStatus("Unable to read configuration history " + file, e)); //$NON-NLS-1$
+			// leave the file alone, and do not read it again until it changes
+			records.clear();
+			order.clear();
+			bases.clear();
+			removedCount = 0;
+			lastBase = null;
+			sinceBase = 0;
+			unreadable = true;
+			length = file.length();
+			lastModified = file.lastModified();
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	private RandomAccessFile open() throws IOException {
+		// never truncate a store that was not read
+		if (unreadable || (length == 0 && file.length() > 0))
+			throw new IOException("Unable to write to the unreadable configuration history " + file); //$NON-NLS-1$
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists())
+			dir.mkdirs();
+		RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		if (length == 0) {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			length = 8;
+		}
+		// drop what a failed append left behind
+		out.setLength(length);
+		return out;
+	}
+
+	private void close(RandomAccessFile out) throws IOException {
+		length = out.length();
+		out.close();
+		lastModified = file.lastModified();
+	}
+
+	/*
+	 * Appends a configuration, as a delta against the last base if that is
+	 * worth it, or as a new base.
+	 */
+	private void append(RandomAccessFile out, long timestamp, byte[] content) throws IOException {
+		byte[] data = null;
+		byte kind = BASE;
+		if (lastBase != null && sinceBase < BASE_INTERVAL - 1) {
+			byte[] base = read(out, lastBase);
+			data = deflate(encodeDelta(lastBase.timestamp, split(base), split(content)));
+			kind = DELTA;
+			// a delta that is not much smaller than the configuration is not worth it
+			if (data.length > content.length / 4) {
+				data = null;
+				kind = BASE;
+			}
+		}
+		if (data == null)
+			data = deflate(content);
+
+		out.seek(length);
+		out.writeLong(timestamp);
+		out.writeByte(kind);
+		out.writeInt(data.length);
+		Record record = new Record();
+		record.timestamp = timestamp;
+		record.kind = kind;
+		record.length = data.length;
+		record.offset = out.getFilePointer();
+		out.write(data);
+		length = out.getFilePointer();
+		added(record);
+	}
+
+	private void added(Record record) {
+		Long key = new Long(record.timestamp);
+		Record previous = (Record) records.get(key);
+		if (previous != null)
+			order.remove(previous);
+		records.put(key, record);
+		order.add(record);
+		if (record.kind == BASE) {
+			bases.put(key, record);
+			lastBase = record;
+			sinceBase = 0;
+		} else
+			sinceBase++;
+	}
+
+	private void removed(Record record) {
+		records.remove(new Long(record.timestamp));
+		order.remove(record);
+		removedCount++;
+	}
+
+	private void markRemoved(RandomAccessFile out, Record record) throws IOException {
+		out.seek(length);
+		out.writeLong(record.timestamp);
+		out.writeByte(REMOVED);
+		out.writeInt(0);
+		length = out.getFilePointer();
+		removed(record);
+	}
+
+	/*
+	 * Enforces the count and size limits, keeping the oldest configuration
+	 */
+	private void trim() throws IOException {
+		if (maxCount > 0 && order.size() > maxCount) {
+			RandomAccessFile out = open();
+			try {
+				while (order.size() > maxCount)
+					markRemoved(out, (Record) order.get(1));
+			} finally {
+				close(out);
+			}
+		}
+		if (removedCount > order.size() / 2 || (maxSize > 0 && length > maxSize))
+			compact();
+		// configurations only share their bases after a compaction, drop more if still too large
+		while (maxSize > 0 && length > maxSize && order.size() > 2) {
+			removed((Record) order.get(1));
+			if (!compact())
+				break;
+		}
+	}
+
+	/*
+	 * Rewrites the store with the configurations that were not removed.
+	 * The configurations are stored again, so that no delta refers to a
+	 * removed base.
+	 */
+	private boolean compact() {
+		boolean compactedOK = false;
+		File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		ConfigurationHistory compacted = new ConfigurationHistory(tmp);
+		RandomAccessFile in = null;
+		RandomAccessFile out = null;
+		try {
+			tmp.delete();
+			in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			out = compacted.open();
+			for (int i = 0; i < order.size(); i++) {
+				Record record = (Record) order.get(i);
+				compacted.append(out, record.timestamp, read(in, record));
+			}
+			compacted.close(out);
+			out = null;
+			in.close();
+			in = null;
+			replace(tmp);
+			compactedOK = true;
+			Utils.debug("Compacted configuration history " + file + " to " + compacted.order.size() + " configurations"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} catch (IOException e) {
+			Utils.log(Utils.newStatus("Unable to compact configuration history " + file, e)); //$NON-NLS-1$
+			tmp.delete();
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+		}
+		// read the store again
+		length = -1;
+		refresh();
+		return compactedOK;
+	}
+
+	/*
+	 * Replaces the store by a compacted one. Where a rename cannot replace
+	 * a file, the store is renamed to a backup first, so that it is never
+	 * missing without a copy.
+	 */
+	private void replace(File compacted) throws IOException {
+		if (compacted.renameTo(file))
+			return;
+		File backup = new File(file.getAbsolutePath() + BACKUP_SUFFIX);
+		backup.delete();
+		if (!file.renameTo(backup))
+			throw new IOException("Unable to rename " + file + " to " + backup); //$NON-NLS-1$ //$NON-NLS-2$
+		if (!compacted.renameTo(file)) {
+			backup.renameTo(file);
+			throw new IOException("Unable to rename " + compacted + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		backup.delete();
+	}
+
+	/*
+	 * Puts back the backup of a store that was being replaced when the
+	 * platform stopped
+	 */
+	private void restoreBackup() {
+		File backup = new File(file.getAbsolutePath() + BACKUP_SUFFIX);
+		if (backup.exists() && !backup.renameTo(file))
+			Utils.log(Utils.newStatus("Unable to restore configuration history " + backup, null)); //$NON-NLS-1$
+	}
+
+	private byte[] read(RandomAccessFile in, Record record) throws IOException {
+		byte[] data = new byte[record.length];
+		in.seek(record.offset);
+		in.readFully(data);
+		byte[] content = inflate(data);
+		if (record.kind == BASE)
+			return content;
+
+		DataInputStream delta = new DataInputStream(new ByteArrayInputStream(content));
+		Record base = (Record) bases.get(new Long(delta.readLong()));
+		if (base == null)
+			throw new IOException("Missing base configuration of " + record.timestamp); //$NON-NLS-1$
+		String[] baseLines = split(read(in, base));
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		for (byte op = delta.readByte(); op != END; op = delta.readByte()) {
+			if (op == COPY) {
+				int first = delta.readInt();
+				int count = delta.readInt();
+				for (int i = first; i < first + count; i++)
+					result.write(baseLines[i].getBytes(LINE_ENCODING));
+			} else if (op == INSERT) {
+				int count = delta.readInt();
+				for (int i = 0; i < count; i++) {
+					byte[] line = new byte[delta.readInt()];
+					delta.readFully(line);
+					result.write(line);
+				}
+			} else
+				throw new IOException("Unexpected delta operation " + op); //$NON-NLS-1$
+		}
+		return result.toByteArray();
+	}
+
+	/*
+	 * Encodes the lines of a configuration as runs of lines copied from the
+	 * base and lines inserted.
+	 */
+	private static byte[] encodeDelta(long baseTimestamp, String[] base, String[] lines) throws IOException {
+		// first line of the base with a given content
+		HashMap firstLines = new HashMap();
+		for (int i = base.length - 1; i >= 0; i--)
+			firstLines.put(base[i], new Integer(i));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(baseTimestamp);
+		int next = 0; // the base line following the last copied run
+		int i = 0;
+		while (i < lines.length) {
+			int first = -1;
+			if (next < base.length && base[next].equals(lines[i]))
+				first = next;
+			else {
+				Integer line = (Integer) firstLines.get(lines[i]);
+				if (line != null)
+					first = line.intValue();
+			}
+			if (first != -1) {
+				int count = 0;
+				while (first + count < base.length && i + count < lines.length && base[first + count].equals(lines[i + count]))
+					count++;
+				out.writeByte(COPY);
+				out.writeInt(first);
+				out.writeInt(count);
+				next = first + count;
+				i += count;
+			} else {
+				int end = i + 1;
+				while (end < lines.length && !firstLines.containsKey(lines[end]))
+					end++;
+				out.writeByte(INSERT);
+				out.writeInt(end - i);
+				for (; i < end; i++) {
+					// lines, such as site policy lists, may be longer than writeUTF allows
+					byte[] line = lines[i].getBytes(LINE_ENCODING);
+					out.writeInt(line.length);
+					out.write(line);
+				}
+			}
+		}
+		out.writeByte(END);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Splits content into lines, each with its line terminator
+	 */
+	private static String[] split(byte[] content) throws IOException {
+		String text = new String(content, LINE_ENCODING);
+		ArrayList lines = new ArrayList();
+		int start = 0;
+		for (int end = text.indexOf('\n'); end != -1; end = text.indexOf('\n', start)) {
+			lines.add(text.substring(start, end + 1));
+			start = end + 1;
+		}
+		if (start < text.length())
+			lines.add(text.substring(start));
+		return (String[]) lines.toArray(new String[lines.size()]);
+	}
+
+	private static byte[] deflate(byte[] content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+		DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION));
+		out.write(content);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] data) throws IOException {
+		InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 4);
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			bytes.write(buffer, 0, read);
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Returns the timestamp of a history file name, or -1
+	 */
+	private static long getTimestamp(File historyFile) {
+		String name = historyFile.getName();
+		if (!name.endsWith(XML_SUFFIX))
+			return -1;
+		try {
+			return Long.parseLong(name.substring(0, name.length() - XML_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
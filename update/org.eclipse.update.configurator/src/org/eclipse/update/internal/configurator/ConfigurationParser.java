@@ -67,10 +67,19 @@ public class ConfigurationParser extends DefaultHandler implements IConfiguratio
 			this.installLocation = installLocation;
 			if ("file".equals(url.getProtocol())) { //$NON-NLS-1$
 				File inputFile = URIUtil.toFile(URIUtil.toURI(url));
-				if (!inputFile.exists() || !inputFile.canRead())
+				if (!inputFile.exists()) {
+					// past configurations are kept in the history store
+					input = ConfigurationHistory.getInputStream(inputFile);
+					if (input == null)
+						return null;
+				} else if (!inputFile.canRead())
 					return null;
-				lastModified = inputFile.lastModified();
-				input = new FileInputStream(inputFile);
+				else {
+					lastModified = inputFile.lastModified();
+					if (ConfigurationSnapshot.replay(inputFile, this))
+						return config;
+					input = new FileInputStream(inputFile);
+				}
 			} else 
 				input = url.openStream();
 			parser.parse(new InputSource(input), this);
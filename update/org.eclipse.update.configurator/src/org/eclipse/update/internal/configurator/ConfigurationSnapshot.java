@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.*;
+import java.util.*;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A compact binary copy of platform.xml, stored next to it.
+ * <p>
+ * The snapshot records the elements and attributes of platform.xml as it
+ * is saved, together with the time stamp and length of the saved file.
+ * On startup, when the stamp still matches platform.xml, the elements are
+ * read from the snapshot in a single read and replayed to the configuration
+ * parser, instead of parsing the XML. Since the same parser processes the
+ * elements, the configuration is the same as the one parsed from the XML.
+ * </p>
+ * <p>
+ * Snapshots are only written and read when the
+ * <code>org.eclipse.update.configurator.configSnapshot</code> system
+ * property is <code>true</code>. A snapshot is only a cache: a missing,
+ * outdated or corrupted snapshot is ignored and platform.xml is parsed.
+ * </p>
+ */
+public class ConfigurationSnapshot {
+	public static final String SNAPSHOT_SUFFIX = ".snapshot"; //$NON-NLS-1$
+	static final String PROP_CONFIG_SNAPSHOT = "org.eclipse.update.configurator.configSnapshot"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x43464753; // "CFGS"
+	private static final int VERSION = 1;
+	private static final byte START_ELEMENT = 1;
+	private static final byte END_ELEMENT = 2;
+
+	private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private DataOutputStream out = new DataOutputStream(bytes);
+	private int count;
+
+	/**
+	 * @return <code>true</code> if snapshots are written and read
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(System.getProperty(PROP_CONFIG_SNAPSHOT)); //$NON-NLS-1$
+	}
+
+	void startElement(String name, Map attributes) throws IOException {
+		out.writeByte(START_ELEMENT);
+		writeString(out, name);
+		out.writeInt(attributes.size());
+		for (Iterator it = attributes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry attribute = (Map.Entry) it.next();
+			writeString(out, (String) attribute.getKey());
+			writeString(out, (String) attribute.getValue());
+		}
+		count++;
+	}
+
+	void endElement(String name) throws IOException {
+		out.writeByte(END_ELEMENT);
+		writeString(out, name);
+		count++;
+	}
+
+	/**
+	 * Saves the snapshot next to the configuration file it was recorded
+	 * from, once that file is saved.
+	 */
+	public void save(File xmlFile) {
+		File file = getSnapshotFile(xmlFile);
+		File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream fileOut = null;
+		try {
+			fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			fileOut.writeInt(MAGIC);
+			fileOut.writeInt(VERSION);
+			fileOut.writeLong(xmlFile.lastModified());
+			fileOut.writeLong(xmlFile.length());
+			fileOut.writeInt(count);
+			out.flush();
+			bytes.writeTo(fileOut);
+			fileOut.close();
+			fileOut = null;
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getAbsolutePath());
+			if (!tmp.renameTo(file))
+				throw new IOException(tmp.getAbsolutePath());
+		} catch (IOException e) {
+			// the snapshot is only a cache, platform.xml is parsed instead
+			Utils.debug("Unable to save configuration snapshot " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			tmp.delete();
+		} finally {
+			if (fileOut != null)
+				try {
+					fileOut.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Deletes the snapshot of a configuration file, if there is one.
+	 */
+	public static void delete(File xmlFile) {
+		File file = getSnapshotFile(xmlFile);
+		if (file.exists())
+			file.delete();
+	}
+
+	/**
+	 * Replays the elements of the snapshot of a configuration file to a
+	 * handler, if snapshots are enabled and the snapshot is up to date.
+	 * @return <code>true</code> if the elements were replayed,
+	 * <code>false</code> if the configuration file must be parsed
+	 * @exception SAXException if the handler fails to process an element
+	 */
+	public static boolean replay(File xmlFile, ContentHandler handler) throws SAXException {
+		if (!isEnabled())
+			return false;
+		File file = getSnapshotFile(xmlFile);
+		if (!file.exists())
+			return false;
+
+		// read and check the whole snapshot before replaying anything
+		List events;
+		try {
+			events = read(file, xmlFile);
+		} catch (IOException e) {
+			Utils.debug("Discarding configuration snapshot " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		} catch (RuntimeException e) {
+			Utils.debug("Discarding configuration snapshot " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		}
+		if (events == null)
+			return false;
+
+		for (int i = 0; i < events.size(); i++) {
+			Object[] event = (Object[]) events.get(i);
+			String name = (String) event[0];
+			AttributesImpl attributes = (AttributesImpl) event[1];
+			if (attributes != null)
+				handler.startElement("", name, name, attributes); //$NON-NLS-1$
+			else
+				handler.endElement("", name, name); //$NON-NLS-1$
+		}
+		Utils.debug("Replayed configuration snapshot " + file); //$NON-NLS-1$
+		return true;
+	}
+
+	/*
+	 * Returns the events of the snapshot, an element name followed by its
+	 * attributes or null for an end tag, or null if the snapshot is outdated.
+	 */
+	private static List read(File file, File xmlFile) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			raf.readFully(content);
+		} finally {
+			raf.close();
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("unsupported format"); //$NON-NLS-1$
+		if (in.readLong() != xmlFile.lastModified() || in.readLong() != xmlFile.length())
+			return null;
+		int eventCount = in.readInt();
+		List events = new ArrayList(eventCount);
+		for (int i = 0; i < eventCount; i++) {
+			byte type = in.readByte();
+			String name = readString(in);
+			AttributesImpl attributes = null;
+			if (type == START_ELEMENT) {
+				attributes = new AttributesImpl();
+				int attributeCount = in.readInt();
+				for (int j = 0; j < attributeCount; j++) {
+					String attributeName = readString(in);
+					attributes.addAttribute("", attributeName, attributeName, "CDATA", readString(in)); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			} else if (type != END_ELEMENT)
+				throw new IOException("unexpected event " + type); //$NON-NLS-1$
+			events.add(new Object[] {name, attributes});
+		}
+		return events;
+	}
+
+	private static File getSnapshotFile(File xmlFile) {
+		return new File(xmlFile.getAbsolutePath() + SNAPSHOT_SUFFIX);
+	}
+
+	/*
+	 * Attribute values, such as site policy lists, may be longer than
+	 * writeUTF allows
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] utf8 = value.getBytes("UTF-8"); //$NON-NLS-1$
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] utf8 = new byte[in.readInt()];
+		in.readFully(utf8);
+		return new String(utf8, "UTF-8"); //$NON-NLS-1$
+	}
+}
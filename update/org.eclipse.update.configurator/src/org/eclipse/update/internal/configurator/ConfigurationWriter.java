@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes platform.xml element by element, without building a DOM first.
+ * <p>
+ * The output is the same as printing the DOM with <code>XMLPrintHandler</code>:
+ * each tag on its own line and the attributes of an element sorted by name.
+ * The elements may also be recorded in a <code>ConfigurationSnapshot</code>
+ * as they are written.
+ * </p>
+ */
+public class ConfigurationWriter {
+
+	private Writer xmlWriter;
+	private ConfigurationSnapshot snapshot;
+
+	/**
+	 * @param xmlWriter the writer of the XML document
+	 * @param snapshot the snapshot to record the elements in, or <code>null</code>
+	 */
+	public ConfigurationWriter(Writer xmlWriter, ConfigurationSnapshot snapshot) {
+		this.xmlWriter = xmlWriter;
+		this.snapshot = snapshot;
+	}
+
+	public void startDocument(String encoding) throws IOException {
+		XMLPrintHandler.printHead(xmlWriter, encoding);
+	}
+
+	/**
+	 * Writes the start tag of an element.
+	 * @param name the element name
+	 * @param attributes the attribute values by name, <code>null</code> values are skipped
+	 */
+	public void startElement(String name, Map attributes) throws IOException {
+		StringBuffer element = new StringBuffer(name);
+		TreeMap sorted = new TreeMap();
+		for (Iterator it = attributes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry attribute = (Map.Entry) it.next();
+			if (attribute.getValue() != null)
+				sorted.put(attribute.getKey(), attribute.getValue());
+		}
+		for (Iterator it = sorted.entrySet().iterator(); it.hasNext();) {
+			Map.Entry attribute = (Map.Entry) it.next();
+			element.append(XMLPrintHandler.wrapAttributeForPrint((String) attribute.getKey(), (String) attribute.getValue()));
+		}
+		XMLPrintHandler.printBeginElement(xmlWriter, element.toString());
+		if (snapshot != null)
+			snapshot.startElement(name, sorted);
+	}
+
+	/**
+	 * Writes the text content of the current element.
+	 */
+	public void text(String value) throws IOException {
+		xmlWriter.write(XMLPrintHandler.encode(value).toString());
+	}
+
+	public void endElement(String name) throws IOException {
+		XMLPrintHandler.printEndElement(xmlWriter, name);
+		if (snapshot != null)
+			snapshot.endElement(name);
+	}
+}
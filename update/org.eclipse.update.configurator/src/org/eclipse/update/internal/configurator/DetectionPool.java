@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+/**
+ * Runs the detection of the entries of a site directory on several threads.
+ * <p>
+ * The plug-in and feature parsers are not thread safe, so each thread gets
+ * its own parser. The parsers are created before the threads are started,
+ * since the parser factories they share are not thread safe either. Tasks
+ * store their result by index, so that the caller can merge the results in
+ * a deterministic order once all the threads are done.
+ * </p>
+ * <p>
+ * Detection is serial when the system property
+ * <code>org.eclipse.update.configurator.serialDetection</code> is set to
+ * <code>true</code>, on single processor machines, and for directories with
+ * few entries.
+ * </p>
+ */
+class DetectionPool {
+	static final String PROP_SERIAL_DETECTION = "org.eclipse.update.configurator.serialDetection"; //$NON-NLS-1$
+
+	// more threads than this only compete for the disk
+	private static final int MAX_THREADS = 4;
+	// minimum number of entries per thread worth starting the threads for
+	private static final int MIN_ENTRIES_PER_THREAD = 8;
+
+	/**
+	 * Detection of the entry at a given index
+	 */
+	static abstract class Task {
+		/**
+		 * Creates the parser of one thread. Called on the calling thread.
+		 */
+		abstract Object createParser();
+
+		/**
+		 * Detects the entry at the given index.
+		 * @param parser the parser of the current thread
+		 */
+		abstract void run(int index, Object parser);
+	}
+
+	private DetectionPool() {
+	}
+
+	/**
+	 * Runs a task for the indexes 0 to <code>count - 1</code> and returns
+	 * once all of them are done.
+	 * @param serialParser the parser to use if the detection is serial
+	 */
+	static void run(final Task task, final int count, Object serialParser) {
+		int threadCount = Math.min(getThreadCount(), count / MIN_ENTRIES_PER_THREAD);
+		if (threadCount <= 1) {
+			for (int i = 0; i < count; i++)
+				task.run(i, serialParser);
+			return;
+		}
+
+		final int[] next = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final Object parser = task.createParser();
+			threads[t] = new Thread("Site detection " + t) { //$NON-NLS-1$
+				public void run() {
+					while (true) {
+						int index;
+						synchronized (next) {
+							if (next[0] >= count || failure[0] != null)
+								return;
+							index = next[0]++;
+						}
+						try {
+							task.run(index, parser);
+						} catch (RuntimeException e) {
+							fail(e);
+						} catch (Error e) {
+							fail(e);
+						}
+					}
+				}
+
+				private void fail(Throwable e) {
+					synchronized (next) {
+						if (failure[0] == null)
+							failure[0] = e;
+					}
+				}
+			};
+			threads[t].setDaemon(true);
+			threads[t].start();
+		}
+		for (int t = 0; t < threadCount; t++) {
+			while (threads[t].isAlive()) {
+				try {
+					threads[t].join();
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		// report failures as the serial detection would
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+	}
+
+	private static int getThreadCount() {
+		if ("true".equalsIgnoreCase(System.getProperty(PROP_SERIAL_DETECTION))) //$NON-NLS-1$
+			return 1;
+		return Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+	}
+}
@@ -10,8 +10,11 @@
  *******************************************************************************/
 package org.eclipse.update.internal.configurator;
 
+import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
@@ -19,7 +22,6 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.update.configurator.*;
 import org.eclipse.update.internal.configurator.branding.*;
 import org.osgi.framework.*;
-import org.w3c.dom.*;
 
 
 /**
@@ -152,39 +154,40 @@ public class FeatureEntry
 		return primary;
 	}
 
-	public Element toXML(Document doc) {
+	public void write(ConfigurationWriter writer) throws IOException {
 		URL installURL = getSite().getConfig().getInstallURL();	
 		
-		Element featureElement = doc.createElement(CFG_FEATURE_ENTRY);		
+		HashMap attributes = new HashMap();
 		// write out feature entry settings
 		if (id != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_ID, id); 
+			attributes.put(CFG_FEATURE_ENTRY_ID, id); 
 		if (primary)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PRIMARY, "true"); //$NON-NLS-1$
+			attributes.put(CFG_FEATURE_ENTRY_PRIMARY, "true"); //$NON-NLS-1$
 		if (version != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_VERSION, version); 
+			attributes.put(CFG_FEATURE_ENTRY_VERSION, version); 
 		if (pluginVersion != null && !pluginVersion.equals(version) && pluginVersion.length() > 0)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PLUGIN_VERSION, pluginVersion); 
+			attributes.put(CFG_FEATURE_ENTRY_PLUGIN_VERSION, pluginVersion); 
 		if (pluginIdentifier != null && !pluginIdentifier.equals(id) && pluginIdentifier.length() > 0)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PLUGIN_IDENTIFIER, pluginIdentifier);
+			attributes.put(CFG_FEATURE_ENTRY_PLUGIN_IDENTIFIER, pluginIdentifier);
 		if (application != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_APPLICATION, application);
+			attributes.put(CFG_FEATURE_ENTRY_APPLICATION, application);
 		if (url != null)
 			// make externalized URL install relative
-			featureElement.setAttribute(CFG_URL, Utils.makeRelative(installURL, url));
+			attributes.put(CFG_URL, Utils.makeRelative(installURL, url));
+		writer.startElement(CFG_FEATURE_ENTRY, attributes);
 		
 		URL[] roots = getFeatureRootURLs();
 		for (int i=0; i<roots.length; i++) {
 			// make externalized URL install relative
 			String root = Utils.makeRelative(installURL, roots[i]).toExternalForm();
 			if (root.trim().length() > 0){
-				Element rootElement = doc.createElement(CFG_FEATURE_ENTRY_ROOT);
-				rootElement.appendChild(doc.createTextNode(root));
-				featureElement.appendChild(rootElement);
+				writer.startElement(CFG_FEATURE_ENTRY_ROOT, Collections.EMPTY_MAP);
+				writer.text(root);
+				writer.endElement(CFG_FEATURE_ENTRY_ROOT);
 			}
 		}
 		
-		return featureElement;
+		writer.endElement(CFG_FEATURE_ENTRY);
 	}
 	
 	public void setDescription(String description) {
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.eclipse.update.configurator.IPlatformConfiguration.*;
+
+/**
+ * The plug-ins the configurator installed as bundles, by site.
+ * <p>
+ * Each configured site is recorded with its change stamp, its policy and
+ * the locations of its plug-ins, relative to the install location, as
+ * they are used in the bundle locations. A site whose change stamp and
+ * policy did not change since the plug-ins were last installed is taken
+ * as a whole from the record, without detecting or relocating its plug-ins,
+ * and only the sites that changed contribute bundles to install or uninstall.
+ * </p>
+ * <p>
+ * The record is stored in the update area of the configuration. It is only
+ * a cache: when it is missing or does not match the installed bundles, the
+ * bundles are compared with the whole plug-in path.
+ * </p>
+ */
+public class InstalledPlugins {
+	public static final String LAST_PLUGINS = "last.plugins"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x504C4753; // "PLGS"
+	private static final int VERSION = 1;
+
+	private File file;
+	// Site, in the order of the configured sites
+	private ArrayList sites = new ArrayList();
+	// resolved site url -> Site
+	private HashMap siteMap = new HashMap();
+	// locations that could not be installed
+	private HashSet failed = new HashSet();
+
+	/*
+	 * The plug-ins of one site
+	 */
+	private static class Site {
+		String key;
+		long stamp;
+		int policyType;
+		String[] policyList;
+		String[] locations;
+
+		boolean isCurrent(long siteStamp, ISitePolicy policy) {
+			return stamp != 0 && stamp == siteStamp && policyType == policy.getType() && Arrays.equals(policyList, policy.getList());
+		}
+	}
+
+	private InstalledPlugins(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the plug-ins stored in a file. An empty record is returned if
+	 * the file does not exist, or is not readable by this version.
+	 * @param file the record file, <code>null</code> for a record that is never saved
+	 */
+	public static InstalledPlugins load(File file) {
+		InstalledPlugins plugins = new InstalledPlugins(file);
+		if (file == null || !file.exists())
+			return plugins;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			plugins.read(in);
+		} catch (IOException e) {
+			Utils.debug("Discarding installed plug-ins " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			plugins = new InstalledPlugins(file);
+		} catch (RuntimeException e) {
+			Utils.debug("Discarding installed plug-ins " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			plugins = new InstalledPlugins(file);
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+		return plugins;
+	}
+
+	/**
+	 * Returns the plug-ins of the configured sites. The sites that did not
+	 * change since this record was made are shared with this record.
+	 * @param configuredSites the sites of the configuration
+	 * @param installURL the install location the plug-in locations are relative to
+	 */
+	public InstalledPlugins update(ISiteEntry[] configuredSites, URL installURL) {
+		InstalledPlugins result = new InstalledPlugins(file);
+		for (int i = 0; i < configuredSites.length; i++) {
+			SiteEntry siteEntry = (SiteEntry) configuredSites[i];
+			URL siteURL = siteEntry.getResolvedURL();
+			String key = siteURL.toExternalForm();
+			if (result.siteMap.containsKey(key))
+				continue;
+			long stamp = siteEntry.getChangeStamp();
+			ISitePolicy policy = siteEntry.getSitePolicy();
+			Site site = (Site) siteMap.get(key);
+			if (site == null || !site.isCurrent(stamp, policy)) {
+				site = new Site();
+				site.key = key;
+				site.stamp = stamp;
+				site.policyType = policy.getType();
+				site.policyList = policy.getList();
+				site.locations = getLocations(siteURL, siteEntry.getPlugins(), installURL);
+			} else if (ConfigurationActivator.DEBUG)
+				Utils.debug("Plug-ins of " + key + " did not change"); //$NON-NLS-1$ //$NON-NLS-2$
+			result.sites.add(site);
+			result.siteMap.put(key, site);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the locations of all the plug-ins, in the order of the sites
+	 */
+	public String[] getLocations() {
+		List locations = getLocationList(false);
+		return (String[]) locations.toArray(new String[locations.size()]);
+	}
+
+	/**
+	 * @return <code>true</code> if the installed bundles are exactly the
+	 * plug-ins of this record that did not fail to install
+	 * @param installed the locations of the installed bundles, without
+	 * the configurator prefix, mapped to the bundles
+	 */
+	public boolean matches(Map installed) {
+		Set locations = getLocationSet(true);
+		if (locations.size() != installed.size())
+			return false;
+		for (Iterator it = locations.iterator(); it.hasNext();) {
+			if (!installed.containsKey(it.next()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the locations of the sites that changed since an older
+	 * record that are not installed, and the locations that failed to
+	 * install, so that they are tried again.
+	 * @param last the record of the installed plug-ins
+	 */
+	public String[] getAddedLocations(InstalledPlugins last) {
+		Set installed = last.getLocationSet(true);
+		Set added = new HashSet();
+		ArrayList result = new ArrayList();
+		for (int i = 0; i < sites.size(); i++) {
+			Site site = (Site) sites.get(i);
+			if (last.siteMap.get(site.key) == site)
+				continue;
+			for (int j = 0; j < site.locations.length; j++) {
+				if (!installed.contains(site.locations[j]) && added.add(site.locations[j]))
+					result.add(site.locations[j]);
+			}
+		}
+		if (!last.failed.isEmpty()) {
+			Set locations = getLocationSet(false);
+			for (Iterator it = last.failed.iterator(); it.hasNext();) {
+				String location = (String) it.next();
+				if (locations.contains(location) && added.add(location))
+					result.add(location);
+			}
+		}
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Returns the installed locations of the sites that changed or were
+	 * removed since an older record, that are no longer plug-ins.
+	 * @param last the record of the installed plug-ins
+	 */
+	public String[] getRemovedLocations(InstalledPlugins last) {
+		Set locations = null;
+		Set removed = new HashSet();
+		ArrayList result = new ArrayList();
+		for (int i = 0; i < last.sites.size(); i++) {
+			Site site = (Site) last.sites.get(i);
+			if (siteMap.get(site.key) == site)
+				continue;
+			if (locations == null)
+				locations = getLocationSet(false);
+			for (int j = 0; j < site.locations.length; j++) {
+				String location = site.locations[j];
+				if (!locations.contains(location) && !last.failed.contains(location) && removed.add(location))
+					result.add(location);
+			}
+		}
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Records that a plug-in could not be installed.
+	 */
+	public void setFailed(String location) {
+		failed.add(location);
+	}
+
+	/**
+	 * Saves the record.
+	 */
+	public void save() {
+		if (file == null)
+			return;
+		File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			write(out);
+			out.close();
+			out = null;
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getAbsolutePath());
+			if (!tmp.renameTo(file))
+				throw new IOException(tmp.getAbsolutePath());
+		} catch (IOException e) {
+			// the bundles are compared with the whole plug-in path next time
+			Utils.debug("Unable to save installed plug-ins " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			tmp.delete();
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	private Set getLocationSet(boolean installedOnly) {
+		return new HashSet(getLocationList(installedOnly));
+	}
+
+	/*
+	 * Returns the locations in the order of the plug-in path, which is
+	 * also the order the bundles are installed in
+	 */
+	private List getLocationList(boolean installedOnly) {
+		HashSet locations = new HashSet();
+		ArrayList ordered = new ArrayList();
+		for (int i = 0; i < sites.size(); i++) {
+			String[] siteLocations = ((Site) sites.get(i)).locations;
+			for (int j = 0; j < siteLocations.length; j++) {
+				if (installedOnly && failed.contains(siteLocations[j]))
+					continue;
+				if (locations.add(siteLocations[j]))
+					ordered.add(siteLocations[j]);
+			}
+		}
+		return ordered;
+	}
+
+	private static String[] getLocations(URL siteURL, String[] plugins, URL installURL) {
+		ArrayList locations = new ArrayList(plugins.length);
+		for (int i = 0; i < plugins.length; i++) {
+			try {
+				URL pluginURL = new URL(siteURL, plugins[i]);
+				locations.add(Utils.makeRelative(installURL, pluginURL).getFile());
+			} catch (MalformedURLException e) {
+				// skip entry, as the plug-in path does
+				Utils.debug("   bad URL: " + e); //$NON-NLS-1$
+			}
+		}
+		return (String[]) locations.toArray(new String[locations.size()]);
+	}
+
+	private void read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("unsupported format"); //$NON-NLS-1$
+		int siteCount = in.readInt();
+		for (int i = 0; i < siteCount; i++) {
+			Site site = new Site();
+			site.key = in.readUTF();
+			site.stamp = in.readLong();
+			site.policyType = in.readInt();
+			site.policyList = readStrings(in);
+			site.locations = readStrings(in);
+			sites.add(site);
+			siteMap.put(site.key, site);
+		}
+		failed.addAll(Arrays.asList(readStrings(in)));
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(sites.size());
+		for (int i = 0; i < sites.size(); i++) {
+			Site site = (Site) sites.get(i);
+			out.writeUTF(site.key);
+			out.writeLong(site.stamp);
+			out.writeInt(site.policyType);
+			writeStrings(out, site.policyList);
+			writeStrings(out, site.locations);
+		}
+		writeStrings(out, (String[]) failed.toArray(new String[failed.size()]));
+	}
+
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String[] values = new String[in.readInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readUTF();
+		return values;
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int i = 0; i < values.length; i++)
+			out.writeUTF(values[i]);
+	}
+}
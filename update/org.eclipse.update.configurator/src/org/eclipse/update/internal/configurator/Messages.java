@@ -55,6 +55,7 @@ public final class Messages extends NLS {
 	public static String PlatformConfiguration_cannotLoadDefaultSite;
 	public static String PlatformConfiguration_cannotFindConfigFile;
 	public static String PlatformConfiguration_cannotSaveNonExistingConfig;
+	public static String PlatformConfiguration_cannotLockConfig;
 	public static String PluginParser_plugin_no_id;
 	public static String PluginParser_plugin_no_version;
 
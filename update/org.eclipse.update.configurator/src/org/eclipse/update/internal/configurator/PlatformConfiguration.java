@@ -26,23 +26,19 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.configurator.IPlatformConfiguration;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /**
  * This class is responsible for providing the features and plugins (bundles) to 
@@ -74,6 +70,8 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	//PAL nio optional
 	//private FileLock lock;
 	private Locker lock = null;
+	private volatile PluginPathSnapshot pluginPath;
+	private ArrayList pluginPathListeners = new ArrayList(); // PluginPathSnapshot.Listener
 	private static int defaultPolicy = DEFAULT_POLICY_TYPE;
 	private static boolean checkNio = false;
 	private static boolean useNio;
@@ -85,6 +83,8 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	private static final String CONFIG_INI = "config.ini"; //NON-NLS-1$ //$NON-NLS-1$
 	private static final String CONFIG_FILE_LOCK_SUFFIX = ".lock"; //$NON-NLS-1$
 	private static final String CONFIG_FILE_TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final int LOCK_ATTEMPTS = 5;
+	private static final long WRITE_LOCK_TIMEOUT = 30000; // wait at most 30s for another writer
 	private static final String LINKS = "links"; //$NON-NLS-1$
 	private static final String[] BOOTSTRAP_PLUGINS = {};
 
@@ -102,8 +102,10 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 		// initialize configuration
 		initializeCurrent(platformConfigLocation);
-		if (config != null)
+		if (config != null) {
 			setDefaultPolicy();
+			initializeScanIndex();
+		}
 
 		// Detect external links. These are "soft link" to additional sites. The link
 		// files are usually provided by external installation programs. They are located
@@ -230,6 +232,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 		if (entry instanceof SiteEntry)
 			config.addSiteEntry(key, (SiteEntry) entry);
+		pluginPathChanged();
 	}
 
 	/*
@@ -246,6 +249,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		String key = url.toExternalForm();
 		if (entry instanceof SiteEntry)
 			config.removeSiteEntry(key);
+		pluginPathChanged();
 	}
 
 	/*
@@ -339,6 +343,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 			} catch (MalformedURLException e) {
 			}
 		}
+		pluginPathChanged();
 	}
 
 	/*
@@ -353,6 +358,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 			return;
 
 		config.unconfigureFeatureEntry(entry);
+		pluginPathChanged();
 	}
 
 	/*
@@ -458,62 +464,89 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	 * @see IPlatformConfiguration#getPluginPath()
 	 */
 	public URL[] getPluginPath() {
-		ArrayList path = new ArrayList();
-		Utils.debug("computed plug-in path:"); //$NON-NLS-1$
-
-		ISiteEntry[] sites = getConfiguredSites();
-		URL pathURL;
-		for (int i = 0; i < sites.length; i++) {
-			String[] plugins = sites[i].getPlugins();
-			for (int j = 0; j < plugins.length; j++) {
-				try {
-					pathURL = new URL(((SiteEntry) sites[i]).getResolvedURL(), plugins[j]);
-					path.add(pathURL);
-					Utils.debug("   " + pathURL.toString()); //$NON-NLS-1$
-				} catch (MalformedURLException e) {
-					// skip entry ...
-					Utils.debug("   bad URL: " + e); //$NON-NLS-1$
-				}
-			}
-		}
-		return (URL[]) path.toArray(new URL[0]);
+		return getPluginPathSnapshot().getPluginPath();
 	}
 
 	public Set getPluginPaths() {
+		return new HashSet(Arrays.asList(getPluginPathSnapshot().getPaths()));
+	}
 
-		HashSet paths = new HashSet();
-		ISiteEntry[] sites = getConfiguredSites();
+	/*
+	 * A variation of the getPluginPath, but it returns the actual plugin entries
+	 */
+	public PluginEntry[] getPlugins() {
+		return getPluginPathSnapshot().getPlugins();
+	}
 
-		for (int i = 0; i < sites.length; i++) {
-			String[] plugins = sites[i].getPlugins();
-			for (int j = 0; j < plugins.length; j++) {
-				paths.add(plugins[j]);
-			}
+	/**
+	 * Returns the current plug-in path. The snapshot is only computed
+	 * again when sites were configured or unconfigured, or when a site
+	 * changed since it was computed.
+	 */
+	public PluginPathSnapshot getPluginPathSnapshot() {
+		PluginPathSnapshot snapshot = pluginPath;
+		if (snapshot != null && snapshot.isCurrent(getConfiguredSites()))
+			return snapshot;
+		return updatePluginPath();
+	}
+
+	/**
+	 * Adds a listener notified when the plug-in path changes, when the
+	 * configuration is modified through this object or when the plug-in
+	 * path is read after its sites changed.
+	 */
+	public void addPluginPathListener(PluginPathSnapshot.Listener listener) {
+		synchronized (pluginPathListeners) {
+			if (!pluginPathListeners.contains(listener))
+				pluginPathListeners.add(listener);
 		}
+	}
 
-		return paths;
+	public void removePluginPathListener(PluginPathSnapshot.Listener listener) {
+		synchronized (pluginPathListeners) {
+			pluginPathListeners.remove(listener);
+		}
 	}
 
 	/*
-	 * A variation of the getPluginPath, but it returns the actual plugin entries
+	 * Computes the plug-in path again if it changed, and notifies the listeners
 	 */
-	public PluginEntry[] getPlugins() {
-		ArrayList allPlugins = new ArrayList();
-		Utils.debug("computed plug-ins:"); //$NON-NLS-1$
-
-		ISiteEntry[] sites = getConfiguredSites();
-		for (int i = 0; i < sites.length; i++) {
-			if (!(sites[i] instanceof SiteEntry)) {
-				Utils.debug("Site " + sites[i].getURL() + " is not a SiteEntry"); //$NON-NLS-1$ //$NON-NLS-2$
-				continue;
-			}
-			PluginEntry[] plugins = ((SiteEntry) sites[i]).getPluginEntries();
-			for (int j = 0; j < plugins.length; j++) {
-				allPlugins.add(plugins[j]);
-				Utils.debug("   " + plugins[j].getURL()); //$NON-NLS-1$
+	private PluginPathSnapshot updatePluginPath() {
+		PluginPathSnapshot oldPath;
+		PluginPathSnapshot newPath;
+		synchronized (this) {
+			oldPath = pluginPath;
+			ISiteEntry[] sites = getConfiguredSites();
+			if (oldPath != null && oldPath.isCurrent(sites))
+				return oldPath;
+			newPath = new PluginPathSnapshot(sites);
+			pluginPath = newPath;
+		}
+		if (oldPath == null || newPath.hasSamePluginPath(oldPath))
+			return newPath;
+		Object[] listeners;
+		synchronized (pluginPathListeners) {
+			listeners = pluginPathListeners.toArray();
+		}
+		for (int i = 0; i < listeners.length; i++) {
+			try {
+				((PluginPathSnapshot.Listener) listeners[i]).pluginPathChanged(oldPath, newPath);
+			} catch (RuntimeException e) {
+				Utils.log(Utils.newStatus(String.valueOf(e.getMessage()), e));
 			}
 		}
-		return (PluginEntry[]) allPlugins.toArray(new PluginEntry[0]);
+		return newPath;
+	}
+
+	/*
+	 * Pushes a change of the plug-in path to the listeners, if there are any
+	 */
+	private void pluginPathChanged() {
+		synchronized (pluginPathListeners) {
+			if (pluginPathListeners.isEmpty())
+				return;
+		}
+		getPluginPathSnapshot();
 	}
 
 	/*
@@ -564,6 +597,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 				((SiteEntry) sites[i]).refresh();
 			}
 		}
+		pluginPathChanged();
 	}
 
 	/*
@@ -581,6 +615,18 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		if (url == null)
 			throw new IOException(Messages.cfig_unableToSave_noURL);
 
+		// writers replace platform.xml with the configuration lock held, readers
+		// do not take it unless they see platform.xml change while they read it
+		if (url.getProtocol().equals("file")) //$NON-NLS-1$
+			getWriteLock(new File(url.getFile().replace('/', File.separatorChar)));
+		try {
+			internalSave(url);
+		} finally {
+			clearConfigurationLock();
+		}
+	}
+
+	private void internalSave(URL url) throws IOException {
 		OutputStream os = null;
 		if (!url.getProtocol().equals("file")) { //$NON-NLS-1$
 			// not a file protocol - attempt to save to the URL
@@ -588,7 +634,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 			uc.setDoOutput(true);
 			os = uc.getOutputStream();
 			try {
-				saveAsXML(os);
+				saveAsXML(os, null);
 				config.setDirty(false);
 			} catch (CoreException e) {
 				Utils.log(e.getMessage());
@@ -612,7 +658,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 				workingDir.mkdirs();
 
 			// Do safe i/o: 
-			//    - backup current config, by moving it to the history folder
+			//    - backup current config, by moving it to the history store
 			//    - write new config to platform.xml.tmp file
 			//    - rename the temp file to platform.xml
 			File cfigFileOriginal = new File(cfigFile.getAbsolutePath());
@@ -624,24 +670,34 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 				if (!backupDir.exists())
 					backupDir.mkdir();
 				long timestamp = cfigFile.lastModified();
+				ConfigurationHistory history = ConfigurationHistory.getHistory(backupDir);
 				File preservedFile = new File(backupDir, String.valueOf(timestamp) + ".xml"); //$NON-NLS-1$
 				// If the target file exists, increment the timestamp. Try at most 100 times.
 				long increment = 1;
-				while (preservedFile.exists() && increment < 100) {
-					preservedFile = new File(backupDir, String.valueOf(timestamp + increment++) + ".xml"); //$NON-NLS-1$
+				while ((preservedFile.exists() || history.contains(timestamp)) && increment < 100) {
+					timestamp++;
+					increment++;
+					preservedFile = new File(backupDir, String.valueOf(timestamp) + ".xml"); //$NON-NLS-1$
 				}
-				if (!preservedFile.exists()) {
-					// try renaming current config to backup copy
-					if (!cfigFile.renameTo(preservedFile))
-						Utils.log(Messages.PlatformConfiguration_cannotBackupConfig);
+				if (!preservedFile.exists() && !history.contains(timestamp)) {
+					try {
+						history.add(timestamp, cfigFile);
+						cfigFile.delete();
+					} catch (IOException e) {
+						Utils.log(e.getMessage());
+						// try renaming current config to backup copy
+						if (!cfigFile.renameTo(preservedFile))
+							Utils.log(Messages.PlatformConfiguration_cannotBackupConfig);
+					}
 				}
 			}
 
 			// first save the file as temp
 			os = new FileOutputStream(cfigTmp);
+			ConfigurationSnapshot snapshot = ConfigurationSnapshot.isEnabled() ? new ConfigurationSnapshot() : null;
 
 			try {
-				saveAsXML(os);
+				saveAsXML(os, snapshot);
 				// Try flushing any internal buffers, and synchronize with the disk
 				try {
 					os.flush();
@@ -689,6 +745,14 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 				throw new IOException(NLS.bind(Messages.cfig_unableToSave, (new String[] {cfigTmp.getAbsolutePath()})));
 			}
+			if (snapshot != null)
+				snapshot.save(cfigFileOriginal);
+			else
+				ConfigurationSnapshot.delete(cfigFileOriginal);
+
+			ScanIndex scanIndex = config.getScanIndex();
+			if (scanIndex != null)
+				scanIndex.save();
 		}
 	}
 
@@ -729,9 +793,34 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 					// will recover on next startup
 				}
 			}
+			// the sites may have been scanned without changing the config
+			ScanIndex scanIndex = config.config.getScanIndex();
+			if (scanIndex != null && !config.isTransient())
+				scanIndex.save();
 		}
 	}
 
+	/*
+	 * Loads the index of the last site scan, stored next to platform.xml.
+	 * Until there is one, the index of the shared configuration is used.
+	 * On 'osgi.clean' the index is discarded, so that all the sites are parsed again.
+	 */
+	private void initializeScanIndex() {
+		File indexFile = getScanIndexFile(config);
+		File sharedIndexFile = config.getLinkedConfig() == null ? null : getScanIndexFile(config.getLinkedConfig());
+		ScanIndex scanIndex = ScanIndex.load(indexFile, sharedIndexFile);
+		if ("true".equals(ConfigurationActivator.getBundleContext().getProperty("osgi.clean"))) //$NON-NLS-1$ //$NON-NLS-2$
+			scanIndex.clear();
+		config.setScanIndex(scanIndex);
+	}
+
+	private static File getScanIndexFile(Configuration configuration) {
+		URL configURL = configuration.getURL();
+		if (configURL == null || !"file".equals(configURL.getProtocol())) //$NON-NLS-1$
+			return null;
+		return new File(new File(configURL.getFile().replace('/', File.separatorChar)).getParentFile(), ScanIndex.SCAN_INDEX);
+	}
+
 	private synchronized void initializeCurrent(Location platformConfigLocation) throws IOException {
 
 		// Configuration URL was is specified by the OSGi layer. 
@@ -744,12 +833,9 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 		URL configFileURL = new URL(platformConfigLocation.getURL(), CONFIG_NAME);
 		try {
-			// check concurrent use lock
-			getConfigurationLock(platformConfigLocation.getURL());
-
 			// try loading the configuration
 			try {
-				config = loadConfig(configFileURL, installURL);
+				config = readConfig(configFileURL, installURL, platformConfigLocation.getURL());
 				Utils.debug("Using configuration " + configFileURL.toString()); //$NON-NLS-1$
 			} catch (Exception e) {
 				// failed to load, see if we can find pre-initialized configuration.
@@ -759,7 +845,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 						throw new IOException(); // no platform.xml found, need to create default site
 
 					URL sharedConfigFileURL = new URL(parentLocation.getURL(), CONFIG_NAME);
-					config = loadConfig(sharedConfigFileURL, installURL);
+					config = readConfig(sharedConfigFileURL, installURL, parentLocation.getURL());
 
 					// pre-initialized config loaded OK ... copy any remaining update metadata
 					// Only copy if the default config location is not the install location
@@ -784,7 +870,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 				}
 			}
 		} finally {
-			// releaes concurrent use lock
+			// release the lock, if the configuration had to be read with it
 			clearConfigurationLock();
 		}
 	}
@@ -842,19 +928,112 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 		File lockFile = new File(url.getFile(), ConfigurationActivator.NAME_SPACE + File.separator + CONFIG_FILE_LOCK_SUFFIX);
 		verifyPath(url, config == null ? null : config.getInstallURL());
+		// a lock taken for another configuration area is released first
+		clearConfigurationLock();
 		// PAL nio optional
-		lock = createLocker(lockFile);
+		Locker locker = createLocker(lockFile);
 		try {
-			lock.lock();
+			// do not release a lock held by another process
+			if (locker.lock())
+				lock = locker;
 		} catch (IOException ioe) {
-			lock = null;
+			// read without the lock
+		}
+	}
+
+	/**
+	 * Gets the configuration lock to replace platform.xml, waiting for
+	 * another writer to finish
+	 * @param cfigFile platform.xml or the configuration directory, as passed to save
+	 * @throws IOException if another writer held the lock for too long
+	 */
+	private void getWriteLock(File cfigFile) throws IOException {
+		File workingDir = cfigFile.getName().equals(PLATFORM_XML) ? cfigFile.getParentFile() : new File(cfigFile.isFile() ? cfigFile.getParentFile() : cfigFile, ConfigurationActivator.NAME_SPACE);
+		if (workingDir == null || !workingDir.exists())
+			return;
+		clearConfigurationLock();
+		long timeout = System.currentTimeMillis() + WRITE_LOCK_TIMEOUT;
+		for (int attempt = 1;; attempt++) {
+			// PAL nio optional
+			Locker locker = createLocker(new File(workingDir, CONFIG_FILE_LOCK_SUFFIX));
+			try {
+				if (locker.lock()) {
+					lock = locker;
+					return;
+				}
+			} catch (IOException ioe) {
+				// read-only or unsupported, write without the lock as before
+				return;
+			}
+			if (System.currentTimeMillis() >= timeout)
+				break;
+			pause(Math.min(attempt, 10));
 		}
+		// do not replace platform.xml while another writer may be replacing it
+		String message = NLS.bind(Messages.PlatformConfiguration_cannotLockConfig, workingDir.getAbsolutePath());
+		Utils.log(message);
+		throw new IOException(message);
 	}
 
 	private void clearConfigurationLock() {
 		// PAL nio optional
 		if (lock != null) {
 			lock.release();
+			lock = null;
+		}
+	}
+
+	/*
+	 * Loads a configuration without the configuration lock. Writers replace
+	 * platform.xml as a whole while they hold the lock, so a configuration
+	 * whose file, and the file of its shared configuration, did not change
+	 * while it was read is consistent. Many instances can then start at the
+	 * same time from the same configuration without waiting for each other.
+	 * When the files keep changing, the configuration is read with the lock.
+	 * @param configArea the configuration area to lock, if needed
+	 */
+	private Configuration readConfig(URL url, URL installLocation, URL configArea) throws Exception {
+		for (int attempt = 1; attempt <= LOCK_ATTEMPTS; attempt++) {
+			long[] stamp = getFileStamp(url);
+			Configuration result = loadConfig(url, installLocation);
+			if (Arrays.equals(stamp, getFileStamp(url)) && isLinkedConfigCurrent(result))
+				return result;
+			Utils.debug("Configuration " + url + " changed while reading it"); //$NON-NLS-1$ //$NON-NLS-2$
+			pause(attempt);
+		}
+		// the caller releases the lock
+		getConfigurationLock(configArea);
+		return loadConfig(url, installLocation);
+	}
+
+	/*
+	 * Returns the time stamp and length of a configuration file, or null if
+	 * it is not a file
+	 */
+	private static long[] getFileStamp(URL url) {
+		if (!"file".equals(url.getProtocol())) //$NON-NLS-1$
+			return null;
+		File file = new File(url.getFile().replace('/', File.separatorChar));
+		return new long[] {file.lastModified(), file.length()};
+	}
+
+	/*
+	 * A shared configuration is parsed while its configuration is parsed:
+	 * checks that it did not change since
+	 */
+	private static boolean isLinkedConfigCurrent(Configuration configuration) {
+		Configuration linked = configuration.getLinkedConfig();
+		if (linked == null || linked.getURL() == null)
+			return true;
+		long[] stamp = getFileStamp(linked.getURL());
+		return stamp == null || stamp[0] == linked.lastModified();
+	}
+
+	private static void pause(int attempt) {
+		try {
+			Thread.sleep(attempt * 50);
+		} catch (InterruptedException e) {
+			// try again now
 		}
 	}
 
@@ -1210,26 +1389,23 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		return installURL;
 	}
 
-	private void saveAsXML(OutputStream stream) throws CoreException, IOException {
+	/*
+	 * Streams the configuration as XML, recording it in the snapshot if
+	 * there is one.
+	 */
+	private void saveAsXML(OutputStream stream, ConfigurationSnapshot snapshot) throws CoreException, IOException {
 		BufferedWriter xmlWriter = new BufferedWriter(new OutputStreamWriter(stream, XML_ENCODING));
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setExpandEntityReferences(false);
-			factory.setValidating(false);
-			factory.setIgnoringComments(true);
-			DocumentBuilder docBuilder = factory.newDocumentBuilder();
-			Document doc = docBuilder.newDocument();
-
 			if (config == null)
 				throw Utils.newCoreException(Messages.PlatformConfiguration_cannotSaveNonExistingConfig, null);
 
 			config.setDate(new Date());
-			Element configElement = config.toXML(doc);
-			doc.appendChild(configElement);
 
 			// This is not DBCS friendly... PAL
 			//XMLPrintHandler.printComment(xmlWriter,"Created on " + config.getDate().toString());
-			XMLPrintHandler.printNode(xmlWriter, doc, XML_ENCODING);
+			ConfigurationWriter writer = new ConfigurationWriter(xmlWriter, snapshot);
+			writer.startDocument(XML_ENCODING);
+			config.write(writer);
 
 		} catch (Exception e) {
 			throw Utils.newCoreException("", e); //$NON-NLS-1$
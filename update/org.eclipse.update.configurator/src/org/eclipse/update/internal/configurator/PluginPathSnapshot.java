@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.net.*;
+import java.util.*;
+
+import org.eclipse.update.configurator.IPlatformConfiguration.*;
+
+/**
+ * The plug-in path of a configuration at one point in time.
+ * <p>
+ * The snapshot holds the plug-in path with its resolved URLs, the plug-in
+ * paths relative to their sites and the plug-in entries of the configured
+ * sites. It also remembers the state of each site it was computed from:
+ * its change stamp, its policy and its change count, that moves when
+ * features are configured or unconfigured, or the site is refreshed.
+ * A snapshot is never modified: when the sites change, the configuration
+ * computes a new snapshot.
+ * </p>
+ */
+public class PluginPathSnapshot {
+
+	private URL[] pluginPath;
+	private String[] paths;
+	private PluginEntry[] plugins;
+
+	// the state of the sites the snapshot was computed from
+	private ISiteEntry[] sites;
+	private long[] stamps;
+	private ISitePolicy[] policies;
+	private String[][] policyLists;
+	private int[] changeCounts;
+
+	/**
+	 * Listens to the changes of the plug-in path of a configuration.
+	 */
+	public interface Listener {
+		/**
+		 * Called when the plug-in path of the configuration changed. The
+		 * listener may be called while the configuration is locked: it must
+		 * not wait for other threads that use the configuration.
+		 * @param oldPath the plug-in path before the change
+		 * @param newPath the plug-in path after the change
+		 */
+		public void pluginPathChanged(PluginPathSnapshot oldPath, PluginPathSnapshot newPath);
+	}
+
+	/**
+	 * Computes the plug-in path of configured sites.
+	 */
+	PluginPathSnapshot(ISiteEntry[] configuredSites) {
+		ArrayList path = new ArrayList();
+		ArrayList sitePaths = new ArrayList();
+		ArrayList entries = new ArrayList();
+		Utils.debug("computed plug-in path:"); //$NON-NLS-1$
+		for (int i = 0; i < configuredSites.length; i++) {
+			String[] sitePlugins = configuredSites[i].getPlugins();
+			for (int j = 0; j < sitePlugins.length; j++) {
+				sitePaths.add(sitePlugins[j]);
+				try {
+					URL pathURL = new URL(((SiteEntry) configuredSites[i]).getResolvedURL(), sitePlugins[j]);
+					path.add(pathURL);
+					Utils.debug("   " + pathURL.toString()); //$NON-NLS-1$
+				} catch (MalformedURLException e) {
+					// skip entry ...
+					Utils.debug("   bad URL: " + e); //$NON-NLS-1$
+				}
+			}
+			if (configuredSites[i] instanceof SiteEntry)
+				entries.addAll(Arrays.asList(((SiteEntry) configuredSites[i]).getPluginEntries()));
+			else
+				Utils.debug("Site " + configuredSites[i].getURL() + " is not a SiteEntry"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		pluginPath = (URL[]) path.toArray(new URL[path.size()]);
+		paths = (String[]) sitePaths.toArray(new String[sitePaths.size()]);
+		plugins = (PluginEntry[]) entries.toArray(new PluginEntry[entries.size()]);
+
+		// record the state of the sites once their plug-ins are detected
+		sites = configuredSites;
+		stamps = new long[sites.length];
+		policies = new ISitePolicy[sites.length];
+		policyLists = new String[sites.length][];
+		changeCounts = new int[sites.length];
+		for (int i = 0; i < sites.length; i++) {
+			stamps[i] = sites[i].getChangeStamp();
+			policies[i] = sites[i].getSitePolicy();
+			policyLists[i] = policies[i].getList();
+			changeCounts[i] = getChangeCount(sites[i]);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the configured sites are the sites the
+	 * snapshot was computed from, and none of them changed since
+	 */
+	boolean isCurrent(ISiteEntry[] configuredSites) {
+		if (configuredSites.length != sites.length)
+			return false;
+		for (int i = 0; i < sites.length; i++) {
+			if (configuredSites[i] != sites[i])
+				return false;
+			ISitePolicy policy = sites[i].getSitePolicy();
+			if (policy != policies[i] || policy.getList() != policyLists[i])
+				return false;
+			if (getChangeCount(sites[i]) != changeCounts[i] || sites[i].getChangeStamp() != stamps[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the other snapshot has the same plug-in path
+	 */
+	boolean hasSamePluginPath(PluginPathSnapshot other) {
+		if (other.pluginPath.length != pluginPath.length)
+			return false;
+		for (int i = 0; i < pluginPath.length; i++) {
+			// compare the external forms, URL.equals may resolve host names
+			if (!pluginPath[i].toExternalForm().equals(other.pluginPath[i].toExternalForm()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the resolved URLs of the plug-ins
+	 */
+	public URL[] getPluginPath() {
+		return (URL[]) pluginPath.clone();
+	}
+
+	/**
+	 * @return the paths of the plug-ins, relative to their sites
+	 */
+	public String[] getPaths() {
+		return (String[]) paths.clone();
+	}
+
+	/**
+	 * @return the plug-in entries of the configured sites
+	 */
+	public PluginEntry[] getPlugins() {
+		return (PluginEntry[]) plugins.clone();
+	}
+
+	private static int getChangeCount(ISiteEntry site) {
+		return site instanceof SiteEntry ? ((SiteEntry) site).getChangeCount() : 0;
+	}
+}
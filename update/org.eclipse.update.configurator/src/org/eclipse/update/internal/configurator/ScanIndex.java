@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Remembers what site detection found in the plugins and features
+ * directories of each site, so that startup only parses the manifests
+ * that changed since the last scan.
+ * <p>
+ * Each directory entry is recorded with its last modified time and the
+ * last modified time of its manifest (or the length of a plug-in jar),
+ * together with the plug-in or feature entry that was parsed from it.
+ * A site whose plugins directory still has the recorded time stamp
+ * (the same stamp the site uses to detect plug-in changes) is taken
+ * from the index as a whole, without looking at its entries.
+ * </p>
+ * <p>
+ * The index is stored next to platform.xml, with the time stamp that
+ * platform.xml had when the index was saved. It is only a cache: a missing,
+ * outdated or corrupted index, or an index saved for another version of
+ * platform.xml, is discarded and the sites are scanned again.
+ * </p>
+ */
+public class ScanIndex {
+	public static final String SCAN_INDEX = "scan.index"; //$NON-NLS-1$
+	private static final String PLATFORM_XML = "platform.xml"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x5343414E; // "SCAN"
+	private static final int VERSION = 2;
+
+	private File file;
+	// time stamp of platform.xml when the index was saved or loaded
+	private long configStamp;
+	// loaded from the index of a shared configuration
+	private boolean shared;
+	// resolved site url -> SiteScan
+	private HashMap sites = new HashMap();
+	private volatile boolean dirty;
+
+	/**
+	 * What was detected for one directory entry of a site
+	 */
+	public static class Record {
+		long stamp; // last modified time of the directory or jar
+		long detail; // last modified time of the manifest, or length of the jar
+		String manifest; // manifest path relative to the directory, null for a jar
+		Object entry; // PluginEntry or FeatureEntry, null if nothing was detected
+
+		/**
+		 * @return a new copy of the plug-in entry, or <code>null</code>
+		 */
+		public PluginEntry createPluginEntry() {
+			if (entry == null)
+				return null;
+			PluginEntry plugin = (PluginEntry) entry;
+			PluginEntry copy = new PluginEntry();
+			copy.setPluginIdentifier(plugin.getPluginIdentifier());
+			copy.setPluginVersion(plugin.getPluginVersion());
+			copy.isFragment(plugin.isFragment());
+			copy.setURL(plugin.getURL());
+			return copy;
+		}
+
+		/**
+		 * @return a new copy of the feature entry, or <code>null</code>
+		 */
+		public FeatureEntry createFeatureEntry() {
+			if (entry == null)
+				return null;
+			FeatureEntry feature = (FeatureEntry) entry;
+			String pluginVersion = feature.getFeaturePluginVersion();
+			FeatureEntry copy = new FeatureEntry(feature.getFeatureIdentifier(), feature.getFeatureVersion(), feature.getFeaturePluginIdentifier(), pluginVersion == null ? "" : pluginVersion, feature.canBePrimary(), feature.getFeatureApplication(), null); //$NON-NLS-1$
+			copy.setURL(feature.getURL());
+			return copy;
+		}
+
+		boolean isCurrent(File file) {
+			if (file.lastModified() != stamp)
+				return false;
+			if (manifest == null)
+				return file.length() == detail;
+			return new File(file, manifest).lastModified() == detail;
+		}
+	}
+
+	/**
+	 * The records of one site. Records may be looked up and added by
+	 * several detection threads at the same time.
+	 */
+	public static class SiteScan {
+		private ScanIndex index;
+		private long pluginsStamp;
+		private TreeMap plugins = new TreeMap();
+		private TreeMap features = new TreeMap();
+
+		SiteScan(ScanIndex index) {
+			this.index = index;
+		}
+
+		/**
+		 * @return <code>true</code> if the plugins directory has not changed
+		 * since it was last scanned
+		 */
+		public boolean isPluginsDirCurrent(File pluginsDir) {
+			return pluginsStamp != 0 && pluginsDir.lastModified() == pluginsStamp;
+		}
+
+		/**
+		 * @return the plug-in records, sorted by file name
+		 */
+		public synchronized Record[] getPlugins() {
+			return (Record[]) plugins.values().toArray(new Record[plugins.size()]);
+		}
+
+		/**
+		 * @return the record of a plug-in directory or jar, or <code>null</code>
+		 * if the file changed since it was recorded
+		 */
+		public Record getPlugin(File file) {
+			return getCurrent(plugins, file);
+		}
+
+		/**
+		 * @return the record of a feature directory, or <code>null</code>
+		 * if the directory changed since it was recorded
+		 */
+		public Record getFeature(File dir) {
+			return getCurrent(features, dir);
+		}
+
+		/**
+		 * Records the plug-in detected in a directory or jar.
+		 * @param manifest path of the manifest relative to the directory, <code>null</code> for a jar
+		 * @param entry the detected plug-in, <code>null</code> if there is none
+		 */
+		public void putPlugin(File file, String manifest, PluginEntry entry) {
+			put(plugins, file, manifest, entry);
+		}
+
+		/**
+		 * Records the feature detected in a directory.
+		 * @param entry the detected feature, <code>null</code> if there is none
+		 */
+		public void putFeature(File dir, FeatureEntry entry) {
+			put(features, dir, IConfigurationConstants.FEATURE_XML, entry);
+		}
+
+		/**
+		 * Completes a scan of the plugins directory.
+		 * @param names the names of the files that were found
+		 */
+		public synchronized void pluginsScanned(File pluginsDir, Set names) {
+			if (plugins.keySet().retainAll(names))
+				index.dirty = true;
+			// entries that could not be read must be looked at again
+			long stamp = plugins.size() == names.size() ? pluginsDir.lastModified() : 0;
+			if (stamp != pluginsStamp) {
+				pluginsStamp = stamp;
+				index.dirty = true;
+			}
+		}
+
+		/**
+		 * Completes a scan of the features directory.
+		 * @param names the names of the directories that were found
+		 */
+		public synchronized void featuresScanned(Set names) {
+			if (features.keySet().retainAll(names))
+				index.dirty = true;
+		}
+
+		private Record getCurrent(Map records, File file) {
+			Record record;
+			synchronized (this) {
+				record = (Record) records.get(file.getName());
+			}
+			if (record == null || !record.isCurrent(file))
+				return null;
+			return record;
+		}
+
+		private void put(Map records, File file, String manifest, Object entry) {
+			Record record = new Record();
+			record.stamp = file.lastModified();
+			record.manifest = manifest;
+			record.detail = manifest == null ? file.length() : new File(file, manifest).lastModified();
+			record.entry = entry;
+			synchronized (this) {
+				records.put(file.getName(), record);
+			}
+			index.dirty = true;
+		}
+	}
+
+	private ScanIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the index stored in a file. An empty index is returned if
+	 * the file does not exist, or is not readable by this version.
+	 * @param file the index file, <code>null</code> for an index that is never saved
+	 */
+	public static ScanIndex load(File file) {
+		ScanIndex index = new ScanIndex(file);
+		if (file == null || !file.exists())
+			return index;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			index.read(in);
+		} catch (IOException e) {
+			Utils.debug("Discarding scan index " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			index = new ScanIndex(file);
+		} catch (RuntimeException e) {
+			Utils.debug("Discarding scan index " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			index = new ScanIndex(file);
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+		return index;
+	}
+
+	/**
+	 * Loads the index stored in a file or, when there is none yet, the index
+	 * of a shared configuration. The index of the shared configuration is
+	 * only read: the index is saved to the first file, and only if it
+	 * changes, so that instances sharing an install do not copy it.
+	 * @param file the index file, <code>null</code> for an index that is never saved
+	 * @param sharedFile the index file of the shared configuration, or <code>null</code>
+	 */
+	public static ScanIndex load(File file, File sharedFile) {
+		if (sharedFile == null || (file != null && file.exists()))
+			return load(file);
+		ScanIndex index = load(sharedFile);
+		index.file = file;
+		index.shared = true;
+		if (!index.sites.isEmpty())
+			Utils.debug("Using shared scan index " + sharedFile); //$NON-NLS-1$
+		return index;
+	}
+
+	/**
+	 * Saves the index, if it changed since it was loaded or saved, or if
+	 * platform.xml was saved since.
+	 */
+	public synchronized void save() {
+		if (file == null)
+			return;
+		long stamp = getConfigStamp(file);
+		// a shared index is only copied when it changes
+		if (!dirty && (shared || stamp == configStamp))
+			return;
+		File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		try {
+			File dir = tmp.getParentFile();
+			if (dir != null && !dir.exists())
+				dir.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			write(out, stamp);
+			out.close();
+			out = null;
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getAbsolutePath());
+			if (!tmp.renameTo(file))
+				throw new IOException(tmp.getAbsolutePath());
+			configStamp = stamp;
+			shared = false;
+			dirty = false;
+		} catch (IOException e) {
+			// the index is only a cache, it will be rebuilt on the next scan
+			Utils.debug("Unable to save scan index " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			tmp.delete();
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Discards all the records.
+	 */
+	public synchronized void clear() {
+		sites.clear();
+		dirty = true;
+	}
+
+	/**
+	 * @return the records of a site, created if needed
+	 */
+	public synchronized SiteScan getSiteScan(URL resolvedSiteURL) {
+		String key = resolvedSiteURL.toExternalForm();
+		SiteScan scan = (SiteScan) sites.get(key);
+		if (scan == null) {
+			scan = new SiteScan(this);
+			sites.put(key, scan);
+		}
+		return scan;
+	}
+
+	/*
+	 * Features are only detected when they match the running environment,
+	 * so the index is only valid for the environment that produced it.
+	 */
+	private static String getEnvironment() {
+		return Utils.getOS() + ',' + Utils.getWS() + ',' + Utils.getArch() + ',' + Utils.getNL();
+	}
+
+	/*
+	 * The index is only valid for the platform.xml stored next to it, as it
+	 * was when the index was saved. Returns 0 if there is no platform.xml.
+	 */
+	private static long getConfigStamp(File file) {
+		return new File(file.getAbsoluteFile().getParentFile(), PLATFORM_XML).lastModified();
+	}
+
+	private void read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("unsupported format"); //$NON-NLS-1$
+		if (!getEnvironment().equals(in.readUTF()))
+			throw new IOException("different environment"); //$NON-NLS-1$
+		configStamp = in.readLong();
+		if (configStamp != getConfigStamp(file))
+			throw new IOException("different configuration"); //$NON-NLS-1$
+		int siteCount = in.readInt();
+		for (int i = 0; i < siteCount; i++) {
+			String key = in.readUTF();
+			SiteScan scan = new SiteScan(this);
+			scan.pluginsStamp = in.readLong();
+			int count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				String name = in.readUTF();
+				Record record = readRecord(in);
+				if (in.readBoolean())
+					record.entry = readPluginEntry(in);
+				scan.plugins.put(name, record);
+			}
+			count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				String name = in.readUTF();
+				Record record = readRecord(in);
+				if (in.readBoolean())
+					record.entry = readFeatureEntry(in);
+				scan.features.put(name, record);
+			}
+			sites.put(key, scan);
+		}
+	}
+
+	private void write(DataOutputStream out, long stamp) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(getEnvironment());
+		out.writeLong(stamp);
+		out.writeInt(sites.size());
+		for (Iterator it = sites.entrySet().iterator(); it.hasNext();) {
+			Map.Entry site = (Map.Entry) it.next();
+			SiteScan scan = (SiteScan) site.getValue();
+			out.writeUTF((String) site.getKey());
+			out.writeLong(scan.pluginsStamp);
+			out.writeInt(scan.plugins.size());
+			for (Iterator records = scan.plugins.entrySet().iterator(); records.hasNext();) {
+				Map.Entry entry = (Map.Entry) records.next();
+				Record record = (Record) entry.getValue();
+				out.writeUTF((String) entry.getKey());
+				writeRecord(out, record);
+				out.writeBoolean(record.entry != null);
+				if (record.entry != null)
+					writePluginEntry(out, (PluginEntry) record.entry);
+			}
+			out.writeInt(scan.features.size());
+			for (Iterator records = scan.features.entrySet().iterator(); records.hasNext();) {
+				Map.Entry entry = (Map.Entry) records.next();
+				Record record = (Record) entry.getValue();
+				out.writeUTF((String) entry.getKey());
+				writeRecord(out, record);
+				out.writeBoolean(record.entry != null);
+				if (record.entry != null)
+					writeFeatureEntry(out, (FeatureEntry) record.entry);
+			}
+		}
+	}
+
+	private static Record readRecord(DataInputStream in) throws IOException {
+		Record record = new Record();
+		record.stamp = in.readLong();
+		record.detail = in.readLong();
+		record.manifest = readString(in);
+		return record;
+	}
+
+	private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+		out.writeLong(record.stamp);
+		out.writeLong(record.detail);
+		writeString(out, record.manifest);
+	}
+
+	private static PluginEntry readPluginEntry(DataInputStream in) throws IOException {
+		PluginEntry entry = new PluginEntry();
+		entry.setPluginIdentifier(readString(in));
+		entry.setPluginVersion(readString(in));
+		entry.isFragment(in.readBoolean());
+		entry.setURL(readString(in));
+		return entry;
+	}
+
+	private static void writePluginEntry(DataOutputStream out, PluginEntry entry) throws IOException {
+		writeString(out, entry.getPluginIdentifier());
+		writeString(out, entry.getPluginVersion());
+		out.writeBoolean(entry.isFragment());
+		writeString(out, entry.getURL());
+	}
+
+	private static FeatureEntry readFeatureEntry(DataInputStream in) throws IOException {
+		String id = in.readUTF();
+		String version = readString(in);
+		String pluginIdentifier = readString(in);
+		String pluginVersion = readString(in);
+		boolean primary = in.readBoolean();
+		String application = readString(in);
+		FeatureEntry entry = new FeatureEntry(id, version, pluginIdentifier, pluginVersion == null ? "" : pluginVersion, primary, application, null); //$NON-NLS-1$
+		entry.setURL(readString(in));
+		return entry;
+	}
+
+	private static void writeFeatureEntry(DataOutputStream out, FeatureEntry entry) throws IOException {
+		out.writeUTF(entry.getFeatureIdentifier());
+		writeString(out, entry.getFeatureVersion());
+		writeString(out, entry.getFeaturePluginIdentifier());
+		writeString(out, entry.getFeaturePluginVersion());
+		out.writeBoolean(entry.canBePrimary());
+		writeString(out, entry.getFeatureApplication());
+		writeString(out, entry.getURL());
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+}
@@ -17,6 +17,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.zip.*;
@@ -26,7 +27,6 @@ import org.eclipse.osgi.service.environment.*;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.configurator.*;
 import org.eclipse.update.configurator.IPlatformConfiguration.*;
-import org.w3c.dom.*;
 import org.xml.sax.*;
 
 
@@ -45,6 +45,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	private String linkFileName;
 	private boolean enabled = true;
 	private Configuration config;
+	private boolean checkScanEntries; // set after a refresh, to look at every entry of the scan index
+	private volatile int changeCount; // moves when the policy, features or plug-ins of the site change
 	
 	private static FeatureParser featureParser = new FeatureParser();
 	private static PluginParser pluginParser = new PluginParser();
@@ -122,6 +124,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		if (policy == null)
 			throw new IllegalArgumentException();
 		this.policy = policy;
+		changeCount++;
 	}
 
 	/*
@@ -270,9 +273,11 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	 */
 	private void detectFeatures() {
 
-		if (featureEntries != null)
+		boolean compareTimeStamps = false;
+		if (featureEntries != null) {
 			validateFeatureEntries();
-		else
+			compareTimeStamps = true;
+		} else
 			featureEntries = new HashMap();
 
 		if (!PlatformConfiguration.supportsDetection(resolvedURL, config.getInstallURL()))
@@ -281,6 +286,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		// locate feature entries on site
 		File siteRoot = new File(resolvedURL.getFile().replace('/', File.separatorChar));
 		File featuresDir = new File(siteRoot, FEATURES);
+		// the index only helps when all the features are detected
+		final ScanIndex.SiteScan scan = compareTimeStamps ? null : getSiteScan();
 		if (featuresDir.exists()) {
 			// handle the installed features under the features directory
 			File[] dirs = featuresDir.listFiles(new FileFilter() {
@@ -295,24 +302,58 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				}
 			});
 		
-			for (int index = 0; index < dirs.length; index++) {
-				try {
-					File featureXML = new File(dirs[index], FEATURE_XML);
-					if (featureXML.lastModified() <= featuresChangeStamp &&
-						dirs[index].lastModified() <= featuresChangeStamp)
-						continue;
-					URL featureURL = featureXML.toURL();
-					FeatureEntry featureEntry = featureParser.parse(featureURL);
-					if (featureEntry != null)
-						addFeatureEntry(featureEntry);
-				} catch (MalformedURLException e) {
-					Utils.log(NLS.bind(Messages.InstalledSiteParser_UnableToCreateURLForFile, (new String[] { featuresDir.getAbsolutePath() })));
+			// sort the directories, so that duplicate features are always resolved the same way
+			Arrays.sort(dirs);
+			final File[] featureDirs = dirs;
+			final FeatureEntry[] detected = new FeatureEntry[dirs.length];
+			DetectionPool.run(new DetectionPool.Task() {
+				Object createParser() {
+					return new FeatureParser();
 				}
+
+				void run(int index, Object parser) {
+					detected[index] = detectFeature(featureDirs[index], scan, (FeatureParser) parser);
+				}
+			}, dirs.length, featureParser);
+
+			HashSet names = new HashSet();
+			for (int index = 0; index < dirs.length; index++) {
+				names.add(dirs[index].getName());
+				if (detected[index] != null)
+					addFeatureEntry(detected[index]);
 			}
+			if (scan != null)
+				scan.featuresScanned(names);
 		}
 		
 		Utils.debug(resolvedURL.toString() + " located  " + featureEntries.size() + " feature(s)"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
+
+	/**
+	 * @param dir a feature directory
+	 * @param scan the scan index to record the feature into, or <code>null</code>
+	 * @param parser the feature parser of the current thread
+	 * @return the feature, or <code>null</code> if it is unchanged or cannot be read
+	 */
+	private FeatureEntry detectFeature(File dir, ScanIndex.SiteScan scan, FeatureParser parser) {
+		File featureXML = new File(dir, FEATURE_XML);
+		if (featureXML.lastModified() <= featuresChangeStamp &&
+			dir.lastModified() <= featuresChangeStamp)
+			return null;
+		ScanIndex.Record record = scan == null ? null : scan.getFeature(dir);
+		if (record != null)
+			return record.createFeatureEntry();
+		try {
+			URL featureURL = featureXML.toURL();
+			FeatureEntry featureEntry = parser.parse(featureURL);
+			if (scan != null)
+				scan.putFeature(dir, featureEntry);
+			return featureEntry;
+		} catch (MalformedURLException e) {
+			Utils.log(NLS.bind(Messages.InstalledSiteParser_UnableToCreateURLForFile, (new String[] { dir.getParentFile().getAbsolutePath() })));
+			return null;
+		}
+	}
 	
 	/**
 	 * Detect new plugins (timestamp > current site timestamp)
@@ -331,17 +372,55 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 
 		// locate plugin entries on site
 		File pluginsDir = new File(resolvedURL.getFile(), PLUGINS);
+		// the index only helps when all the plugins are detected
+		final ScanIndex.SiteScan scan = compareTimeStamps ? null : getSiteScan();
 		
 		if (pluginsDir.exists() && pluginsDir.isDirectory()) {
-			File[] files = pluginsDir.listFiles();
-			for (int i = 0; i < files.length; i++) {
-				if(files[i].isDirectory()){
-					detectUnpackedPlugin(files[i], compareTimeStamps);
-				}else if(files[i].getName().endsWith(".jar")){ //$NON-NLS-1$
-					detectPackedPlugin(files[i], compareTimeStamps);
-				}else{
-					// not bundle file
+			if (scan != null && !checkScanEntries && scan.isPluginsDirCurrent(pluginsDir)) {
+				// nothing was added or removed since the last scan
+				ScanIndex.Record[] records = scan.getPlugins();
+				for (int i = 0; i < records.length; i++) {
+					PluginEntry entry = records[i].createPluginEntry();
+					if (entry != null)
+						addPluginEntry(entry);
 				}
+			} else {
+				File[] files = pluginsDir.listFiles();
+				Arrays.sort(files);
+				ArrayList candidates = new ArrayList(files.length);
+				HashSet names = new HashSet();
+				for (int i = 0; i < files.length; i++) {
+					if (!files[i].isDirectory() && !files[i].getName().endsWith(".jar")) //$NON-NLS-1$
+						continue; // not bundle file
+					candidates.add(files[i]);
+					names.add(files[i].getName());
+				}
+
+				final File[] pluginFiles = (File[]) candidates.toArray(new File[candidates.size()]);
+				final PluginEntry[] detected = new PluginEntry[pluginFiles.length];
+				final boolean compare = compareTimeStamps;
+				DetectionPool.run(new DetectionPool.Task() {
+					Object createParser() {
+						return new PluginParser();
+					}
+
+					void run(int index, Object parser) {
+						ScanIndex.Record record = scan == null ? null : scan.getPlugin(pluginFiles[index]);
+						if (record != null)
+							detected[index] = record.createPluginEntry();
+						else if (pluginFiles[index].isDirectory())
+							detected[index] = detectUnpackedPlugin(pluginFiles[index], compare, scan, (PluginParser) parser);
+						else
+							detected[index] = detectPackedPlugin(pluginFiles[index], compare, scan, (PluginParser) parser);
+					}
+				}, pluginFiles.length, pluginParser);
+
+				for (int i = 0; i < detected.length; i++) {
+					if (detected[i] != null)
+						addPluginEntry(detected[i]);
+				}
+				if (scan != null)
+					scan.pluginsScanned(pluginsDir, names);
 			}
 		} 
 		
@@ -351,11 +430,14 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	/**
 	 * @param file a plugin jar
 	 * @param compareTimeStamps set to true when looking for plugins changed since last time they were detected
+	 * @param scan the scan index to record the plugin into, or <code>null</code>
+	 * @param parser the plugin parser of the current thread
+	 * @return the plugin, or <code>null</code> if it is unchanged or cannot be read
 	 */
-	private void detectPackedPlugin(File file, boolean compareTimeStamps) {
+	private PluginEntry detectPackedPlugin(File file, boolean compareTimeStamps, ScanIndex.SiteScan scan, PluginParser parser) {
 		// plugin to run directly from jar
 		if (compareTimeStamps && file.lastModified() <= pluginsChangeStamp) {
-			return;
+			return null;
 		}
 		String entryName = META_MANIFEST_MF;
 		ZipFile z = null;
@@ -370,8 +452,10 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				BundleManifest manifest = new BundleManifest(bundleManifestIn,
 						pluginURL);
 				if (manifest.exists()) {
-					addPluginEntry(manifest.getPluginEntry());
-					return;
+					PluginEntry entry = manifest.getPluginEntry();
+					if (scan != null)
+						scan.putPlugin(file, null, entry);
+					return entry;
 				}
 			}
 			// no bundle manifest, check for plugin.xml or fragment.xml
@@ -379,12 +463,15 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			if (z.getEntry(entryName) == null) {
 				entryName = FRAGMENT_XML;
 			}
+			PluginEntry entry1 = null;
 			if (z.getEntry(entryName) != null) {
 				pluginManifestIn = z.getInputStream(new ZipEntry(entryName));
-				PluginEntry entry1 = pluginParser.parse(pluginManifestIn,
+				entry1 = parser.parse(pluginManifestIn,
 						pluginURL);
-				addPluginEntry(entry1);
 			}
+			if (scan != null)
+				scan.putPlugin(file, null, entry1);
+			return entry1;
 		} catch (IOException e5) {
 			String pluginFileString2 = pluginURL + "!" + entryName; //$NON-NLS-1$
 			Utils.log(NLS.bind(Messages.InstalledSiteParser_ErrorAccessing, (new String[] { pluginFileString2 })));
@@ -411,12 +498,16 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				}
 			}
 		}
+		return null;
 	}
 	/**
 	 * @param file a plugin directory
 	 * @param compareTimeStamps set to true when looking for plugins changed since last time they were detected
+	 * @param scan the scan index to record the plugin into, or <code>null</code>
+	 * @param parser the plugin parser of the current thread
+	 * @return the plugin, or <code>null</code> if it is unchanged or cannot be read
 	 */
-	private void detectUnpackedPlugin(File file, boolean compareTimeStamps) {
+	private PluginEntry detectUnpackedPlugin(File file, boolean compareTimeStamps, ScanIndex.SiteScan scan, PluginParser parser) {
 		// unpacked plugin
 		long dirTimestamp = file.lastModified();
 		File pluginFile = new File(file, META_MANIFEST_MF);
@@ -427,9 +518,11 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				if (compareTimeStamps
 						&& dirTimestamp <= pluginsChangeStamp
 						&& pluginFile.lastModified() <= pluginsChangeStamp)
-					return;
+					return null;
 				PluginEntry entry = bundleManifest.getPluginEntry();
-				addPluginEntry(entry);
+				if (scan != null)
+					scan.putPlugin(file, META_MANIFEST_MF, entry);
+				return entry;
 			} else {
 				// no bundle manifest, check for plugin.xml or fragment.xml
 				pluginFile = new File(file, PLUGIN_XML);
@@ -447,9 +540,14 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 					if (compareTimeStamps 
 							&& dirTimestamp <= pluginsChangeStamp
 							&& pluginFile.lastModified() <= pluginsChangeStamp)
-						return;
-					PluginEntry entry = pluginParser.parse(pluginFile);
-					addPluginEntry(entry);
+						return null;
+					PluginEntry entry = parser.parse(pluginFile);
+					if (scan != null)
+						scan.putPlugin(file, pluginFile.getName(), entry);
+					return entry;
+				} else if (scan != null) {
+					// remember there is no plugin, until a manifest shows up
+					scan.putPlugin(file, META_MANIFEST_MF, null);
 				}
 			}
 		} catch (IOException e) {
@@ -462,6 +560,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			String pluginFileString = pluginFile.getAbsolutePath();
 			Utils.log(NLS.bind(Messages.InstalledSiteParser_ErrorParsingFile, (new String[] { pluginFileString })));
         }
+		return null;
 	}
 
 	/**
@@ -590,6 +689,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		changeStamp = 0;
 		featureEntries = null;
 		pluginEntries = null;
+		checkScanEntries = true;
+		changeCount++;
 	}
 	
 	public void refreshPlugins() {
@@ -597,8 +698,22 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		pluginsChangeStamp = 0;
 		changeStamp = 0;
 		pluginEntries = null;
+		changeCount++;
+	}
+
+	/**
+	 * @return a count that moves whenever the policy, the features or the
+	 * plug-ins of the site change, without detecting them again
+	 */
+	public int getChangeCount() {
+		return changeCount;
 	}
 	
+	private ScanIndex.SiteScan getSiteScan() {
+		ScanIndex index = config == null ? null : config.getScanIndex();
+		return index == null ? null : index.getSiteScan(resolvedURL);
+	}
+
 	public void addFeatureEntry(IFeatureEntry feature) {
 		if (featureEntries == null)
 			featureEntries = new HashMap();
@@ -610,6 +725,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			if (existingVersion.getVersion().compareTo(newVersion.getVersion()) < 0) {
 				featureEntries.put(feature.getFeatureIdentifier(), feature);
 				pluginsChangeStamp = 0;
+				changeCount++;
 			} else if (existingVersion.equals(newVersion)) {
 				// log error if same feature version/id but a different url
 				if (feature instanceof FeatureEntry && existing instanceof FeatureEntry &&
@@ -619,6 +735,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		} else {
 			featureEntries.put(feature.getFeatureIdentifier(), feature);
 			pluginsChangeStamp = 0;
+			changeCount++;
 		}
 		if (feature instanceof FeatureEntry)
 			((FeatureEntry)feature).setSite(this);
@@ -649,27 +766,28 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	public void loadFromDisk(long lastChange) throws CoreException{
 		featuresChangeStamp = lastChange;
 		pluginsChangeStamp = lastChange;
+		changeCount++;
 		detectFeatures();
 		detectPlugins();
 	}
 	
 	/**
-	 * Saves state as xml content in a given parent element
-	 * @param doc
+	 * Saves state as xml content
+	 * @param writer
 	 */
-	public Element toXML(Document doc) {
+	public void write(ConfigurationWriter writer) throws IOException {
 
-		Element siteElement = doc.createElement(CFG_SITE);
+		HashMap attributes = new HashMap();
 		
 		if (getURL() != null) {
 			URL toPersist = (config == null || config.isTransient()) ? getURL() : Utils.makeRelative(Utils.getInstallURL(), getURL());
-			siteElement.setAttribute(CFG_URL, toPersist.toString());
+			attributes.put(CFG_URL, toPersist.toString());
 		}
 		
-		siteElement.setAttribute(CFG_ENABLED, isEnabled() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
-		siteElement.setAttribute(CFG_UPDATEABLE, isUpdateable() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.put(CFG_ENABLED, isEnabled() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.put(CFG_UPDATEABLE, isUpdateable() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
 		if (isExternallyLinkedSite()) 
-			siteElement.setAttribute(CFG_LINK_FILE, getLinkFileName().trim().replace(File.separatorChar, '/')); 
+			attributes.put(CFG_LINK_FILE, getLinkFileName().trim().replace(File.separatorChar, '/')); 
 
 		int type = getSitePolicy().getType();
 		String typeString = CFG_POLICY_TYPE_UNKNOWN;
@@ -678,7 +796,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		} catch (IndexOutOfBoundsException e) {
 			// ignore bad attribute ...
 		}
-		siteElement.setAttribute(CFG_POLICY, typeString); 
+		attributes.put(CFG_POLICY, typeString); 
 		String[] list = getSitePolicy().getList();
 		if (list.length > 0) {
 			StringBuffer sb = new StringBuffer(256);
@@ -687,19 +805,19 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				sb.append(',');
 			}
 			sb.append(list[list.length-1]);
-			siteElement.setAttribute(CFG_LIST, sb.toString());
+			attributes.put(CFG_LIST, sb.toString());
 		}
+		writer.startElement(CFG_SITE, attributes);
 //		// note: we don't save features inside the site element.
 		
 		// collect feature entries
 //		configElement.setAttribute(CFG_FEATURE_ENTRY_DEFAULT, defaultFeature);
 		FeatureEntry[] feats = getFeatureEntries();
 		for (int i = 0; i < feats.length; i++) {
-			Element featureElement = feats[i].toXML(doc);
-			siteElement.appendChild(featureElement);
+			feats[i].write(writer);
 		}
 		
-		return siteElement;
+		writer.endElement(CFG_SITE);
 	}
 	
 	private void validateFeatureEntries() {
@@ -754,8 +872,10 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	
 	public boolean unconfigureFeatureEntry(IFeatureEntry feature) {
 		FeatureEntry existingFeature = getFeatureEntry(feature.getFeatureIdentifier());
-		if (existingFeature != null)
+		if (existingFeature != null) {
 			featureEntries.remove(existingFeature.getFeatureIdentifier());
+			changeCount++;
+		}
 		return existingFeature != null;
 	}
 	
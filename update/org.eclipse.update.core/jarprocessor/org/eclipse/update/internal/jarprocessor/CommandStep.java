@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.update.internal.jarprocessor;
 
-import java.io.File;
+import java.io.*;
 import java.util.List;
 import java.util.Properties;
 
@@ -19,6 +19,36 @@ import java.util.Properties;
  *
  */
 public abstract class CommandStep implements IProcessStep {
+	/**
+	 * Limits the number of external processes of one kind that run at the
+	 * same time, when jars are processed on several threads.
+	 */
+	public static class ProcessLimit {
+		private int max = Integer.MAX_VALUE;
+		private int running = 0;
+
+		public synchronized void setMax(int max) {
+			this.max = Math.max(1, max);
+			notifyAll();
+		}
+
+		synchronized void acquire() throws InterruptedException {
+			while (running >= max)
+				wait();
+			running++;
+		}
+
+		synchronized void release() {
+			running--;
+			notifyAll();
+		}
+	}
+
+	/** Limit on the sign commands running at the same time */
+	public static final ProcessLimit SIGN_PROCESSES = new ProcessLimit();
+	/** Limit on the pack200 and unpack200 commands running at the same time */
+	public static final ProcessLimit PACK_PROCESSES = new ProcessLimit();
+
 	protected String command = null;
 	protected String extension = null;
 	private  Properties options = null;
@@ -35,6 +65,21 @@ public abstract class CommandStep implements IProcessStep {
 		return execute(cmd, false);
 	}
 	
+	protected static int execute(String[] cmd, boolean verbose, ProcessLimit limit) {
+		try {
+			limit.acquire();
+		} catch (InterruptedException e) {
+			if(verbose)
+				e.printStackTrace();
+			return -1;
+		}
+		try {
+			return execute(cmd, verbose);
+		} finally {
+			limit.release();
+		}
+	}
+
 	protected static int execute(String[] cmd, boolean verbose) {
 		Runtime runtime = Runtime.getRuntime();
 		Process proc = null;
@@ -70,4 +115,38 @@ public abstract class CommandStep implements IProcessStep {
 	public void adjustInf(File input, Properties inf, List containers) {
 		//nothing
 	}
+
+	public void adjustInf(String entryName, Properties inf, List containers) {
+		adjustInf(new File(entryName), inf, containers);
+	}
+
+	/**
+	 * Runs the pre or post step of this command on a jar held in memory. The
+	 * command and its options depend on the file name, so the jar is written
+	 * under the name of its entry to a temporary directory, and the result
+	 * is read back.
+	 * @param entryName the name of the jar in its containing jar
+	 * @param input the content of the jar
+	 * @param containers inf properties for containing jars, innermost jar is first on the list
+	 * @param pre whether to run the pre step, otherwise the post step
+	 * @return the processed content, or null if the step did not change the jar
+	 */
+	protected byte[] processBuffer(String entryName, byte[] input, List containers, boolean pre) throws IOException {
+		File tempDir = File.createTempFile("jarprocessor", null); //$NON-NLS-1$
+		tempDir.delete();
+		if (!tempDir.mkdirs())
+			throw new IOException("Unable to create " + tempDir.getPath()); //$NON-NLS-1$
+		try {
+			File file = new File(tempDir, new File(entryName).getName());
+			Utils.transferStreams(new ByteArrayInputStream(input), new BufferedOutputStream(new FileOutputStream(file)), true);
+			File result = pre ? preProcess(file, tempDir, containers) : postProcess(file, tempDir, containers);
+			if (result == null || !result.exists())
+				return null;
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) result.length());
+			Utils.transferStreams(new BufferedInputStream(new FileInputStream(result)), out, true);
+			return out.toByteArray();
+		} finally {
+			Utils.clear(tempDir);
+		}
+	}
 }
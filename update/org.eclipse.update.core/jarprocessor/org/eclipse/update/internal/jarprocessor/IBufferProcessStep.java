@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.jarprocessor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A process step that can also process a jar held in memory.
+ * <p>
+ * When all the steps of a JarProcessor implement this interface, the nested
+ * jars below the in-memory threshold are processed on byte arrays instead of
+ * being extracted to a temporary directory. Steps that run external commands
+ * on files, like the pack200 steps, write a temporary copy of the jars they
+ * process.
+ * </p>
+ */
+public interface IBufferProcessStep extends IProcessStep {
+
+	/**
+	 * Perform some processing on the jar before the JarProcessor considers the entries for recursion.
+	 * @param entryName the name of the jar in its containing jar
+	 * @param input the content of the jar
+	 * @param containers: inf properties for containing jars, innermost jar is first on the list
+	 * @return the processed content, or null if this step did not change the jar
+	 */
+	public byte[] preProcess(String entryName, byte[] input, List containers) throws IOException;
+
+	/**
+	 * Perform some processing on the jar after the JarProcessor returns from recursion.
+	 * The result is stored under the name returned by {@link #recursionEffect(String)}.
+	 * @param entryName the name of the jar in its containing jar
+	 * @param input the content of the jar
+	 * @param containers: inf properties for containing jars, innermost jar is first on the list
+	 * @return the processed content, or null if this step did not change the jar
+	 */
+	public byte[] postProcess(String entryName, byte[] input, List containers) throws IOException;
+
+	/**
+	 * Adjust any properties in the eclipse.inf as appropriate for this step
+	 * @param entryName the name of the jar in its containing jar
+	 * @param inf
+	 * @param containers: inf properties for containing jars, innermost jar is first on the list
+	 */
+	public void adjustInf(String entryName, Properties inf, List containers);
+}
@@ -13,18 +13,38 @@ package org.eclipse.update.internal.jarprocessor;
 import java.io.*;
 import java.util.*;
 import java.util.jar.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
 
 /**
  * @author aniefer@ca.ibm.com
  *
  */
 public class JarProcessor {
+	/** Default size up to which nested jars are processed in memory */
+	public static final long DEFAULT_IN_MEMORY_THRESHOLD = 1024 * 1024;
+
+	/*
+	 * The result of processing a nested jar in memory
+	 */
+	private static class ProcessedEntry {
+		String name;
+		byte[] content;
+
+		ProcessedEntry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+		}
+	}
+
 	private List steps = new ArrayList();
 	private String workingDirectory = ""; //$NON-NLS-1$
 	private int depth = -1;
 	private boolean verbose = false;
 	private boolean processAll = false;
 	private LinkedList containingInfs = new LinkedList();
+	private long inMemoryThreshold = DEFAULT_IN_MEMORY_THRESHOLD;
 
 	static public JarProcessor getUnpackProcessor(Properties properties) {
 		if (!canPerformUnpack())
@@ -67,6 +87,16 @@ public class JarProcessor {
 		this.processAll = all;
 	}
 
+	/**
+	 * Sets the size up to which nested jars are processed in memory instead
+	 * of being extracted to a temporary directory. This only applies when
+	 * all the steps are IBufferProcessSteps. A threshold of 0 disables it.
+	 * @param threshold the threshold, in bytes
+	 */
+	public void setInMemoryThreshold(long threshold) {
+		this.inMemoryThreshold = threshold;
+	}
+
 	public void addProcessStep(IProcessStep step) {
 		steps.add(step);
 	}
@@ -83,9 +113,10 @@ public class JarProcessor {
 	 * @param outputJar - the output
 	 * @param replacements - map of entryName -> new entryName
 	 * @param directory - location to find file for new entryName
+	 * @param buffers - map of entryName -> ProcessedEntry for the nested jars processed in memory
 	 * @throws IOException
 	 */
-	private void recreateJar(JarFile jar, JarOutputStream outputJar, Map replacements, File directory, Properties inf) throws IOException {
+	private void recreateJar(JarFile jar, JarOutputStream outputJar, Map replacements, File directory, Map buffers, Properties inf) throws IOException {
 		InputStream in = null;
 		boolean marked = false;
 		try {
@@ -93,7 +124,11 @@ public class JarProcessor {
 			for (JarEntry entry = (JarEntry) entries.nextElement(); entry != null; entry = entries.hasMoreElements() ? (JarEntry) entries.nextElement() : null) {
 				File replacement = null;
 				JarEntry newEntry = null;
-				if (replacements.containsKey(entry.getName())) {
+				ProcessedEntry processed = (ProcessedEntry) buffers.get(entry.getName());
+				if (processed != null) {
+					in = new ByteArrayInputStream(processed.content);
+					newEntry = new JarEntry(processed.name);
+				} else if (replacements.containsKey(entry.getName())) {
 					String name = (String) replacements.get(entry.getName());
 					replacement = new File(directory, name);
 					if (name != null) {
@@ -166,7 +201,7 @@ public class JarProcessor {
 		return result;
 	}
 
-	private void extractEntries(JarFile jar, File tempDir, Map data, Properties inf) throws IOException {
+	private void extractEntries(JarFile jar, File tempDir, Map data, Map buffers, Properties inf) throws IOException {
 		if(inf != null ) {
 			//skip if excluding children
 			if(inf.containsKey(Utils.MARK_EXCLUDE_CHILDREN)){
@@ -192,6 +227,12 @@ public class JarProcessor {
 							System.out.print("  "); //$NON-NLS-1$
 						System.out.println("Processing nested file: " + name); //$NON-NLS-1$
 					}
+					if (canProcessInMemory(entry.getSize())) {
+						containingInfs.addFirst(inf);
+						buffers.put(name, processBuffer(name, readFully(jar.getInputStream(entry))));
+						containingInfs.removeFirst();
+						continue;
+					}
 					//extract entry to temp directory
 					File extracted = new File(tempDir, name);
 					File parentDir = extracted.getParentFile();
@@ -300,8 +341,9 @@ public class JarProcessor {
 
 		JarFile jar = new JarFile(workingFile, false);
 		Map replacements = new HashMap();
+		Map buffers = new HashMap();
 		Properties inf = Utils.getEclipseInf(workingFile, verbose);
-		extractEntries(jar, tempDir, replacements, inf);
+		extractEntries(jar, tempDir, replacements, buffers, inf);
 
 		if (inf != null)
 			adjustInf(workingFile, inf);
@@ -314,7 +356,7 @@ public class JarProcessor {
 		if (!parent.exists())
 			parent.mkdirs();
 		JarOutputStream jarOut = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tempJar)));
-		recreateJar(jar, jarOut, replacements, tempDir, inf);
+		recreateJar(jar, jarOut, replacements, tempDir, buffers, inf);
 
 		jar.close();
 		if (tempJar != null) {
@@ -348,6 +390,225 @@ public class JarProcessor {
 		return result;
 	}
 	
+	private boolean canProcessInMemory(long size) {
+		if (size < 0 || size > inMemoryThreshold || steps.isEmpty())
+			return false;
+		for (Iterator iter = steps.iterator(); iter.hasNext();) {
+			if (!(iter.next() instanceof IBufferProcessStep))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Processes a nested jar held in memory. This does what processJar does
+	 * for an extracted jar: pre steps, recursion on the nested entries,
+	 * eclipse.inf adjustment, recreation of the jar, post steps and
+	 * normalization, but the jar is rebuilt in a single pass and nothing
+	 * is written to disk unless a nested entry is above the threshold.
+	 */
+	private ProcessedEntry processBuffer(String name, byte[] input) throws IOException {
+		++depth;
+		try {
+			Properties inf = getEclipseInf(input);
+			if (inf != null && Utils.shouldSkipJar(inf, processAll))
+				return new ProcessedEntry(name, input);
+
+			//pre
+			byte[] working = input;
+			for (Iterator iter = steps.iterator(); iter.hasNext();) {
+				IBufferProcessStep step = (IBufferProcessStep) iter.next();
+				byte[] result = step.preProcess(name, working, containingInfs);
+				if (result != null)
+					working = result;
+			}
+			if (working != input)
+				inf = getEclipseInf(working);
+			if (inf == null)
+				throw new ZipException("Not a jar: " + name); //$NON-NLS-1$
+
+			//recurse on the nested entries
+			List entries = readEntries(working);
+			Map processed = new HashMap();
+			//skip if excluding children, as extractEntries does
+			if (!inf.containsKey(Utils.MARK_EXCLUDE_CHILDREN)) {
+				for (Iterator iter = entries.iterator(); iter.hasNext();) {
+					Object[] entry = (Object[]) iter.next();
+					String entryName = ((ZipEntry) entry[0]).getName();
+					if (recursionEffect(entryName) == null)
+						continue;
+					if (verbose) {
+						for (int i = 0; i <= depth; i++)
+							System.out.print("  "); //$NON-NLS-1$
+						System.out.println("Processing nested file: " + entryName); //$NON-NLS-1$
+					}
+					byte[] content = (byte[]) entry[1];
+					containingInfs.addFirst(inf);
+					try {
+						if (content.length <= inMemoryThreshold)
+							processed.put(entryName, processBuffer(entryName, content));
+						else
+							processed.put(entryName, processOnDisk(name, entryName, content, ((ZipEntry) entry[0]).getTime()));
+					} finally {
+						containingInfs.removeFirst();
+					}
+				}
+			}
+
+			for (Iterator iter = steps.iterator(); iter.hasNext();) {
+				IBufferProcessStep step = (IBufferProcessStep) iter.next();
+				step.adjustInf(name, inf, containingInfs);
+			}
+
+			byte[] rebuilt = writeJar(entries, processed, inf);
+
+			//post
+			String resultName = name;
+			byte[] result = rebuilt;
+			for (Iterator iter = steps.iterator(); iter.hasNext();) {
+				IBufferProcessStep step = (IBufferProcessStep) iter.next();
+				byte[] stepResult = step.postProcess(resultName, result, containingInfs);
+				if (stepResult != null) {
+					result = stepResult;
+					String newName = step.recursionEffect(resultName);
+					if (newName != null)
+						resultName = newName;
+				}
+			}
+
+			//have to normalize after the post steps
+			if (result != rebuilt && !resultName.endsWith(Utils.PACKED_SUFFIX)) {
+				List resultEntries = readEntries(result);
+				if (!resultEntries.isEmpty())
+					result = writeJar(resultEntries, Collections.EMPTY_MAP, null);
+			}
+			return new ProcessedEntry(resultName, result);
+		} finally {
+			--depth;
+		}
+	}
+
+	/*
+	 * Processes a nested entry of a jar held in memory that is too large to
+	 * be processed in memory itself.
+	 */
+	private ProcessedEntry processOnDisk(String containerName, String name, byte[] content, long time) throws IOException {
+		File tempDir = new File(getWorkingDirectory(), "temp_" + depth + '_' + containerName.substring(containerName.lastIndexOf('/') + 1)); //$NON-NLS-1$
+		File extracted = new File(tempDir, name);
+		File parentDir = extracted.getParentFile();
+		if (!parentDir.exists())
+			parentDir.mkdirs();
+		String dir = getWorkingDirectory();
+		try {
+			Utils.transferStreams(new ByteArrayInputStream(content), new FileOutputStream(extracted), true);
+			extracted.setLastModified(time);
+			setWorkingDirectory(parentDir.getCanonicalPath());
+			File result = processJar(extracted);
+			String newName = name.substring(0, name.length() - extracted.getName().length()) + result.getName();
+			return new ProcessedEntry(newName, readFully(new FileInputStream(result)));
+		} finally {
+			setWorkingDirectory(dir);
+			Utils.clear(tempDir);
+		}
+	}
+
+	/*
+	 * Writes a jar from entries read by readEntries. The entries in processed
+	 * are replaced by their ProcessedEntry, and the eclipse.inf is written
+	 * from inf unless inf is null.
+	 */
+	private byte[] writeJar(List entries, Map processed, Properties inf) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream jarOut = new JarOutputStream(bytes);
+		boolean marked = false;
+		try {
+			for (Iterator iter = entries.iterator(); iter.hasNext();) {
+				Object[] entry = (Object[]) iter.next();
+				ZipEntry zipEntry = (ZipEntry) entry[0];
+				ProcessedEntry replacement = (ProcessedEntry) processed.get(zipEntry.getName());
+				JarEntry newEntry = new JarEntry(replacement != null ? replacement.name : zipEntry.getName());
+				newEntry.setTime(zipEntry.getTime());
+				jarOut.putNextEntry(newEntry);
+				if (inf != null && zipEntry.getName().equals(Utils.MARK_FILE_NAME)) {
+					Utils.storeProperties(inf, jarOut);
+					marked = true;
+				} else {
+					jarOut.write(replacement != null ? replacement.content : (byte[]) entry[1]);
+				}
+				jarOut.closeEntry();
+			}
+			if (inf != null && !marked) {
+				jarOut.putNextEntry(new JarEntry(Utils.MARK_FILE_NAME));
+				Utils.storeProperties(inf, jarOut);
+				jarOut.closeEntry();
+			}
+		} finally {
+			Utils.close(jarOut);
+		}
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Reads the entries of a jar held in memory, in order, as
+	 * {ZipEntry, byte[]} pairs. A ZipInputStream is used rather than a
+	 * JarInputStream so that the manifest is kept as a regular entry.
+	 */
+	private static List readEntries(byte[] jar) throws IOException {
+		List entries = new ArrayList();
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(jar));
+		try {
+			for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+				entries.add(new Object[] {entry, readFully(in, entry.getSize())});
+		} finally {
+			Utils.close(in);
+		}
+		return entries;
+	}
+
+	/*
+	 * Returns the eclipse.inf properties of a jar held in memory, or null
+	 * if the content is not a jar.
+	 */
+	private Properties getEclipseInf(byte[] jar) {
+		try {
+			List entries = readEntries(jar);
+			if (entries.isEmpty())
+				return null;
+			Properties props = new Properties();
+			for (Iterator iter = entries.iterator(); iter.hasNext();) {
+				Object[] entry = (Object[]) iter.next();
+				if (((ZipEntry) entry[0]).getName().equals(Utils.MARK_FILE_NAME)) {
+					props.load(new ByteArrayInputStream((byte[]) entry[1]));
+					break;
+				}
+			}
+			return props;
+		} catch (IOException e) {
+			//not a jar
+			return null;
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			return readFully(in, -1);
+		} finally {
+			Utils.close(in);
+		}
+	}
+
+	/*
+	 * Reads the stream to its end, without closing it.
+	 */
+	private static byte[] readFully(InputStream in, long size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			out.write(buffer, 0, count);
+		return out.toByteArray();
+	}
+
 	private void normalize(File input, File workingDirectory) {
 		if(input.getName().endsWith(Utils.PACKED_SUFFIX)) {
 			//not a jar
@@ -12,6 +12,8 @@
 package org.eclipse.update.internal.jarprocessor;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.zip.ZipException;
 import org.eclipse.update.internal.jarprocessor.Main.Options;
@@ -27,6 +29,7 @@ public class JarProcessorExecutor {
 			processor.setUnpack(options.unpack);
 			processor.setVerbose(options.verbose);
 			processor.setProcessAll(options.processAll);
+			processor.setInMemoryThreshold(options.inMemoryThreshold);
 			try {
 				processor.processZip(options.input);
 			} catch (ZipException e) {
@@ -37,13 +40,6 @@ public class JarProcessorExecutor {
 					e.printStackTrace();
 			}
 		} else {
-			JarProcessor processor = new JarProcessor();
-			JarProcessor packProcessor = null;
-
-			processor.setWorkingDirectory(options.outputDir);
-			processor.setProcessAll(options.processAll);
-			processor.setVerbose(options.verbose);
-
 			//load options file
 			Properties properties = new Properties();
 			if (options.input.isDirectory()) {
@@ -62,25 +58,15 @@ public class JarProcessorExecutor {
 				}
 			}
 
-			if (options.unpack)
-				addUnpackStep(processor, properties, options);
-
-			if (options.repack || (options.pack && options.signCommand != null))
-				addPackUnpackStep(processor, properties, options);
-
-			if (options.signCommand != null)
-				addSignStep(processor, properties, options);
-
-			if (options.pack) {
-				packProcessor = new JarProcessor();
-				packProcessor.setWorkingDirectory(options.outputDir);
-				packProcessor.setProcessAll(options.processAll);
-				packProcessor.setVerbose(options.verbose);
-				addPackStep(packProcessor, properties, options);
-			}
-
+			FileFilter filter = options.unpack ? Utils.PACK_GZ_FILTER : Utils.JAR_FILTER;
 			try {
-				process(options.input, options.unpack ? Utils.PACK_GZ_FILTER : Utils.JAR_FILTER, options.verbose, processor, packProcessor);
+				if (options.threads > 1) {
+					processInParallel(options.input, filter, properties, options);
+				} else {
+					JarProcessor processor = createProcessor(properties, options);
+					JarProcessor packProcessor = createPackProcessor(properties, options);
+					process(options.input, filter, options.verbose, processor, packProcessor);
+				}
 			} catch (FileNotFoundException e) {
 				if (options.verbose)
 					e.printStackTrace();
@@ -88,6 +74,36 @@ public class JarProcessorExecutor {
 		}
 	}
 
+	protected JarProcessor createProcessor(Properties properties, Options options) {
+		JarProcessor processor = new JarProcessor();
+		processor.setWorkingDirectory(options.outputDir);
+		processor.setProcessAll(options.processAll);
+		processor.setVerbose(options.verbose);
+		processor.setInMemoryThreshold(options.inMemoryThreshold);
+
+		if (options.unpack)
+			addUnpackStep(processor, properties, options);
+
+		if (options.repack || (options.pack && options.signCommand != null))
+			addPackUnpackStep(processor, properties, options);
+
+		if (options.signCommand != null)
+			addSignStep(processor, properties, options);
+		return processor;
+	}
+
+	protected JarProcessor createPackProcessor(Properties properties, Options options) {
+		if (!options.pack)
+			return null;
+		JarProcessor packProcessor = new JarProcessor();
+		packProcessor.setWorkingDirectory(options.outputDir);
+		packProcessor.setProcessAll(options.processAll);
+		packProcessor.setVerbose(options.verbose);
+		packProcessor.setInMemoryThreshold(options.inMemoryThreshold);
+		addPackStep(packProcessor, properties, options);
+		return packProcessor;
+	}
+
 	protected void process(File input, FileFilter filter, boolean verbose, JarProcessor processor, JarProcessor packProcessor) throws FileNotFoundException {
 		if (!input.exists())
 			throw new FileNotFoundException();
@@ -122,6 +138,114 @@ public class JarProcessorExecutor {
 		}
 	}
 
+	/*
+	 * Processes the jars on options.threads threads. Each thread has its own
+	 * processors, and each jar is processed with the working directory the
+	 * serial walk would have set, so the results are the same as those of
+	 * a serial run. Idle threads take the next jar of the shared list.
+	 */
+	private void processInParallel(File input, FileFilter filter, final Properties properties, final Options options) throws FileNotFoundException {
+		if (!input.exists())
+			throw new FileNotFoundException();
+
+		final List jars = new ArrayList();
+		final List workingDirectories = new ArrayList();
+		collectJars(input, filter, options.outputDir, jars, workingDirectories);
+
+		// look up the pack200 commands once, before the threads use them
+		if (options.unpack)
+			JarProcessor.canPerformUnpack();
+		if (options.pack || options.repack)
+			JarProcessor.canPerformPack();
+		CommandStep.SIGN_PROCESSES.setMax(options.signProcesses > 0 ? options.signProcesses : options.threads);
+		CommandStep.PACK_PROCESSES.setMax(options.packProcesses > 0 ? options.packProcesses : options.threads);
+
+		final int[] next = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		int threadCount = Math.min(options.threads, jars.size());
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread("JarProcessor-" + t) { //$NON-NLS-1$
+				public void run() {
+					JarProcessor processor = createProcessor(properties, options);
+					JarProcessor packProcessor = createPackProcessor(properties, options);
+					while (true) {
+						int index;
+						synchronized (next) {
+							if (next[0] >= jars.size() || failure[0] != null)
+								return;
+							index = next[0]++;
+						}
+						File jar = (File) jars.get(index);
+						String dir = (String) workingDirectories.get(index);
+						long start = System.currentTimeMillis();
+						try {
+							processor.setWorkingDirectory(dir);
+							File result = processor.processJar(jar);
+							if (packProcessor != null && result != null && result.exists()) {
+								packProcessor.setWorkingDirectory(dir);
+								packProcessor.processJar(result);
+							}
+						} catch (IOException e) {
+							if (options.verbose)
+								e.printStackTrace();
+						} catch (RuntimeException e) {
+							fail(e);
+						} catch (Error e) {
+							fail(e);
+						}
+						if (options.verbose)
+							System.out.println("Processed " + jar.getPath() + " in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					}
+				}
+
+				private void fail(Throwable e) {
+					synchronized (next) {
+						if (failure[0] == null)
+							failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threadCount; t++) {
+			while (threads[t].isAlive()) {
+				try {
+					threads[t].join();
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		// fail as the serial run would
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+	}
+
+	/*
+	 * Lists the jars to process in the order of the serial walk, with the
+	 * working directory of each.
+	 */
+	private void collectJars(File input, FileFilter filter, String dir, List jars, List workingDirectories) {
+		File[] files = null;
+		if (input.isDirectory()) {
+			files = input.listFiles();
+		} else if (filter.accept(input)) {
+			files = new File[] {input};
+		}
+		if (files == null)
+			return;
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				collectJars(files[i], filter, dir + "/" + files[i].getName(), jars, workingDirectories); //$NON-NLS-1$
+			} else if (filter.accept(files[i])) {
+				jars.add(files[i]);
+				workingDirectories.add(dir);
+			}
+		}
+	}
+
 	public void addPackUnpackStep(JarProcessor processor, Properties properties, Options options) {
 		processor.addProcessStep(new PackUnpackStep(properties, options.verbose));
 	}
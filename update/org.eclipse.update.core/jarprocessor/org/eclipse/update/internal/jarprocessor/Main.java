@@ -22,6 +22,10 @@ public class Main {
 		public boolean unpack = false;
 		public boolean verbose = false;
 		public boolean processAll = false;
+		public int threads = 1;
+		public int signProcesses = 0;
+		public int packProcesses = 0;
+		public long inMemoryThreshold = JarProcessor.DEFAULT_IN_MEMORY_THRESHOLD;
 		public File input = null;
 	}
 
@@ -39,6 +43,12 @@ public class Main {
 		System.out.println();
 		System.out.println("-outputDir <dir>  the output directory"); //$NON-NLS-1$
 		System.out.println("-verbose        verbose mode "); //$NON-NLS-1$
+		System.out.println();
+		System.out.println("-threads <n>         process <n> jars at the same time"); //$NON-NLS-1$
+		System.out.println("-signProcesses <n>   run at most <n> sign commands at the same time"); //$NON-NLS-1$
+		System.out.println("-packProcesses <n>   run at most <n> pack200 commands at the same time"); //$NON-NLS-1$
+		System.out.println("                     By default, as many as the number of threads."); //$NON-NLS-1$
+		System.out.println("-inMemoryThreshold <n> process nested jars up to <n> bytes in memory, 0 to disable"); //$NON-NLS-1$
 	}
 
 	public static Options processArguments(String[] args) {
@@ -72,7 +82,29 @@ public class Main {
 				options.verbose = true;
 			}  else if (args[i].equals("-processAll")) { //$NON-NLS-1$
 				options.processAll = true;
-			} 
+			} else if ((args[i].equals("-threads") || args[i].equals("-signProcesses") || args[i].equals("-packProcesses")) && i < args.length - 2) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				int value;
+				try {
+					value = Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException e) {
+					printUsage();
+					return null;
+				}
+				if (args[i].equals("-threads")) //$NON-NLS-1$
+					options.threads = value;
+				else if (args[i].equals("-signProcesses")) //$NON-NLS-1$
+					options.signProcesses = value;
+				else
+					options.packProcesses = value;
+				i++;
+			} else if (args[i].equals("-inMemoryThreshold") && i < args.length - 2) { //$NON-NLS-1$
+				try {
+					options.inMemoryThreshold = Long.parseLong(args[++i]);
+				} catch (NumberFormatException e) {
+					printUsage();
+					return null;
+				}
+			}
 		}
 
 		options.input = new File(args[i]);
@@ -18,14 +18,14 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
-public class PackStep extends CommandStep {
+public class PackStep extends CommandStep implements IBufferProcessStep {
 
 	protected static String packCommand = null;
 	private static Boolean canPack = null;
 
 	private Set exclusions = Collections.EMPTY_SET;
 
-	public static boolean canPack() {
+	public static synchronized boolean canPack() {
 		if (canPack != null)
 			return canPack.booleanValue();
 
@@ -81,7 +81,7 @@ public class PackStep extends CommandStep {
 			File outputFile = new File(workingDirectory, input.getName() + Utils.PACKED_SUFFIX);
 			try {
 				String[] cmd = getCommand(input, outputFile, inf, containers);
-				int result = execute(cmd, verbose);
+				int result = execute(cmd, verbose, PACK_PROCESSES);
 				if (result != 0 && verbose)
 					System.out.println("Error: " + result + " was returned from command: " + Utils.concat(cmd)); //$NON-NLS-1$ //$NON-NLS-2$
 			} catch (IOException e) {
@@ -94,6 +94,16 @@ public class PackStep extends CommandStep {
 		return null;
 	}
 
+	public byte[] preProcess(String entryName, byte[] input, List containers) {
+		return null;
+	}
+
+	public byte[] postProcess(String entryName, byte[] input, List containers) throws IOException {
+		if (canPack() && packCommand != null)
+			return processBuffer(entryName, input, containers, false);
+		return null;
+	}
+
 	protected boolean shouldPack(File input, List containers, Properties inf) {
 		//1: exclude by containers
 		// innermost jar is first on the list, it can override outer jars
@@ -53,7 +53,7 @@ public class SignCommandStep extends CommandStep {
 		if (command != null && input != null && shouldSign(input, containers)) {
 			try {
 				String[] cmd = new String[] {command, input.getCanonicalPath()};
-				int result = execute(cmd, verbose);
+				int result = execute(cmd, verbose, SIGN_PROCESSES);
 				if (result == 0) {
 					return input;
 				} else if (verbose) {
@@ -19,12 +19,12 @@ import java.util.Properties;
  * @author aniefer
  *
  */
-public class UnpackStep extends CommandStep {
+public class UnpackStep extends CommandStep implements IBufferProcessStep {
 	public static final String UNPACKER_PROPERTY = "org.eclipse.update.jarprocessor.Unpacker"; //$NON-NLS-1$
 	private static Boolean canUnpack = null;
 	private static String unpackCommand = null;
 
-	public static boolean canUnpack() {
+	public static synchronized boolean canUnpack() {
 		if (canUnpack != null)
 			return canUnpack.booleanValue();
 
@@ -90,7 +90,7 @@ public class UnpackStep extends CommandStep {
 					} else {
 						cmd = new String[] {unpackCommand, input.getCanonicalPath(), unpacked.getCanonicalPath()};
 					}
-					int result = execute(cmd, verbose);
+					int result = execute(cmd, verbose, PACK_PROCESSES);
 					if (result != 0 && verbose)
 						System.out.println("Error: " + result + " was returned from command: " + Utils.concat(cmd)); //$NON-NLS-1$ //$NON-NLS-2$
 				} catch (IOException e) {
@@ -111,6 +111,16 @@ public class UnpackStep extends CommandStep {
 		return null;
 	}
 
+	public byte[] preProcess(String entryName, byte[] input, List containers) throws IOException {
+		if (canUnpack() && unpackCommand != null && entryName.endsWith(Utils.PACKED_SUFFIX))
+			return processBuffer(entryName, input, containers, true);
+		return null;
+	}
+
+	public byte[] postProcess(String entryName, byte[] input, List containers) {
+		return null;
+	}
+
 	public String getStepName() {
 		return "Unpack"; //$NON-NLS-1$
 	}
@@ -288,6 +288,15 @@ public class Utils {
 			//not a jar, could be a pack.gz
 			return false;
 		}
+		return shouldSkipJar(inf, processAll);
+	}
+
+	/**
+	 * Returns whether a jar with the given eclipse.inf properties should be skipped.
+	 * @param inf the eclipse.inf properties of the jar, not null
+	 * @param processAll whether jars that are not marked as conditioned are processed
+	 */
+	public static boolean shouldSkipJar(Properties inf, boolean processAll) {
 		String exclude = inf.getProperty(MARK_EXCLUDE);
 
 		//was marked as exclude, we should skip
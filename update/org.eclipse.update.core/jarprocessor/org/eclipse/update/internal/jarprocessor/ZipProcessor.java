@@ -36,6 +36,7 @@ public class ZipProcessor {
 	private boolean unpacking = false;
 	private boolean verbose = false;
 	private boolean processAll = false;
+	private long inMemoryThreshold = JarProcessor.DEFAULT_IN_MEMORY_THRESHOLD;
 
 	public void setWorkingDirectory(String dir) {
 		workingDirectory = dir;
@@ -72,6 +73,10 @@ public class ZipProcessor {
 		this.processAll = all;
 	}
 
+	public void setInMemoryThreshold(long threshold) {
+		this.inMemoryThreshold = threshold;
+	}
+
 	public void processZip(File zipFile) throws ZipException, IOException {
 		if (verbose)
 			System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
@@ -83,6 +88,7 @@ public class ZipProcessor {
 		JarProcessor processor = new JarProcessor();
 		processor.setVerbose(verbose);
 		processor.setProcessAll(processAll);
+		processor.setInMemoryThreshold(inMemoryThreshold);
 		processor.setWorkingDirectory(tempDir.getCanonicalPath());
 		if (unpacking) {
 			processor.addProcessStep(unpackStep);
@@ -174,6 +174,19 @@ public class ContentReference {
 		} else
 			throw new FatalIOException(NLS.bind(Messages.ContentReference_UnableToCreateInputStream, (new String[] { this.toString() })));
 	}
+
+	/*
+	 * Closes the connection opened to determine the size of the input,
+	 * once the input has been downloaded over other connections.
+	 */
+	void closeResponse() {
+		if (response != null) {
+			if (length <= 0)
+				length = response.getContentLength();
+			response.close();
+			response = null;
+		}
+	}
 	
 	/**
 	 * Returns the size of the referenced input, if it can be determined.
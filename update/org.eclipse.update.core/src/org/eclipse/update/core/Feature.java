@@ -32,13 +32,16 @@ import org.eclipse.update.core.model.NonPluginEntryModel;
 import org.eclipse.update.core.model.PluginEntryModel;
 import org.eclipse.update.core.model.URLEntryModel;
 import org.eclipse.update.internal.core.ErrorRecoveryLog;
+import org.eclipse.update.internal.core.IPreparableVerifier;
 import org.eclipse.update.internal.core.InstallHandlerProxy;
 import org.eclipse.update.internal.core.InstallRegistry;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.SynchronizedProgressMonitor;
 import org.eclipse.update.internal.core.TargetFeature;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
 import org.eclipse.update.internal.core.UpdateSiteIncludedFeatureReference;
+import org.eclipse.update.internal.core.WorkerPool;
 
 /**
  * Convenience implementation of a feature.
@@ -371,6 +374,10 @@ public class Feature extends FeatureModel implements IFeature {
 				verificationListener,
 				true);
 			monitorWork(monitor, 1);
+
+			// Fetch the plugin archives in parallel, if enabled. They are
+			// verified and installed from the local copies below.
+			prefetchPluginArchives(provider, verifier, pluginsToInstall, monitor);
 			
 			// Download and verify plugin archives
 			for (int i = 0; i < pluginsToInstall.length; i++) {
@@ -989,6 +996,57 @@ public class Feature extends FeatureModel implements IFeature {
 		}
 	}
 
+	/*
+	 * Downloads the plugin archives into the local cache using the number of
+	 * threads set in the download threads preference.
+	 * Failures are ignored: the archives are fetched again, and errors reported,
+	 * by the serial download and verification pass. The integrity of the
+	 * archives is checked on the download threads when the verifier supports
+	 * it; the trust checks and prompts of the verification, the install
+	 * handler, the content consumer and the recovery log only ever see
+	 * the calling thread.
+	 */
+	private void prefetchPluginArchives(
+		final IFeatureContentProvider provider,
+		final IVerifier verifier,
+		IPluginEntry[] entries,
+		InstallMonitor monitor) {
+		int threads = getDownloadThreads();
+		if (threads <= 1 || entries.length <= 1)
+			return;
+
+		// each thread reports the progress of its own download
+		final IProgressMonitor sharedMonitor = new SynchronizedProgressMonitor(monitor);
+		WorkerPool pool = new WorkerPool("FeatureDownload", Math.min(threads, entries.length)); //$NON-NLS-1$
+		for (int i = 0; i < entries.length; i++) {
+			final IPluginEntry entry = entries[i];
+			pool.execute(new Runnable() {
+				public void run() {
+					if (sharedMonitor.isCanceled())
+						return;
+					try {
+						ContentReference[] references = provider.getPluginEntryArchiveReferences(entry, new InstallMonitor(sharedMonitor));
+						if (verifier instanceof IPreparableVerifier) {
+							for (int j = 0; j < references.length && !sharedMonitor.isCanceled(); j++)
+								((IPreparableVerifier) verifier).prepare(references[j]);
+						}
+					} catch (CoreException e) {
+						debug("Unable to prefetch " + entry.getVersionedIdentifier() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				}
+			});
+		}
+		pool.join(monitor);
+		pool.shutdown();
+	}
+
+	private int getDownloadThreads() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return UpdateCore.DEFAULT_DOWNLOAD_THREADS;
+		return plugin.getPluginPreferences().getInt(UpdateCore.P_DOWNLOAD_THREADS);
+	}
+
 	/*
 	 * returns reference if the same feature is installed on the site
 	 * [18867]
@@ -40,8 +40,10 @@ import org.eclipse.update.internal.core.FileFragment;
 import org.eclipse.update.internal.core.InternalSiteManager;
 import org.eclipse.update.internal.core.LockManager;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.SegmentedDownload;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
+import org.eclipse.update.internal.core.UpdateMetrics;
 
 /**
  * Base implementation of a feature content provider. This class provides a set
@@ -232,6 +234,8 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 
 			try {
 				//long startTime = System.nanoTime();
+				Date start = new Date();
+				boolean segmented = false;
 				if (localFileFragment != null && "http".equals(ref.asURL().getProtocol())) { //$NON-NLS-1$
 					localFile = localFileFragment.getFile();
 					try {
@@ -260,6 +264,9 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 				if (is == null) {
 					// must download from scratch
 					localFile = Utilities.createLocalFile(getWorkingDirectory(), null);
+					segmented = downloadSegments(ref, localFile, monitor);
+				}
+				if (is == null && !segmented) {
 					try {
 						is = ref.getInputStream();
 						inputLength = ref.getInputSize();
@@ -270,13 +277,13 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 					}
 
 					try {
-						os = new BufferedOutputStream(new FileOutputStream(localFile));
+						// not buffered, the copy writes large blocks or transfers local files directly
+						os = new FileOutputStream(localFile);
 					} catch (FileNotFoundException e) {
 						throw Utilities.newCoreException(NLS.bind(Messages.FeatureContentProvider_UnableToCreate, (new Object[] {localFile})), e);
 					}
 				}
 
-				Date start = new Date();
 				if (localFileFragment != null) {
 					bytesCopied = localFileFragment.getSize();
 					if (monitor != null) {
@@ -285,7 +292,7 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 				}
 
 				// Transfer as many bytes as possible from input to output stream
-				long offset = UpdateManagerUtils.copy(is, os, monitor, inputLength);
+				long offset = segmented ? -1 : UpdateManagerUtils.copy(is, os, monitor, inputLength);
 				if (offset != -1) {
 					bytesCopied += offset;
 					if (bytesCopied > 0) {
@@ -309,6 +316,7 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 					ref.getInputSize(),
 					(timeInseconds),
 					ref.asURL());
+				UpdateMetrics.downloaded(ref.getInputSize(), stop.getTime() - start.getTime(), ref.asURL());
 
 				success = true;
 				//long endTime = System.nanoTime();
@@ -379,6 +387,36 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 		return file;
 	}
 
+	/*
+	 * Downloads a large archive over several connections, if the server
+	 * supports ranges. Returns false if the archive must be downloaded with
+	 * a single stream.
+	 */
+	private boolean downloadSegments(ContentReference ref, File localFile, InstallMonitor monitor) throws IOException, CoreException {
+		URL url = ref.asURL();
+		if (!SegmentedDownload.isEnabled(url))
+			return false;
+		long length;
+		try {
+			length = ref.getInputSize();
+		} catch (FatalIOException e) {
+			throw e;
+		} catch (IOException e) {
+			return false;
+		}
+		int segments = SegmentedDownload.getSegmentCount(url, length);
+		if (segments <= 1)
+			return false;
+		if (new SegmentedDownload(url, localFile, length).download(segments, monitor)) {
+			// the connection used to get the size was not read
+			ref.closeResponse();
+			return true;
+		}
+		if (monitor != null && monitor.isCanceled())
+			throw new InstallAbortedException(Messages.Feature_InstallationCancelled, null);
+		return false;
+	}
+
 	/**
 	 * Returns working directory for this content provider
 	 * 
@@ -177,6 +177,7 @@ public class JarContentReference extends ContentReference {
 		InputStream is;
 		OutputStream os;
 		File localFile;
+		long start = System.currentTimeMillis();
 		try {
 			if (monitor != null) {
 				monitor.saveState();
@@ -215,6 +216,7 @@ public class JarContentReference extends ContentReference {
 		} finally {
 			if (monitor != null)
 				monitor.restoreState();
+			UpdateMetrics.record(UpdateMetrics.UNPACK, start);
 		}
 		return (ContentReference[]) content.toArray(new ContentReference[0]);
 	}
@@ -249,6 +251,7 @@ public class JarContentReference extends ContentReference {
 			entryId = selector.defineIdentifier(entry);
 			File localFile = Utilities.createLocalFile(dir, entryId); // create temp file
 			if (!entry.isDirectory()) {
+				long start = System.currentTimeMillis();
 				try {
 					is = jarArchive.getInputStream(entry);
 					os = new FileOutputStream(localFile);
@@ -264,6 +267,7 @@ public class JarContentReference extends ContentReference {
 							os.close();
 						} catch (IOException e) {
 						}
+					UpdateMetrics.record(UpdateMetrics.UNPACK, start);
 				}
 				return new ContentReference(entryId, localFile);
 			} else
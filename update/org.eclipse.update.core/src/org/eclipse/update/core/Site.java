@@ -156,20 +156,10 @@ public class Site extends SiteModel implements ISiteWithMirrors {
 	 * @since 2.0
 	 */
 	public ICategory getCategory(String key) {
-		ICategory result = null;
-		boolean found = false;
-		int length = getCategoryModels().length;
-
-		for (int i = 0; i < length; i++) {
-			if (getCategoryModels()[i].getName().equals(key)) {
-				result = (ICategory) getCategoryModels()[i];
-				found = true;
-				break;
-			}
-		}
+		ICategory result = (ICategory) getCategoryModel(key);
 
 		//DEBUG:
-		if (!found) {
+		if (result == null) {
 			String URLString = (this.getURL() != null) ? this.getURL().toExternalForm() : "<no site url>"; //$NON-NLS-1$
 			UpdateCore.warn(NLS.bind(Messages.Site_CannotFindCategory, (new String[] { key, URLString })));
 			if (getCategoryModels().length <= 0)
@@ -248,6 +238,15 @@ public class Site extends SiteModel implements ISiteWithMirrors {
 			return null;
 		}
 
+		SiteFeatureReferenceModel reference = getFeatureReferenceModel(feature.getVersionedIdentifier());
+		if (reference == null) {
+			UpdateCore.warn("Feature " + feature + " not found on site" + this.getURL()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+		if (getCurrentConfiguredSite() == null || UpdateManagerUtils.isValidEnvironment(reference))
+			return (ISiteFeatureReference) reference;
+
+		// the first reference is filtered out, look for another one
 		ISiteFeatureReference[] references = getFeatureReferences();
 		ISiteFeatureReference currentReference = null;
 		for (int i = 0; i < references.length; i++) {
@@ -343,6 +342,12 @@ public class Site extends SiteModel implements ISiteWithMirrors {
 		// get the plugins from the feature
 		IPluginEntry[] entries = feature.getPluginEntries();
 		if (entries != null) {
+			IConfiguredSite configuredSite = getCurrentConfiguredSite();
+			if (configuredSite instanceof ConfiguredSite && configuredSite.getSite() == this) {
+				// answer from the plug-in index of the configured site
+				return ((ConfiguredSite) configuredSite).getPluginFeatureIndex().getEntriesOnlyReferencedBy(feature, entries);
+			}
+
 			// get all the other plugins from all the other features
 			Set allPluginID = new HashSet();
 			ISiteFeatureReference[] features = getFeatureReferences();
@@ -11,9 +11,13 @@
 package org.eclipse.update.core;
  
 import java.net.*;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.core.model.ArchiveReferenceModel;
+import org.eclipse.update.core.model.SiteModel;
 import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
 
@@ -33,6 +37,9 @@ public abstract class SiteContentProvider implements ISiteContentProvider {
 	private URL base;
 	private ISite site;
 
+	// Class -> Boolean, whether the archives of the site class are those of its model
+	private static Map modelArchives = new HashMap();
+
 	/**
 	 * Constructor for SiteContentProvider
 	 */
@@ -109,6 +116,13 @@ public abstract class SiteContentProvider implements ISiteContentProvider {
 	private URL getArchiveURLfor(String archiveId) {
 		URL result = null;
 		boolean found = false;
+
+		if (hasModelArchives(getSite())) {
+			ArchiveReferenceModel archive = ((SiteModel) getSite()).getArchiveReferenceModel(archiveId);
+			if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+				UpdateCore.debug("GetArchiveURL for:"+archiveId+" found "+(archive == null ? null : archive.getPath())); //$NON-NLS-1$ //$NON-NLS-2$
+			return archive == null ? null : archive.getURL();
+		}
 	
 		IArchiveReference[] siteArchives = getSite().getArchives();
 		if (siteArchives.length > 0) {
@@ -124,4 +138,32 @@ public abstract class SiteContentProvider implements ISiteContentProvider {
 		}
 		return result;
 	}
+
+	/*
+	 * Returns whether the archives of a site are the archive references of
+	 * its model, so that they can be looked up in the index of the model.
+	 * A subclass that overrides getArchives() or getArchiveReferenceModels()
+	 * is asked for its archives instead.
+	 */
+	private static boolean hasModelArchives(ISite site) {
+		if (!(site instanceof SiteModel))
+			return false;
+		Class type = site.getClass();
+		synchronized (modelArchives) {
+			Boolean result = (Boolean) modelArchives.get(type);
+			if (result == null) {
+				try {
+					boolean archives = type.getMethod("getArchives", new Class[0]).getDeclaringClass() == Site.class; //$NON-NLS-1$
+					boolean models = type.getMethod("getArchiveReferenceModels", new Class[0]).getDeclaringClass() == SiteModel.class; //$NON-NLS-1$
+					result = Boolean.valueOf(archives && models);
+				} catch (NoSuchMethodException e) {
+					result = Boolean.FALSE;
+				} catch (SecurityException e) {
+					result = Boolean.FALSE;
+				}
+				modelArchives.put(type, result);
+			}
+			return result.booleanValue();
+		}
+	}
 }
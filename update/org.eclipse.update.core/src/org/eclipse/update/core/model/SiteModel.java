@@ -14,15 +14,21 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.eclipse.update.core.Site;
 import org.eclipse.update.core.SiteFeatureReferenceModel;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.core.CachedDigest;
 import org.eclipse.update.internal.core.ExtendedSite;
 import org.eclipse.update.internal.core.SiteURLFactory;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
+import org.eclipse.update.internal.core.UpdateMetrics;
 import org.eclipse.update.internal.model.ConfiguredSiteModel;
 
 /**
@@ -56,6 +62,23 @@ public class SiteModel extends ModelObject {
 	private String mirrorsURLString;
 	private ConfiguredSiteModel configuredSiteModel;
 
+	// lookup indexes, built on first use and dropped when the
+	// corresponding list changes. They are read by concurrent searches.
+	private volatile Map /* of String -> CategoryModel */ categoryIndex;
+	private volatile FeatureIndex featureIndex;
+	private volatile Map /* of String -> ArchiveReferenceModel */ archiveIndex;
+	// changes each time the feature references change
+	private volatile int featureReferenceStamp;
+
+	/*
+	 * The feature references by versioned identifier, and the references
+	 * that do not specify their identifier or version
+	 */
+	private static class FeatureIndex {
+		Map /* of VersionedIdentifier -> SiteFeatureReferenceModel */ ids = new HashMap();
+		List /* of SiteFeatureReferenceModel */ unindexed = new ArrayList();
+	}
+
 	/**
 	 * Creates an uninitialized site model object.
 	 * 
@@ -126,6 +149,116 @@ public class SiteModel extends ModelObject {
 		return (CategoryModel[]) categories.toArray(arrayTypeFor(categories));
 	}
 
+	/**
+	 * Returns the category model with the given name.
+	 * 
+	 * @param name the name of the category
+	 * @return the category model, or <code>null</code>
+	 * @since 3.3
+	 */
+	public CategoryModel getCategoryModel(String name) {
+		Map index = categoryIndex;
+		if (index == null) {
+			index = new HashMap();
+			if (categories != null) {
+				for (Iterator i = categories.iterator(); i.hasNext();) {
+					CategoryModel category = (CategoryModel) i.next();
+					if (!index.containsKey(category.getName()))
+						index.put(category.getName(), category);
+				}
+			}
+			categoryIndex = index;
+		}
+		return (CategoryModel) index.get(name);
+	}
+
+	/**
+	 * Returns the first feature reference model of this site with the given
+	 * identifier and version. References that do not specify their feature
+	 * identifier and version are only compared when no other reference
+	 * matches, as their feature may have to be read to identify them.
+	 * 
+	 * @param id the versioned identifier of the feature
+	 * @return the feature reference model, or <code>null</code>
+	 * @since 3.3
+	 */
+	public SiteFeatureReferenceModel getFeatureReferenceModel(VersionedIdentifier id) {
+		FeatureIndex index = featureIndex;
+		if (index == null) {
+			index = new FeatureIndex();
+			if (featureReferences != null) {
+				for (Iterator i = featureReferences.iterator(); i.hasNext();) {
+					SiteFeatureReferenceModel reference = (SiteFeatureReferenceModel) i.next();
+					if (reference.getFeatureIdentifier() == null || reference.getFeatureVersion() == null) {
+						index.unindexed.add(reference);
+						continue;
+					}
+					VersionedIdentifier referenceId = reference.getVersionedIdentifier();
+					if (!index.ids.containsKey(referenceId))
+						index.ids.put(referenceId, reference);
+				}
+			}
+			featureIndex = index;
+		}
+		if (id == null)
+			return null;
+		SiteFeatureReferenceModel result = (SiteFeatureReferenceModel) index.ids.get(id);
+		for (Iterator i = index.unindexed.iterator(); result == null && i.hasNext();) {
+			SiteFeatureReferenceModel reference = (SiteFeatureReferenceModel) i.next();
+			if (id.equals(reference.getVersionedIdentifier()))
+				result = reference;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the archive reference model with the given path. Paths are
+	 * compared ignoring case.
+	 * 
+	 * @param path the path of the archive
+	 * @return the archive reference model, or <code>null</code>
+	 * @since 3.3
+	 */
+	public ArchiveReferenceModel getArchiveReferenceModel(String path) {
+		Map index = archiveIndex;
+		if (index == null) {
+			index = new HashMap();
+			if (archiveReferences != null) {
+				for (Iterator i = archiveReferences.iterator(); i.hasNext();) {
+					ArchiveReferenceModel archive = (ArchiveReferenceModel) i.next();
+					if (archive.getPath() == null)
+						continue;
+					String key = archive.getPath().toLowerCase();
+					if (!index.containsKey(key))
+						index.put(key, archive);
+				}
+			}
+			archiveIndex = index;
+		}
+		return (ArchiveReferenceModel) index.get(path.trim().toLowerCase());
+	}
+
+	/**
+	 * Returns a stamp that changes each time feature references are added
+	 * to or removed from this site, so that the information derived from
+	 * the feature references can be kept until they change.
+	 * 
+	 * @return the modification stamp of the feature references
+	 * @since 3.3
+	 */
+	public int getFeatureReferenceStamp() {
+		return featureReferenceStamp;
+	}
+
+	/*
+	 * Drops the lookup indexes, they are built again on next use.
+	 */
+	private void invalidateIndexes() {
+		categoryIndex = null;
+		featureIndex = null;
+		archiveIndex = null;
+	}
+
 	/**
 	 * Returns the unresolved URL string for the site.
 	 *
@@ -179,10 +312,12 @@ public class SiteModel extends ModelObject {
 	 */
 	public void setFeatureReferenceModels(FeatureReferenceModel[] featureReferences) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (featureReferences == null)
 			this.featureReferences = null;
 		else
 			this.featureReferences = new ArrayList(Arrays.asList(featureReferences));
+		featureReferenceStamp++;
 	}
 
 	/**
@@ -194,6 +329,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void setArchiveReferenceModels(ArchiveReferenceModel[] archiveReferences) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (archiveReferences == null)
 			this.archiveReferences = null;
 		else
@@ -209,6 +345,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void setCategoryModels(CategoryModel[] categories) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (categories == null)
 			this.categories = null;
 		else {
@@ -238,11 +375,13 @@ public class SiteModel extends ModelObject {
 	 */
 	public void addFeatureReferenceModel(SiteFeatureReferenceModel featureReference) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.featureReferences == null)
 			this.featureReferences = new ArrayList();
 		// PERF: do not check if already present 
 		//if (!this.featureReferences.contains(featureReference))
 			this.featureReferences.add(featureReference);
+		featureReferenceStamp++;
 	}
 
 	/**
@@ -254,6 +393,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void addArchiveReferenceModel(ArchiveReferenceModel archiveReference) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.archiveReferences == null)
 			this.archiveReferences = new ArrayList();
 		if (!this.archiveReferences.contains(archiveReference))
@@ -269,6 +409,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void addCategoryModel(CategoryModel category) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.categories == null)
 			this.categories = new TreeSet(CategoryModel.getComparator());
 		if (!this.categories.contains(category))
@@ -299,8 +440,10 @@ public class SiteModel extends ModelObject {
 	 */
 	public void removeFeatureReferenceModel(FeatureReferenceModel featureReference) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.featureReferences != null)
 			this.featureReferences.remove(featureReference);
+		featureReferenceStamp++;
 	}
 
 	/**
@@ -312,6 +455,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void removeArchiveReferenceModel(ArchiveReferenceModel archiveReference) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.archiveReferences != null)
 			this.archiveReferences.remove(archiveReference);
 	}
@@ -325,6 +469,7 @@ public class SiteModel extends ModelObject {
 	 */
 	public void removeCategoryModel(CategoryModel category) {
 		assertIsWriteable();
+		invalidateIndexes();
 		if (this.categories != null)
 			this.categories.remove(category);
 	}
@@ -371,10 +516,13 @@ public class SiteModel extends ModelObject {
 
 		// Archives and feature are relative to location URL
 		// if the Site element has a URL tag: see spec	
+		// the references may change when they are resolved
+		invalidateIndexes();
 		locationURL = resolveURL(base, bundleURL, getLocationURLString());
 		if (locationURL == null)
 			locationURL = base;
 		resolveListReference(getFeatureReferenceModels(), locationURL, bundleURL);
+		featureReferenceStamp++;
 		resolveListReference(getArchiveReferenceModels(), locationURL, bundleURL);
 
 		resolveReference(getDescriptionModel(), base, bundleURL);
@@ -386,7 +534,14 @@ public class SiteModel extends ModelObject {
 		
 		if ( (this instanceof ExtendedSite) && ((ExtendedSite)this).isDigestExist()) {
 			ExtendedSite extendedSite = (ExtendedSite)this;
-			extendedSite.setLiteFeatures(UpdateManagerUtils.getLightFeatures(extendedSite));
+			// one fetch of the digest, whether it is cached or parsed
+			long start = System.currentTimeMillis();
+			CachedDigest digest = UpdateManagerUtils.getCachedDigest(extendedSite);
+			if (digest != null)
+				extendedSite.setCachedDigest(digest);
+			else
+				extendedSite.setLiteFeatures(UpdateManagerUtils.getLightFeatures(extendedSite));
+			UpdateMetrics.record(UpdateMetrics.DIGEST_FETCH, start);
 		}
 	}
 
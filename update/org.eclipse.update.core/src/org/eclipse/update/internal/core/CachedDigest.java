@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.update.core.VersionedIdentifier;
+
+/**
+ * A digest of an update site, read from its file in the digest cache.
+ * <p>
+ * The file holds the <code>feature</code> element of each feature of the
+ * digest, followed by a table of the identifier, version, offset and length
+ * of each element. The file is read in memory, so that it is not kept
+ * open, and a <code>LiteFeature</code> is only parsed from its element when
+ * it is asked for.
+ * </p>
+ * <p>
+ * File format:
+ * <pre>
+ * elements    the feature elements, in UTF-8
+ * int         version
+ * int         count
+ * count times:
+ *   string    feature id
+ *   string    feature version
+ *   long      offset of the element
+ *   int       length of the element
+ * long        offset of the table
+ * int         magic number
+ * </pre>
+ * Strings are written as their length followed by their UTF-8 bytes.
+ * </p>
+ */
+public class CachedDigest {
+
+	static final int MAGIC = 0x55434447; // UCDG
+	static final int VERSION = 1;
+
+	private static final byte[] DIGEST_START;
+	private static final byte[] DIGEST_END;
+
+	static {
+		try {
+			DIGEST_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><digest>".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+			DIGEST_END = "</digest>".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	// the smallest table entry: two empty strings, an offset and a length
+	private static final int MIN_ENTRY_LENGTH = 20;
+
+	private byte[] content;
+	private VersionedIdentifier[] identifiers;
+	private long[] offsets;
+	private int[] lengths;
+	// VersionedIdentifier -> Integer index of its first element
+	private Map indexes;
+	private DigestParser parser;
+
+	/**
+	 * Reads a digest file of the cache.
+	 * @exception IOException if the file cannot be read or is not a digest file
+	 */
+	public CachedDigest(File file) throws IOException {
+		content = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+
+		try {
+			if (content.length < 12)
+				throw new IOException("Unexpected digest file format: " + file); //$NON-NLS-1$
+			int tableEnd = content.length - 12;
+			DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(content, tableEnd, 12));
+			long tableOffset = trailer.readLong();
+			if (trailer.readInt() != MAGIC || tableOffset < 0 || tableOffset > tableEnd)
+				throw new IOException("Unexpected digest file format: " + file); //$NON-NLS-1$
+			DataInputStream table = new DataInputStream(new ByteArrayInputStream(content, (int) tableOffset, tableEnd - (int) tableOffset));
+			if (table.readInt() != VERSION)
+				throw new IOException("Unexpected digest file version: " + file); //$NON-NLS-1$
+			int count = table.readInt();
+			if (count < 0 || count > (tableEnd - tableOffset) / MIN_ENTRY_LENGTH)
+				throw new IOException("Unexpected digest file format: " + file); //$NON-NLS-1$
+			identifiers = new VersionedIdentifier[count];
+			offsets = new long[count];
+			lengths = new int[count];
+			indexes = new HashMap(count * 2);
+			for (int i = 0; i < count; i++) {
+				identifiers[i] = new VersionedIdentifier(readString(table), readString(table));
+				offsets[i] = table.readLong();
+				lengths[i] = table.readInt();
+				if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > tableOffset)
+					throw new IOException("Unexpected digest file format: " + file); //$NON-NLS-1$
+				if (!indexes.containsKey(identifiers[i]))
+					indexes.put(identifiers[i], new Integer(i));
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated digest file: " + file); //$NON-NLS-1$
+		} catch (RuntimeException e) {
+			// corrupted file
+			throw new IOException("Unable to read digest file " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Returns the number of features of the digest.
+	 */
+	public int size() {
+		return identifiers.length;
+	}
+
+	/**
+	 * Returns the identifiers of the features of the digest, without
+	 * parsing them.
+	 */
+	public VersionedIdentifier[] getIdentifiers() {
+		VersionedIdentifier[] result = new VersionedIdentifier[identifiers.length];
+		System.arraycopy(identifiers, 0, result, 0, identifiers.length);
+		return result;
+	}
+
+	/**
+	 * Returns whether the digest has a feature with this identifier.
+	 */
+	public boolean contains(VersionedIdentifier id) {
+		return indexes.containsKey(id);
+	}
+
+	/**
+	 * Parses the feature with this identifier. Returns <code>null</code> if
+	 * the digest has no such feature or it cannot be parsed.
+	 */
+	public LiteFeature getFeature(VersionedIdentifier id) {
+		Integer index = (Integer) indexes.get(id);
+		if (index == null)
+			return null;
+		return getFeature(index.intValue());
+	}
+
+	/**
+	 * Parses all the features of the digest. Features that cannot be parsed
+	 * are left out.
+	 */
+	public LiteFeature[] getFeatures() {
+		LiteFeature[] result = new LiteFeature[identifiers.length];
+		int count = 0;
+		for (int i = 0; i < identifiers.length; i++) {
+			LiteFeature feature = getFeature(i);
+			if (feature != null)
+				result[count++] = feature;
+		}
+		if (count == result.length)
+			return result;
+		LiteFeature[] parsed = new LiteFeature[count];
+		System.arraycopy(result, 0, parsed, 0, count);
+		return parsed;
+	}
+
+	private synchronized LiteFeature getFeature(int index) {
+		InputStream element = new ByteArrayInputStream(content, (int) offsets[index], lengths[index]);
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream(DIGEST_START), new SequenceInputStream(element, new ByteArrayInputStream(DIGEST_END)));
+
+		try {
+			if (parser == null)
+				parser = new DigestParser();
+			parser.init(new LiteFeatureFactory());
+			LiteFeature[] parsed = parser.parse(in);
+			if (parsed.length > 0)
+				return parsed[0];
+		} catch (Exception e) {
+			UpdateCore.warn("Unable to parse feature " + identifiers[index] + " from the digest cache", e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return null;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available())
+			throw new IOException("Unexpected string length " + length); //$NON-NLS-1$
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+}
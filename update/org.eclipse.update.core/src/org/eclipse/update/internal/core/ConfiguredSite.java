@@ -76,6 +76,9 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 	// transient: true if the site was just created so we can remove it
 	private transient boolean justCreated = false;
 
+	// features of the site referencing each plug-in
+	private PluginFeatureIndex pluginIndex = new PluginFeatureIndex(this);
+
 	/*
 	 * Default Constructor
 	 */
@@ -163,6 +166,8 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 					UpdateCore.warn(null, e);
 				}
 			}
+			if (installedFeature != null)
+				pluginIndex.featureInstalled(installedFeature);
 
 			// everything done ok
 			activity.setStatus(IActivity.STATUS_OK);
@@ -236,6 +241,7 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 			// remove the feature
 			getSite().remove(feature, monitor);
 			getConfigurationPolicy().removeFeatureReference(referenceToRemove);
+			pluginIndex.featureRemoved(feature);
 			// everything done ok
 			activity.setStatus(IActivity.STATUS_OK);
 			// notify listeners
@@ -296,6 +302,7 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 		// configure root feature 	
 		IFeatureReference featureReference = getSite().getFeatureReference(feature);
 		configPolicy.configure(featureReference, callInstallHandler, true);
+		pluginIndex.featureConfigured(feature, true);
 
 		// notify listeners
 		Object[] siteListeners = listeners.getListeners();
@@ -379,6 +386,8 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 			throw e;
 		}
 		if (sucessfullyUnconfigured) {
+			pluginIndex.featureConfigured(feature, false);
+
 			// 2.0.2: unconfigure patches that reference this feature.
 			// A patch is a feature that contains an import
 			// statement with patch="true" and an id/version
@@ -704,6 +713,13 @@ public class ConfiguredSite extends ConfiguredSiteModel implements IConfiguredSi
 		return (IInstallConfiguration) getInstallConfigurationModel();
 	}
 
+	/**
+	 * Returns the index of the features of the site referencing each plug-in.
+	 */
+	public PluginFeatureIndex getPluginFeatureIndex() {
+		return pluginIndex;
+	}
+
 	/*
 	 * 
 	 */
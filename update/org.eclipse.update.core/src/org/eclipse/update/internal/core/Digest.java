@@ -20,6 +20,8 @@ import java.util.zip.ZipEntry;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.update.core.JarContentReference;
 import org.eclipse.update.core.model.FeatureModel;
+import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.IResponse;
 import org.xml.sax.SAXException;
 
 public class Digest {
@@ -51,4 +53,50 @@ public class Digest {
 		}
 	}
 
+	/**
+	 * Returns the digest from the digest cache, downloading and caching it
+	 * first if it is not cached yet or changed since.
+	 * @return the cached digest, or <code>null</code> if the digest cache is
+	 * disabled or the last modification time of the digest is not known. The
+	 * digest must then be parsed with <code>parseDigest</code>.
+	 */
+	public CachedDigest getCachedDigest() throws IOException, CoreException, SAXException {
+		DigestCache cache = DigestCache.getDefault();
+		if (cache == null)
+			return null;
+		long timestamp = getLastModified();
+		if (timestamp == 0)
+			return null;
+		CachedDigest cached = cache.get(source, timestamp);
+		if (cached != null)
+			return cached;
+
+		DigestContentProvider digestContentProvider = new DigestContentProvider(source);
+		localSource = digestContentProvider.asLocalReference(new JarContentReference( null, source), null).asFile();
+		digestJar = new JarFile(localSource);
+		try {
+			ZipEntry digestEntry = digestJar.getEntry("digest.xml"); //$NON-NLS-1$
+			if (digestEntry == null)
+				throw new CoreException(null);
+			inputStream = digestJar.getInputStream(digestEntry);
+			return cache.put(source, timestamp, inputStream);
+		} finally {
+			digestJar.close();
+		}
+	}
+
+	/*
+	 * Returns the last modification time of the digest, or 0 if unknown.
+	 * For remote digests, the request is answered from the HTTP metadata
+	 * cache when the digest did not change.
+	 */
+	private long getLastModified() throws IOException {
+		IResponse response = ConnectionFactory.get(URLEncoder.encode(source));
+		try {
+			return response.getLastModified();
+		} finally {
+			response.close();
+		}
+	}
+
 }
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Local cache of the digests of update sites.
+ * <p>
+ * A digest is parsed once and stored as a <code>CachedDigest</code> file,
+ * keyed by the URL of the digest and its last modification time. Later
+ * searches of the same site read that file instead of downloading and
+ * parsing the whole digest again, and only parse the features they need.
+ * </p>
+ * <p>
+ * The cache lives in the state location of the plug-in next to the HTTP
+ * metadata cache, and is disabled with it. At most <code>MAX_DIGESTS</code>
+ * digests are kept; the least recently used ones are evicted first.
+ * </p>
+ */
+public class DigestCache {
+
+	private static final String CACHE_DIR = "digestcache"; //$NON-NLS-1$
+	private static final String INDEX_FILE = "index"; //$NON-NLS-1$
+	private static final String DIGEST_SUFFIX = ".digest"; //$NON-NLS-1$
+	private static final int MAGIC = 0x55434443; // UCDC
+	private static final int VERSION = 1;
+	private static final int MAX_DIGESTS = 16;
+
+	private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+
+	private static DigestCache defaultCache;
+	private static boolean initialized;
+
+	private File dir;
+	private long nextId;
+	// url -> Entry, in access order
+	private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+	// url -> CachedDigest read by this session
+	private Map digests = new HashMap();
+
+	private static class Entry {
+		String url;
+		long timestamp;
+		long id;
+
+		Entry(String url, long timestamp, long id) {
+			this.url = url;
+			this.timestamp = timestamp;
+			this.id = id;
+		}
+	}
+
+	/*
+	 * Writes each feature element of a digest as it is parsed, then the
+	 * table of the elements.
+	 */
+	private static class DigestWriter extends DefaultHandler {
+		private DataOutputStream out;
+		private int depth;
+		private StringBuffer element;
+		private String id;
+		private String version;
+		private List ids = new ArrayList();
+		private List versions = new ArrayList();
+		private List offsets = new ArrayList();
+		private List lengths = new ArrayList();
+
+		DigestWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			depth++;
+			if (depth == 2 && "feature".equals(localName)) { //$NON-NLS-1$
+				element = new StringBuffer(1024);
+				id = attributes.getValue("id"); //$NON-NLS-1$
+				version = attributes.getValue("version"); //$NON-NLS-1$
+			}
+			if (element == null)
+				return;
+			element.append('<').append(getName(localName, qName));
+			for (int i = 0; i < attributes.getLength(); i++) {
+				element.append(' ').append(getName(attributes.getLocalName(i), attributes.getQName(i))).append("=\""); //$NON-NLS-1$
+				escape(attributes.getValue(i), true);
+				element.append('"');
+			}
+			element.append('>');
+		}
+
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			depth--;
+			if (element == null)
+				return;
+			element.append("</").append(getName(localName, qName)).append('>'); //$NON-NLS-1$
+			if (depth > 1)
+				return;
+			// features without identifier cannot be looked up
+			if (id != null && id.trim().length() > 0) {
+				try {
+					byte[] bytes = element.toString().getBytes("UTF-8"); //$NON-NLS-1$
+					ids.add(id);
+					versions.add(version == null ? "" : version); //$NON-NLS-1$
+					offsets.add(new Long(out.size()));
+					lengths.add(new Integer(bytes.length));
+					out.write(bytes);
+				} catch (IOException e) {
+					throw new SAXException(e);
+				}
+			}
+			element = null;
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			if (element != null)
+				escape(new String(ch, start, length), false);
+		}
+
+		void writeTable() throws IOException {
+			long tableOffset = out.size();
+			out.writeInt(CachedDigest.VERSION);
+			out.writeInt(ids.size());
+			for (int i = 0; i < ids.size(); i++) {
+				writeString((String) ids.get(i));
+				writeString((String) versions.get(i));
+				out.writeLong(((Long) offsets.get(i)).longValue());
+				out.writeInt(((Integer) lengths.get(i)).intValue());
+			}
+			out.writeLong(tableOffset);
+			out.writeInt(CachedDigest.MAGIC);
+		}
+
+		private void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private String getName(String localName, String qName) {
+			return (qName == null || qName.length() == 0) ? localName : qName;
+		}
+
+		private void escape(String value, boolean attribute) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+					case '&' :
+						element.append("&amp;"); //$NON-NLS-1$
+						break;
+					case '<' :
+						element.append("&lt;"); //$NON-NLS-1$
+						break;
+					case '>' :
+						element.append("&gt;"); //$NON-NLS-1$
+						break;
+					case '"' :
+						element.append(attribute ? "&quot;" : "\""); //$NON-NLS-1$ //$NON-NLS-2$
+						break;
+					default :
+						element.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache of the plug-in, or <code>null</code> if the cache is
+	 * disabled or the state location is not available.
+	 */
+	public static synchronized DigestCache getDefault() {
+		if (!initialized) {
+			initialized = true;
+			try {
+				UpdateCore plugin = UpdateCore.getPlugin();
+				if (plugin == null)
+					return null;
+				if (plugin.getPluginPreferences().getLong(UpdateCore.P_HTTP_CACHE_SIZE) <= 0)
+					return null;
+				defaultCache = new DigestCache(plugin.getStateLocation().append(CACHE_DIR).toFile());
+			} catch (RuntimeException e) {
+				// no instance location, run without the cache
+				UpdateCore.warn("Digest cache not available", e); //$NON-NLS-1$
+			}
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Creates a cache in the given directory.
+	 * @param dir the directory of the cache
+	 */
+	public DigestCache(File dir) {
+		this.dir = dir;
+		load();
+	}
+
+	/**
+	 * Returns the cached digest of a URL, or <code>null</code> if the digest
+	 * is not cached or was cached with another timestamp.
+	 * @param url the URL of the digest
+	 * @param timestamp the last modification time of the digest
+	 */
+	public synchronized CachedDigest get(URL url, long timestamp) {
+		String key = url.toExternalForm();
+		Entry entry = (Entry) entries.get(key);
+		if (entry == null || entry.timestamp != timestamp)
+			return null;
+		CachedDigest digest = (CachedDigest) digests.get(key);
+		if (digest != null)
+			return digest;
+		try {
+			digest = new CachedDigest(getFile(entry.id));
+			digests.put(key, digest);
+			return digest;
+		} catch (IOException e) {
+			UpdateCore.warn(null, e);
+			remove(entry);
+			save();
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a digest and adds it to the cache.
+	 * @param url the URL of the digest
+	 * @param timestamp the last modification time of the digest
+	 * @param in the content of digest.xml, not closed by this method
+	 * @return the cached digest
+	 * @exception IOException if the digest cannot be read or stored
+	 * @exception SAXException if the digest cannot be parsed
+	 */
+	public CachedDigest put(URL url, long timestamp, InputStream in) throws IOException, SAXException {
+		long start = System.currentTimeMillis();
+		long id;
+		synchronized (this) {
+			id = nextId++;
+		}
+		File file = getFile(id);
+		dir.mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			DigestWriter writer = new DigestWriter(out);
+			SAXParser parser;
+			try {
+				synchronized (parserFactory) {
+					parserFactory.setNamespaceAware(true);
+					parser = parserFactory.newSAXParser();
+				}
+			} catch (ParserConfigurationException e) {
+				throw new SAXException(e);
+			}
+			parser.parse(new InputSource(in), writer);
+			writer.writeTable();
+			out.close();
+			out = null;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				file.delete();
+			}
+		}
+
+		CachedDigest digest = new CachedDigest(file);
+		String key = url.toExternalForm();
+		synchronized (this) {
+			Entry old = (Entry) entries.get(key);
+			if (old != null)
+				remove(old);
+			entries.put(key, new Entry(key, timestamp, id));
+			digests.put(key, digest);
+			// evict the least recently used digests
+			for (Iterator i = entries.values().iterator(); entries.size() > MAX_DIGESTS && i.hasNext();) {
+				Entry eldest = (Entry) i.next();
+				i.remove();
+				digests.remove(eldest.url);
+				getFile(eldest.id).delete();
+			}
+			save();
+		}
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_WEB)
+			UpdateCore.debug("Cached digest " + key + " (" + digest.size() + " features) in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return digest;
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.url);
+		digests.remove(entry.url);
+		getFile(entry.id).delete();
+	}
+
+	private File getFile(long id) {
+		return new File(dir, Long.toString(id) + DIGEST_SUFFIX);
+	}
+
+	/*
+	 * Reads the index. Digest files that are not in the index are deleted.
+	 */
+	private void load() {
+		File file = new File(dir, INDEX_FILE);
+		if (file.isFile()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					throw new IOException("Unexpected digest cache index format"); //$NON-NLS-1$
+				nextId = in.readLong();
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String url = in.readUTF();
+					Entry entry = new Entry(url, in.readLong(), in.readLong());
+					entries.put(url, entry);
+				}
+			} catch (IOException e) {
+				UpdateCore.warn("Could not read digest cache index", e); //$NON-NLS-1$
+				entries.clear();
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		Set names = new HashSet();
+		for (Iterator i = entries.values().iterator(); i.hasNext();) {
+			Entry entry = (Entry) i.next();
+			names.add(getFile(entry.id).getName());
+			nextId = Math.max(nextId, entry.id + 1);
+		}
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(DIGEST_SUFFIX) && !names.contains(files[i].getName()))
+				files[i].delete();
+		}
+	}
+
+	/*
+	 * Writes the index, in access order so that the order survives a restart.
+	 */
+	private void save() {
+		File file = new File(dir, INDEX_FILE);
+		File tmp = new File(dir, INDEX_FILE + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		try {
+			dir.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(nextId);
+			out.writeInt(entries.size());
+			for (Iterator i = entries.values().iterator(); i.hasNext();) {
+				Entry entry = (Entry) i.next();
+				out.writeUTF(entry.url);
+				out.writeLong(entry.timestamp);
+				out.writeLong(entry.id);
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not rename " + tmp); //$NON-NLS-1$
+		} catch (IOException e) {
+			UpdateCore.warn("Could not write digest cache index", e); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -11,8 +11,11 @@
 package org.eclipse.update.internal.core;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.update.core.IURLEntry;
 import org.eclipse.update.core.VersionedIdentifier;
 import org.eclipse.update.internal.model.SiteWithTimestamp;
@@ -24,6 +27,10 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 	private String digestURL;
 	private LiteFeature[] liteFeatures;
 	private LiteFeature[] allLiteFeatures;
+	// VersionedIdentifier -> first LiteFeature of allLiteFeatures
+	private Map liteFeatureIndex;
+	// digest the lite features are parsed from on demand, null once they are all parsed
+	private CachedDigest cachedDigest;
 	private IURLEntry[] associateSites;
 	private boolean pack200 = false;
 	private IURLEntry selectedMirror;
@@ -49,6 +56,7 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 		this.digestExist = digestExist;
 	}
 	public LiteFeature[] getLiteFeatures() {
+		parseLiteFeatures();
 		if (getCurrentConfiguredSite()!=null)
 			return filterFeatures(getNonFilteredLiteFeatures());
 		else 
@@ -59,6 +67,12 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 		if ((liteFeatures == null) || (liteFeatures.length == 0))
 			return;
 		this.allLiteFeatures = liteFeatures;
+		liteFeatureIndex = new HashMap(liteFeatures.length * 2);
+		for (int i = 0; i < liteFeatures.length; i++) {
+			VersionedIdentifier vid = liteFeatures[i].getVersionedIdentifier();
+			if (!liteFeatureIndex.containsKey(vid))
+				liteFeatureIndex.put(vid, liteFeatures[i]);
+		}
 		List temp = new ArrayList();
 		for(int i = 0; i < allLiteFeatures.length ; i++) {
 			if (getFeatureReference(allLiteFeatures[i]) != null) {
@@ -70,21 +84,74 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 		}
 	}
 	
-	public LiteFeature getLiteFeature(VersionedIdentifier vid) {
-		if (allLiteFeatures == null)
+	/**
+	 * Sets the digest the lite features of this site are parsed from. A
+	 * lite feature is only parsed when it is first asked for by
+	 * <code>getLiteFeature</code>, or with all the others by
+	 * <code>getLiteFeatures</code>.
+	 */
+	public synchronized void setCachedDigest(CachedDigest digest) {
+		this.cachedDigest = digest;
+		this.allLiteFeatures = null;
+		this.liteFeatures = null;
+		this.liteFeatureIndex = new HashMap();
+	}
+
+	/**
+	 * Returns whether lite features are available for this site, without
+	 * parsing them.
+	 */
+	public synchronized boolean hasLiteFeatures() {
+		if (cachedDigest != null)
+			return cachedDigest.size() != 0;
+		return liteFeatures != null && liteFeatures.length != 0;
+	}
+
+	public synchronized LiteFeature getLiteFeature(VersionedIdentifier vid) {
+		if (liteFeatureIndex == null)
 			return null;
-		
-		for(int i = 0; i < allLiteFeatures.length ; i++) {
-			if (vid.equals(allLiteFeatures[i].getVersionedIdentifier())) {
-				return allLiteFeatures[i];
+		LiteFeature feature = (LiteFeature) liteFeatureIndex.get(vid);
+		if (feature == null && cachedDigest != null && cachedDigest.contains(vid)) {
+			feature = cachedDigest.getFeature(vid);
+			if (feature != null) {
+				setSite(feature);
+				liteFeatureIndex.put(vid, feature);
 			}
 		}
-		return null;
+		return feature;
 	}
 	
 	public LiteFeature[] getNonFilteredLiteFeatures() {
+		parseLiteFeatures();
 		return liteFeatures;
 	}
+
+	/*
+	 * Parses all the lite features of the cached digest, if not done yet
+	 */
+	private synchronized void parseLiteFeatures() {
+		if (cachedDigest == null)
+			return;
+		LiteFeature[] features = cachedDigest.getFeatures();
+		cachedDigest = null;
+		for (int i = 0; i < features.length; i++) {
+			// keep the features already handed out
+			LiteFeature parsed = (LiteFeature) liteFeatureIndex.get(features[i].getVersionedIdentifier());
+			if (parsed != null)
+				features[i] = parsed;
+			else
+				setSite(features[i]);
+		}
+		setLiteFeatures(features);
+	}
+
+	private void setSite(LiteFeature feature) {
+		try {
+			feature.setSite(this);
+		} catch (CoreException e) {
+			UpdateCore.warn(null, e);
+		}
+	}
 	public void setNonFilteredLiteFeatures(LiteFeature[] liteFeatures) {
 		this.liteFeatures = liteFeatures;
 	}
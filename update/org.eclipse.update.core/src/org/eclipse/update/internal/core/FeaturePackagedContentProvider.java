@@ -256,6 +256,8 @@ public class FeaturePackagedContentProvider extends FeatureContentProvider {
 	
 					JarProcessor processor = JarProcessor.getUnpackProcessor(null);
 					processor.setWorkingDirectory(tempFile.getParent());
+					//unpack the small nested pack.gz files without extracting them
+					processor.setInMemoryThreshold(JarProcessor.DEFAULT_IN_MEMORY_THRESHOLD);
 	
 					File packedFile = new File(tempFile.toString() + Utils.PACKED_SUFFIX);
 					tempFile.renameTo(packedFile);
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.core.InstallMonitor;
+
+/**
+ * Copies a local file by letting the file channels transfer the bytes,
+ * without going through a buffer.
+ * <p>
+ * Internal class. Only loaded when java.nio is available, which it is not
+ * on CDC-1.1/Foundation-1.1; see
+ * {@link UpdateManagerUtils#copy(java.io.InputStream, java.io.OutputStream, InstallMonitor, long)}.
+ * </p>
+ */
+class FileChannelCopy {
+	private static final long TRANSFER_SIZE = 1048576; // 1Mbytes per file channel transfer
+
+	/*
+	 * Same contract as the stream copy of UpdateManagerUtils; the position
+	 * of the input stream is left after the copied bytes.
+	 */
+	static long copy(FileInputStream is, FileOutputStream os, InstallMonitor monitor, long expectedLength) {
+		long offset = 0;
+		try {
+			FileChannel in = is.getChannel();
+			FileChannel out = os.getChannel();
+			long position = in.position();
+			long remaining = in.size() - position;
+			// the stream copy stops at the expected length too
+			if (expectedLength > 0 && expectedLength < remaining)
+				remaining = expectedLength;
+			long nextIncrement = 0;
+			long nextUpdate = System.currentTimeMillis() + UpdateManagerUtils.PROGRESS_INTERVAL;
+			while (offset < remaining) {
+				long len = in.transferTo(position + offset, Math.min(TRANSFER_SIZE, remaining - offset), out);
+				if (len <= 0)
+					break; // the file was truncated while copying
+				offset += len;
+				in.position(position + offset);
+				if (monitor != null) {
+					nextIncrement += len;
+					// update monitor periodically
+					if (System.currentTimeMillis() >= nextUpdate) {
+						monitor.incrementCount(nextIncrement);
+						nextIncrement = 0;
+						nextUpdate = System.currentTimeMillis() + UpdateManagerUtils.PROGRESS_INTERVAL;
+					}
+					if (monitor.isCanceled() && offset < remaining) {
+						return offset;
+					}
+				}
+			}
+			if (nextIncrement > 0 && monitor != null)
+				monitor.incrementCount(nextIncrement);
+			if(expectedLength>0 && offset!=expectedLength)
+				throw new IOException(NLS.bind(Messages.UpdateManagerUtils_inputStreamEnded, (new String[] { String.valueOf(offset), String.valueOf(expectedLength) })));
+			return -1;
+		} catch(IOException e){
+			// Log the actual error, as this is no longer
+			// passed up the calling stack
+			UpdateCore.log(Messages.UpdateManagerUtils_copy + offset, e);
+			return offset;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import org.eclipse.update.core.ContentReference;
+
+/**
+ * A verifier that can check the integrity of a jar ahead of its
+ * verification, for instance on the thread that downloaded it.
+ * <p>
+ * Only the integrity check is done ahead of time. The trust checks and the
+ * prompts are always done by <code>verify</code>, in the order of the calls,
+ * which also checks the integrity again when the file changed since it was
+ * prepared.
+ * </p>
+ */
+public interface IPreparableVerifier {
+
+	/**
+	 * Checks the integrity of a jar ahead of its verification. This may be
+	 * called on any thread; the outcome is used by the next call to
+	 * <code>verify</code> for the same file, on this verifier or on another
+	 * one of the same class.
+	 * @param reference the jar, other references are ignored
+	 */
+	public void prepare(ContentReference reference);
+}
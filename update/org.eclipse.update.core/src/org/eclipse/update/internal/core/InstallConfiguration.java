@@ -361,6 +361,15 @@ public class InstallConfiguration extends InstallConfigurationModel implements I
 	 * @return true if restart is needed
 	 */
 	public boolean save() throws CoreException {
+		long start = System.currentTimeMillis();
+		try {
+			return internalSave();
+		} finally {
+			UpdateMetrics.record(UpdateMetrics.CONFIGURATION_SAVE, start);
+		}
+	}
+
+	private boolean internalSave() throws CoreException {
 		
 		// Write info  into platform for the next runtime
 		IPlatformConfiguration runtimeConfiguration = ConfiguratorUtils.getCurrentPlatformConfiguration();
@@ -124,8 +124,11 @@ public class InternalFeatureParser extends DefaultHandler {
 	public InternalFeatureParser() {
 		super();
 		try {
-			parserFactory.setNamespaceAware(true);
-			this.parser = parserFactory.newSAXParser();
+			// the factory is shared by the parsers of all threads
+			synchronized (parserFactory) {
+				parserFactory.setNamespaceAware(true);
+				this.parser = parserFactory.newSAXParser();
+			}
 		} catch (ParserConfigurationException e) {
 			UpdateCore.log(e);
 		} catch (SAXException e) {
@@ -187,9 +190,14 @@ public class InternalFeatureParser extends DefaultHandler {
 	 * @since 2.0
 	 */
 	public FeatureModel parse(InputStream in) throws SAXException, IOException {
+		long start = System.currentTimeMillis();
 		stateStack.push(new Integer(STATE_INITIAL));
 		currentState = ((Integer) stateStack.peek()).intValue();
-		parser.parse(new InputSource(in), this);
+		try {
+			parser.parse(new InputSource(in), this);
+		} finally {
+			UpdateMetrics.record(UpdateMetrics.FEATURE_PARSE, start);
+		}
 		return getFeatureModel();
 	}
 
@@ -30,6 +30,7 @@ import org.eclipse.update.configurator.ConfiguratorUtils;
 import org.eclipse.update.configurator.IPlatformConfiguration;
 import org.eclipse.update.core.IFeature;
 import org.eclipse.update.core.Utilities;
+import org.eclipse.update.internal.configurator.ConfigurationHistory;
 import org.eclipse.update.internal.model.InstallConfigurationModel;
 import org.eclipse.update.internal.model.SiteLocalModel;
 import org.eclipse.update.internal.model.SiteLocalParser;
@@ -156,9 +157,13 @@ public class LocalSite extends SiteLocalModel implements ILocalSite{
 					((ILocalSiteChangedListener) siteLocalListeners[i]).installConfigurationRemoved((IInstallConfiguration) removedConfig);
 				}
 
-				//remove files
+				//remove files, or the configuration from the history store
 				URL url = removedConfig.getURL();
-				UpdateManagerUtils.removeFromFileSystem(new File(url.getFile()));
+				File file = new File(url.getFile());
+				if (file.exists())
+					UpdateManagerUtils.removeFromFileSystem(file);
+				else
+					ConfigurationHistory.delete(file);
 			}
 		}
 	}
@@ -188,7 +188,6 @@ public final class Messages extends NLS {
 	public static String JarVerificationService_UnsucessfulVerification;
 	public static String JarVerificationService_CancelInstall;
 	public static String UpdateManagerUtils_UnableToLog;
-	public static String ConnectionThreadManager_tooManyConnections;
 	public static String ConnectionThreadManager_unresponsiveURL;
 	public static String IncludedFeatureReference_featureUninstalled;
 	public static String ActivityConstraints_warning;
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.update.core.IFeature;
+import org.eclipse.update.core.IFeatureReference;
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.ISite;
+import org.eclipse.update.core.ISiteFeatureReference;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.core.model.SiteModel;
+
+/**
+ * Reverse index of the plug-ins of a configured site: for each plug-in,
+ * the features of the site that reference it.
+ * <p>
+ * The index is built the first time it is used, and kept up to date by the
+ * configured site when features are installed, removed, configured and
+ * unconfigured, so that finding the features of a plug-in does not load
+ * every feature of the site again. The index also remembers the modification
+ * stamps of the feature references of the site and of its configuration
+ * policy: when they changed without the configured site knowing, only the
+ * features added or removed meanwhile are indexed again.
+ * </p>
+ */
+public class PluginFeatureIndex {
+
+	private static final IFeature[] NO_FEATURES = new IFeature[0];
+
+	private ConfiguredSite configuredSite;
+	// the site the index was built from, null until the index is built
+	private ISite site;
+	// feature VersionedIdentifier -> IFeature
+	private Map features = new HashMap();
+	// plug-in VersionedIdentifier -> List of IFeature
+	private Map plugins = new HashMap();
+	// VersionedIdentifier of the configured features
+	private Set configured = new HashSet();
+	// the state of the site and of the policy the index was last validated against
+	private int siteStamp;
+	private ConfigurationPolicy policy;
+	private int policyStamp;
+
+	PluginFeatureIndex(ConfiguredSite configuredSite) {
+		this.configuredSite = configuredSite;
+	}
+
+	/**
+	 * Returns the features of the site that reference a plug-in.
+	 */
+	public synchronized IFeature[] getFeatures(VersionedIdentifier pluginId) {
+		validate();
+		List list = (List) plugins.get(pluginId);
+		if (list == null)
+			return NO_FEATURES;
+		return (IFeature[]) list.toArray(new IFeature[list.size()]);
+	}
+
+	/**
+	 * Returns the plug-in entries of a feature that no other feature of the
+	 * site references.
+	 */
+	public synchronized IPluginEntry[] getEntriesOnlyReferencedBy(IFeature feature, IPluginEntry[] entries) {
+		validate();
+		List result = new ArrayList(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			if (!isReferencedByOtherFeature(entries[i].getVersionedIdentifier(), feature))
+				result.add(entries[i]);
+		}
+		return (IPluginEntry[]) result.toArray(new IPluginEntry[result.size()]);
+	}
+
+	/**
+	 * Returns a configured feature of the site that references a plug-in,
+	 * or <code>null</code>.
+	 */
+	public synchronized IFeature getConfiguredFeature(VersionedIdentifier pluginId) {
+		validate();
+		List list = (List) plugins.get(pluginId);
+		if (list == null)
+			return null;
+		for (int i = 0; i < list.size(); i++) {
+			IFeature feature = (IFeature) list.get(i);
+			if (configured.contains(feature.getVersionedIdentifier()))
+				return feature;
+		}
+		return null;
+	}
+
+	/*
+	 * Called by the configured site once a feature is installed
+	 */
+	synchronized void featureInstalled(IFeature feature) {
+		if (site == null)
+			return;
+		VersionedIdentifier id = feature.getVersionedIdentifier();
+		if (!features.containsKey(id))
+			add(id, feature);
+	}
+
+	/*
+	 * Called by the configured site once a feature is removed
+	 */
+	synchronized void featureRemoved(IFeature feature) {
+		if (site == null)
+			return;
+		remove(feature.getVersionedIdentifier());
+		configured.remove(feature.getVersionedIdentifier());
+	}
+
+	/*
+	 * Called by the configured site once a feature is configured or unconfigured
+	 */
+	synchronized void featureConfigured(IFeature feature, boolean isConfigured) {
+		if (site == null)
+			return;
+		if (isConfigured)
+			configured.add(feature.getVersionedIdentifier());
+		else
+			configured.remove(feature.getVersionedIdentifier());
+	}
+
+	/*
+	 * Brings the index up to date if the site or its configured features
+	 * changed behind its back. The features of the site are only listed
+	 * again when the modification stamp of its feature references changed.
+	 */
+	private void validate() {
+		ISite current = configuredSite.getSite();
+		if (current != site) {
+			site = current;
+			features.clear();
+			plugins.clear();
+			configured.clear();
+			policy = null;
+			if (site != null)
+				synchronize(site.getFeatureReferences());
+		} else if (site != null && (!(site instanceof SiteModel) || ((SiteModel) site).getFeatureReferenceStamp() != siteStamp))
+			synchronize(site.getFeatureReferences());
+		if (site == null)
+			return;
+
+		ConfigurationPolicy currentPolicy = configuredSite.getConfigurationPolicy();
+		if (currentPolicy != policy || (currentPolicy != null && currentPolicy.getModificationStamp() != policyStamp)) {
+			policy = currentPolicy;
+			configured.clear();
+			if (policy == null)
+				return;
+			policyStamp = policy.getModificationStamp();
+			IFeatureReference[] configuredRefs = policy.getConfiguredFeatures();
+			for (int i = 0; i < configuredRefs.length; i++) {
+				try {
+					configured.add(configuredRefs[i].getVersionedIdentifier());
+				} catch (CoreException e) {
+					UpdateCore.warn(null, e);
+				}
+			}
+		}
+	}
+
+	private boolean isReferencedByOtherFeature(VersionedIdentifier pluginId, IFeature feature) {
+		List list = (List) plugins.get(pluginId);
+		if (list == null)
+			return false;
+		for (int i = 0; i < list.size(); i++) {
+			if (!list.get(i).equals(feature))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Indexes the features of the site that are not indexed yet, and drops
+	 * the features that are no longer on the site.
+	 */
+	private void synchronize(ISiteFeatureReference[] refs) {
+		long start = System.currentTimeMillis();
+		// take the stamp first, a change while the features are read is seen next time
+		if (site instanceof SiteModel)
+			siteStamp = ((SiteModel) site).getFeatureReferenceStamp();
+		int loaded = 0;
+		Set present = new HashSet();
+		for (int i = 0; i < refs.length; i++) {
+			VersionedIdentifier id = null;
+			try {
+				id = refs[i].getVersionedIdentifier();
+			} catch (CoreException e) {
+				UpdateCore.warn(null, e);
+			}
+			if (id == null || !present.add(id))
+				continue;
+			if (features.containsKey(id))
+				continue;
+			IFeature feature = null;
+			try {
+				feature = refs[i].getFeature(null);
+			} catch (CoreException e) {
+				UpdateCore.warn(null, e);
+			}
+			if (feature == null)
+				continue;
+			add(id, feature);
+			loaded++;
+		}
+
+		for (Iterator iter = new ArrayList(features.keySet()).iterator(); iter.hasNext();) {
+			VersionedIdentifier id = (VersionedIdentifier) iter.next();
+			if (!present.contains(id))
+				remove(id);
+		}
+
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_CONFIGURATION)
+			UpdateCore.debug("Indexed plug-ins of " + loaded + " features of " + site.getURL() + " in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	private void add(VersionedIdentifier id, IFeature feature) {
+		features.put(id, feature);
+		IPluginEntry[] entries = feature.getPluginEntries();
+		for (int i = 0; entries != null && i < entries.length; i++) {
+			VersionedIdentifier pluginId = entries[i].getVersionedIdentifier();
+			List list = (List) plugins.get(pluginId);
+			if (list == null) {
+				list = new ArrayList(1);
+				plugins.put(pluginId, list);
+			}
+			if (!list.contains(feature))
+				list.add(feature);
+		}
+	}
+
+	private void remove(VersionedIdentifier id) {
+		IFeature feature = (IFeature) features.remove(id);
+		if (feature == null)
+			return;
+		IPluginEntry[] entries = feature.getPluginEntries();
+		for (int i = 0; entries != null && i < entries.length; i++) {
+			VersionedIdentifier pluginId = entries[i].getVersionedIdentifier();
+			List list = (List) plugins.get(pluginId);
+			if (list == null)
+				continue;
+			list.remove(feature);
+			if (list.isEmpty())
+				plugins.remove(pluginId);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.core.InstallMonitor;
+import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.HttpResponse;
+import org.eclipse.update.internal.core.connection.IResponse;
+
+/**
+ * Downloads a large archive over several HTTP connections, each fetching
+ * one byte range of the archive.
+ * <p>
+ * The first range is requested before the other connections are opened,
+ * to check that the server supports ranges. Each connection writes its
+ * range at its position in the preallocated local file, and fails if the
+ * server does not return the exact range requested. When the download
+ * cannot be done this way, the caller falls back to a single stream.
+ * </p>
+ */
+public class SegmentedDownload {
+
+	// archives smaller than this are downloaded with a single stream
+	private static final long MIN_LENGTH = 16 * 1024 * 1024;
+	// smallest range worth a connection of its own
+	private static final long MIN_SEGMENT_LENGTH = 4 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// interval at which the progress is reported, in ms
+	private static final long PROGRESS_INTERVAL = 250;
+
+	private URL url;
+	private File file;
+	private long length;
+	private FileChannel channel;
+
+	// shared by the segments, guarded by this
+	private long copied;
+	private int running;
+	private boolean stopped;
+	private IOException failure;
+
+	/*
+	 * Downloads one range into the file.
+	 */
+	private class Segment implements Runnable {
+		private HttpResponse response;
+		private long start;
+		private long end;
+
+		Segment(HttpResponse response, long start, long end) {
+			this.response = response;
+			this.start = start;
+			this.end = end;
+		}
+
+		public void run() {
+			try {
+				if (response == null)
+					response = open(start, end);
+				InputStream in = response.getInputStream(cancelMonitor);
+				if (in == null)
+					return; // canceled
+				byte[] buf = new byte[BUFFER_SIZE];
+				long position = start;
+				while (position <= end && !isStopped()) {
+					int len = in.read(buf, 0, (int) Math.min(buf.length, end + 1 - position));
+					if (len == -1)
+						throw new IOException(NLS.bind(Messages.UpdateManagerUtils_inputStreamEnded, (new String[] { String.valueOf(position - start), String.valueOf(end + 1 - start) })));
+					ByteBuffer buffer = ByteBuffer.wrap(buf, 0, len);
+					while (buffer.hasRemaining())
+						position += channel.write(buffer, position);
+					copied(len);
+				}
+			} catch (IOException e) {
+				fail(e);
+			} catch (CoreException e) {
+				fail(new IOException(e.getMessage()));
+			} finally {
+				if (response != null)
+					response.close();
+				done();
+			}
+		}
+	}
+
+	// lets the connections of the segments be canceled
+	private IProgressMonitor cancelMonitor = new NullProgressMonitor() {
+		public boolean isCanceled() {
+			return isStopped();
+		}
+	};
+
+	/**
+	 * Returns whether archives at this URL may be downloaded in segments.
+	 * The number of segments is set by the
+	 * <code>UpdateCore.P_DOWNLOAD_SEGMENTS</code> preference. Never when
+	 * java.nio is missing, as the segments are written through a file
+	 * channel.
+	 */
+	public static boolean isEnabled(URL url) {
+		return url.getProtocol().startsWith("http") && getMaxSegments() > 1 && UpdateManagerUtils.hasNio(); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the number of segments to download an archive with, or 1 if
+	 * the archive should be downloaded with a single stream.
+	 * @param url the URL of the archive
+	 * @param length the length of the archive, or a negative value if unknown
+	 */
+	public static int getSegmentCount(URL url, long length) {
+		if (length < MIN_LENGTH || !isEnabled(url))
+			return 1;
+		return (int) Math.max(1, Math.min(getMaxSegments(), length / MIN_SEGMENT_LENGTH));
+	}
+
+	private static int getMaxSegments() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return UpdateCore.DEFAULT_DOWNLOAD_SEGMENTS;
+		return plugin.getPluginPreferences().getInt(UpdateCore.P_DOWNLOAD_SEGMENTS);
+	}
+
+	/**
+	 * Creates a download.
+	 * @param url the URL of the archive
+	 * @param file the local file to download the archive into
+	 * @param length the length of the archive
+	 */
+	public SegmentedDownload(URL url, File file, long length) {
+		this.url = url;
+		this.file = file;
+		this.length = length;
+	}
+
+	/**
+	 * Downloads the archive into the local file.
+	 * @param segments the number of segments, at least 2
+	 * @param monitor the monitor the progress is reported to, may be <code>null</code>
+	 * @return <code>true</code> if the archive was downloaded, <code>false</code>
+	 * if the server does not support ranges, a segment failed or the monitor was
+	 * canceled. The content of the file is undefined in that case.
+	 */
+	public boolean download(int segments, InstallMonitor monitor) {
+		RandomAccessFile out = null;
+		WorkerPool pool = null;
+		try {
+			// make sure ranges are supported before opening more connections
+			long end = length / segments - 1;
+			HttpResponse first = open(0, end);
+			try {
+				first.getInputStream(cancelMonitor);
+				out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+				out.setLength(length);
+				channel = out.getChannel();
+			} catch (IOException e) {
+				first.close();
+				throw e;
+			} catch (CoreException e) {
+				first.close();
+				throw new IOException(e.getMessage());
+			}
+
+			running = segments;
+			pool = new WorkerPool("SegmentedDownload", segments); //$NON-NLS-1$
+			pool.execute(new Segment(first, 0, end));
+			for (int i = 1; i < segments; i++)
+				pool.execute(new Segment(null, i * length / segments, (i + 1) * length / segments - 1));
+
+			waitFor(monitor);
+			synchronized (this) {
+				if (failure != null)
+					throw failure;
+				return !stopped;
+			}
+		} catch (IOException e) {
+			if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+				UpdateCore.debug("Segmented download of " + url + " failed, using a single stream: " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Waits for the segments, reports their progress and stops them if the
+	 * monitor is canceled.
+	 */
+	private void waitFor(InstallMonitor monitor) {
+		long reported = 0;
+		while (true) {
+			long count;
+			synchronized (this) {
+				if (running == 0)
+					return;
+				try {
+					wait(PROGRESS_INTERVAL);
+				} catch (InterruptedException e) {
+				}
+				count = copied;
+			}
+			if (monitor != null) {
+				if (monitor.isCanceled()) {
+					synchronized (this) {
+						stopped = true;
+					}
+				}
+				if (count > reported) {
+					monitor.incrementCount(count - reported);
+					reported = count;
+				}
+			}
+		}
+	}
+
+	private HttpResponse open(long start, long end) throws IOException {
+		IResponse response = ConnectionFactory.get(URLEncoder.encode(url));
+		if (!(response instanceof HttpResponse))
+			throw new IOException(Messages.HttpResponse_rangeExpected);
+		((HttpResponse) response).setRange(start, end);
+		return (HttpResponse) response;
+	}
+
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	private synchronized void copied(long count) {
+		copied += count;
+	}
+
+	private synchronized void fail(IOException e) {
+		if (failure == null)
+			failure = e;
+		stopped = true;
+	}
+
+	private synchronized void done() {
+		running--;
+		notifyAll();
+	}
+}
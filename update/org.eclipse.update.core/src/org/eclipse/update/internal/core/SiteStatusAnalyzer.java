@@ -46,7 +46,6 @@ public class SiteStatusAnalyzer {
 
 	private static final String SOURCE_BUNDLES_PATH = "org.eclipse.equinox.source/source.info"; //$NON-NLS-1$
 	private static final String ID = "org.eclipse.update.core"; //$NON-NLS-1$
-	private static List allConfiguredFeatures; /*VersionedIdentifier */
 	private LocalSite siteLocal;
 
 	// A list of versionedIdentifiers for source bundles; initialized on demand.
@@ -405,38 +404,6 @@ public class SiteStatusAnalyzer {
 		return new Status(statusSeverity, id, statusCode, completeString.toString(), e);
 	}
 
-	/*
-	 * returns all the configured fetaures
-	 */
-	private IFeature[] getAllConfiguredFeatures() {
-		if (allConfiguredFeatures == null) {
-
-			allConfiguredFeatures = new ArrayList();
-			IConfiguredSite[] allConfiguredSites = siteLocal.getCurrentConfiguration().getConfiguredSites();
-
-			for (int i = 0; i < allConfiguredSites.length; i++) {
-				IFeatureReference[] refs = allConfiguredSites[i].getConfiguredFeatures();
-				IFeature feature = null;
-				for (int j = 0; j < refs.length; j++) {
-					feature = null;
-					try {
-						feature = refs[j].getFeature(null);
-					} catch (CoreException e) {
-					}
-					if (feature != null) {
-						allConfiguredFeatures.add(feature);
-					}
-				}
-			}
-		}
-
-		IFeature[] features = new IFeature[allConfiguredFeatures.size()];
-		if (allConfiguredFeatures.size() > 0) {
-			allConfiguredFeatures.toArray(features);
-		}
-		return features;
-	}
-
 	/*
 	 * returns the Feature that declares this versionedIdentifier or null if none found
 	 */
@@ -445,18 +412,14 @@ public class SiteStatusAnalyzer {
 		if (id == null)
 			return null;
 
-		IFeature[] allFeatures = getAllConfiguredFeatures();
-		IFeature currentFeature = null;
-		IPluginEntry[] allPlugins = null;
-		IPluginEntry currentPlugin = null;
-		for (int i = 0; i < allFeatures.length; i++) {
-			currentFeature = allFeatures[i];
-			allPlugins = currentFeature.getPluginEntries();
-			for (int j = 0; j < allPlugins.length; j++) {
-				currentPlugin = allPlugins[j];
-				if (id.equals(currentPlugin.getVersionedIdentifier()))
-					return currentFeature;
-			}
+		// answer from the plug-in index of each configured site
+		IConfiguredSite[] allConfiguredSites = siteLocal.getCurrentConfiguration().getConfiguredSites();
+		for (int i = 0; i < allConfiguredSites.length; i++) {
+			if (!allConfiguredSites[i].isEnabled() || !(allConfiguredSites[i] instanceof ConfiguredSite))
+				continue;
+			IFeature feature = ((ConfiguredSite) allConfiguredSites[i]).getPluginFeatureIndex().getConfiguredFeature(id);
+			if (feature != null)
+				return feature;
 		}
 		return null;
 	}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+
+/**
+ * Progress monitor wrapper that serializes all calls to the wrapped
+ * monitor, so that it can be shared by the threads of a {@link WorkerPool}.
+ * Each thread should still wrap it in its own <code>SubProgressMonitor</code>.
+ */
+public class SynchronizedProgressMonitor extends ProgressMonitorWrapper {
+
+	public SynchronizedProgressMonitor(IProgressMonitor monitor) {
+		super(monitor);
+	}
+
+	public synchronized void beginTask(String name, int totalWork) {
+		super.beginTask(name, totalWork);
+	}
+
+	public synchronized void clearBlocked() {
+		super.clearBlocked();
+	}
+
+	public synchronized void done() {
+		super.done();
+	}
+
+	public synchronized void internalWorked(double work) {
+		super.internalWorked(work);
+	}
+
+	public synchronized void setBlocked(IStatus reason) {
+		super.setBlocked(reason);
+	}
+
+	public synchronized void setCanceled(boolean b) {
+		super.setCanceled(b);
+	}
+
+	public synchronized void setTaskName(String name) {
+		super.setTaskName(name);
+	}
+
+	public synchronized void subTask(String name) {
+		super.subTask(name);
+	}
+
+	public synchronized void worked(int work) {
+		super.worked(work);
+	}
+}
@@ -40,16 +40,23 @@ public class UpdateCore extends Plugin {
 	public static boolean DEBUG_SHOW_WEB;
 	public static boolean DEBUG_SHOW_IHANDLER;
 	public static boolean DEBUG_SHOW_RECONCILER;
+	public static boolean DEBUG_SHOW_METRICS;
 		
 	private static final String PREFIX = "org.eclipse.update.core"; //$NON-NLS-1$
 	public static final String P_HISTORY_SIZE = PREFIX + ".historySize"; //$NON-NLS-1$
 	public static final String P_CHECK_SIGNATURE = PREFIX + ".checkSignature"; //$NON-NLS-1$
 	public static final String P_AUTOMATICALLY_CHOOSE_MIRROR =  PREFIX + ".automaticallyChooseMirror"; //$NON-NLS-1$
 	public static final String P_UPDATE_VERSIONS = PREFIX + ".updateVersions"; //$NON-NLS-1$
+	public static final String P_DOWNLOAD_THREADS = PREFIX + ".downloadThreads"; //$NON-NLS-1$
+	public static final String P_DOWNLOAD_SEGMENTS = PREFIX + ".downloadSegments"; //$NON-NLS-1$
+	public static final String P_HTTP_CACHE_SIZE = PREFIX + ".httpCacheSize"; //$NON-NLS-1$
 	public static final String EQUIVALENT_VALUE = "equivalent"; //$NON-NLS-1$
 	public static final String COMPATIBLE_VALUE = "compatible"; //$NON-NLS-1$
 	
 	public static int DEFAULT_HISTORY = 100;//Integer.MAX_VALUE;
+	public static int DEFAULT_DOWNLOAD_THREADS = 1;
+	public static int DEFAULT_DOWNLOAD_SEGMENTS = 1;
+	public static long DEFAULT_HTTP_CACHE_SIZE = 16 * 1024 * 1024;
 	
 	//The shared instance.
 	private static UpdateCore plugin;
@@ -239,6 +246,7 @@ public class UpdateCore extends Plugin {
 			DEBUG_SHOW_WEB = getBooleanDebugOption("org.eclipse.update.core/debug/web", false); //$NON-NLS-1$
 			DEBUG_SHOW_IHANDLER = getBooleanDebugOption("org.eclipse.update.core/debug/installhandler", false); //$NON-NLS-1$
 			DEBUG_SHOW_RECONCILER = getBooleanDebugOption("org.eclipse.update.core/debug/reconciler", false); //$NON-NLS-1$
+			DEBUG_SHOW_METRICS = getBooleanDebugOption("org.eclipse.update.core/debug/metrics", false); //$NON-NLS-1$
 		}
 		
 		//
@@ -254,6 +262,8 @@ public class UpdateCore extends Plugin {
 	 * @see org.osgi.framework.BundleActivator#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if (DEBUG && DEBUG_SHOW_METRICS)
+			UpdateMetrics.save();
 		super.stop(context);
 		
 		JarContentReference.shutdown(); // make sure we are not leaving jars open
@@ -23,6 +23,7 @@ import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.core.*;
 import org.eclipse.update.core.model.InstallAbortedException;
 import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.HttpResponse;
 import org.eclipse.update.internal.core.connection.IResponse;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -58,9 +59,17 @@ public class UpdateManagerUtils {
 	private static Map urlFileMap;
 
 	private static Map localFileFragmentMap;
-	private static Stack bufferPool;
-	private static final int BUFFER_SIZE = 4096; // 4kbytes
-	private static final int INCREMENT_SIZE = 10240; // 10kbytes
+	private static final int BUFFER_SIZE = 65536; // 64kbytes
+	static final long PROGRESS_INTERVAL = 250; // ms between progress updates
+	// whether java.nio is available, checked once
+	private static boolean checkNio;
+	private static boolean useNio;
+	// one buffer per thread, copies are not nested
+	private static ThreadLocal buffers = new ThreadLocal() {
+		protected Object initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
 	/**
 	 * return the urlString if it is a absolute URL
 	 * otherwise, return the default URL if the urlString is null
@@ -705,6 +714,10 @@ public class UpdateManagerUtils {
 			URL resolvedURL = URLEncoder.encode(url);
 			IResponse response = ConnectionFactory.get(resolvedURL);
 			long remoteLastModified = response.getLastModified();
+			// the cached copy of the metadata is out of date, even if the
+			// server does not send a Last-Modified header
+			if (response instanceof HttpResponse && ((HttpResponse) response).isConditional() && !((HttpResponse) response).isNotModified())
+				return false;
 			// 2 seconds tolerance, as some OS's may round up the time stamp
 			// to the closest second. For safety, we make it 2 seconds.
 			return Math.abs(remoteLastModified - timestamp)/1000 <= 2;
@@ -764,20 +777,53 @@ public class UpdateManagerUtils {
 	 * @since 2.0
 	 */
 	public static long copy(InputStream is, OutputStream os, InstallMonitor monitor, long expectedLength) {
-		byte[] buf = getBuffer();
+		long start = System.currentTimeMillis();
+		long offset;
+		if (is instanceof FileInputStream && os instanceof FileOutputStream && hasNio())
+			offset = FileChannelCopy.copy((FileInputStream) is, (FileOutputStream) os, monitor, expectedLength);
+		else
+			offset = copyStream(is, os, monitor, expectedLength);
+		UpdateMetrics.record(UpdateMetrics.COPY, start, offset == -1 ? expectedLength : offset);
+		return offset;
+	}
+
+	/*
+	 * Returns whether the file channels of java.nio can be used, they are
+	 * not part of CDC-1.1/Foundation-1.1
+	 */
+	static synchronized boolean hasNio() {
+		if (!checkNio) {
+			useNio = true;
+			try {
+				Class.forName("java.nio.channels.FileChannel"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				useNio = false;
+			}
+			checkNio = true;
+		}
+		return useNio;
+	}
+
+	/*
+	 * Copies the stream through a buffer. Same contract as copy.
+	 */
+	private static long copyStream(InputStream is, OutputStream os, InstallMonitor monitor, long expectedLength) {
+		byte[] buf = (byte[]) buffers.get();
 		long offset=0;
 		try {
 			int len = is.read(buf);
 			int nextIncrement = 0;
+			long nextUpdate = System.currentTimeMillis() + PROGRESS_INTERVAL;
 			while (len != -1) {
 				os.write(buf, 0, len);
 					offset += len;
 				if (monitor != null) {
 					nextIncrement += len;
 					// update monitor periodically
-					if (nextIncrement >= INCREMENT_SIZE){ 	
+					if (System.currentTimeMillis() >= nextUpdate) {
 						monitor.incrementCount(nextIncrement);
 						nextIncrement = 0;
+						nextUpdate = System.currentTimeMillis() + PROGRESS_INTERVAL;
 					}
 					if (monitor.isCanceled()) {
 						return offset;
@@ -801,28 +847,8 @@ public class UpdateManagerUtils {
 			// passed up the calling stack
 			UpdateCore.log(Messages.UpdateManagerUtils_copy + offset, e); 
 			return offset;
-		} finally {
-			freeBuffer(buf);
 		}
 	}
-
-	private static synchronized byte[] getBuffer() {
-		if (bufferPool == null) {
-			return new byte[BUFFER_SIZE];
-		}
-
-		try {
-			return (byte[]) bufferPool.pop();
-		} catch (EmptyStackException e) {
-			return new byte[BUFFER_SIZE];
-		}
-	}
-
-	private static synchronized void freeBuffer(byte[] buf) {
-		if (bufferPool == null)
-			bufferPool = new Stack();
-		bufferPool.push(buf);
-	}
 	
 	
 	/**
@@ -905,6 +931,21 @@ public class UpdateManagerUtils {
 		}
 	}
 	
+	/**
+	 * Returns the digest of the site from the digest cache, or <code>null</code>
+	 * if the digest cannot be cached. The lite features of the digest are
+	 * parsed when they are first asked for.
+	 */
+	public static CachedDigest getCachedDigest(ExtendedSite site) {
+		try {
+			URL fullDigestURL = getFullDigestURL( site, Locale.getDefault().getCountry(), Locale.getDefault().getLanguage());
+			return new Digest(fullDigestURL).getCachedDigest();
+		} catch(Exception e){ 
+			UpdateCore.warn("Digest could not be cached: " + e.getMessage(), e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
 	private static URL getFullDigestURL(ExtendedSite site, String country, String language) throws MalformedURLException {
 		
 		String digestURL = (site.getDigestURL().endsWith("/")? site.getDigestURL(): site.getDigestURL() + "/"); //$NON-NLS-1$ //$NON-NLS-2$ 
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Timers and counters of the phases of searches and installs.
+ * <p>
+ * Each phase records how many times it ran, the total and longest time it
+ * took and, for phases that transfer data, the number of bytes. Connections
+ * and downloads are also recorded per host. The phases are recorded where
+ * the work happens: connections, copies, feature parsing, verification,
+ * unpacking and configuration save.
+ * </p>
+ * <p>
+ * Nothing is recorded unless the metrics are enabled, either with the
+ * <code>org.eclipse.update.core/debug/metrics</code> option or with
+ * <code>setEnabled</code>, so that the update code does not contend for
+ * the metrics when nobody reads them. A snapshot of the metrics can be
+ * taken as JSON with <code>toJSON</code>. With the option, the snapshot is
+ * written to <code>metrics.json</code> in the state location when the
+ * plug-in stops, and each recorded event is traced.
+ * </p>
+ */
+public class UpdateMetrics {
+
+	public static final String SITE_RESOLUTION = "siteResolution"; //$NON-NLS-1$
+	public static final String DIGEST_FETCH = "digestFetch"; //$NON-NLS-1$
+	public static final String FEATURE_PARSE = "featureParse"; //$NON-NLS-1$
+	public static final String CONNECTION = "connection"; //$NON-NLS-1$
+	public static final String DOWNLOAD = "download"; //$NON-NLS-1$
+	public static final String COPY = "copy"; //$NON-NLS-1$
+	public static final String VERIFICATION = "verification"; //$NON-NLS-1$
+	public static final String UNPACK = "unpack"; //$NON-NLS-1$
+	public static final String CONFIGURATION_SAVE = "configurationSave"; //$NON-NLS-1$
+
+	private static final String METRICS_FILE = "metrics.json"; //$NON-NLS-1$
+
+	// String phase -> Entry, sorted so that snapshots are stable
+	private static Map phases = new TreeMap();
+	// String host -> Entry
+	private static Map hosts = new TreeMap();
+	private static long since = System.currentTimeMillis();
+	private static volatile boolean enabled;
+
+	/*
+	 * Counters of a phase or a host
+	 */
+	private static class Entry {
+		long count;
+		long time;
+		long maxTime;
+		long bytes;
+
+		void add(long elapsed, long size) {
+			count++;
+			time += elapsed;
+			if (elapsed > maxTime)
+				maxTime = elapsed;
+			if (size > 0)
+				bytes += size;
+		}
+	}
+
+	private UpdateMetrics() {
+	}
+
+	/**
+	 * Returns whether the metrics are recorded.
+	 */
+	public static boolean isEnabled() {
+		return enabled || (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_METRICS);
+	}
+
+	/**
+	 * Enables or disables the recording of the metrics, in addition to the
+	 * debug option.
+	 */
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	/**
+	 * Records a run of a phase.
+	 * @param phase the phase
+	 * @param start the time the phase started at, as returned by
+	 * <code>System.currentTimeMillis()</code>
+	 */
+	public static void record(String phase, long start) {
+		record(phase, start, 0);
+	}
+
+	/**
+	 * Records a run of a phase that transferred data.
+	 * @param phase the phase
+	 * @param start the time the phase started at, as returned by
+	 * <code>System.currentTimeMillis()</code>
+	 * @param bytes the number of bytes transferred
+	 */
+	public static void record(String phase, long start, long bytes) {
+		if (!isEnabled())
+			return;
+		long elapsed = System.currentTimeMillis() - start;
+		synchronized (phases) {
+			get(phases, phase).add(elapsed, bytes);
+		}
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_METRICS)
+			UpdateCore.debug("Metrics: " + phase + " " + elapsed + " ms" + (bytes > 0 ? " " + bytes + " bytes" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+
+	/**
+	 * Records a connection to a host.
+	 */
+	public static void connected(URL url) {
+		if (!isEnabled())
+			return;
+		String host = getHost(url);
+		synchronized (phases) {
+			get(phases, CONNECTION).add(0, 0);
+			get(hosts, host).add(0, 0);
+		}
+	}
+
+	/**
+	 * Records a download from a host.
+	 * @param bytes the number of bytes downloaded
+	 * @param time the time the download took, in ms
+	 * @param url the URL downloaded from
+	 */
+	public static void downloaded(long bytes, long time, URL url) {
+		if (!isEnabled())
+			return;
+		String host = getHost(url);
+		synchronized (phases) {
+			get(phases, DOWNLOAD).add(time, bytes);
+			Entry entry = get(hosts, host);
+			entry.time += time;
+			entry.bytes += bytes;
+		}
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_METRICS)
+			UpdateCore.debug("Metrics: " + DOWNLOAD + " " + time + " ms " + bytes + " bytes from " + host); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	/**
+	 * Clears the metrics recorded so far.
+	 */
+	public static void reset() {
+		synchronized (phases) {
+			phases.clear();
+			hosts.clear();
+			since = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the metrics as a JSON object. For example:
+	 * <pre>
+	 * {"since":1356998400000,"time":1200,
+	 *  "phases":{"download":{"count":2,"time":950,"maxTime":600,"bytes":1048576}},
+	 *  "hosts":{"download.eclipse.org":{"connections":3,"time":950,"bytes":1048576,"rate":1103}}}
+	 * </pre>
+	 * Times are in ms and rates in bytes per second.
+	 */
+	public static String toJSON() {
+		StringBuffer buffer = new StringBuffer();
+		synchronized (phases) {
+			buffer.append("{\"since\":").append(since); //$NON-NLS-1$
+			buffer.append(",\"time\":").append(System.currentTimeMillis() - since); //$NON-NLS-1$
+			buffer.append(",\"phases\":{"); //$NON-NLS-1$
+			for (Iterator iter = phases.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry mapEntry = (Map.Entry) iter.next();
+				Entry entry = (Entry) mapEntry.getValue();
+				appendString(buffer, (String) mapEntry.getKey());
+				buffer.append(":{\"count\":").append(entry.count); //$NON-NLS-1$
+				buffer.append(",\"time\":").append(entry.time); //$NON-NLS-1$
+				buffer.append(",\"maxTime\":").append(entry.maxTime); //$NON-NLS-1$
+				buffer.append(",\"bytes\":").append(entry.bytes).append('}'); //$NON-NLS-1$
+				if (iter.hasNext())
+					buffer.append(',');
+			}
+			buffer.append("},\"hosts\":{"); //$NON-NLS-1$
+			for (Iterator iter = hosts.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry mapEntry = (Map.Entry) iter.next();
+				Entry entry = (Entry) mapEntry.getValue();
+				appendString(buffer, (String) mapEntry.getKey());
+				buffer.append(":{\"connections\":").append(entry.count); //$NON-NLS-1$
+				buffer.append(",\"time\":").append(entry.time); //$NON-NLS-1$
+				buffer.append(",\"bytes\":").append(entry.bytes); //$NON-NLS-1$
+				buffer.append(",\"rate\":").append(entry.time == 0 ? 0 : entry.bytes * 1000 / entry.time).append('}'); //$NON-NLS-1$
+				if (iter.hasNext())
+					buffer.append(',');
+			}
+			buffer.append("}}"); //$NON-NLS-1$
+		}
+		return buffer.toString();
+	}
+
+	/*
+	 * Writes the snapshot to the state location, called when the plug-in stops
+	 */
+	static void save() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return;
+		IPath path = plugin.getStateLocation().append(METRICS_FILE);
+		File file = path.toFile();
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+			writer.write(toJSON());
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to save update metrics to " + file, e); //$NON-NLS-1$
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static Entry get(Map map, String key) {
+		Entry entry = (Entry) map.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			map.put(key, entry);
+		}
+		return entry;
+	}
+
+	private static String getHost(URL url) {
+		if (url == null)
+			return ""; //$NON-NLS-1$
+		if (url.getHost() == null || url.getHost().length() == 0)
+			return url.getProtocol();
+		return url.getHost();
+	}
+
+	private static void appendString(StringBuffer buffer, String value) {
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				buffer.append('\\').append(c);
+			else if (c < 0x20)
+				buffer.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16)); //$NON-NLS-1$
+			else
+				buffer.append(c);
+		}
+		buffer.append('"');
+	}
+}
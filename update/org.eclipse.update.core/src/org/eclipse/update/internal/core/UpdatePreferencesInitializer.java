@@ -47,5 +47,8 @@ public class UpdatePreferencesInitializer extends AbstractPreferenceInitializer
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_AUTOMATICALLY_CHOOSE_MIRROR, false);
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_HISTORY_SIZE, UpdateCore.DEFAULT_HISTORY);
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_UPDATE_VERSIONS, UpdateCore.EQUIVALENT_VALUE);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_DOWNLOAD_THREADS, UpdateCore.DEFAULT_DOWNLOAD_THREADS);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_DOWNLOAD_SEGMENTS, UpdateCore.DEFAULT_DOWNLOAD_SEGMENTS);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_HTTP_CACHE_SIZE, UpdateCore.DEFAULT_HTTP_CACHE_SIZE);
 	}
 }
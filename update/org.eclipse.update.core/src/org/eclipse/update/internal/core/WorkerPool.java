@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A small, bounded pool of daemon worker threads.
+ * <p>
+ * Tasks are executed in submission order by at most <code>size</code>
+ * threads. Threads are started lazily, so a pool that only ever sees
+ * one task only ever starts one thread. Tasks may submit further tasks
+ * to the pool while they run; {@link #join(IProgressMonitor)} returns
+ * once the queue is drained and no task is running.
+ * </p>
+ */
+public class WorkerPool {
+
+	// poll interval used to check the progress monitor for cancellation
+	private static final long POLL_INTERVAL = 250;
+
+	private final String name;
+	private final int size;
+	private final LinkedList queue = new LinkedList();
+	private final List workers = new ArrayList();
+
+	// number of tasks queued or running
+	private int pending;
+	// number of workers waiting for a task
+	private int idle;
+	private boolean closed;
+
+	private class Worker implements Runnable {
+		public void run() {
+			while (true) {
+				Runnable task;
+				synchronized (queue) {
+					while (queue.isEmpty() && !closed) {
+						idle++;
+						try {
+							queue.wait();
+						} catch (InterruptedException e) {
+						}
+						idle--;
+					}
+					if (queue.isEmpty())
+						return;
+					task = (Runnable) queue.removeFirst();
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					UpdateCore.log(e);
+				} finally {
+					synchronized (queue) {
+						pending--;
+						queue.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param name prefix for the names of the worker threads
+	 * @param size maximum number of tasks running at the same time
+	 */
+	public WorkerPool(String name, int size) {
+		this.name = name;
+		this.size = Math.max(1, size);
+	}
+
+	/**
+	 * Returns the maximum number of tasks this pool runs at the same time.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Queues a task for execution.
+	 *
+	 * @param task the task to run
+	 * @throws IllegalStateException if the pool has been shut down
+	 */
+	public void execute(Runnable task) {
+		synchronized (queue) {
+			if (closed)
+				throw new IllegalStateException();
+			queue.addLast(task);
+			pending++;
+			if (queue.size() > idle && workers.size() < size) {
+				Thread worker = new Thread(new Worker(), name + "-" + workers.size()); //$NON-NLS-1$
+				worker.setDaemon(true);
+				workers.add(worker);
+				worker.start();
+			} else {
+				queue.notify();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all submitted tasks, including those submitted while
+	 * waiting, have completed. If the monitor is canceled, tasks which have
+	 * not started yet are discarded and only running tasks are waited for.
+	 *
+	 * @param monitor monitor checked for cancellation, may be <code>null</code>
+	 * @return <code>false</code> if queued tasks were discarded because of
+	 * cancellation, <code>true</code> otherwise
+	 */
+	public boolean join(IProgressMonitor monitor) {
+		boolean completed = true;
+		synchronized (queue) {
+			while (pending > 0) {
+				if (monitor != null && monitor.isCanceled() && !queue.isEmpty()) {
+					pending -= queue.size();
+					queue.clear();
+					completed = false;
+					continue;
+				}
+				try {
+					queue.wait(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * Discards queued tasks and lets the worker threads terminate once their
+	 * current task has completed.
+	 */
+	public void shutdown() {
+		synchronized (queue) {
+			closed = true;
+			pending -= queue.size();
+			queue.clear();
+			queue.notifyAll();
+		}
+	}
+}
@@ -19,6 +19,8 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
 
 /**
@@ -32,32 +34,36 @@ public abstract class AbstractResponse implements IResponse {
 
 	protected InputStream openStreamWithCancel(URLConnection urlConnection, IProgressMonitor monitor) throws IOException, CoreException, TooManyOpenConnectionsException {
 	
+		ConnectionThreadManager manager = ConnectionThreadManagerFactory.getConnectionManager();
 		ConnectionThreadManager.StreamRunnable runnable =
 			new ConnectionThreadManager.StreamRunnable(urlConnection);
-		Thread t = ConnectionThreadManagerFactory.getConnectionManager().getConnectionThread(
-				runnable);
-		t.start();
+		manager.execute(runnable);
 		InputStream is = null;
 		try {
 			for (;;) {
 				if (monitor.isCanceled()) {
-					runnable.disconnect();
+					manager.abandon(runnable, false);
 	                connection = null;
 					break;
 				}
-				if (runnable.getInputStream() != null || !t.isAlive()) {
+				if (runnable.isDone()) {
+					if (runnable.getIOException() != null) 
+						throw runnable.getIOException();
+					if (runnable.getException() != null) 
+							throw new CoreException(new Status(IStatus.ERROR,
+																UpdateCore.getPlugin().getBundle().getSymbolicName(), 
+																IStatus.OK,
+																runnable.getException().getMessage(), 
+																runnable.getException()));
 					is = runnable.getInputStream();
 					break;
 				}
-				if (runnable.getIOException() != null) 
-					throw runnable.getIOException();
-				if (runnable.getException() != null) 
-						throw new CoreException(new Status(IStatus.ERROR,
-															UpdateCore.getPlugin().getBundle().getSymbolicName(), 
-															IStatus.OK,
-															runnable.getException().getMessage(), 
-															runnable.getException()));
-				t.join(POLLING_INTERVAL);
+				if (manager.isTimedOut(runnable)) {
+					manager.abandon(runnable, true);
+					connection = null;
+					throw new IOException(NLS.bind(Messages.ConnectionThreadManager_unresponsiveURL, (new String[] { runnable.getURL().toExternalForm() })));
+				}
+				runnable.waitFor(POLLING_INTERVAL);
 				}
 		} catch (InterruptedException e) {
 		}
@@ -14,6 +14,8 @@ package org.eclipse.update.internal.core.connection;
 import java.io.IOException;
 import java.net.URL;
 
+import org.eclipse.update.internal.core.UpdateMetrics;
+
 public class ConnectionFactory {
 
 	
@@ -28,6 +30,7 @@ public class ConnectionFactory {
 		} else {
 			response = new OtherResponse(url);
 		}
+		UpdateMetrics.connected(url);
 
 		return response;
 	}
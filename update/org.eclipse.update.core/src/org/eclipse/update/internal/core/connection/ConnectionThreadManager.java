@@ -13,63 +13,85 @@ package org.eclipse.update.internal.core.connection;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.MultiStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.osgi.util.NLS;
-import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
 
 /**
- * This class manages threads that are dispatched to 
+ * This class manages threads that are dispatched to
  * obtained a valid input stream from an HTTP connection.
  * Since obtaining an input stream is an I/O operation
  * that may block for a long time, it is performed
  * on a separate thread to keep the UI responsive.
  * <p>
+ * Connections are run by a pool of at most MAX_COUNT
+ * daemon threads, and at most MAX_PER_HOST of them
+ * connect to the same host at the same time. Further
+ * connections wait in a queue until a thread is available,
+ * instead of being refused.
+ * <p>
  * In case that a connection blocks and does not
- * terminate with an IOException after a timeout, 
- * active threads may accumulate. The manager will
- * refuse to create more than MAX_COUNT threads and
- * instead will throw a CoreException with a child
- * status object for each connection that is still pending.
+ * terminate with an IOException after a timeout,
+ * the caller abandons it: the connection is disconnected,
+ * and its thread no longer counts against the limits, so
+ * that stuck connections do not starve the pool.
  * <p>
  * If the connection is responsive but slow, the user
  * may cancel it. In that case, the manager will
  * close the stream to avoid resource leak.
  */
 public class ConnectionThreadManager {
-	
+
 	// set connection timeout to 1 minute
-	private static final String CONNECT_TIMEOUT = "60000"; //$NON-NLS-1$
+	private static final int CONNECT_TIMEOUT = 60000;
 	// set read timeout to 1 minute
-	private static final String READ_TIMEOUT = "60000"; //$NON-NLS-1$
+	private static final int READ_TIMEOUT = 60000;
+	// time after which a connection that did not return a stream is abandoned
+	private static final long REQUEST_TIMEOUT = CONNECT_TIMEOUT + READ_TIMEOUT;
 	// max number of active threads
-	private static final int MAX_COUNT = 9;
-	private List threads = new ArrayList(MAX_COUNT);
-	
-	
+	private static final int MAX_COUNT = 16;
+	// max number of active threads connecting to the same host
+	private static final int MAX_PER_HOST = 6;
+
+	// URLConnection.setConnectTimeout and setReadTimeout, if the VM has them
+	private static Method setConnectTimeout;
+	private static Method setReadTimeout;
+
+	private LinkedList queue = new LinkedList();
+	private List workers = new ArrayList(MAX_COUNT);
+	// host -> Integer number of active connections
+	private Map activePerHost = new HashMap();
+	private int idle;
+	private int active;
+	private int timedOut;
 
 	public static class StreamRunnable implements Runnable {
-		
+
 		private URLConnection urlConnection;
 		private IOException ioException;
 		private Exception exception;
 		private InputStream is;
 		private boolean disconnected;
+		// set by the manager
+		private String host;
+		private long startTime;
+		private boolean done;
+		private boolean released;
 
 		public StreamRunnable(URLConnection urlConnection) {
 			this.urlConnection = urlConnection;
 		}
 
-		public InputStream getInputStream() {
+		public synchronized InputStream getInputStream() {
 			return is;
 		}
 
@@ -77,155 +99,283 @@ public class ConnectionThreadManager {
 			return urlConnection.getURL();
 		}
 
-		public IOException getIOException() {
+		public synchronized IOException getIOException() {
 			return ioException;
 		}
-		
-		public Exception getException() {
+
+		public synchronized Exception getException() {
 			return exception;
 		}
 
+		/**
+		 * Returns whether the connection attempt has completed, with a
+		 * stream or an exception.
+		 */
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * Waits at most <code>timeout</code> ms for the connection attempt
+		 * to complete.
+		 */
+		public synchronized void waitFor(long timeout) throws InterruptedException {
+			if (!done)
+				wait(timeout);
+		}
+
 		public void disconnect() {
+			synchronized (this) {
+				disconnected = true;
+			}
 			if (urlConnection instanceof HttpURLConnection)
 				((HttpURLConnection)urlConnection).disconnect();
-			disconnected = true;
 		}
 
 		public void run() {
+			InputStream stream = null;
 			try {
-				is = urlConnection.getInputStream();
-				if (disconnected) {
-					// The connection was slow, but returned
-					// a valid input stream. However,
-					// the user canceled the connection
-					// so we must close to avoid 
-					// resource leak.
-					if (is != null) {
+				stream = urlConnection.getInputStream();
+			} catch (IOException e) {
+				synchronized (this) {
+					ioException = e;
+				}
+			} catch (Exception e) {
+				synchronized (this) {
+					exception = e;
+				}
+			} finally {
+				synchronized (this) {
+					if (disconnected && stream != null) {
+						// The connection was slow, but returned
+						// a valid input stream. However,
+						// the user canceled the connection
+						// so we must close to avoid
+						// resource leak.
 						try {
-							is.close();
+							stream.close();
 						} catch (IOException ex) {
 							// at this point, we don't care
 						} finally {
-							is = null;
+							stream = null;
 						}
 					}
+					is = stream;
+					done = true;
+					notifyAll();
 				}
-			} catch (IOException e) {
-				ioException = e;
-			} catch (Exception e) {
-				exception = e;
-			} finally {
-				//threads.
 			}
 		}
 	}
 
-	
-	class ConnectionThread extends Thread {
-		
-		private StreamRunnable runnable;
-		
-		public ConnectionThread(StreamRunnable runnable) {
-			super(runnable, "update-connection"); //$NON-NLS-1$
-			this.runnable = runnable;
+	private class Worker extends Thread {
+		// the connection being run, if any
+		private StreamRunnable current;
+
+		Worker() {
+			super("update-connection"); //$NON-NLS-1$
+			setDaemon(true);
 		}
 
-		public StreamRunnable getRunnable() {
-			return runnable;
+		public void run() {
+			while (true) {
+				StreamRunnable runnable;
+				synchronized (ConnectionThreadManager.this) {
+					runnable = next(this);
+					if (runnable == null)
+						return;
+				}
+				try {
+					runnable.run();
+				} finally {
+					synchronized (ConnectionThreadManager.this) {
+						current = null;
+						release(runnable);
+						// this worker was replaced while it was stuck
+						if (!workers.contains(this))
+							return;
+					}
+				}
+			}
+		}
+	}
+
+	static {
+		try {
+			setConnectTimeout = URLConnection.class.getMethod("setConnectTimeout", new Class[] {int.class}); //$NON-NLS-1$
+			setReadTimeout = URLConnection.class.getMethod("setReadTimeout", new Class[] {int.class}); //$NON-NLS-1$
+		} catch (NoSuchMethodException e) {
+			setConnectTimeout = null;
+			setReadTimeout = null;
 		}
 	}
 
 	public ConnectionThreadManager() {
-		// In case we are running Sun's code.
-		setIfNotDefaultProperty("sun.net.client.defaultConnectTimeout", CONNECT_TIMEOUT); //$NON-NLS-1$
-		setIfNotDefaultProperty("sun.net.client.defaultReadTimeout", READ_TIMEOUT);  //$NON-NLS-1$
+		if (setConnectTimeout == null) {
+			// In case we are running Sun's code.
+			setIfNotDefaultProperty("sun.net.client.defaultConnectTimeout", String.valueOf(CONNECT_TIMEOUT)); //$NON-NLS-1$
+			setIfNotDefaultProperty("sun.net.client.defaultReadTimeout", String.valueOf(READ_TIMEOUT));  //$NON-NLS-1$
+		}
 	}
-	
+
 	private void setIfNotDefaultProperty(String key, String value) {
 		String oldValue = System.getProperty(key);
 		if (oldValue==null || oldValue.equals("-1")) //$NON-NLS-1$
 			System.setProperty(key, value);
 	}
 
-	public Thread getConnectionThread(StreamRunnable runnable) throws CoreException {
-		
-		validateExistingThreads();
-	
-		//if (threads == null)
-		//	threads = new Vector();
-		Thread t = new Thread(runnable);
-		t.setDaemon(true);
-		threads.add(t);
-		return t;
+	/**
+	 * Queues a connection attempt. The attempt is run as soon as a thread
+	 * is available and the host of the connection is below its limit.
+	 */
+	public synchronized void execute(StreamRunnable runnable) {
+		setTimeouts(runnable.urlConnection);
+		URL url = runnable.getURL();
+		runnable.host = url.getHost().toLowerCase() + ':' + url.getPort();
+		queue.addLast(runnable);
+		notifyAll();
+		startWorker();
 	}
 
-	/*
-	 * Removes threads that are not alive any more from the 
-	 * list and ensures that there are at most MAX_COUNT threads
-	 * still working.
+	/**
+	 * Returns whether a connection attempt has been running for longer
+	 * than the request timeout.
 	 */
-	private void validateExistingThreads() throws CoreException {
-		
-		if ((threads == null) || (threads.size() == 0))
-			return;
-		
-		int aliveCount = purgeTerminatedThreads();
-
-		if (aliveCount > MAX_COUNT) {
-			ArrayList children = new ArrayList();
-			String pluginId =
-				UpdateCore.getPlugin().getBundle().getSymbolicName();
-			for (int i = 0; i < threads.size(); i++) {
-				ConnectionThread t = (ConnectionThread) threads.get(i);
-				String url = t.getRunnable().getURL().toString();
-				IStatus status =
-					new Status(
-						IStatus.ERROR,
-						pluginId,
-						IStatus.OK,
-						NLS.bind(Messages.ConnectionThreadManager_unresponsiveURL, (new String[] { url })),
-						null);
-				children.add(status);
+	public synchronized boolean isTimedOut(StreamRunnable runnable) {
+		return runnable.startTime != 0 && System.currentTimeMillis() - runnable.startTime > REQUEST_TIMEOUT;
+	}
+
+	/**
+	 * Abandons a connection attempt, because the user canceled it or it
+	 * timed out. The connection is disconnected and its thread, which may
+	 * still be blocked, is replaced in the pool.
+	 */
+	public void abandon(StreamRunnable runnable, boolean timeout) {
+		runnable.disconnect();
+		synchronized (this) {
+			if (timeout) {
+				timedOut++;
+				if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_WEB)
+					UpdateCore.debug("Connection timed out: " + runnable.getURL()); //$NON-NLS-1$
+			}
+			if (queue.remove(runnable))
+				return;
+			for (Iterator i = workers.iterator(); i.hasNext();) {
+				Worker worker = (Worker) i.next();
+				if (worker.current == runnable) {
+					i.remove();
+					break;
+				}
 			}
-			MultiStatus parentStatus =
-				new MultiStatus(
-					pluginId,
-					IStatus.OK,
-					(IStatus[]) children.toArray(new IStatus[children.size()]),
-					Messages.ConnectionThreadManager_tooManyConnections, 
-					null);
-			throw new CoreException(parentStatus);
+			release(runnable);
+			startWorker();
+		}
+	}
+
+	/**
+	 * Returns the number of connection attempts currently running.
+	 */
+	public synchronized int getActiveCount() {
+		return active;
+	}
+
+	/**
+	 * Returns the number of connection attempts waiting for a thread.
+	 */
+	public synchronized int getQueuedCount() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of connection attempts abandoned because they
+	 * timed out.
+	 */
+	public synchronized int getTimedOutCount() {
+		return timedOut;
+	}
+
+	/*
+	 * Starts a worker if connections are queued and all workers are busy.
+	 */
+	private void startWorker() {
+		if (!queue.isEmpty() && idle == 0 && workers.size() < MAX_COUNT) {
+			Worker worker = new Worker();
+			workers.add(worker);
+			worker.start();
 		}
 	}
-	
+
 	/*
-	 * Removes terminated threads from the list and returns
-	 * the number of those still active.
+	 * Returns the next runnable the worker can run, waiting for one if
+	 * needed, or null if the worker should terminate.
 	 */
-	
-	private int purgeTerminatedThreads() {
-		
-		if (threads.size() == 0) {
-			return 0;
+	private StreamRunnable next(Worker worker) {
+		while (workers.contains(worker)) {
+			for (Iterator i = queue.iterator(); i.hasNext();) {
+				StreamRunnable runnable = (StreamRunnable) i.next();
+				if (getActiveCount(runnable.host) < MAX_PER_HOST) {
+					i.remove();
+					activePerHost.put(runnable.host, new Integer(getActiveCount(runnable.host) + 1));
+					active++;
+					runnable.startTime = System.currentTimeMillis();
+					worker.current = runnable;
+					return runnable;
+				}
+			}
+			idle++;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			} finally {
+				idle--;
+			}
 		}
-		
-		int aliveCount = 0;
+		return null;
+	}
 
-		Object[] array = threads.toArray();
-		for (int i = 0; i < array.length; i++) {
-			Thread t = (Thread) array[i];
-			if (!t.isAlive())
-				threads.remove(t);
-			else
-				aliveCount++;
+	/*
+	 * Frees the slot used by a runnable, once it is done or abandoned.
+	 */
+	private void release(StreamRunnable runnable) {
+		if (runnable.released || runnable.startTime == 0)
+			return;
+		runnable.released = true;
+		active--;
+		int count = getActiveCount(runnable.host) - 1;
+		if (count > 0)
+			activePerHost.put(runnable.host, new Integer(count));
+		else
+			activePerHost.remove(runnable.host);
+		// a connection to this host may be waiting
+		notifyAll();
+	}
+
+	private int getActiveCount(String host) {
+		Integer count = (Integer) activePerHost.get(host);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/*
+	 * Sets the connect and read timeouts of a connection that is not
+	 * opened by a worker of the manager.
+	 */
+	static void setTimeouts(URLConnection connection) {
+		if (setConnectTimeout == null)
+			return;
+		try {
+			setConnectTimeout.invoke(connection, new Object[] {new Integer(CONNECT_TIMEOUT)});
+			setReadTimeout.invoke(connection, new Object[] {new Integer(READ_TIMEOUT)});
+		} catch (Exception e) {
+			// the default timeouts of the VM apply
 		}
-		return aliveCount;
 	}
 
-	public void shutdown() {
+	public synchronized void shutdown() {
 		// We might want to kill the active threads but
 		// this is not really necessary since they are all
 		// daemons and will not prevent JVM to terminate.
-		threads.clear();
+		// Idle workers terminate, new ones are started if needed.
+		workers.clear();
+		notifyAll();
 	}
 }
@@ -26,6 +26,10 @@ public class FileResponse implements IResponse {
 	}
 
 	public InputStream getInputStream() throws IOException {
+		// a plain file stream lets the content be copied through its file channel
+		File f = new File(url.getFile());
+		if (f.isFile())
+			return new FileInputStream(f);
 		return url.openStream();
 	}
 
@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core.connection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import org.eclipse.update.internal.core.UpdateCore;
+
+/**
+ * Local cache of the update site metadata (site.xml, feature.xml, digests)
+ * downloaded over HTTP.
+ * <p>
+ * Each cached body is stored with the ETag and Last-Modified validators the
+ * server returned. When the resource is requested again, the request is made
+ * conditional and a <code>304 Not Modified</code> answer is served from the
+ * cached body, so unchanged metadata is not downloaded again by repeated
+ * update checks.
+ * </p>
+ * <p>
+ * The cache lives in the state location of the plug-in and its total size
+ * is bounded by the <code>UpdateCore.P_HTTP_CACHE_SIZE</code> preference;
+ * the least recently used entries are evicted first. A size of 0 disables
+ * the cache.
+ * </p>
+ */
+public class HttpMetadataCache {
+
+	private static final String CACHE_DIR = "httpcache"; //$NON-NLS-1$
+	private static final String INDEX_FILE = "index"; //$NON-NLS-1$
+	private static final String BODY_SUFFIX = ".body"; //$NON-NLS-1$
+	private static final int MAGIC = 0x55434843; // UCHC
+	private static final int VERSION = 1;
+
+	private static HttpMetadataCache defaultCache;
+	private static boolean initialized;
+
+	private File dir;
+	private long maxSize;
+	private long size;
+	private long nextId;
+	// url -> Entry, in access order
+	private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+	/**
+	 * A cached body and its validators
+	 */
+	public static class Entry {
+		private String url;
+		private String etag;
+		private long lastModified;
+		private long length;
+		private long id;
+
+		Entry(String url, String etag, long lastModified, long length, long id) {
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.id = id;
+		}
+
+		/**
+		 * Returns the ETag of the cached body, or <code>null</code>.
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Returns the Last-Modified time of the cached body, or 0.
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the length of the cached body.
+		 */
+		public long getLength() {
+			return length;
+		}
+	}
+
+	/*
+	 * Copies the body to its cache file while it is read, and adds it to
+	 * the cache if it was read completely.
+	 */
+	private class RecordingInputStream extends FilterInputStream {
+		private String url;
+		private String etag;
+		private long lastModified;
+		private File file;
+		private OutputStream out;
+		private long length;
+		private long id;
+		private boolean complete;
+
+		RecordingInputStream(InputStream in, String url, String etag, long lastModified, File file, long id) throws IOException {
+			super(in);
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.file = file;
+			this.id = id;
+			this.out = new BufferedOutputStream(new FileOutputStream(file));
+		}
+
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1)
+				complete = true;
+			else
+				record(new byte[] {(byte) b}, 0, 1);
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count == -1)
+				complete = true;
+			else
+				record(b, off, count);
+			return count;
+		}
+
+		public long skip(long n) throws IOException {
+			// skipped bytes are not recorded
+			abort();
+			return super.skip(n);
+		}
+
+		public boolean markSupported() {
+			return false;
+		}
+
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+						out = null;
+						if (complete)
+							put(new Entry(url, etag, lastModified, length, id));
+						else
+							file.delete();
+					} catch (IOException e) {
+						abort();
+					}
+				}
+			}
+		}
+
+		private void record(byte[] b, int off, int len) {
+			if (out == null)
+				return;
+			length += len;
+			try {
+				// do not let a single body flush the whole cache
+				if (length > maxSize / 4)
+					abort();
+				else
+					out.write(b, off, len);
+			} catch (IOException e) {
+				abort();
+			}
+		}
+
+		/*
+		 * Stops recording, the body is not cached.
+		 */
+		private void abort() {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				out = null;
+			}
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns the cache of the plug-in, or <code>null</code> if the cache is
+	 * disabled or the state location is not available.
+	 */
+	public static synchronized HttpMetadataCache getDefault() {
+		if (!initialized) {
+			initialized = true;
+			try {
+				UpdateCore plugin = UpdateCore.getPlugin();
+				if (plugin == null)
+					return null;
+				long maxSize = plugin.getPluginPreferences().getLong(UpdateCore.P_HTTP_CACHE_SIZE);
+				if (maxSize <= 0)
+					return null;
+				File dir = plugin.getStateLocation().append(CACHE_DIR).toFile();
+				defaultCache = new HttpMetadataCache(dir, maxSize);
+			} catch (RuntimeException e) {
+				// no instance location, run without the cache
+				UpdateCore.warn("HTTP metadata cache not available", e); //$NON-NLS-1$
+			}
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Creates a cache in the given directory.
+	 * @param dir the directory of the cache
+	 * @param maxSize the maximum total size of the cached bodies
+	 */
+	public HttpMetadataCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		load();
+	}
+
+	/**
+	 * Returns whether the resource at this URL is update site metadata.
+	 * Archives are not cached.
+	 */
+	public boolean isCacheable(URL url) {
+		if (!url.getProtocol().startsWith("http")) //$NON-NLS-1$
+			return false;
+		String path = url.getPath().toLowerCase();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.endsWith(".xml") || (name.startsWith("digest") && name.endsWith(".zip")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Returns the cached entry of a URL, or <code>null</code>.
+	 */
+	public synchronized Entry get(URL url) {
+		Entry entry = (Entry) entries.get(url.toExternalForm());
+		if (entry != null && !getFile(entry.id).isFile()) {
+			remove(entry);
+			save();
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Opens the cached body of an entry.
+	 * @exception IOException if the body was evicted meanwhile
+	 */
+	public InputStream open(Entry entry) throws IOException {
+		return new FileInputStream(getFile(entry.id));
+	}
+
+	/**
+	 * Returns a stream that reads the body of a resource and adds it to the
+	 * cache once it has been read completely. Bodies without validators are
+	 * not cached, and the stream is returned unchanged.
+	 * @param url the URL of the resource
+	 * @param in the body of the response
+	 * @param etag the ETag of the response, or <code>null</code>
+	 * @param lastModified the Last-Modified time of the response, or 0
+	 */
+	public InputStream record(URL url, InputStream in, String etag, long lastModified) {
+		if (etag == null && lastModified == 0)
+			return in;
+		long id;
+		synchronized (this) {
+			id = nextId++;
+		}
+		try {
+			dir.mkdirs();
+			return new RecordingInputStream(in, url.toExternalForm(), etag, lastModified, getFile(id), id);
+		} catch (IOException e) {
+			return in;
+		}
+	}
+
+	/**
+	 * Removes the entry of a URL, if any.
+	 */
+	public synchronized void remove(URL url) {
+		Entry entry = (Entry) entries.get(url.toExternalForm());
+		if (entry != null) {
+			remove(entry);
+			save();
+		}
+	}
+
+	/**
+	 * Returns the total size of the cached bodies.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private synchronized void put(Entry entry) {
+		Entry old = (Entry) entries.get(entry.url);
+		if (old != null)
+			remove(old);
+		entries.put(entry.url, entry);
+		size += entry.length;
+		// evict the least recently used entries
+		for (Iterator i = entries.values().iterator(); size > maxSize && i.hasNext();) {
+			Entry eldest = (Entry) i.next();
+			if (eldest == entry)
+				break;
+			i.remove();
+			size -= eldest.length;
+			getFile(eldest.id).delete();
+		}
+		save();
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_WEB)
+			UpdateCore.debug("Cached " + entry.url + " (" + entry.length + " bytes)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.url);
+		size -= entry.length;
+		getFile(entry.id).delete();
+	}
+
+	private File getFile(long id) {
+		return new File(dir, Long.toString(id) + BODY_SUFFIX);
+	}
+
+	/*
+	 * Reads the index. Bodies that are not in the index are deleted.
+	 */
+	private void load() {
+		File file = new File(dir, INDEX_FILE);
+		if (file.isFile()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					throw new IOException("Unexpected cache index format"); //$NON-NLS-1$
+				nextId = in.readLong();
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String url = in.readUTF();
+					String etag = in.readBoolean() ? in.readUTF() : null;
+					Entry entry = new Entry(url, etag, in.readLong(), in.readLong(), in.readLong());
+					entries.put(url, entry);
+					size += entry.length;
+				}
+			} catch (IOException e) {
+				UpdateCore.warn("Could not read HTTP metadata cache index", e); //$NON-NLS-1$
+				entries.clear();
+				size = 0;
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		Set names = new HashSet();
+		for (Iterator i = entries.values().iterator(); i.hasNext();) {
+			Entry entry = (Entry) i.next();
+			names.add(getFile(entry.id).getName());
+			nextId = Math.max(nextId, entry.id + 1);
+		}
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(BODY_SUFFIX) && !names.contains(files[i].getName()))
+				files[i].delete();
+		}
+	}
+
+	/*
+	 * Writes the index, in access order so that the order survives a restart.
+	 */
+	private void save() {
+		File file = new File(dir, INDEX_FILE);
+		File tmp = new File(dir, INDEX_FILE + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		try {
+			dir.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(nextId);
+			out.writeInt(entries.size());
+			for (Iterator i = entries.values().iterator(); i.hasNext();) {
+				Entry entry = (Entry) i.next();
+				out.writeUTF(entry.url);
+				out.writeBoolean(entry.etag != null);
+				if (entry.etag != null)
+					out.writeUTF(entry.etag);
+				out.writeLong(entry.lastModified);
+				out.writeLong(entry.length);
+				out.writeLong(entry.id);
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not rename " + tmp); //$NON-NLS-1$
+		} catch (IOException e) {
+			UpdateCore.warn("Could not write HTTP metadata cache index", e); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
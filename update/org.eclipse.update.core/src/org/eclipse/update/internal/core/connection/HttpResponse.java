@@ -110,6 +110,10 @@ public class HttpResponse extends AbstractResponse {
 	protected InputStream in;
 	protected long lastModified;
 	protected long offset;
+	// last byte of the requested range, -1 for the end of the resource
+	protected long rangeEnd = -1;
+	// cached copy the request is conditional on, if any
+	private HttpMetadataCache.Entry cached;
 
 	protected HttpResponse(URL url) {
 		
@@ -118,10 +122,10 @@ public class HttpResponse extends AbstractResponse {
 
 	public InputStream getInputStream() throws IOException {
 		if (in == null && url != null) {
-			if (connection == null || offset > 0)
-				connection = url.openConnection();
-			if (offset > 0)
-				connection.setRequestProperty("Range", "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			if (connection == null || isRanged())
+				connection = openConnection();
+			if (isRanged())
+				connection.setRequestProperty("Range", "bytes=" + offset + "-" + (rangeEnd >= 0 ? String.valueOf(rangeEnd) : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			try {
 				in = new MonitoringInputStream(connection.getInputStream(), connection);
 			} catch (IOException ioe) {
@@ -129,6 +133,7 @@ public class HttpResponse extends AbstractResponse {
 				throw ioe;
 			}
 			checkOffset();
+			in = useCache(in);
 		}
 		return in;
 	}
@@ -153,10 +158,10 @@ public class HttpResponse extends AbstractResponse {
 	public InputStream getInputStream(IProgressMonitor monitor)
 		throws IOException, CoreException, TooManyOpenConnectionsException {
 		if (in == null && url != null) {
-			if (connection == null || offset > 0)
-				connection = url.openConnection();
-			if (offset > 0)
-				connection.setRequestProperty("Range", "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			if (connection == null || isRanged())
+				connection = openConnection();
+			if (isRanged())
+				connection.setRequestProperty("Range", "bytes=" + offset + "-" + (rangeEnd >= 0 ? String.valueOf(rangeEnd) : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 
 			if (monitor != null) {
 				try {
@@ -181,12 +186,16 @@ public class HttpResponse extends AbstractResponse {
 			checkOffset();
 			if (connection != null) {
 				this.lastModified = connection.getLastModified();
+				if (this.in != null)
+					this.in = useCache(this.in);
 			}
 		}
 		return in;
 	}
 
 	public long getContentLength() {
+		if (isNotModified())
+			return cached.getLength();
 		if (connection != null)
 			return connection.getContentLength();
 		return 0;
@@ -195,12 +204,16 @@ public class HttpResponse extends AbstractResponse {
 	public int getStatusCode() {
 		if (connection == null)
 			try {
-				connection = url.openConnection();
+				connection = openConnection();
 			} catch (IOException e) {
 			}
 		if (connection != null) {
 			try {
-				return ((HttpURLConnection) connection).getResponseCode();
+				int code = ((HttpURLConnection) connection).getResponseCode();
+				// the cached copy is served
+				if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+					return UpdateCore.HTTP_OK;
+				return code;
 			} catch (IOException e) {
 				UpdateCore.warn("", e); //$NON-NLS-1$
 			}
@@ -223,27 +236,124 @@ public class HttpResponse extends AbstractResponse {
 		if (lastModified == 0) {
 			if (connection == null)
 				try {
-					connection = url.openConnection();
+					connection = openConnection();
 				} catch (IOException e) {
 				}
 			if (connection != null)
 				lastModified = connection.getLastModified();
+			// servers may omit the header in a 304 answer
+			if (lastModified == 0 && isNotModified())
+				lastModified = cached.getLastModified();
 		}
 		return lastModified;
 	}
 
+	/**
+	 * Returns whether the request was made conditional on a cached copy of
+	 * the resource.
+	 */
+	public boolean isConditional() {
+		return cached != null;
+	}
+
+	/**
+	 * Returns whether the server answered that the cached copy of the
+	 * resource is current. The response then serves the cached copy.
+	 */
+	public boolean isNotModified() {
+		if (cached == null || connection == null)
+			return false;
+		try {
+			return ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
 	public void setOffset(long offset) {
 		this.offset = offset;
 	}
+
+	/**
+	 * Requests a range of the resource. The response fails with an
+	 * IOException if the server does not return that exact range.
+	 * @param offset the first byte of the range
+	 * @param end the last byte of the range, inclusive
+	 */
+	public void setRange(long offset, long end) {
+		this.offset = offset;
+		this.rangeEnd = end;
+	}
+
+	private boolean isRanged() {
+		return offset > 0 || rangeEnd >= 0;
+	}
+	/*
+	 * Opens a connection to the URL. Requests for update site metadata are
+	 * made conditional on the cached copy, if there is one.
+	 */
+	private URLConnection openConnection() throws IOException {
+		URLConnection urlConnection = url.openConnection();
+		cached = null;
+		HttpMetadataCache cache = HttpMetadataCache.getDefault();
+		if (!isRanged() && cache != null && cache.isCacheable(url)) {
+			cached = cache.get(url);
+			if (cached != null) {
+				if (cached.getETag() != null)
+					urlConnection.setRequestProperty("If-None-Match", cached.getETag()); //$NON-NLS-1$
+				if (cached.getLastModified() != 0)
+					urlConnection.setIfModifiedSince(cached.getLastModified());
+			}
+		}
+		return urlConnection;
+	}
+
+	/*
+	 * Serves the cached copy if the server answered that it is current,
+	 * otherwise records the body of update site metadata in the cache.
+	 */
+	private InputStream useCache(InputStream stream) throws IOException {
+		HttpMetadataCache cache = HttpMetadataCache.getDefault();
+		if (isRanged() || cache == null || !cache.isCacheable(url))
+			return stream;
+		if (isNotModified()) {
+			stream.close();
+			if (lastModified == 0)
+				lastModified = cached.getLastModified();
+			try {
+				if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_WEB)
+					UpdateCore.debug("Not modified, using cached copy: " + url); //$NON-NLS-1$
+				return cache.open(cached);
+			} catch (IOException e) {
+				// evicted meanwhile, request the resource again
+				cache.remove(url);
+				cached = null;
+				lastModified = 0;
+				connection = url.openConnection();
+				// not run by the connection manager, it would not time out otherwise
+				ConnectionThreadManager.setTimeouts(connection);
+				try {
+					stream = new MonitoringInputStream(connection.getInputStream(), connection);
+				} catch (IOException ioe) {
+					connection = null;
+					throw ioe;
+				}
+			}
+		}
+		if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK)
+			return stream;
+		return cache.record(url, stream, connection.getHeaderField("ETag"), connection.getLastModified()); //$NON-NLS-1$
+	}
+
 	private void checkOffset() throws IOException {
-		if (offset == 0)
+		if (!isRanged())
 			return;
 		String range = connection.getHeaderField("Content-Range"); //$NON-NLS-1$
 		//System.out.println("Content-Range=" + range);
 		if (range == null) {
 			//System.err.println("Server does not support ranges");
 			throw new IOException(Messages.HttpResponse_rangeExpected); 
-		} else if (!range.startsWith("bytes " + offset + "-")) { //$NON-NLS-1$ //$NON-NLS-2$
+		} else if (!range.startsWith("bytes " + offset + "-" + (rangeEnd >= 0 ? rangeEnd + "/" : ""))) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			//System.err.println("Server returned wrong range");
 			throw new IOException(Messages.HttpResponse_wrongRange); 
 		}
@@ -44,6 +44,7 @@ public class MirrorCommand extends ScriptedCommand {
 	private String toSiteDir;
 	private String mirrorURL;
 	private boolean ignoreNonPresentPlugins = false;
+	private int threads = 1;
 	private MirrorSite mirrorSite;
 
 	public MirrorCommand(
@@ -61,6 +62,24 @@ public class MirrorCommand extends ScriptedCommand {
 		this.ignoreNonPresentPlugins = (ignoreNonPresentPlugins != null) && (ignoreNonPresentPlugins.equals("true")); //$NON-NLS-1$
 	}
 
+	public MirrorCommand(
+		String featureId,
+		String featureVersion,
+		String fromSiteUrl,
+		String toSiteDir,
+		String mirrorUrl, 
+		String ignoreNonPresentPlugins,
+		String threads) {
+		this(featureId, featureVersion, fromSiteUrl, toSiteDir, mirrorUrl, ignoreNonPresentPlugins);
+		if (threads != null) {
+			try {
+				this.threads = Integer.parseInt(threads);
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid number of threads " + threads + ", mirroring on a single thread."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+
 	/**
 	 * true if success
 	 */
@@ -140,6 +159,7 @@ public class MirrorCommand extends ScriptedCommand {
 					mirrorSite =
 						(MirrorSite) factory.createSite(new File(toSiteDir));
 					mirrorSite.setIgnoreNonPresentPlugins(ignoreNonPresentPlugins);
+					mirrorSite.setThreads(threads);
 				} catch (InvalidSiteTypeException iste) {
 				}
 				System.out.println("  Done."); //$NON-NLS-1$
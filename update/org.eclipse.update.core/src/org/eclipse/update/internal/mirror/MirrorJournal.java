@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.mirror;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import org.eclipse.update.core.Utilities;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.standalone.StandaloneUpdateApplication;
+
+/**
+ * Journal of the archives stored on a mirror site.
+ * <p>
+ * Each archive is recorded with its length and the MD5 checksum of its
+ * content once it has been stored completely, one line per archive, and
+ * the journal is flushed after each line. When a mirror run is interrupted
+ * and started again, the archives of the journal that are still present
+ * with the same length and checksum are not downloaded again.
+ * </p>
+ * <p>
+ * The journal also counts the archives stored and skipped during the run,
+ * and writes them to a report when the run is done.
+ * </p>
+ */
+public class MirrorJournal {
+	/** Name of the journal, in the directory of the mirror site */
+	public static final String JOURNAL_FILE = ".mirror-journal"; //$NON-NLS-1$
+	/** Name of the throughput report, in the directory of the mirror site */
+	public static final String REPORT_FILE = "mirror-report.properties"; //$NON-NLS-1$
+	/** Checksum recorded when MD5 is not available */
+	static final String NO_CHECKSUM = "-"; //$NON-NLS-1$
+
+	private File siteDir;
+	// path -> Entry
+	private Map entries = new HashMap();
+	private PrintWriter writer;
+
+	// statistics of the run
+	private long startTime = System.currentTimeMillis();
+	private int storedCount;
+	private int skippedCount;
+	private long storedBytes;
+	private long skippedBytes;
+
+	private static class Entry {
+		long length;
+		String checksum;
+
+		Entry(long length, String checksum) {
+			this.length = length;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Opens the journal of a mirror site.
+	 * @param siteDir the directory of the mirror site
+	 */
+	public MirrorJournal(File siteDir) {
+		this.siteDir = siteDir;
+		load();
+	}
+
+	/**
+	 * Returns the path of an archive of the site, relative to the site directory.
+	 */
+	public String getPath(File file) {
+		String site = siteDir.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if (path.startsWith(site) && path.length() > site.length())
+			path = path.substring(site.length() + 1);
+		return path.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Returns whether an archive was stored completely by this run or a
+	 * previous one, and was not changed since: its length and the checksum
+	 * of its content must match the journal. An archive that is skipped
+	 * because of this is counted in the report.
+	 * @param file the archive
+	 */
+	public boolean isComplete(File file) {
+		Entry entry;
+		synchronized (this) {
+			entry = (Entry) entries.get(getPath(file));
+		}
+		if (entry == null || !file.isFile() || file.length() != entry.length)
+			return false;
+		// the file is read outside of the lock, the other threads keep mirroring
+		String checksum = computeChecksum(file);
+		if (checksum == null || !checksum.equals(entry.checksum))
+			return false;
+		synchronized (this) {
+			skippedCount++;
+			skippedBytes += entry.length;
+		}
+		return true;
+	}
+
+	/**
+	 * Records that an archive was stored completely.
+	 * @param file the archive
+	 * @param checksum the MD5 checksum of the content, in hexadecimal
+	 */
+	public synchronized void record(File file, String checksum) {
+		String path = getPath(file);
+		long length = file.length();
+		entries.put(path, new Entry(length, checksum));
+		storedCount++;
+		storedBytes += length;
+		try {
+			if (writer == null) {
+				OutputStream out = new FileOutputStream(new File(siteDir, JOURNAL_FILE), true);
+				writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8")); //$NON-NLS-1$
+			}
+			writer.print(path);
+			writer.print('\t');
+			writer.print(length);
+			writer.print('\t');
+			writer.println(checksum);
+			writer.flush();
+		} catch (IOException e) {
+			// the archive is downloaded again by the next run
+			UpdateCore.warn("Unable to write the mirror journal", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Closes the journal and writes the report of the run.
+	 * @param threads the number of download threads of the run
+	 */
+	public synchronized void close(int threads) {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+
+		long elapsed = System.currentTimeMillis() - startTime;
+		Properties report = new Properties();
+		report.setProperty("archives.stored", Integer.toString(storedCount)); //$NON-NLS-1$
+		report.setProperty("archives.skipped", Integer.toString(skippedCount)); //$NON-NLS-1$
+		report.setProperty("bytes.stored", Long.toString(storedBytes)); //$NON-NLS-1$
+		report.setProperty("bytes.skipped", Long.toString(skippedBytes)); //$NON-NLS-1$
+		report.setProperty("elapsed.ms", Long.toString(elapsed)); //$NON-NLS-1$
+		report.setProperty("bytes.per.second", Long.toString(elapsed > 0 ? storedBytes * 1000 / elapsed : storedBytes)); //$NON-NLS-1$
+		report.setProperty("threads", Integer.toString(threads)); //$NON-NLS-1$
+
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(siteDir, REPORT_FILE));
+			report.store(out, "Mirror throughput report"); //$NON-NLS-1$
+		} catch (IOException e) {
+			StandaloneUpdateApplication.exceptionLogged();
+			UpdateCore.log(Utilities.newCoreException(REPORT_FILE + " could not be saved.", e)); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		System.out.println(
+			"Stored " + storedCount + " archives (" + storedBytes + " bytes) in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ elapsed + " ms, skipped " + skippedCount + " archives already mirrored."); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns a new digest for the checksums of the journal, or
+	 * <code>null</code> if MD5 is not available.
+	 */
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the checksum of a digest, in hexadecimal.
+	 */
+	static String toHexString(byte[] bytes) {
+		StringBuffer buffer = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+			buffer.append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return buffer.toString();
+	}
+
+	/*
+	 * Returns the checksum of the content of a file, or null if it cannot
+	 * be computed.
+	 */
+	private static String computeChecksum(File file) {
+		MessageDigest digest = createDigest();
+		if (digest == null)
+			return null;
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1)
+				digest.update(buffer, 0, count);
+			return toHexString(digest.digest());
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Reads the journal. Lines written partially by an interrupted run are
+	 * ignored.
+	 */
+	private void load() {
+		File file = new File(siteDir, JOURNAL_FILE);
+		if (!file.isFile())
+			return;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+			String line;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tokens = new StringTokenizer(line, "\t"); //$NON-NLS-1$
+				if (tokens.countTokens() != 3)
+					continue;
+				String path = tokens.nextToken();
+				try {
+					long length = Long.parseLong(tokens.nextToken());
+					entries.put(path, new Entry(length, tokens.nextToken()));
+				} catch (NumberFormatException e) {
+					// partial line
+				}
+			}
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to read the mirror journal", e); //$NON-NLS-1$
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
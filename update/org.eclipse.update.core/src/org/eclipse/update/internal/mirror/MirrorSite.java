@@ -17,10 +17,14 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.core.runtime.CoreException;
@@ -50,20 +54,33 @@ import org.eclipse.update.internal.core.FeaturePackagedContentProvider;
 import org.eclipse.update.internal.core.ISiteContentConsumer;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
+import org.eclipse.update.internal.core.WorkerPool;
 import org.eclipse.update.standalone.StandaloneUpdateApplication;
 
 /**
  * Local mirror site.  Read/Write
+ * <p>
+ * The plug-in archives of a feature are downloaded and stored on
+ * the number of threads set with {@link #setThreads(int)}; the connections
+ * to a given host are limited by the connection pool. Stored archives are
+ * recorded in a {@link MirrorJournal}, so that a run that was interrupted
+ * does not download them again, and site.xml is saved after each feature.
+ * </p>
  */
 public class MirrorSite extends Site {
 	private final static String INDENT = "   "; //$NON-NLS-1$
+	private final static String PART_SUFFIX = ".part"; //$NON-NLS-1$
 	private SiteModelFactory factory;
 	/**
 	 * plugin entries 
 	 */
 	private Collection downloadedPluginEntries = new ArrayList();
 	private Collection downloadedFeatureReferenceModels = new ArrayList();
+	// VersionedIdentifier -> SiteFeatureReferenceModel of the downloaded features
+	private Map downloadedFeatures = new HashMap();
 	private boolean ignoreNonPresentPlugins;
+	private int threads = 1;
+	private MirrorJournal journal;
 	public MirrorSite(SiteModelFactory factory) {
 		this.factory = factory;
 	}
@@ -82,10 +99,16 @@ public class MirrorSite extends Site {
 		String mirrorSiteUrl)
 		throws CoreException {
 
-		mirrorAndExposeFeatures(
-			remoteSite,
-			sourceFeatureRefs,
-			optionalfeatures);
+		journal = new MirrorJournal(getSiteDirectory());
+		try {
+			mirrorAndExposeFeatures(
+				remoteSite,
+				sourceFeatureRefs,
+				optionalfeatures);
+		} finally {
+			journal.close(threads);
+			journal = null;
+		}
 
 		System.out.println(
 			"Installing features finished. Updating categories ..."); //$NON-NLS-1$
@@ -174,19 +197,15 @@ public class MirrorSite extends Site {
 				+ "Mirroring feature " //$NON-NLS-1$
 				+ sourceFeature.getVersionedIdentifier()
 				+ " ..."); //$NON-NLS-1$
-		SiteFeatureReferenceModel existingFeatures[] =
-			getDownloadedFeatureReferenceModels();
-		for (int e = 0; e < existingFeatures.length; e++) {
-			if (existingFeatures[e]
-				.getVersionedIdentifier()
-				.equals(sourceFeature.getVersionedIdentifier())) {
-				System.out.println(
-					tab
-						+ "Feature " //$NON-NLS-1$
-						+ sourceFeature.getVersionedIdentifier()
-						+ " already exists.  Skipping downloading."); //$NON-NLS-1$
-				return existingFeatures[e];
-			}
+		SiteFeatureReferenceModel existingFeature =
+			getDownloadedFeatureReferenceModel(sourceFeature.getVersionedIdentifier());
+		if (existingFeature != null) {
+			System.out.println(
+				tab
+					+ "Feature " //$NON-NLS-1$
+					+ sourceFeature.getVersionedIdentifier()
+					+ " already exists.  Skipping downloading."); //$NON-NLS-1$
+			return existingFeature;
 		}
 
 		final IFeatureContentProvider provider =
@@ -247,24 +266,11 @@ public class MirrorSite extends Site {
 
 		System.out.println(
 			tab
-				+ "Downloading plug-in archives for " //$NON-NLS-1$
+				+ "Mirroring plug-in archives for " //$NON-NLS-1$
 				+ sourceFeature.getVersionedIdentifier()
 				+ " ..."); //$NON-NLS-1$
-		// download plugin archives
-		for (int i = 0; i < pluginsToInstall.length; i++) {
-			try {
-				provider.getPluginEntryArchiveReferences(pluginsToInstall[i], null);
-			} catch (CoreException ce) {
-				if ( ignoreNonPresentPlugins && 
-						(ce instanceof CoreExceptionWithRootCause) &&
-						(((CoreExceptionWithRootCause)ce).getRootException() != null) && 
-						(((CoreExceptionWithRootCause)ce).getRootException() instanceof FatalIOException) ) {
-					System.out.println("Could not mirror plug-in " + pluginsToInstall[i].getVersionedIdentifier().toString() + ". It does not exist on the given site");  //$NON-NLS-1$//$NON-NLS-2$
-				} else {
-					throw ce;
-				}
-			}
-		}
+		// download and store plugin archives
+		mirrorPluginArchives(provider, pluginsToInstall);
 
 		System.out.println(
 			tab
@@ -293,30 +299,6 @@ public class MirrorSite extends Site {
 				indent + 1);
 		}
 
-		System.out.println(
-			tab
-				+ "Storing plug-in archives for " //$NON-NLS-1$
-				+ sourceFeature.getVersionedIdentifier()
-				+ " ..."); //$NON-NLS-1$
-		// store plugins' archives
-		for (int i = 0; i < pluginsToInstall.length; i++) {
-			try {
-				ContentReference[] references = provider.getPluginEntryArchiveReferences( pluginsToInstall[i], null);
-				storePluginArchive(references[0]);
-				addDownloadedPluginEntry(pluginsToInstall[i]);
-			} catch (CoreException ce) {
-				if ( ignoreNonPresentPlugins && 
-						(ce instanceof CoreExceptionWithRootCause) &&
-						(((CoreExceptionWithRootCause)ce).getRootException() != null) && 
-						(((CoreExceptionWithRootCause)ce).getRootException() instanceof FatalIOException) ) {
-					System.out.println("Could not write plug-in " + pluginsToInstall[i].getVersionedIdentifier().toString() + ". It does not exist on the given site"); //$NON-NLS-1$ //$NON-NLS-2$
-				} else {
-					//System.out.println("ignoreNonPresentPlugins:"+ignoreNonPresentPlugins); //$NON-NLS-1$
-					throw ce;
-				}
-			}
-		}
-
 		System.out.println(
 			tab
 				+ "Storing non plug-in archives for " //$NON-NLS-1$
@@ -371,6 +353,84 @@ public class MirrorSite extends Site {
 		return featureRef;
 
 	}
+
+	/*
+	 * Downloads and stores the plug-in archives, on several threads if
+	 * enabled. Archives already stored by a previous run are skipped. The
+	 * plug-in entries are added to the downloaded entries in their order,
+	 * and the first failure is thrown once all the tasks are done.
+	 */
+	private void mirrorPluginArchives(
+		final IFeatureContentProvider provider,
+		final IPluginEntry[] plugins)
+		throws CoreException {
+		final boolean[] stored = new boolean[plugins.length];
+		final CoreException[] failure = new CoreException[1];
+		WorkerPool pool = null;
+		if (threads > 1 && plugins.length > 1)
+			pool = new WorkerPool("MirrorSite", Math.min(threads, plugins.length)); //$NON-NLS-1$
+		for (int i = 0; i < plugins.length; i++) {
+			final int index = i;
+			Runnable task = new Runnable() {
+				public void run() {
+					synchronized (failure) {
+						if (failure[0] != null)
+							return;
+					}
+					try {
+						stored[index] = mirrorPluginArchive(provider, plugins[index]);
+					} catch (CoreException e) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = e;
+						}
+					}
+				}
+			};
+			if (pool == null)
+				task.run();
+			else
+				pool.execute(task);
+		}
+		if (pool != null) {
+			pool.join(null);
+			pool.shutdown();
+		}
+		for (int i = 0; i < plugins.length; i++) {
+			if (stored[i])
+				addDownloadedPluginEntry(plugins[i]);
+		}
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	/*
+	 * Downloads and stores the archive of a plug-in, unless the journal
+	 * shows it is already stored. Returns false if the plug-in is missing
+	 * on the remote site and missing plug-ins are ignored.
+	 */
+	private boolean mirrorPluginArchive(
+		IFeatureContentProvider provider,
+		IPluginEntry plugin)
+		throws CoreException {
+		File file = new File(getSiteDirectory(), Site.DEFAULT_PLUGIN_PATH + plugin.getVersionedIdentifier().toString() + ".jar"); //$NON-NLS-1$
+		if (journal != null && journal.isComplete(file))
+			return true;
+		try {
+			ContentReference[] references = provider.getPluginEntryArchiveReferences(plugin, null);
+			storePluginArchive(references[0]);
+			return true;
+		} catch (CoreException ce) {
+			if ( ignoreNonPresentPlugins && 
+					(ce instanceof CoreExceptionWithRootCause) &&
+					(((CoreExceptionWithRootCause)ce).getRootException() != null) && 
+					(((CoreExceptionWithRootCause)ce).getRootException() instanceof FatalIOException) ) {
+				System.out.println("Could not mirror plug-in " + plugin.getVersionedIdentifier().toString() + ". It does not exist on the given site");  //$NON-NLS-1$//$NON-NLS-2$
+				return false;
+			}
+			throw ce;
+		}
+	}
 	/**
 	 * Adds a feature reference model to this site,
 	 * and exposes in site.xml if remote site exposes given feature.
@@ -433,7 +493,7 @@ public class MirrorSite extends Site {
 						+ ".jar"); //$NON-NLS-1$
 			featurePath = newURL.getFile();
 			inStream = contentReference.getInputStream();
-			UpdateManagerUtils.copyToLocal(inStream, featurePath, null);
+			storeArchive(inStream, new File(featurePath));
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
 				"Error occurred while creating "+ featurePath+" file.", //$NON-NLS-1$ //$NON-NLS-2$
@@ -462,7 +522,7 @@ public class MirrorSite extends Site {
 			inStream = contentReference.getInputStream();
 			// added null check here,  since contentReference can, in theory, return null for input stream. 
 			if (inStream != null) {
-				UpdateManagerUtils.copyToLocal(inStream, pluginPath, null);
+				storeArchive(inStream, new File(pluginPath));
 			}
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
@@ -497,10 +557,7 @@ public class MirrorSite extends Site {
 			inStream = contentReference.getInputStream();
 			nonPluginArchivePath =
 				new File(dir, contentReference.getIdentifier());
-			UpdateManagerUtils.copyToLocal(
-				inStream,
-				nonPluginArchivePath.getAbsolutePath(),
-				null);
+			storeArchive(inStream, nonPluginArchivePath);
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
 			"Error occurred while creating "+ nonPluginArchivePath.getAbsolutePath()+" file." //$NON-NLS-1$ //$NON-NLS-2$
@@ -515,15 +572,52 @@ public class MirrorSite extends Site {
 		}
 	}
 
+	/*
+	 * Copies an archive to the site. The content is written to a temporary
+	 * file that is renamed once complete, so that an interrupted run does
+	 * not leave a truncated archive behind, and is then recorded in the
+	 * journal with its checksum.
+	 */
+	private void storeArchive(InputStream in, File file) throws IOException, CoreException {
+		// stored without checksum if MD5 is not available
+		MessageDigest digest = MirrorJournal.createDigest();
+		if (digest != null)
+			in = new DigestInputStream(in, digest);
+		File part = new File(file.getPath() + PART_SUFFIX);
+		UpdateManagerUtils.copyToLocal(in, part.getPath(), null);
+		file.delete();
+		if (!part.renameTo(file))
+			throw new IOException("Unable to rename " + part + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+		if (journal != null)
+			journal.record(file, digest == null ? MirrorJournal.NO_CHECKSUM : MirrorJournal.toHexString(digest.digest()));
+	}
+
+	private File getSiteDirectory() {
+		return new File(getURL().getFile());
+	}
+
+	/*
+	 * Saves site.xml. The file is written next to site.xml and renamed,
+	 * so that site.xml stays valid if the run is interrupted.
+	 */
 	private void save() {
 		FileOutputStream fos = null;
+		File siteFile = null;
+		File tempFile = null;
 		try {
 			URL siteURL = new URL(this.getURL(), "site.xml"); //$NON-NLS-1$
-			fos = new FileOutputStream(new File(siteURL.getFile()));
+			siteFile = new File(siteURL.getFile());
+			tempFile = new File(siteFile.getPath() + PART_SUFFIX);
+			fos = new FileOutputStream(tempFile);
 			OutputStreamWriter outWriter = new OutputStreamWriter(fos, "UTF-8"); //$NON-NLS-1$
 			PrintWriter writer = new PrintWriter(outWriter);
 			save(writer);
 			writer.flush();
+			fos.close();
+			fos = null;
+			siteFile.delete();
+			if (!tempFile.renameTo(siteFile))
+				throw new IOException("Unable to rename " + tempFile + " to " + siteFile); //$NON-NLS-1$ //$NON-NLS-2$
 		} catch (IOException ioe) {
 			StandaloneUpdateApplication.exceptionLogged();
 			UpdateCore.log(
@@ -672,14 +766,13 @@ public class MirrorSite extends Site {
 	 */
 	public void addDownloadedFeatureReferenceModel(SiteFeatureReferenceModel featureModel) {
 		downloadedFeatureReferenceModels.add(featureModel);
+		VersionedIdentifier id = featureModel.getVersionedIdentifier();
+		if (!downloadedFeatures.containsKey(id))
+			downloadedFeatures.put(id, featureModel);
 	}
 
-	private SiteFeatureReferenceModel[] getDownloadedFeatureReferenceModels() {
-		return (
-			SiteFeatureReferenceModel[]) downloadedFeatureReferenceModels
-				.toArray(
-			new SiteFeatureReferenceModel[downloadedFeatureReferenceModels
-				.size()]);
+	private SiteFeatureReferenceModel getDownloadedFeatureReferenceModel(VersionedIdentifier id) {
+		return (SiteFeatureReferenceModel) downloadedFeatures.get(id);
 	}
 	/**
 	 * Checks if mirror site contains a feature with given ID and version
@@ -815,6 +908,14 @@ public class MirrorSite extends Site {
 		}
 	}
 
+	/**
+	 * Sets the number of threads the plug-in archives are mirrored on.
+	 * The default is 1.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
 	public void setIgnoreNonPresentPlugins(boolean ignoreNonPresentPlugins) {
 		this.ignoreNonPresentPlugins = ignoreNonPresentPlugins;
 		
@@ -37,6 +37,9 @@ public class ConfigurationPolicyModel extends ModelObject {
 	// since 2.1
 	private boolean enable;
 
+	// changes each time the configured or unconfigured features change
+	private volatile int modificationStamp;
+
 	/**
 	 * Constructor for ConfigurationPolicyModel.
 	 */
@@ -105,6 +108,14 @@ public class ConfigurationPolicyModel extends ModelObject {
 				.toArray(arrayTypeFor(unconfiguredFeatureReferences.keySet()));
 	}
 
+	/**
+	 * Returns a stamp that changes each time a feature is configured,
+	 * unconfigured or removed.
+	 */
+	public int getModificationStamp() {
+		return modificationStamp;
+	}
+
 	/**
 	 * Gets the configuredSiteModel.
 	 * @return Returns a ConfiguredSiteModel
@@ -137,6 +148,8 @@ public class ConfigurationPolicyModel extends ModelObject {
 				found = true;
 			}
 		}
+		if (found)
+			modificationStamp++;
 		return found;
 	}
 
@@ -162,6 +175,7 @@ public class ConfigurationPolicyModel extends ModelObject {
 
 		if (!found) {
 			list.put(feature,null);
+			modificationStamp++;
 		} else {
 			UpdateCore.warn("Feature Reference :"+feature+" already part of the list."); //$NON-NLS-1$ //$NON-NLS-2$
 		}
@@ -246,6 +260,7 @@ public class ConfigurationPolicyModel extends ModelObject {
 		for (int i = 0; i < featureReferences.length; i++) {
 			unconfiguredFeatureReferences.put(featureReferences[i],null);
 		}
+		modificationStamp++;
 	}
 
 
@@ -258,6 +273,7 @@ public class ConfigurationPolicyModel extends ModelObject {
 		for (int i = 0; i < featureReferences.length; i++) {
 			configuredFeatureReferences.put(featureReferences[i],null);
 		}		
+		modificationStamp++;
 	
 	}
 
@@ -20,6 +20,7 @@ import java.util.MissingResourceException;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.update.core.model.ModelObject;
+import org.eclipse.update.internal.configurator.ConfigurationHistory;
 import org.eclipse.update.internal.core.BaseSiteLocalFactory;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
@@ -244,7 +245,13 @@ public class SiteLocalModel extends ModelObject {
 			historyURL = FileLocator.toFileURL(historyURL);
 			File historyDir = new File(historyURL.getFile());
 			if (historyDir.exists()) {
-				File[] backedConfigs = historyDir.listFiles();
+				// past configurations are files, or kept in the history store
+				File[] files = historyDir.listFiles();
+				String[] stored = ConfigurationHistory.getHistory(historyDir).getNames();
+				File[] backedConfigs = new File[files.length + stored.length];
+				System.arraycopy(files, 0, backedConfigs, 0, files.length);
+				for (int i = 0; i < stored.length; i++)
+					backedConfigs[files.length + i] = new File(historyDir, stored[i]);
 				BaseSiteLocalFactory factory = new BaseSiteLocalFactory();
 				for (int i=0; i<backedConfigs.length; i++) {
 					String name = backedConfigs[i].getName();
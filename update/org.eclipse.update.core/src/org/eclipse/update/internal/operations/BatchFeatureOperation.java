@@ -23,6 +23,7 @@ public abstract class BatchFeatureOperation extends Operation implements IBatchF
 
 	private IFeature[] features;
 	private IConfiguredSite[] targetSites;
+	private BatchScheduler scheduler;
 	
 	
 	public BatchFeatureOperation(IConfiguredSite[] targetSites, IFeature[] features) {
@@ -56,14 +57,20 @@ public abstract class BatchFeatureOperation extends Operation implements IBatchF
 		}
 		
 		boolean restartNeeded = false;
+		scheduler = new BatchScheduler(operations);
+		scheduler.prefetch(pm);
 
 		for ( int i = 0; i < operations.length; i ++) { 
+			long start = System.currentTimeMillis();
 			try {
 				boolean status = operations[i].execute(pm, listener);
 				if (status)
 					restartNeeded = true; 
+				scheduler.record(operations[i], start, status, null);
 			} catch (Throwable t) {
-				t.printStackTrace();
+				// a failed operation does not stop the batch
+				UpdateUtils.logException(t);
+				scheduler.record(operations[i], start, false, t);
 			}
 		}	
 
@@ -71,6 +78,16 @@ public abstract class BatchFeatureOperation extends Operation implements IBatchF
 
 	}
 
+	/**
+	 * Returns the result of each operation of the last execution, in the
+	 * order they ran.
+	 */
+	public BatchScheduler.Result[] getResults() {
+		if (scheduler == null)
+			return new BatchScheduler.Result[0];
+		return scheduler.getResults();
+	}
+
 	protected abstract IOperation createOperation(IConfiguredSite targetSite, IFeature feature);
 
 }
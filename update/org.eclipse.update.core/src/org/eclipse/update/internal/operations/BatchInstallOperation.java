@@ -23,6 +23,7 @@ public class BatchInstallOperation
 	implements IBatchOperation {
 		
 	protected IInstallFeatureOperation[] operations;
+	private BatchScheduler scheduler;
 
 	public BatchInstallOperation(IInstallFeatureOperation[] operations) {
 		super();
@@ -66,6 +67,7 @@ public class BatchInstallOperation
 		OperationsManager.setInProgress(true);
 		if (monitor == null) 
 			monitor = new NullProgressMonitor();
+		scheduler = new BatchScheduler(operations);
 			
 		try {			
 			if (listener != null)
@@ -74,6 +76,8 @@ public class BatchInstallOperation
 			monitor.beginTask(
 				Messages.OperationsManager_installing,
 				operations.length);
+			// download independent features concurrently, then install them in order
+			scheduler.prefetch(monitor);
 			for (int i = 0; i < operations.length; i++) {
 				SubProgressMonitor subMonitor =
 					new SubProgressMonitor(
@@ -81,7 +85,14 @@ public class BatchInstallOperation
 						1,
 						SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK);
 
-				operations[i].execute(subMonitor, listener);
+				long start = System.currentTimeMillis();
+				try {
+					boolean restartNeeded = operations[i].execute(subMonitor, listener);
+					scheduler.record(operations[i], start, restartNeeded, null);
+				} catch (CoreException e) {
+					scheduler.record(operations[i], start, false, e);
+					throw e;
+				}
 				OperationsManager.addPendingOperation(operations[i]);
 
 				operations[i].markProcessed();
@@ -117,4 +128,14 @@ public class BatchInstallOperation
 			monitor.done();
 		}
 	}
+
+	/**
+	 * Returns the result of each operation of the last execution, in the
+	 * order they ran.
+	 */
+	public BatchScheduler.Result[] getResults() {
+		if (scheduler == null)
+			return new BatchScheduler.Result[0];
+		return scheduler.getResults();
+	}
 }
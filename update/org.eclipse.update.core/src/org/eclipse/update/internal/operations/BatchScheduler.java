@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.update.core.ContentReference;
+import org.eclipse.update.core.IFeature;
+import org.eclipse.update.core.IFeatureContentProvider;
+import org.eclipse.update.core.IIncludedFeatureReference;
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.IVerifier;
+import org.eclipse.update.core.InstallMonitor;
+import org.eclipse.update.internal.core.IPreparableVerifier;
+import org.eclipse.update.internal.core.SynchronizedProgressMonitor;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateManagerUtils;
+import org.eclipse.update.internal.core.WorkerPool;
+import org.eclipse.update.operations.IInstallFeatureOperation;
+import org.eclipse.update.operations.IOperation;
+
+/**
+ * Schedules the operations of a batch and records their results.
+ * <p>
+ * The install operations are split in groups of conflicting operations,
+ * that is operations whose features, included features or plug-ins
+ * overlap. Before the batch runs, the archives of each group are
+ * downloaded into the local cache on a thread of their own, so that
+ * independent features are downloaded concurrently and the same archive
+ * is never downloaded twice at the same time. The operations then run in
+ * order on the calling thread, installing from the local cache: they
+ * change the shared install configuration and recovery log, and the
+ * operation listeners are called as before.
+ * </p>
+ * <p>
+ * The number of threads is set by the <code>UpdateCore.P_DOWNLOAD_THREADS</code>
+ * preference. With a single thread nothing is downloaded ahead.
+ * </p>
+ */
+public class BatchScheduler {
+
+	private IOperation[] operations;
+	// Result, in the order the operations ran
+	private List results = new ArrayList();
+
+	/**
+	 * The outcome of one operation of a batch
+	 */
+	public static class Result {
+		private IOperation operation;
+		private IStatus status;
+		private boolean restartNeeded;
+		private long time;
+
+		Result(IOperation operation, IStatus status, boolean restartNeeded, long time) {
+			this.operation = operation;
+			this.status = status;
+			this.restartNeeded = restartNeeded;
+			this.time = time;
+		}
+
+		public IOperation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * Returns an OK status, or the error the operation failed with.
+		 */
+		public IStatus getStatus() {
+			return status;
+		}
+
+		public boolean isRestartNeeded() {
+			return restartNeeded;
+		}
+
+		/**
+		 * Returns the time the operation took, in ms.
+		 */
+		public long getTime() {
+			return time;
+		}
+	}
+
+	/*
+	 * The archives to download for an install operation
+	 */
+	private static class Download {
+		// IFeature
+		List features = new ArrayList();
+		// IPluginEntry[], one per feature
+		List plugins = new ArrayList();
+		// "feature/" and "plugin/" followed by the VersionedIdentifier
+		List keys = new ArrayList();
+	}
+
+	public BatchScheduler(IOperation[] operations) {
+		this.operations = operations;
+	}
+
+	/**
+	 * Downloads the archives of the install operations ahead of the batch,
+	 * one group of conflicting operations per thread. Failures are ignored:
+	 * the archives are downloaded again, and errors reported, when the
+	 * operations run.
+	 * @param monitor the monitor of the batch, only checked for cancellation
+	 */
+	public void prefetch(IProgressMonitor monitor) {
+		int threads = getDownloadThreads();
+		if (threads <= 1)
+			return;
+		long start = System.currentTimeMillis();
+		final List[] groups = computeGroups();
+		if (groups.length <= 1)
+			return;
+
+		final IProgressMonitor sharedMonitor = new SynchronizedProgressMonitor(monitor == null ? new NullProgressMonitor() : monitor);
+		WorkerPool pool = new WorkerPool("BatchDownload", Math.min(threads, groups.length)); //$NON-NLS-1$
+		for (int i = 0; i < groups.length; i++) {
+			final List group = groups[i];
+			pool.execute(new Runnable() {
+				public void run() {
+					for (int j = 0; j < group.size() && !sharedMonitor.isCanceled(); j++)
+						download((Download) group.get(j), sharedMonitor);
+				}
+			});
+		}
+		pool.join(monitor);
+		pool.shutdown();
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+			UpdateCore.debug("Downloaded " + groups.length + " groups of features ahead in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Records the outcome of an operation of the batch.
+	 * @param operation the operation
+	 * @param start the time the operation started at
+	 * @param restartNeeded whether the operation needs a restart
+	 * @param failure the exception the operation failed with, or <code>null</code>
+	 * @return the result
+	 */
+	public Result record(IOperation operation, long start, boolean restartNeeded, Throwable failure) {
+		IStatus status;
+		if (failure == null)
+			status = Status.OK_STATUS;
+		else if (failure instanceof CoreException)
+			status = ((CoreException) failure).getStatus();
+		else
+			status = new Status(IStatus.ERROR, UpdateUtils.getPluginId(), IStatus.OK, String.valueOf(failure.getMessage()), failure);
+		Result result = new Result(operation, status, restartNeeded, System.currentTimeMillis() - start);
+		synchronized (results) {
+			results.add(result);
+		}
+		if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+			UpdateCore.debug("Batch operation " + operation + " took " + result.getTime() + " ms: " + status.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return result;
+	}
+
+	/**
+	 * Returns the results of the operations that ran so far, in the order
+	 * they ran.
+	 */
+	public Result[] getResults() {
+		synchronized (results) {
+			return (Result[]) results.toArray(new Result[results.size()]);
+		}
+	}
+
+	/*
+	 * Returns the downloads of the install operations, grouped so that
+	 * downloads sharing a feature or a plug-in are in the same group.
+	 */
+	private List[] computeGroups() {
+		List downloads = new ArrayList();
+		for (int i = 0; i < operations.length; i++) {
+			if (operations[i] instanceof IInstallFeatureOperation) {
+				IInstallFeatureOperation operation = (IInstallFeatureOperation) operations[i];
+				if (operation.getTargetSite() != null)
+					downloads.add(getDownload(operation));
+			}
+		}
+
+		// union find over the downloads, joined by their keys
+		int[] parents = new int[downloads.size()];
+		Map owners = new HashMap();
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+			List keys = ((Download) downloads.get(i)).keys;
+			for (int j = 0; j < keys.size(); j++) {
+				Integer owner = (Integer) owners.get(keys.get(j));
+				if (owner == null)
+					owners.put(keys.get(j), new Integer(i));
+				else
+					parents[find(parents, i)] = find(parents, owner.intValue());
+			}
+		}
+
+		// keep the order of the batch within each group
+		Map groups = new HashMap();
+		List result = new ArrayList();
+		for (int i = 0; i < parents.length; i++) {
+			Integer root = new Integer(find(parents, i));
+			List group = (List) groups.get(root);
+			if (group == null) {
+				group = new ArrayList();
+				groups.put(root, group);
+				result.add(group);
+			}
+			group.add(downloads.get(i));
+		}
+		return (List[]) result.toArray(new List[result.size()]);
+	}
+
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/*
+	 * Collects the feature and the included features an install operation
+	 * installs in any case, and their plug-ins missing from the target site.
+	 */
+	private Download getDownload(IInstallFeatureOperation operation) {
+		Download download = new Download();
+		IPluginEntry[] sitePlugins = operation.getTargetSite().getSite().getPluginEntries();
+		List features = new ArrayList();
+		features.add(operation.getFeature());
+		for (int i = 0; i < features.size(); i++) {
+			IFeature feature = (IFeature) features.get(i);
+			String key = "feature/" + feature.getVersionedIdentifier(); //$NON-NLS-1$
+			if (download.keys.contains(key))
+				continue;
+			IPluginEntry[] plugins = UpdateManagerUtils.diff(feature.getPluginEntries(), sitePlugins);
+			download.features.add(feature);
+			download.plugins.add(plugins);
+			download.keys.add(key);
+			for (int j = 0; j < plugins.length; j++)
+				download.keys.add("plugin/" + plugins[j].getVersionedIdentifier()); //$NON-NLS-1$
+
+			// optional features may not be installed, they are downloaded when they are
+			try {
+				IIncludedFeatureReference[] children = feature.getIncludedFeatureReferences();
+				for (int j = 0; j < children.length; j++) {
+					if (!children[j].isOptional())
+						features.add(children[j].getFeature(null));
+				}
+			} catch (CoreException e) {
+				UpdateCore.warn(null, e);
+			}
+		}
+		return download;
+	}
+
+	private void download(Download download, IProgressMonitor monitor) {
+		for (int i = 0; i < download.features.size() && !monitor.isCanceled(); i++) {
+			IFeature feature = (IFeature) download.features.get(i);
+			IPluginEntry[] plugins = (IPluginEntry[]) download.plugins.get(i);
+			try {
+				IFeatureContentProvider provider = feature.getFeatureContentProvider();
+				IVerifier verifier = provider.getVerifier();
+				provider.getFeatureEntryArchiveReferences(new InstallMonitor(monitor));
+				for (int j = 0; j < plugins.length && !monitor.isCanceled(); j++) {
+					ContentReference[] references = provider.getPluginEntryArchiveReferences(plugins[j], new InstallMonitor(monitor));
+					if (verifier instanceof IPreparableVerifier) {
+						for (int k = 0; k < references.length; k++)
+							((IPreparableVerifier) verifier).prepare(references[k]);
+					}
+				}
+			} catch (CoreException e) {
+				if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+					UpdateCore.debug("Unable to download " + feature.getVersionedIdentifier() + " ahead: " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+
+	private static int getDownloadThreads() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return UpdateCore.DEFAULT_DOWNLOAD_THREADS;
+		return plugin.getPluginPreferences().getInt(UpdateCore.P_DOWNLOAD_THREADS);
+	}
+}
@@ -842,6 +842,20 @@ public class OperationValidator implements IOperationValidator {
 		
 		HashSet result = new HashSet();
 
+		// index the candidates once, rather than scanning them for each import
+		PrereqIndex featureIndex = new PrereqIndex();
+		for (int i = 0; i < features.size(); i++) {
+			IFeature feature = (IFeature) features.get(i);
+			featureIndex.add(feature.getVersionedIdentifier(), feature);
+		}
+		PrereqIndex pluginIndex = new PrereqIndex();
+		for (int i = 0; i < plugins.size(); i++) {
+			IPluginEntry plugin = (IPluginEntry) plugins.get(i);
+			pluginIndex.add(plugin.getVersionedIdentifier(), plugin);
+		}
+		// built on the first miss
+		PrereqIndex bundleIndex = null;
+
 		for (int i = 0; i < features.size(); i++) {
 			IFeature feature = (IFeature) features.get(i);
 			IImport[] imports = feature.getImports();
@@ -863,58 +877,20 @@ public class OperationValidator implements IOperationValidator {
 				if (rule == IUpdateConstants.RULE_NONE)
 					rule = IUpdateConstants.RULE_COMPATIBLE;
 
-				boolean found = false;
-
-				ArrayList candidates;
-
+				boolean found;
 				if (featurePrereq)
-					candidates = features;
+					// skip self
+					found = featureIndex.matches(iid, rule, ignoreVersion, feature);
 				else
-					candidates = plugins;
-				for (int k = 0; k < candidates.size(); k++) {
-					VersionedIdentifier cid;
-					if (featurePrereq) {
-						// the candidate is a feature
-						IFeature candidate = (IFeature) candidates.get(k);
-						// skip self
-						if (feature.equals(candidate))
-							continue;
-						cid = candidate.getVersionedIdentifier();
-					} else {
-						// the candidate is a plug-in
-						IPluginEntry plugin = (IPluginEntry) candidates.get(k);
-						cid = plugin.getVersionedIdentifier();
-					}
-					PluginVersionIdentifier cversion = cid.getVersion();
-					if (id.equals(cid.getIdentifier())) {
-						// have a candidate
-						if (ignoreVersion)
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_PERFECT
-								&& cversion.isPerfect(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_EQUIVALENT
-								&& cversion.isEquivalentTo(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_COMPATIBLE
-								&& cversion.isCompatibleWith(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_GREATER_OR_EQUAL
-								&& cversion.isGreaterOrEqualTo(version))
-							found = true;
-					}
-					if (found)
-						break;
-				}
+					found = pluginIndex.matches(iid, rule, ignoreVersion, null);
 				
 				// perhaps the bundle that we are looking for was installed
 				// but isn't a part of a feature
-				if (!found && !featurePrereq)
-					found = isInstalled(iid, rule, ignoreVersion);
+				if (!found && !featurePrereq) {
+					if (bundleIndex == null)
+						bundleIndex = createInstalledBundleIndex();
+					found = bundleIndex.matches(iid, rule, ignoreVersion, null);
+				}
 
 				if (!found) {
 					// report status
@@ -966,40 +942,28 @@ public class OperationValidator implements IOperationValidator {
 	}
 	
 	/*
-	 * Return a boolean value indicating whether or not the bundle with the given id and version
-	 * is installed in the system.
+	 * Return an index of the bundles installed in the system, so that
+	 * plug-in prereqs that aren't a part of a feature can be resolved.
 	 */
-	private static boolean isInstalled(VersionedIdentifier vid, int rule, boolean ignoreVersion) {
+	private static PrereqIndex createInstalledBundleIndex() {
+		PrereqIndex index = new PrereqIndex();
 		BundleContext context = UpdateCore.getPlugin().getBundleContext();
 		if (context == null)
-			return false;
+			return index;
 		ServiceReference reference = context.getServiceReference(PlatformAdmin.class.getName());
 		if (reference == null)
-			return false;
+			return index;
 		PlatformAdmin admin = (PlatformAdmin) context.getService(reference);
 		try {
 			State state = admin.getState(false);
-			String id = vid.getIdentifier();
-			PluginVersionIdentifier version = vid.getVersion();
-			BundleDescription[] bundles = state.getBundles(id);
-			if (bundles == null || bundles.length == 0)
-				return false;
+			BundleDescription[] bundles = state.getBundles();
 			for (int i=0; i<bundles.length; i++) {
 				BundleDescription bundle = bundles[i];
-				PluginVersionIdentifier cversion = new PluginVersionIdentifier(bundle.getVersion().toString());
-				// have a candidate
-				if (ignoreVersion)
-					return true;
-				if (rule == IUpdateConstants.RULE_PERFECT && cversion.isPerfect(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_EQUIVALENT && cversion.isEquivalentTo(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_COMPATIBLE && cversion.isCompatibleWith(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_GREATER_OR_EQUAL && cversion.isGreaterOrEqualTo(version))
-					return true;
+				if (bundle.getSymbolicName() == null)
+					continue;
+				index.add(new VersionedIdentifier(bundle.getSymbolicName(), bundle.getVersion().toString()), bundle);
 			}
-			return false;
+			return index;
 		} finally {
 			context.ungetService(reference);
 		}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.PluginVersionIdentifier;
+import org.eclipse.update.core.IUpdateConstants;
+import org.eclipse.update.core.VersionedIdentifier;
+
+/**
+ * Index of prerequisite candidates (features, plug-in entries or installed
+ * bundles) keyed by identifier, with the candidates of each identifier
+ * sorted by version. Used by the operation validator so that each import
+ * is resolved by a lookup instead of a scan of all the candidates.
+ * <p>
+ * All match rules are monotonic in the version order
+ * (major, minor, service, qualifier): if the highest candidate of the
+ * relevant version range does not match, no lower candidate does. A rule
+ * is therefore resolved by locating the highest candidate of the range and
+ * testing it with the same <code>PluginVersionIdentifier</code> method
+ * the validator has always used.
+ * </p>
+ */
+class PrereqIndex {
+
+	private static final Candidate[] EMPTY = new Candidate[0];
+
+	// identifier -> ArrayList of candidates while adding, Candidate[] once sorted
+	private Map candidates = new HashMap();
+
+	private static class Candidate {
+		PluginVersionIdentifier version;
+		Object source;
+
+		Candidate(PluginVersionIdentifier version, Object source) {
+			this.version = version;
+			this.source = source;
+		}
+	}
+
+	private static final Comparator VERSION_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return compareVersions(((Candidate) o1).version, ((Candidate) o2).version);
+		}
+	};
+
+	/**
+	 * Adds a candidate to the index.
+	 *
+	 * @param vid the identifier and version of the candidate
+	 * @param source the feature, plug-in entry or bundle that is the candidate,
+	 * used to exclude an importing feature from its own prerequisites
+	 */
+	public void add(VersionedIdentifier vid, Object source) {
+		String id = vid.getIdentifier();
+		ArrayList list = (ArrayList) candidates.get(id);
+		if (list == null) {
+			list = new ArrayList(1);
+			candidates.put(id, list);
+		}
+		list.add(new Candidate(vid.getVersion(), source));
+	}
+
+	/**
+	 * Returns whether a candidate other than <code>exclude</code> satisfies
+	 * the given identifier and match rule.
+	 *
+	 * @param vid the required identifier and version
+	 * @param rule one of the <code>IUpdateConstants.RULE_*</code> values
+	 * @param ignoreVersion <code>true</code> if any version matches
+	 * @param exclude a candidate source to skip, may be <code>null</code>
+	 */
+	public boolean matches(VersionedIdentifier vid, int rule, boolean ignoreVersion, Object exclude) {
+		Candidate[] sorted = getCandidates(vid.getIdentifier());
+		if (sorted.length == 0)
+			return false;
+		PluginVersionIdentifier version = vid.getVersion();
+
+		if (ignoreVersion)
+			return previous(sorted, sorted.length, exclude) >= 0;
+
+		int index;
+		switch (rule) {
+			case IUpdateConstants.RULE_PERFECT :
+				for (index = upperBound(sorted, version, 4) - 1; index >= 0; index--) {
+					if (compareVersions(sorted[index].version, version) != 0)
+						return false;
+					if (!isExcluded(sorted[index], exclude) && sorted[index].version.isPerfect(version))
+						return true;
+				}
+				return false;
+			case IUpdateConstants.RULE_EQUIVALENT :
+				index = previous(sorted, upperBound(sorted, version, 2), exclude);
+				return index >= 0 && sorted[index].version.isEquivalentTo(version);
+			case IUpdateConstants.RULE_COMPATIBLE :
+				index = previous(sorted, upperBound(sorted, version, 1), exclude);
+				return index >= 0 && sorted[index].version.isCompatibleWith(version);
+			case IUpdateConstants.RULE_GREATER_OR_EQUAL :
+				index = previous(sorted, sorted.length, exclude);
+				return index >= 0 && sorted[index].version.isGreaterOrEqualTo(version);
+			default :
+				return false;
+		}
+	}
+
+	private Candidate[] getCandidates(String id) {
+		Object value = candidates.get(id);
+		if (value == null)
+			return EMPTY;
+		if (value instanceof Candidate[])
+			return (Candidate[]) value;
+		ArrayList list = (ArrayList) value;
+		Candidate[] sorted = (Candidate[]) list.toArray(new Candidate[list.size()]);
+		Arrays.sort(sorted, VERSION_ORDER);
+		candidates.put(id, sorted);
+		return sorted;
+	}
+
+	/*
+	 * Returns the index of the last candidate before <code>end</code>
+	 * whose source is not <code>exclude</code>, or -1.
+	 */
+	private static int previous(Candidate[] sorted, int end, Object exclude) {
+		for (int i = end - 1; i >= 0; i--) {
+			if (!isExcluded(sorted[i], exclude))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isExcluded(Candidate candidate, Object exclude) {
+		return exclude != null && exclude.equals(candidate.source);
+	}
+
+	/*
+	 * Returns the index after the last candidate whose first
+	 * <code>components</code> version components are lower than or equal
+	 * to those of <code>version</code>.
+	 */
+	private static int upperBound(Candidate[] sorted, PluginVersionIdentifier version, int components) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareVersions(sorted[mid].version, version, components) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int compareVersions(PluginVersionIdentifier v1, PluginVersionIdentifier v2) {
+		return compareVersions(v1, v2, 4);
+	}
+
+	/*
+	 * Compares the first <code>components</code> components of two versions
+	 * in the order used by PluginVersionIdentifier.isGreaterThan.
+	 */
+	private static int compareVersions(PluginVersionIdentifier v1, PluginVersionIdentifier v2, int components) {
+		int result = v1.getMajorComponent() - v2.getMajorComponent();
+		if (result != 0 || components == 1)
+			return result;
+		result = v1.getMinorComponent() - v2.getMinorComponent();
+		if (result != 0 || components == 2)
+			return result;
+		result = v1.getServiceComponent() - v2.getServiceComponent();
+		if (result != 0 || components == 3)
+			return result;
+		return v1.getQualifierComponent().compareTo(v2.getQualifierComponent());
+	}
+}
@@ -11,6 +11,10 @@
  *******************************************************************************/
 package org.eclipse.update.internal.provisional;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -20,7 +24,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -51,6 +59,7 @@ import org.eclipse.update.internal.core.ExtendedSiteURLFactory;
 import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
+import org.eclipse.update.internal.core.WorkerPool;
 import org.eclipse.update.internal.jarprocessor.JarProcessor;
 import org.eclipse.update.internal.jarprocessor.JarProcessorExecutor;
 import org.eclipse.update.internal.jarprocessor.Main;
@@ -100,6 +109,18 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 
 	public final static String DIGEST_OUTPUT_DIR = "-digestOutputDir"; //$NON-NLS-1$
 
+	public final static String DIGEST_INCREMENTAL = "-incremental"; //$NON-NLS-1$
+
+	/*
+	 * Index of the features of the last incremental build, kept in the digest
+	 * output directory
+	 */
+	private final static String DIGEST_INDEX = "digest.index"; //$NON-NLS-1$
+
+	private final static int DIGEST_INDEX_MAGIC = 0x44494458; // DIDX
+
+	private final static int DIGEST_INDEX_VERSION = 1;
+
 	/*
 	 * private final static String DESCRIPTION = "DESCRIPTION"; private final
 	 * static String LICENCE = "LICENCE"; private final static String COPYRIGHT =
@@ -208,67 +229,84 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 			System.out.println("Can not create file in output direcotry"); //$NON-NLS-1$
 			return false;
 		}
+		String outputDirectory = (String) params.get(DIGEST_OUTPUT_DIR);
 
-		for(int i = 0; i < featureList.size(); i++) {
+		outputDirectory = outputDirectory.substring(outputDirectory
+				.indexOf("=") + 1); //$NON-NLS-1$
+		if (!outputDirectory.endsWith(File.separator)) {
+			outputDirectory = outputDirectory + File.separator;
+		}
 
-			String featureJarFileName = (String) featureList.get(i);
+		// in incremental mode, the digests of unchanged features are reused
+		boolean incremental = params.containsKey(DIGEST_INCREMENTAL);
+		File indexFile = new File(outputDirectory + DIGEST_INDEX);
+		Map previousDigests = incremental ? loadDigestIndex(indexFile) : new HashMap();
+		Map digests = new HashMap();
 
-			if (featureJarFileName.endsWith("jar")) { //$NON-NLS-1$
-				System.out.println("Processing... " + featureJarFileName); //$NON-NLS-1$
-			} else {
-				System.out.println("Skipping... " + featureJarFileName); //$NON-NLS-1$
-				continue;
-			}
+		WorkerPool pool = new WorkerPool("DigestBuilder", Runtime.getRuntime().availableProcessors()); //$NON-NLS-1$
+		try {
+			int next = 0;
+			while (next < featureList.size()) {
+				// build the digests of the features listed so far in parallel,
+				// included features are listed when the digests are written
+				int end = featureList.size();
+				FeatureDigestTask[] tasks = new FeatureDigestTask[end - next];
+				for (int i = next; i < end; i++) {
+					String featureJarFileName = (String) featureList.get(i);
+					if (!featureJarFileName.endsWith("jar")) //$NON-NLS-1$
+						continue;
+					tasks[i - next] = new FeatureDigestTask(featureJarFileName,
+							(FeatureDigest) previousDigests.get(featureJarFileName),
+							availableLocales, perFeatureLocales, incremental);
+					pool.execute(tasks[i - next]);
+				}
+				pool.join(null);
 
-			JarFile featureJar = null;
-			try {
-				featureJar = new JarFile(featureJarFileName);
-			} catch (IOException e) {
-				System.out.println("Problem with opening jar: " //$NON-NLS-1$
-						+ featureJarFileName);
-				e.printStackTrace();
-				return false;
-			}
-			FeatureModelFactory fmf = new FeatureModelFactory();
+				// write the digests in the order of the list
+				for (int i = next; i < end; i++) {
 
-			try {
-				ZipEntry featureXMLEntry = featureJar.getEntry("feature.xml"); //$NON-NLS-1$
-				Map featureProperties = loadProperties(featureJar,
-						featureJarFileName, perFeatureLocales);
+					String featureJarFileName = (String) featureList.get(i);
+					FeatureDigestTask task = tasks[i - next];
 
-				FeatureModel featureModel = fmf.parseFeature(featureJar
-						.getInputStream(featureXMLEntry));
+					if (task == null) {
+						System.out.println("Skipping... " + featureJarFileName); //$NON-NLS-1$
+						continue;
+					} else if (task.reused) {
+						System.out.println("Unchanged... " + featureJarFileName); //$NON-NLS-1$
+					} else {
+						System.out.println("Processing... " + featureJarFileName); //$NON-NLS-1$
+					}
 
-				featureList = addFeaturesToList( (String) params.get(SITE_XML), featureList, featureModel.getFeatureIncluded(), availableLocales, perFeatureLocales);
+					if (task.failure != null) {
+						if (task.failureMessage != null)
+							System.out.println(task.failureMessage);
+						task.failure.printStackTrace();
+						return false;
+					}
 
-				Iterator availableLocalesIterator = availableLocales.values()
-				.iterator();
-				while (availableLocalesIterator.hasNext()) {
-					((AvailableLocale) availableLocalesIterator.next())
-					.writeFeatureDigests(featureModel,
-							featureProperties);
-				}
+					try {
+						featureList = addFeaturesToList( (String) params.get(SITE_XML), featureList, task.digest, availableLocales, perFeatureLocales);
+					} catch (CoreException e) {
+						e.printStackTrace();
+						return false;
+					}
 
-			} catch (SAXException e) {
-				e.printStackTrace();
-				return false;
-			} catch (IOException e) {
-				e.printStackTrace();
-				return false;
-			} catch (CoreException e) {
-				e.printStackTrace();
-				return false;
+					Iterator availableLocalesIterator = availableLocales.values()
+					.iterator();
+					while (availableLocalesIterator.hasNext()) {
+						AvailableLocale availableLocale = (AvailableLocale) availableLocalesIterator.next();
+						availableLocale.appendFeatureDigest(task.digest.getFragment(availableLocale.getLocale()));
+					}
+					digests.put(featureJarFileName, task.digest);
+				}
+				next = end;
 			}
+		} finally {
+			pool.shutdown();
 		}
+
 		Iterator availableLocalesIterator = availableLocales.values()
 		.iterator();
-		String outputDirectory = (String) params.get(DIGEST_OUTPUT_DIR);
-
-		outputDirectory = outputDirectory.substring(outputDirectory
-				.indexOf("=") + 1); //$NON-NLS-1$
-		if (!outputDirectory.endsWith(File.separator)) {
-			outputDirectory = outputDirectory + File.separator;
-		}
 		while (availableLocalesIterator.hasNext()) {
 			try {
 				((AvailableLocale) availableLocalesIterator.next())
@@ -280,11 +318,21 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 				return false;
 			}
 		}
+		if (incremental) {
+			try {
+				saveDigestIndex(indexFile, digests);
+			} catch (IOException e) {
+				// the next build is not incremental
+				System.out.println("Can not write digest index: " + indexFile); //$NON-NLS-1$
+				e.printStackTrace();
+				indexFile.delete();
+			}
+		}
 		System.out.println("Done"); //$NON-NLS-1$
 		return true;
 	}
 
-	private List addFeaturesToList( String siteXML, List featureList, IIncludedFeatureReference[] iIncludedFeatureReferences, Map availableLocales, Map perFeatureLocales ) throws CoreException {
+	private List addFeaturesToList( String siteXML, List featureList, FeatureDigest digest, Map availableLocales, Map perFeatureLocales ) throws CoreException {
 
 		String directoryName = (new File(siteXML)).getParent();
 		if (!directoryName.endsWith(File.separator)) {
@@ -292,14 +340,14 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 		}
 		directoryName = directoryName + "features" + File.separator; //$NON-NLS-1$
 
-		for (int i = 0; i < iIncludedFeatureReferences.length; i++) {
-			String featureURL = directoryName + iIncludedFeatureReferences[i].getVersionedIdentifier() + ".jar"; //$NON-NLS-1$
+		for (int i = 0; i < digest.includes.length; i++) {
+			String featureURL = directoryName + digest.includes[i] + ".jar"; //$NON-NLS-1$
 			if (!(isFeatureAlreadyInList(featureList, featureURL))) {
 				try {
 					System.out.println("Extracting locales from included feature " + featureURL); //$NON-NLS-1$
 					processLocalesInJar(availableLocales, featureURL, perFeatureLocales, true);
 				} catch (IOException e) {
-					if (iIncludedFeatureReferences[i].isOptional()) 
+					if (digest.optional[i]) 
 						continue;
 					System.out.println("Error while extracting locales from included feature " + featureURL);//$NON-NLS-1$	
 					e.printStackTrace();
@@ -518,6 +566,265 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 		return IPlatformRunnable.EXIT_OK;
 	}
 
+	/*
+	 * The digest of a feature jar in each locale, and what is needed to
+	 * reuse it when the jar has not changed.
+	 */
+	private static class FeatureDigest {
+
+		private long lastModified;
+
+		private long length;
+
+		private byte[] hash;
+
+		/* versioned identifiers of the included features */
+		private String[] includes;
+
+		private boolean[] optional;
+
+		private Map /* locale -> String */fragments = new HashMap();
+
+		public String getFragment(String locale) {
+			return (String) fragments.get(locale);
+		}
+
+		public boolean hasLocales(Map availableLocales) {
+			return fragments.keySet().containsAll(availableLocales.keySet());
+		}
+	}
+
+	/*
+	 * Builds the digest of a feature jar, or reuses the previous one if the
+	 * jar has not changed.
+	 */
+	private class FeatureDigestTask implements Runnable {
+
+		private String featureJarFileName;
+
+		private FeatureDigest previous;
+
+		private AvailableLocale[] locales;
+
+		private Map availableLocales;
+
+		private Map perFeatureLocales;
+
+		private boolean hash;
+
+		private FeatureDigest digest;
+
+		private boolean reused;
+
+		private Exception failure;
+
+		private String failureMessage;
+
+		public FeatureDigestTask(String featureJarFileName,
+				FeatureDigest previous, Map availableLocales,
+				Map perFeatureLocales, boolean hash) {
+			this.featureJarFileName = featureJarFileName;
+			this.previous = previous;
+			this.availableLocales = availableLocales;
+			this.locales = (AvailableLocale[]) availableLocales.values().toArray(new AvailableLocale[availableLocales.size()]);
+			this.perFeatureLocales = perFeatureLocales;
+			this.hash = hash;
+		}
+
+		public void run() {
+			File file = new File(featureJarFileName);
+			long lastModified = file.lastModified();
+			long length = file.length();
+			if (previous != null && previous.hasLocales(availableLocales)) {
+				if (previous.lastModified == lastModified && previous.length == length) {
+					digest = previous;
+					reused = true;
+					return;
+				}
+			}
+
+			byte[] jarHash = null;
+			if (hash) {
+				try {
+					jarHash = computeHash(file);
+				} catch (IOException e) {
+					failureMessage = "Problem with opening jar: " + featureJarFileName; //$NON-NLS-1$
+					failure = e;
+					return;
+				}
+				// touched, but not changed
+				if (previous != null && previous.hasLocales(availableLocales) && Arrays.equals(previous.hash, jarHash)) {
+					previous.lastModified = lastModified;
+					digest = previous;
+					reused = true;
+					return;
+				}
+			}
+
+			JarFile featureJar = null;
+			try {
+				featureJar = new JarFile(featureJarFileName);
+			} catch (IOException e) {
+				failureMessage = "Problem with opening jar: " + featureJarFileName; //$NON-NLS-1$
+				failure = e;
+				return;
+			}
+			FeatureModelFactory fmf = new FeatureModelFactory();
+
+			try {
+				ZipEntry featureXMLEntry = featureJar.getEntry("feature.xml"); //$NON-NLS-1$
+				Map featureProperties = loadProperties(featureJar,
+						featureJarFileName, perFeatureLocales);
+
+				FeatureModel featureModel = fmf.parseFeature(featureJar
+						.getInputStream(featureXMLEntry));
+
+				FeatureDigest result = new FeatureDigest();
+				result.lastModified = lastModified;
+				result.length = length;
+				result.hash = jarHash;
+				IIncludedFeatureReference[] includedFeatures = featureModel.getFeatureIncluded();
+				result.includes = new String[includedFeatures.length];
+				result.optional = new boolean[includedFeatures.length];
+				for (int i = 0; i < includedFeatures.length; i++) {
+					result.includes[i] = includedFeatures[i].getVersionedIdentifier().toString();
+					result.optional[i] = includedFeatures[i].isOptional();
+				}
+				for (int i = 0; i < locales.length; i++) {
+					StringWriter fragment = new StringWriter();
+					PrintWriter writer = new PrintWriter(fragment);
+					locales[i].writeFeatureDigests(writer, featureModel, featureProperties);
+					writer.flush();
+					result.fragments.put(locales[i].getLocale(), fragment.toString());
+				}
+				digest = result;
+			} catch (SAXException e) {
+				failure = e;
+			} catch (IOException e) {
+				failure = e;
+			} catch (CoreException e) {
+				failure = e;
+			} finally {
+				try {
+					featureJar.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static byte[] computeHash(File file) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] b = new byte[8192];
+			int bytesRead;
+			while ((bytesRead = in.read(b)) != -1)
+				md.update(b, 0, bytesRead);
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/*
+	 * Reads the index written by the previous incremental build. Returns an
+	 * empty map if there is none or it cannot be read.
+	 */
+	private static Map loadDigestIndex(File indexFile) {
+		Map digests = new HashMap();
+		if (!indexFile.isFile())
+			return digests;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != DIGEST_INDEX_MAGIC || in.readInt() != DIGEST_INDEX_VERSION)
+				throw new IOException("Unexpected digest index format"); //$NON-NLS-1$
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String featureJarFileName = readString(in);
+				FeatureDigest digest = new FeatureDigest();
+				digest.lastModified = in.readLong();
+				digest.length = in.readLong();
+				digest.hash = new byte[in.readInt()];
+				in.readFully(digest.hash);
+				digest.includes = new String[in.readInt()];
+				digest.optional = new boolean[digest.includes.length];
+				for (int j = 0; j < digest.includes.length; j++) {
+					digest.includes[j] = readString(in);
+					digest.optional[j] = in.readBoolean();
+				}
+				int fragments = in.readInt();
+				for (int j = 0; j < fragments; j++)
+					digest.fragments.put(readString(in), readString(in));
+				digests.put(featureJarFileName, digest);
+			}
+		} catch (IOException e) {
+			System.out.println("Can not read digest index, rebuilding all the digests: " + indexFile); //$NON-NLS-1$
+			digests.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return digests;
+	}
+
+	private static void saveDigestIndex(File indexFile, Map digests) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(DIGEST_INDEX_MAGIC);
+			out.writeInt(DIGEST_INDEX_VERSION);
+			out.writeInt(digests.size());
+			for (Iterator i = digests.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				FeatureDigest digest = (FeatureDigest) entry.getValue();
+				writeString(out, (String) entry.getKey());
+				out.writeLong(digest.lastModified);
+				out.writeLong(digest.length);
+				byte[] hash = digest.hash == null ? new byte[0] : digest.hash;
+				out.writeInt(hash.length);
+				out.write(hash);
+				out.writeInt(digest.includes.length);
+				for (int j = 0; j < digest.includes.length; j++) {
+					writeString(out, digest.includes[j]);
+					out.writeBoolean(digest.optional[j]);
+				}
+				out.writeInt(digest.fragments.size());
+				for (Iterator j = digest.fragments.entrySet().iterator(); j.hasNext();) {
+					Map.Entry fragment = (Map.Entry) j.next();
+					writeString(out, (String) fragment.getKey());
+					writeString(out, (String) fragment.getValue());
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Digests can be longer than what writeUTF supports
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8"); //$NON-NLS-1$
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
 	private class AvailableLocale {
 
 		private String PREFIX = "temp"; //$NON-NLS-1$
@@ -603,11 +910,26 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 			return true;
 		}
 
-		public void writeFeatureDigests(FeatureModel featureModel,
+		public String getLocale() {
+			return locale;
+		}
+
+		/*
+		 * Appends the digest of a feature, written by writeFeatureDigests.
+		 */
+		public void appendFeatureDigest(String featureDigest) {
+			localizedPrintWriter.print(featureDigest);
+		}
+
+		/*
+		 * Writes the digest of a feature for this locale. May be called by
+		 * several threads at the same time.
+		 */
+		public void writeFeatureDigests(PrintWriter digest, FeatureModel featureModel,
 				Map featureProperties) {
 
 			if (this.locale.equals("")) { //$NON-NLS-1$
-				writeFeatureDigest(localizedPrintWriter, featureModel,
+				writeFeatureDigest(digest, featureModel,
 						(Properties) featureProperties.get("")); //$NON-NLS-1$
 				return;
 			}
@@ -616,13 +938,13 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 				temp = combineProperties(
 						(Properties) featureProperties.get(""), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale), null);
-				writeFeatureDigest(localizedPrintWriter, featureModel, temp);
+				writeFeatureDigest(digest, featureModel, temp);
 			} else {
 				temp = combineProperties(
 						(Properties) featureProperties.get(""), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale.substring(0, locale.indexOf("_"))), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale) );
-				writeFeatureDigest(localizedPrintWriter, featureModel, temp);
+				writeFeatureDigest(digest, featureModel, temp);
 			}
 
 		}
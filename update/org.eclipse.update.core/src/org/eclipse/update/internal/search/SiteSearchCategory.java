@@ -15,10 +15,8 @@ package org.eclipse.update.internal.search;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -26,9 +24,11 @@ import org.eclipse.update.core.ICategory;
 import org.eclipse.update.core.IFeature;
 import org.eclipse.update.core.ISite;
 import org.eclipse.update.core.ISiteFeatureReference;
+import org.eclipse.update.core.VersionedIdentifier;
 import org.eclipse.update.internal.core.ExtendedSite;
 import org.eclipse.update.internal.core.LiteFeature;
 import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateManagerUtils;
 import org.eclipse.update.search.IQueryUpdateSiteAdapter;
 import org.eclipse.update.search.IUpdateSearchFilter;
 import org.eclipse.update.search.IUpdateSearchQuery;
@@ -69,7 +69,6 @@ public class SiteSearchCategory extends BaseSearchCategory {
 			
 			ISiteFeatureReference[] refs = site.getFeatureReferences();
 			HashSet ignores = new HashSet();			
-			Map liteFeatures = new HashMap();
 			
 			if (categoriesToSkip != null) {
 				for (int i = 0; i < categoriesToSkip.length; i++) {
@@ -81,12 +80,9 @@ public class SiteSearchCategory extends BaseSearchCategory {
 			if (liteFeaturesAreOK && (site instanceof ExtendedSite) ) {
 				
 				ExtendedSite extendedSite = (ExtendedSite)site;
-				LiteFeature[] liteFeaturesArray =  extendedSite.getLiteFeatures();
-				if ( (liteFeaturesArray != null) && ( liteFeaturesArray.length != 0)) {
-					for(int i = 0; i < liteFeaturesArray.length; i++) {
-						liteFeatures.put(liteFeaturesArray[i].getVersionedIdentifier(), liteFeaturesArray[i]);					
-					}
-					(new FeatureDownloader(siteFeatureReferences, collector, filter, ignores, monitor, true, liteFeatures)).run();
+				// lite features are only parsed for the references the filter accepts
+				if (extendedSite.hasLiteFeatures()) {
+					(new FeatureDownloader(siteFeatureReferences, collector, filter, ignores, monitor, true, extendedSite)).run();
 					return;
 				} else {
 					liteFeaturesAreOK = false;
@@ -160,7 +156,7 @@ public class SiteSearchCategory extends BaseSearchCategory {
 
 		private boolean liteFeaturesAreOK;
 
-		private Map liteFeatures;
+		private ExtendedSite liteFeatureSite;
 
 		public FeatureDownloader(List siteFeatureReferences, IUpdateSearchResultCollector collector, IUpdateSearchFilter filter, HashSet ignores, IProgressMonitor monitor) {
 			super();
@@ -172,10 +168,10 @@ public class SiteSearchCategory extends BaseSearchCategory {
 			this.siteFeatureReferences = siteFeatureReferences;
 		}
 		
-		public FeatureDownloader(List siteFeatureReferences, IUpdateSearchResultCollector collector, IUpdateSearchFilter filter, HashSet ignores, IProgressMonitor monitor, boolean liteFeaturesAreOK, Map liteFeatures) {
+		public FeatureDownloader(List siteFeatureReferences, IUpdateSearchResultCollector collector, IUpdateSearchFilter filter, HashSet ignores, IProgressMonitor monitor, boolean liteFeaturesAreOK, ExtendedSite liteFeatureSite) {
 			this(siteFeatureReferences, collector, filter, ignores, monitor);
-			this.liteFeaturesAreOK = liteFeaturesAreOK && (liteFeatures != null);
-			this.liteFeatures = liteFeatures;
+			this.liteFeaturesAreOK = liteFeaturesAreOK && (liteFeatureSite != null);
+			this.liteFeatureSite = liteFeatureSite;
 		}
 
 		public void run() {
@@ -212,7 +208,7 @@ public class SiteSearchCategory extends BaseSearchCategory {
 							if (filter.accept(siteFeatureReference)) {
 								IFeature feature = null;
 								if(liteFeaturesAreOK) {
-									feature = (IFeature)liteFeatures.get(siteFeatureReference.getVersionedIdentifier());
+									feature = getLiteFeature(siteFeatureReference.getVersionedIdentifier());
 								}
 								if (feature == null){
 									feature = siteFeatureReference.getFeature(null);
@@ -234,6 +230,17 @@ public class SiteSearchCategory extends BaseSearchCategory {
 			}
 			
 		}
+
+		/*
+		 * Returns the lite feature of a reference, unless it does not match
+		 * the running environment
+		 */
+		private IFeature getLiteFeature(VersionedIdentifier id) {
+			LiteFeature feature = liteFeatureSite.getLiteFeature(id);
+			if (feature != null && liteFeatureSite.getCurrentConfiguredSite() != null && !UpdateManagerUtils.isValidEnvironment(feature))
+				return null;
+			return feature;
+		}
 	}
 
 	public boolean isLiteFeaturesAreOK() {
@@ -11,17 +11,21 @@
 package org.eclipse.update.internal.security;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipException;
@@ -37,8 +41,10 @@ import org.eclipse.update.core.InstallMonitor;
 import org.eclipse.update.core.JarContentReference;
 import org.eclipse.update.core.Utilities;
 import org.eclipse.update.core.Verifier;
+import org.eclipse.update.internal.core.IPreparableVerifier;
 import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateMetrics;
 import org.eclipse.update.internal.core.connection.ConnectionFactory;
 
 /**
@@ -46,12 +52,54 @@ import org.eclipse.update.internal.core.connection.ConnectionFactory;
  * If the Jar is signed and the integrity is validated,
  * it will check if one of the certificate of each file
  * is in one of the keystore.
- *
+ * <p>
+ * The integrity check can be done ahead of time, on any thread, with
+ * {@link #prepare(ContentReference)}. Its outcome is also cached by the
+ * SHA-256 hash of the content, so that a jar that was already checked is
+ * not verified again. The trust checks and the prompts are always done by
+ * {@link #verify(IFeature, ContentReference, boolean, InstallMonitor)},
+ * in the order of the calls.
+ * </p>
  */
 
-public class JarVerifier extends Verifier {
+public class JarVerifier extends Verifier implements IPreparableVerifier {
 
 	private static final String MANIFEST = "META-INF"; //$NON-NLS-1$
+	// number of integrity outcomes kept in the cache
+	private static final int CACHE_SIZE = 512;
+
+	/*
+	 * Outcome of the integrity check of a jar. Immutable once computed,
+	 * so that it can be shared by verifiers.
+	 */
+	private static class Integrity {
+		int code;
+		Exception exception;
+		List /* of Certificate[] */ certificates = new ArrayList();
+		// length and time stamp of the file, for prepared outcomes
+		long length;
+		long lastModified;
+	}
+
+	// SHA-256 hash and length of the content -> Integrity, in access order
+	private static final Map integrityCache = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// absolute path -> Integrity computed by prepare, in insertion order.
+	// Shared by the verifiers, so that a jar prepared by one verifier is
+	// not hashed again when another one verifies it.
+	private static final Map prepared = new LinkedHashMap() {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
 
 	private JarVerificationResult result;
 	private List /*of CertificatePair*/
@@ -61,8 +109,6 @@ public class JarVerifier extends Verifier {
 	listOfKeystores;
 	private IProgressMonitor monitor;
 	private File jarFile;
-
-	private static	byte[] buffer = new byte[8192];
 	
 	/*
 	 * Default Constructor
@@ -187,13 +233,14 @@ public class JarVerifier extends Verifier {
 	/*
 	 * 
 	 */
-	private List readJarFile(JarFile jarFile, String identifier)
+	private static List readJarFile(JarFile jarFile, String identifier, Integrity integrity, IProgressMonitor monitor)
 		throws IOException, InterruptedException {
 		List list = new ArrayList();
 
 		Enumeration entries = jarFile.entries();
 		JarEntry currentEntry = null;
 		InputStream in = null;
+		byte[] buffer = new byte[8192];
 		if (monitor != null)
 			monitor.setTaskName(NLS.bind(Messages.JarVerifier_Verify, (new String[] { identifier == null ? jarFile.getName(): identifier }))); 
 
@@ -209,8 +256,8 @@ public class JarVerifier extends Verifier {
 					in.close();
 			}
 		} catch (IOException e) {
-			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
-			result.setResultException(e);
+			integrity.code = IVerificationResult.UNKNOWN_ERROR;
+			integrity.exception = e;
 		} finally {
 			try {
 				if (in != null)
@@ -270,6 +317,7 @@ public class JarVerifier extends Verifier {
 	 */
 	private JarVerificationResult verify(String file, String identifier) {
 
+		long start = System.currentTimeMillis();
 		try {
 
 			// verify integrity
@@ -297,6 +345,7 @@ public class JarVerifier extends Verifier {
 			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
 			result.setResultException(e);
 		}
+		UpdateMetrics.record(UpdateMetrics.VERIFICATION, start);
 
 		if (monitor != null) {
 			monitor.worked(1);
@@ -333,11 +382,130 @@ public class JarVerifier extends Verifier {
 		}
 	}
 
+	/*
+	 * @see IPreparableVerifier#prepare(ContentReference)
+	 */
+	public void prepare(ContentReference reference) {
+		if (!(reference instanceof JarContentReference))
+			return;
+		File file;
+		try {
+			file = reference.asFile();
+		} catch (IOException e) {
+			return;
+		}
+		if (!file.isFile())
+			return;
+		Integrity integrity = getIntegrity(file.getAbsolutePath(), reference.getIdentifier(), null);
+		synchronized (prepared) {
+			prepared.put(file.getAbsolutePath(), integrity);
+		}
+	}
+
 	/*
 	 * Verifies the integrity of the JAR
 	 */
 	private void verifyIntegrity(String file, String identifier) {
+		Integrity integrity;
+		synchronized (prepared) {
+			integrity = (Integrity) prepared.remove(file);
+		}
+		File f = new File(file);
+		if (integrity == null || integrity.length != f.length() || integrity.lastModified != f.lastModified())
+			integrity = getIntegrity(file, identifier, monitor);
+
+		for (Iterator iter = integrity.certificates.iterator(); iter.hasNext();)
+			result.addCertificates((Certificate[]) iter.next());
+		if (integrity.exception != null)
+			result.setResultException(integrity.exception);
+		result.setVerificationCode(integrity.code);
+	}
 
+	/*
+	 * Returns the outcome of the integrity check of the jar, from the cache
+	 * if a jar with the same content was already checked.
+	 */
+	private static Integrity getIntegrity(String file, String identifier, IProgressMonitor monitor) {
+		File f = new File(file);
+		long length = f.length();
+		long lastModified = f.lastModified();
+		String hash = computeHash(f);
+		if (hash != null) {
+			synchronized (integrityCache) {
+				Integrity cached = (Integrity) integrityCache.get(hash);
+				if (cached != null) {
+					if (UpdateCore.DEBUG && UpdateCore.DEBUG_SHOW_INSTALL)
+						UpdateCore.debug("Integrity of " + file + " already checked"); //$NON-NLS-1$ //$NON-NLS-2$
+					return copy(cached, length, lastModified);
+				}
+			}
+		}
+
+		Integrity integrity = checkIntegrity(file, identifier, monitor);
+		integrity.length = length;
+		integrity.lastModified = lastModified;
+		// errors and cancellations are not cached, the check is done again
+		if (hash != null && integrity.code != IVerificationResult.UNKNOWN_ERROR && integrity.code != IVerificationResult.VERIFICATION_CANCELLED) {
+			synchronized (integrityCache) {
+				integrityCache.put(hash, integrity);
+			}
+		}
+		return integrity;
+	}
+
+	private static Integrity copy(Integrity cached, long length, long lastModified) {
+		Integrity integrity = new Integrity();
+		integrity.code = cached.code;
+		integrity.exception = cached.exception;
+		integrity.certificates = cached.certificates;
+		integrity.length = length;
+		integrity.lastModified = lastModified;
+		return integrity;
+	}
+
+	/*
+	 * Returns the SHA-256 hash and the length of the file, or null if it
+	 * cannot be read. The outcome of the check is trusted for any file with
+	 * the same key, so a weaker hash must not be used.
+	 */
+	private static String computeHash(File file) {
+		InputStream in = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+			in = new FileInputStream(file);
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1)
+				digest.update(buffer, 0, count);
+			byte[] bytes = digest.digest();
+			StringBuffer hash = new StringBuffer(bytes.length * 2 + 12);
+			for (int i = 0; i < bytes.length; i++) {
+				hash.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+				hash.append(Character.forDigit(bytes[i] & 0xf, 16));
+			}
+			return hash.append('/').append(file.length()).toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Checks the integrity of the JAR. Does not use the state of the
+	 * verifier, so that it can run on any thread.
+	 */
+	private static Integrity checkIntegrity(String file, String identifier, IProgressMonitor monitor) {
+
+		Integrity integrity = new Integrity();
+		integrity.code = IVerificationResult.UNKNOWN_ERROR;
 		JarFile jarFile = null;
 
 		try {
@@ -345,7 +513,7 @@ public class JarVerifier extends Verifier {
 			// a security exception will be thrown
 			// while reading it
 			jarFile = new JarFile(file, true);
-			List filesInJar = readJarFile(jarFile, identifier);
+			List filesInJar = readJarFile(jarFile, identifier, integrity, monitor);
 
 			// you have to read all the files once
 			// before getting the certificates 
@@ -357,7 +525,7 @@ public class JarVerifier extends Verifier {
 					Certificate[] certs = currentJarEntry.getCertificates();
 					if ((certs != null) && (certs.length != 0)) {
 						certificateFound = true;
-						result.addCertificates(certs);
+						integrity.certificates.add(certs);
 					} else {
 						String jarEntryName = currentJarEntry.getName();
 						if (!jarEntryName.toUpperCase().startsWith(MANIFEST)
@@ -370,30 +538,30 @@ public class JarVerifier extends Verifier {
 				}
 
 				if (certificateFound)
-					result.setVerificationCode(IVerificationResult.TYPE_ENTRY_SIGNED_UNRECOGNIZED);
+					integrity.code = IVerificationResult.TYPE_ENTRY_SIGNED_UNRECOGNIZED;
 				else
-					result.setVerificationCode(IVerificationResult.TYPE_ENTRY_NOT_SIGNED);
+					integrity.code = IVerificationResult.TYPE_ENTRY_NOT_SIGNED;
 			} else {
 				Exception e = new Exception(NLS.bind(Messages.JarVerifier_InvalidFile, (new String[] { file })));
-				result.setResultException(e);
-				result.setVerificationCode(IVerificationResult.TYPE_ENTRY_NOT_SIGNED);
+				integrity.exception = e;
+				integrity.code = IVerificationResult.TYPE_ENTRY_NOT_SIGNED;
 				UpdateCore.warn(null,e);
 			}
 		} catch (SecurityException e) {
 			// Jar file is signed
 			// but content has changed since signed
-			result.setVerificationCode(IVerificationResult.TYPE_ENTRY_CORRUPTED);
+			integrity.code = IVerificationResult.TYPE_ENTRY_CORRUPTED;
 		} catch (InterruptedException e) {
-			result.setVerificationCode(IVerificationResult.VERIFICATION_CANCELLED);
+			integrity.code = IVerificationResult.VERIFICATION_CANCELLED;
 		} catch (Exception e) {
-			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
-			result.setResultException(e);
+			integrity.code = IVerificationResult.UNKNOWN_ERROR;
+			integrity.exception = e;
 		} finally {
 			if (jarFile!=null){
 				try {jarFile.close();} catch (IOException e){}
 			}
 		}
-
+		return integrity;
 	}
 
 	/*
@@ -20,18 +20,53 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.osgi.signedcontent.*;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.core.*;
+import org.eclipse.update.internal.core.IPreparableVerifier;
 import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateMetrics;
 
 /**
  * The JarVerifier will check the integrity of the JAR.
  * If the Jar is signed and the integrity is validated,
  * it will check if one of the certificate of each file
  * is in one of the keystore.
- *
+ * <p>
+ * The signed entries can be checked ahead of time, on any thread, with
+ * {@link #prepare(ContentReference)}. The outcome is kept for the file
+ * only, and used by the next verification of the file, by any verifier,
+ * unless it changed.
+ * </p>
  */
 
-public class CertVerifier extends Verifier {
+public class CertVerifier extends Verifier implements IPreparableVerifier {
+
+	/*
+	 * Outcome of the check of the signed entries of a jar
+	 */
+	private static class Integrity {
+		SignedContent content;
+		boolean valid;
+		Exception exception;
+		// length and time stamp of the file when it was checked
+		long length;
+		long lastModified;
+	}
+
+	// number of prepared outcomes kept until they are verified
+	private static final int PREPARED_SIZE = 512;
+
+	// absolute path -> Integrity computed by prepare, in insertion order.
+	// Shared by the verifiers: the one that prepares a jar on a download
+	// thread is often not the one that verifies it at install time, as
+	// FeaturePackagedContentProvider returns a new verifier for each
+	// top-level install.
+	private static final Map prepared = new LinkedHashMap() {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > PREPARED_SIZE;
+		}
+	};
 
 	private CertVerificationResult result;
 	private boolean acceptUnsignedFiles;
@@ -140,10 +175,10 @@ public class CertVerifier extends Verifier {
 	 */
 	private CertVerificationResult verify(String file, String identifier) {
 
+		long start = System.currentTimeMillis();
 		try {
-			SignedContent verifier = factory.getSignedContent(new File(file));
 			// verify integrity
-			verifyIntegrity(verifier, identifier);
+			verifyIntegrity(file, identifier);
 
 			//if user already said yes
 			result.alreadySeen(alreadyValidated());
@@ -158,6 +193,7 @@ public class CertVerifier extends Verifier {
 			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
 			result.setResultException(e);
 		}
+		UpdateMetrics.record(UpdateMetrics.VERIFICATION, start);
 
 		if (monitor != null) {
 			monitor.worked(1);
@@ -169,14 +205,64 @@ public class CertVerifier extends Verifier {
 		return result;
 	}
 
+	/*
+	 * @see IPreparableVerifier#prepare(ContentReference)
+	 */
+	public void prepare(ContentReference reference) {
+		if (!(reference instanceof JarContentReference))
+			return;
+		File file;
+		try {
+			file = reference.asFile();
+		} catch (IOException e) {
+			return;
+		}
+		if (!file.isFile())
+			return;
+		Integrity integrity = checkIntegrity(factory, file);
+		synchronized (prepared) {
+			prepared.put(file.getAbsolutePath(), integrity);
+		}
+	}
+
+	/*
+	 * Checks the signed entries of the JAR. Does not use the state of the
+	 * verifier, so that it can run on any thread.
+	 */
+	private static Integrity checkIntegrity(SignedContentFactory factory, File file) {
+		Integrity integrity = new Integrity();
+		integrity.length = file.length();
+		integrity.lastModified = file.lastModified();
+		try {
+			integrity.content = factory.getSignedContent(file);
+			integrity.valid = !integrity.content.isSigned() || hasValidContent(integrity.content.getSignedEntries());
+		} catch (Exception e) {
+			integrity.exception = e;
+		}
+		return integrity;
+	}
+
 	/*
 	 * Verifies the integrity of the JAR
 	 */
-	private void verifyIntegrity(SignedContent verifier, String identifier) {
+	private void verifyIntegrity(String file, String identifier) {
+		Integrity integrity;
+		synchronized (prepared) {
+			integrity = (Integrity) prepared.remove(file);
+		}
+		File f = new File(file);
+		if (integrity == null || integrity.length != f.length() || integrity.lastModified != f.lastModified())
+			integrity = checkIntegrity(factory, f);
+		if (integrity.exception != null) {
+			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
+			result.setResultException(integrity.exception);
+			return;
+		}
+		SignedContent verifier = integrity.content;
 		try {
 			if (verifier.isSigned()) {
 				// If the JAR is signed and invalid then mark as corrupted
-				if (hasValidContent(verifier.getSignedEntries())) {
+				if (integrity.valid) {
 					result.setSignedContent(verifier);
 					SignerInfo[] signers = verifier.getSignerInfos();
 					for (int i = 0; i < signers.length; i++)
@@ -198,7 +284,7 @@ public class CertVerifier extends Verifier {
 		}
 	}
 
-	private boolean hasValidContent(SignedContentEntry[] signedEntries) {
+	private static boolean hasValidContent(SignedContentEntry[] signedEntries) {
 		try {
 			for (int i = 0; i < signedEntries.length; i++)
 				signedEntries[i].verify();
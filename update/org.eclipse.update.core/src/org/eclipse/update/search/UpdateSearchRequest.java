@@ -12,6 +12,7 @@ package org.eclipse.update.search;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -32,6 +33,8 @@ import org.eclipse.update.core.IURLEntry;
 import org.eclipse.update.core.SiteManager;
 import org.eclipse.update.internal.core.ExtendedSite;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.SynchronizedProgressMonitor;
+import org.eclipse.update.internal.core.WorkerPool;
 import org.eclipse.update.internal.operations.UpdateUtils;
 import org.eclipse.update.internal.search.SiteSearchCategory;
 import org.eclipse.update.internal.search.UpdatePolicy;
@@ -67,6 +70,10 @@ public class UpdateSearchRequest {
 	private UpdateSearchScope scope;
 	private boolean searchInProgress = false;
 	private AggregateFilter aggregateFilter = new AggregateFilter();
+	private int parallelism = 1;
+
+	// number of levels of associate sites searched beyond the scope sites
+	private static final int ASSOCIATE_SITES_DEPTH = 5;
 	
 	private static class UpdateSearchSite
 	extends UpdateSiteAdapter
@@ -132,6 +139,108 @@ public class UpdateSearchRequest {
 		}
 	}
 
+	/*
+	 * Serializes the calls made to a result collector by concurrent site searches.
+	 */
+	private static class SynchronizedCollector implements IUpdateSearchResultCollector {
+		protected IUpdateSearchResultCollector collector;
+
+		public SynchronizedCollector(IUpdateSearchResultCollector collector) {
+			this.collector = collector;
+		}
+
+		public synchronized void accept(IFeature match) {
+			collector.accept(match);
+		}
+	}
+
+	/*
+	 * Also serializes mirror prompts, so that the user is asked one site at a time.
+	 */
+	private static class SynchronizedMirrorCollector extends SynchronizedCollector implements IUpdateSearchResultCollectorFromMirror {
+		public SynchronizedMirrorCollector(IUpdateSearchResultCollectorFromMirror collector) {
+			super(collector);
+		}
+
+		public synchronized IURLEntry getMirror(ISiteWithMirrors site, String siteName) throws OperationCanceledException {
+			return ((IUpdateSearchResultCollectorFromMirror) collector).getMirror(site, siteName);
+		}
+	}
+
+	/*
+	 * Searches the sites of one query on a worker pool. Associate sites
+	 * are searched as soon as they are discovered instead of level by level.
+	 */
+	private class ConcurrentSearch {
+		private IUpdateSearchQuery query;
+		private IUpdateSearchResultCollector collector;
+		private List statusList;
+		private Set visitedSitesURL;
+		private Set visitedSites;
+		private IProgressMonitor monitor;
+		private WorkerPool pool;
+		private volatile CoreException failure;
+
+		public ConcurrentSearch(IUpdateSearchQuery query, IUpdateSearchResultCollector collector, List statusList, Set visitedSitesURL, Set visitedSites, IProgressMonitor monitor) {
+			this.query = query;
+			this.collector = (collector instanceof IUpdateSearchResultCollectorFromMirror) ? new SynchronizedMirrorCollector((IUpdateSearchResultCollectorFromMirror) collector) : new SynchronizedCollector(collector);
+			this.statusList = statusList;
+			this.visitedSitesURL = visitedSitesURL;
+			this.visitedSites = visitedSites;
+			this.monitor = new SynchronizedProgressMonitor(monitor);
+			this.pool = new WorkerPool("UpdateSearch", parallelism); //$NON-NLS-1$
+		}
+
+		public void submit(final IUpdateSiteAdapter site, final String[] categoriesToSkip, final int depth) {
+			pool.execute(new Runnable() {
+				public void run() {
+					search(site, categoriesToSkip, depth);
+				}
+			});
+		}
+
+		/*
+		 * Waits for all the sites to be searched and rethrows the first
+		 * exception that terminated the search.
+		 */
+		public void join() throws CoreException {
+			try {
+				pool.join(monitor);
+			} finally {
+				pool.shutdown();
+			}
+			if (failure != null)
+				throw failure;
+		}
+
+		private void search(IUpdateSiteAdapter site, String[] categoriesToSkip, int depth) {
+			if (monitor.isCanceled() || failure != null)
+				return;
+			List associateSites = new ArrayList();
+			try {
+				IStatus status = searchOneSite(site, categoriesToSkip, query, collector, associateSites, new SubProgressMonitor(monitor, 1), true);
+				if (status != null)
+					statusList.add(status);
+			} catch (CoreException e) {
+				synchronized (this) {
+					if (failure == null)
+						failure = e;
+				}
+				return;
+			}
+			List newSites;
+			synchronized (visitedSitesURL) {
+				newSites = combineAssociateSites(new ArrayList(), associateSites, visitedSitesURL, visitedSites);
+			}
+			if (depth >= ASSOCIATE_SITES_DEPTH)
+				return;
+			for (int i = 0; i < newSites.size(); i++) {
+				IUpdateSearchSite associateSite = (IUpdateSearchSite) newSites.get(i);
+				submit(associateSite, associateSite.getCategoriesToSkip(), depth + 1);
+			}
+		}
+	}
+
 	/**
 	 * Returns an updates search category for use in discovering updates
 	 * to existing function on update sites.
@@ -214,6 +323,32 @@ public class UpdateSearchRequest {
 	public void setScope(UpdateSearchScope scope) {
 		this.scope = scope;
 	}
+	/**
+	 * Sets the number of sites that are searched at the same time.
+	 * With a value of 1 (the default), sites are searched one after
+	 * another. With a larger value, the sites of each query and their
+	 * associate sites are searched concurrently and the result collector
+	 * may receive matches from several sites in any order. Calls to the
+	 * collector and to the progress monitor are serialized by the request.
+	 * This method does nothing if search is already in progress.
+	 * @param parallelism the maximum number of sites searched concurrently
+	 * @since 3.3
+	 */
+	public void setParallelism(int parallelism) {
+		if (searchInProgress)
+			return;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Returns the number of sites that are searched at the same time.
+	 * @return the maximum number of sites searched concurrently
+	 * @since 3.3
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
 	/**
 	 * Tests whether this search request is current running.
 	 * @return <samp>true</samp> if the search is currently running, <samp>false</samp> otherwise.
@@ -280,6 +415,7 @@ public class UpdateSearchRequest {
 				for (int i = 0; i < queries.length; i++) {
 					IUpdateSearchQuery query = queries[i];
 					IQueryUpdateSiteAdapter qsite = query.getQuerySearchSite();
+					IUpdateSiteAdapter mappedSite = null;
 					// currently, the next conditional is only executed (qsite!=null) when
 					// running an update search. 
 					if (qsite != null && searchFeatureProvidedSites) {
@@ -290,10 +426,25 @@ public class UpdateSearchRequest {
 								continue;
 						}
 						// check for mapping
-						IUpdateSiteAdapter mappedSite = getMappedSite(updatePolicy, qsite);
+						mappedSite = getMappedSite(updatePolicy, qsite);
 						// when there is no mapped site the feature is not updatable
 						if (mappedSite == null || mappedSite.getURL() == null)
 							continue;
+					}
+
+					if (parallelism > 1) {
+						ConcurrentSearch search = new ConcurrentSearch(query, collector, Collections.synchronizedList(statusList), visitedSitesURL, visitedSites, monitor);
+						if (mappedSite != null)
+							search.submit(mappedSite, null, 0);
+						for (int j = 0; j < candidates.length; j++)
+							search.submit(candidates[j], candidates[j].getCategoriesToSkip(), 0);
+						search.join();
+						if (monitor.isCanceled())
+							break;
+						continue;
+					}
+
+					if (mappedSite != null) {
 						SubProgressMonitor subMonitor =
 							new SubProgressMonitor(monitor, 1);
 						List associateSites = new ArrayList();
@@ -338,7 +489,7 @@ public class UpdateSearchRequest {
 						break;
 					
 					
-					for(int associateSitesDepth = 0; associateSitesDepth < 5; associateSitesDepth++) {
+					for(int associateSitesDepth = 0; associateSitesDepth < ASSOCIATE_SITES_DEPTH; associateSitesDepth++) {
 						List tempCombinedSites = new ArrayList();
 						Iterator combinedAssociateSitesIterator = combinedAssociateSites.iterator();
 						while(combinedAssociateSitesIterator.hasNext()) {
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.eclipse.update.tests.core.tests.ConfigurationHistoryTests;
+import org.eclipse.update.tests.core.tests.ConfigurationWriterTests;
+import org.eclipse.update.tests.core.tests.CopyTests;
+import org.eclipse.update.tests.core.tests.DigestCacheTests;
+import org.eclipse.update.tests.core.tests.HttpMetadataCacheTests;
+import org.eclipse.update.tests.core.tests.InstalledPluginsTests;
+import org.eclipse.update.tests.core.tests.JarProcessorTests;
+import org.eclipse.update.tests.core.tests.MirrorJournalTests;
+import org.eclipse.update.tests.core.tests.PluginFeatureIndexTests;
+import org.eclipse.update.tests.core.tests.ScanIndexTests;
+import org.eclipse.update.tests.core.tests.SiteMetricsTests;
+import org.eclipse.update.tests.core.tests.SiteModelTests;
+import org.eclipse.update.tests.core.tests.VerifierTests;
+
+/**
+ * Test the Install/Update Core.
+ *
+ * To run this test suite:
+ * <ol>
+ * <li>Create a new JUnit plugin test launch configuration</li>
+ * <li>Set the Test class to "org.eclipse.update.tests.core.AutomatedSuite"</li>
+ * <li>Set the Project to "org.eclipse.update.tests.core"</li>
+ * <li>Run the launch configuration. Output from the tests will be displayed in a JUnit view</li>
+ * </ol>
+ */
+public class AutomatedSuite extends TestSuite {
+
+	/**
+	 * Returns the suite.  This is required to
+	 * use the JUnit Launcher.
+	 */
+	public static Test suite() {
+		return new AutomatedSuite();
+	}
+
+	/**
+	 * Construct the test suite.
+	 */
+	public AutomatedSuite() {
+		addTest(new TestSuite(JarProcessorTests.class));
+		addTest(new TestSuite(ConfigurationHistoryTests.class));
+		addTest(new TestSuite(MirrorJournalTests.class));
+		addTest(new TestSuite(SiteMetricsTests.class));
+		addTest(new TestSuite(VerifierTests.class));
+		addTest(new TestSuite(CopyTests.class));
+		addTest(new TestSuite(DigestCacheTests.class));
+		addTest(new TestSuite(ScanIndexTests.class));
+		addTest(new TestSuite(HttpMetadataCacheTests.class));
+		addTest(new TestSuite(SiteModelTests.class));
+		addTest(new TestSuite(PluginFeatureIndexTests.class));
+		addTest(new TestSuite(InstalledPluginsTests.class));
+		addTest(new TestSuite(ConfigurationWriterTests.class));
+	}
+}
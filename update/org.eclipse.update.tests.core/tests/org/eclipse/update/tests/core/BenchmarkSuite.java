@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.eclipse.update.tests.core.tests.SiteModelBenchmark;
+import org.eclipse.update.tests.core.tests.UpdateBenchmark;
+
+/**
+ * Benchmarks of the Install/Update Core. They take longer than the tests
+ * and print their timings, so they are not part of the AutomatedSuite.
+ *
+ * To run the benchmarks, launch this class as the AutomatedSuite is
+ * launched.
+ */
+public class BenchmarkSuite extends TestSuite {
+
+	/**
+	 * Returns the suite.  This is required to
+	 * use the JUnit Launcher.
+	 */
+	public static Test suite() {
+		return new BenchmarkSuite();
+	}
+
+	/**
+	 * Construct the benchmark suite.
+	 */
+	public BenchmarkSuite() {
+		addTest(new TestSuite(SiteModelBenchmark.class));
+		addTest(new TestSuite(UpdateBenchmark.class));
+	}
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The timings of the benchmarks of a run, compared with a baseline.
+ * <p>
+ * Each timing is printed next to the timing of the same name in the
+ * baseline, which is read from the file named by the
+ * <code>org.eclipse.update.tests.baseline</code> system property, or else
+ * from the <code>baseline.properties</code> next to this class. When
+ * <code>org.eclipse.update.tests.results</code> names a file, the timings
+ * of the run are written to it in the format of the baseline, so that it
+ * can be compared with a later run or replace the baseline.
+ * </p>
+ */
+class BenchmarkResults {
+	private static final String BASELINE = "baseline.properties"; //$NON-NLS-1$
+	// slower than the baseline by this factor is reported as a regression
+	private static final double REGRESSION = 1.5;
+
+	private static Properties baseline;
+	// String name -> String milliseconds
+	private static Map results = new TreeMap();
+
+	private BenchmarkResults() {
+	}
+
+	/**
+	 * Records and prints a timing.
+	 * @param name the name of the timing in the baseline
+	 * @param millis the time, in milliseconds
+	 */
+	static synchronized void record(String name, double millis) throws IOException {
+		String value = String.valueOf(Math.round(millis * 1000) / 1000.0);
+		results.put(name, value);
+		StringBuffer line = new StringBuffer(name).append(": ").append(value).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		String base = getBaseline().getProperty(name);
+		if (base != null) {
+			double baseMillis = Double.parseDouble(base);
+			line.append(" (baseline ").append(base).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+			if (baseMillis > 0) {
+				line.append(", ").append(Math.round(millis * 100 / baseMillis)).append('%'); //$NON-NLS-1$
+				if (millis > baseMillis * REGRESSION)
+					line.append(", REGRESSION"); //$NON-NLS-1$
+			}
+			line.append(')');
+		}
+		System.out.println(line);
+		write();
+	}
+
+	private static Properties getBaseline() throws IOException {
+		if (baseline != null)
+			return baseline;
+		baseline = new Properties();
+		String path = System.getProperty("org.eclipse.update.tests.baseline"); //$NON-NLS-1$
+		InputStream in = path != null ? new FileInputStream(path) : BenchmarkResults.class.getResourceAsStream(BASELINE);
+		if (in != null) {
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return baseline;
+	}
+
+	/*
+	 * Writes the timings so far, sorted by name
+	 */
+	private static void write() throws IOException {
+		String path = System.getProperty("org.eclipse.update.tests.results"); //$NON-NLS-1$
+		if (path == null)
+			return;
+		Writer writer = new OutputStreamWriter(new FileOutputStream(path), "ISO-8859-1"); //$NON-NLS-1$
+		try {
+			for (Iterator it = results.entrySet().iterator(); it.hasNext();) {
+				Map.Entry result = (Map.Entry) it.next();
+				writer.write(result.getKey() + "=" + result.getValue() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
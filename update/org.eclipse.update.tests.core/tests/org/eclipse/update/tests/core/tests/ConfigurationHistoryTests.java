@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.configurator.*;
+
+/**
+ * Tests the history store of past configurations.
+ */
+public class ConfigurationHistoryTests extends TestCase {
+	private File historyDir;
+	private File store;
+
+	public ConfigurationHistoryTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		// the histories are shared by directory, each test has its own
+		historyDir = File.createTempFile("history", null); //$NON-NLS-1$
+		historyDir.delete();
+		historyDir.mkdirs();
+		store = new File(historyDir, ConfigurationHistory.HISTORY_STORE);
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = historyDir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+		historyDir.delete();
+	}
+
+	public void testAddAndGet() throws IOException {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		for (int i = 1; i <= 3; i++)
+			history.add(i, createConfiguration(i));
+		assertEquals(Arrays.asList(new String[] {"1.xml", "2.xml", "3.xml"}), Arrays.asList(history.getNames())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (int i = 1; i <= 3; i++)
+			assertTrue(Arrays.equals(getConfiguration(i), history.get(i)));
+	}
+
+	public void testEmptyStore() throws IOException {
+		write(store, new byte[0]);
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		history.add(1, createConfiguration(1));
+		assertTrue(Arrays.equals(getConfiguration(1), history.get(1)));
+	}
+
+	public void testUnsupportedStoreIsKept() throws IOException {
+		assertStoreKept("not a history store".getBytes()); //$NON-NLS-1$
+	}
+
+	public void testShortHeaderIsKept() throws IOException {
+		assertStoreKept(new byte[] {0x48, 0x49, 0x53});
+	}
+
+	public void testInvalidRecordIsKept() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x48495354);
+		out.writeInt(1);
+		out.writeLong(1);
+		out.writeByte(1);
+		out.writeInt(-1);
+		out.close();
+		assertStoreKept(bytes.toByteArray());
+	}
+
+	public void testNoCountLimitByDefault() throws IOException {
+		// the update manager trims the history to its preference, and tells its listeners
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		for (int i = 1; i <= 120; i++)
+			history.add(i, createConfiguration(i));
+		assertEquals(120, history.getNames().length);
+	}
+
+	public void testCountLimitKeepsOldest() throws IOException {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		history.setLimits(5, 0);
+		for (int i = 1; i <= 8; i++)
+			history.add(i, createConfiguration(i));
+		assertEquals(Arrays.asList(new String[] {"1.xml", "5.xml", "6.xml", "7.xml", "8.xml"}), Arrays.asList(history.getNames())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		assertConfigurations(history, new int[] {1, 5, 6, 7, 8});
+	}
+
+	public void testSizeLimitKeepsOldest() throws IOException {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		history.setLimits(0, 8000);
+		for (int i = 1; i <= 20; i++)
+			history.add(i, createConfiguration(getRandomConfiguration(i)));
+		assertTrue("Store of " + store.length() + " bytes", store.length() <= 8000); //$NON-NLS-1$ //$NON-NLS-2$
+		String[] names = history.getNames();
+		assertTrue(names.length >= 2 && names.length < 20);
+		assertEquals("1.xml", names[0]); //$NON-NLS-1$
+		assertEquals("20.xml", names[names.length - 1]); //$NON-NLS-1$
+		assertTrue(Arrays.equals(getRandomConfiguration(1), history.get(1)));
+		assertTrue(Arrays.equals(getRandomConfiguration(20), history.get(20)));
+	}
+
+	public void testCompactionWithRemovedBases() throws IOException {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		for (int i = 1; i <= 40; i++)
+			history.add(i, createConfiguration(i));
+		long length = store.length();
+		// 17 is the base of the deltas up to 32
+		for (int i = 2; i <= 25; i++)
+			history.remove(i);
+		assertTrue(store.length() < length);
+		int[] remaining = new int[16];
+		remaining[0] = 1;
+		for (int i = 1; i < remaining.length; i++)
+			remaining[i] = 25 + i;
+		assertConfigurations(history, remaining);
+		assertEquals(remaining.length, history.getNames().length);
+		assertEquals(1, historyDir.listFiles().length - 1);
+	}
+
+	public void testBackupIsRestored() throws IOException {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		for (int i = 1; i <= 3; i++)
+			history.add(i, createConfiguration(i));
+		// the platform stopped while the store was being replaced by a compacted one
+		assertTrue(store.renameTo(new File(historyDir, ConfigurationHistory.HISTORY_STORE + ".bak"))); //$NON-NLS-1$
+		assertEquals(3, history.getNames().length);
+		assertTrue(store.exists());
+		assertConfigurations(history, new int[] {1, 2, 3});
+	}
+
+	public void testParserReadsStoredConfiguration() throws Exception {
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		// the parser skips the sites that do not exist
+		String site = historyDir.toURL().toExternalForm();
+		for (int i = 1; i <= 3; i++) {
+			String content = new String(getConfiguration(i), "UTF-8").replaceAll("file:/site0/", site); //$NON-NLS-1$ //$NON-NLS-2$
+			history.add(i, createConfiguration(content.getBytes("UTF-8"))); //$NON-NLS-1$
+		}
+		File historyFile = new File(historyDir, "2.xml"); //$NON-NLS-1$
+		assertFalse(historyFile.exists());
+		Configuration config = new ConfigurationParser().parse(historyFile.toURL(), historyDir.toURL());
+		assertNotNull(config);
+		assertEquals(2, config.getDate().getTime());
+		SiteEntry[] sites = config.getSites();
+		assertEquals(1, sites.length);
+		assertEquals(site, sites[0].getURL().toExternalForm());
+		assertNull(new ConfigurationParser().parse(new File(historyDir, "4.xml").toURL(), historyDir.toURL())); //$NON-NLS-1$
+	}
+
+	private void assertConfigurations(ConfigurationHistory history, int[] indexes) throws IOException {
+		for (int i = 0; i < indexes.length; i++)
+			assertTrue(String.valueOf(indexes[i]), Arrays.equals(getConfiguration(indexes[i]), history.get(indexes[i])));
+	}
+
+	/*
+	 * Checks that a store that cannot be read is neither changed nor used
+	 */
+	private void assertStoreKept(byte[] content) throws IOException {
+		write(store, content);
+		ConfigurationHistory history = ConfigurationHistory.getHistory(historyDir);
+		assertEquals(0, history.getNames().length);
+		try {
+			history.add(1, createConfiguration(1));
+			fail("The configuration was added to an unreadable store"); //$NON-NLS-1$
+		} catch (IOException e) {
+			// expected, the configuration is saved as a file instead
+		}
+		history.remove(1);
+		assertTrue(Arrays.equals(content, read(store)));
+		assertEquals(0, history.getNames().length);
+	}
+
+	private File createConfiguration(int index) throws IOException {
+		return createConfiguration(getConfiguration(index));
+	}
+
+	private File createConfiguration(byte[] content) throws IOException {
+		File file = new File(historyDir, "platform.xml"); //$NON-NLS-1$
+		write(file, content);
+		return file;
+	}
+
+	/*
+	 * Returns a configuration that neither compresses nor shares lines
+	 * with the others
+	 */
+	private static byte[] getRandomConfiguration(int index) throws IOException {
+		Random random = new Random(index);
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("<config date=\"").append(index).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < 20; i++)
+			buffer.append("<site url=\"file:/").append(Long.toHexString(random.nextLong())).append(Long.toHexString(random.nextLong())).append("/\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		buffer.append("</config>\n"); //$NON-NLS-1$
+		return buffer.toString().getBytes("UTF-8"); //$NON-NLS-1$
+	}
+
+	private static byte[] getConfiguration(int index) throws IOException {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+		buffer.append("<config date=\"").append(index).append("\" transient=\"false\" version=\"3.0\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < 20; i++)
+			buffer.append("<site enabled=\"true\" policy=\"USER-EXCLUDE\" updateable=\"true\" url=\"file:/site").append(i).append("/\">\n</site>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		buffer.append("</config>\n"); //$NON-NLS-1$
+		return buffer.toString().getBytes("UTF-8"); //$NON-NLS-1$
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+}
@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.configurator.IPlatformConfiguration.ISitePolicy;
+import org.eclipse.update.internal.configurator.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests that platform.xml is streamed as the DOM of the configuration was
+ * printed, and that the configuration replayed from its snapshot is the
+ * one parsed from the XML.
+ */
+public class ConfigurationWriterTests extends TestCase {
+	private static final String PROP_CONFIG_SNAPSHOT = "org.eclipse.update.configurator.configSnapshot"; //$NON-NLS-1$
+	private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+	private File dir;
+	private File xmlFile;
+	private URL installURL;
+	private String snapshotProperty;
+
+	public ConfigurationWriterTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("configwriter", null); //$NON-NLS-1$
+		dir.delete();
+		dir.mkdirs();
+		xmlFile = new File(dir, "platform.xml"); //$NON-NLS-1$
+		installURL = dir.toURL();
+		snapshotProperty = System.getProperty(PROP_CONFIG_SNAPSHOT);
+	}
+
+	protected void tearDown() throws Exception {
+		if (snapshotProperty == null)
+			System.getProperties().remove(PROP_CONFIG_SNAPSHOT);
+		else
+			System.setProperty(PROP_CONFIG_SNAPSHOT, snapshotProperty);
+		delete(dir);
+	}
+
+	public void testStreamedAsPrintedFromTheDOM() throws Exception {
+		Configuration shared = new Configuration(new Date(500));
+		shared.setURL(new File(createDir("shared"), "platform.xml").toURL()); //$NON-NLS-1$ //$NON-NLS-2$
+		shared.setInstallLocation(installURL);
+		SiteEntry site = createSite(shared, "sharedsite"); //$NON-NLS-1$
+		shared.addSiteEntry(site.getURL().toExternalForm(), site);
+		Configuration config = createConfiguration();
+		config.setLinkedConfig(shared);
+		// the site of the shared configuration is not written again
+		SiteEntry sharedSite = createSite(config, "sharedsite"); //$NON-NLS-1$
+		config.addSiteEntry(sharedSite.getURL().toExternalForm(), sharedSite);
+		// feature roots are written, but not parsed
+		SiteEntry rootSite = createSite(config, "rootsite"); //$NON-NLS-1$
+		rootSite.addFeatureEntry(new FeatureEntry("feature.c", "3.0.0", "3.0.0", false, null, new URL[] {new URL(installURL, "root <c>/"), new URL(installURL, "root '2'/")})); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		config.addSiteEntry(rootSite.getURL().toExternalForm(), rootSite);
+
+		StringWriter printed = new StringWriter();
+		XMLPrintHandler.printNode(printed, toDocument(config), ENCODING);
+		StringWriter streamed = new StringWriter();
+		ConfigurationWriter writer = new ConfigurationWriter(streamed, null);
+		writer.startDocument(ENCODING);
+		config.write(writer);
+		assertEquals(printed.toString(), streamed.toString());
+	}
+
+	public void testSnapshotReplaysTheParsedConfiguration() throws Exception {
+		Configuration config = createConfiguration();
+		System.setProperty(PROP_CONFIG_SNAPSHOT, "true"); //$NON-NLS-1$
+		save(config);
+		String saved = toXML(config);
+
+		System.setProperty(PROP_CONFIG_SNAPSHOT, "false"); //$NON-NLS-1$
+		Configuration parsed = new ConfigurationParser().parse(xmlFile.toURL(), installURL);
+		assertEquals(saved, toXML(parsed));
+
+		// platform.xml is not read while its snapshot is up to date
+		long lastModified = xmlFile.lastModified();
+		byte[] garbage = new byte[(int) xmlFile.length()];
+		Arrays.fill(garbage, (byte) ' ');
+		write(xmlFile, garbage);
+		xmlFile.setLastModified(lastModified);
+		System.setProperty(PROP_CONFIG_SNAPSHOT, "true"); //$NON-NLS-1$
+		Configuration replayed = new ConfigurationParser().parse(xmlFile.toURL(), installURL);
+		assertNotNull(replayed);
+		assertEquals(toXML(parsed), toXML(replayed));
+		assertEquals(parsed.getSites().length, replayed.getSites().length);
+		assertEquals(lastModified, replayed.lastModified());
+	}
+
+	public void testOutdatedSnapshotIsNotReplayed() throws Exception {
+		System.setProperty(PROP_CONFIG_SNAPSHOT, "true"); //$NON-NLS-1$
+		save(createConfiguration());
+		// another configuration saved without snapshots
+		Configuration config = new Configuration(new Date(2000));
+		config.setURL(xmlFile.toURL());
+		config.setInstallLocation(installURL);
+		SiteEntry site = createSite(config, "othersite"); //$NON-NLS-1$
+		config.addSiteEntry(site.getURL().toExternalForm(), site);
+		StringWriter xml = new StringWriter();
+		ConfigurationWriter writer = new ConfigurationWriter(xml, null);
+		writer.startDocument(ENCODING);
+		config.write(writer);
+		write(xmlFile, xml.toString().getBytes(ENCODING));
+
+		Configuration parsed = new ConfigurationParser().parse(xmlFile.toURL(), installURL);
+		assertEquals(toXML(config), toXML(parsed));
+	}
+
+	private Configuration createConfiguration() throws Exception {
+		Configuration config = new Configuration(new Date(1000));
+		config.setURL(xmlFile.toURL());
+		config.setInstallLocation(installURL);
+
+		SiteEntry site = createSite(config, "site"); //$NON-NLS-1$
+		site.addFeatureEntry(new FeatureEntry("feature.a", "1.0.0", "plugin.a", "1.0.1", true, "app & co", null)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		FeatureEntry feature = new FeatureEntry("feature.b", "2.0.0", "2.0.0", false, null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		feature.setURL("features/feature.b_2.0.0/"); //$NON-NLS-1$
+		site.addFeatureEntry(feature);
+		config.addSiteEntry(site.getURL().toExternalForm(), site);
+
+		SiteEntry included = new SiteEntry(createDir("included").toURL(), new SitePolicy(ISitePolicy.USER_INCLUDE, new String[] {"plugins/a_1.0.0.jar", "plugins/\"b\"_1.0.0/"})); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		included.setUpdateable(false);
+		included.setEnabled(false);
+		included.setLinkFileName("links" + File.separator + "included.link"); //$NON-NLS-1$ //$NON-NLS-2$
+		config.addSiteEntry(included.getURL().toExternalForm(), included);
+		return config;
+	}
+
+	private SiteEntry createSite(Configuration config, String name) throws IOException {
+		SiteEntry site = new SiteEntry(createDir(name).toURL(), new SitePolicy(ISitePolicy.USER_EXCLUDE, new String[0]));
+		site.setConfig(config);
+		return site;
+	}
+
+	private File createDir(String name) {
+		File siteDir = new File(dir, name);
+		siteDir.mkdirs();
+		return siteDir;
+	}
+
+	/*
+	 * Saves platform.xml and its snapshot as the platform configuration does
+	 */
+	private void save(Configuration config) throws IOException {
+		ConfigurationSnapshot snapshot = ConfigurationSnapshot.isEnabled() ? new ConfigurationSnapshot() : null;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(xmlFile), ENCODING));
+		try {
+			ConfigurationWriter writer = new ConfigurationWriter(out, snapshot);
+			writer.startDocument(ENCODING);
+			config.write(writer);
+		} finally {
+			out.close();
+		}
+		if (snapshot != null)
+			snapshot.save(xmlFile);
+	}
+
+	private static String toXML(Configuration config) throws IOException {
+		StringWriter xml = new StringWriter();
+		ConfigurationWriter writer = new ConfigurationWriter(xml, null);
+		writer.startDocument(ENCODING);
+		config.write(writer);
+		return xml.toString();
+	}
+
+	/*
+	 * The DOM that was printed as platform.xml before it was streamed
+	 */
+	private static Document toDocument(Configuration config) throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element configElement = doc.createElement(IConfigurationConstants.CFG);
+		configElement.setAttribute(IConfigurationConstants.CFG_VERSION, IConfigurationConstants.VERSION);
+		configElement.setAttribute(IConfigurationConstants.CFG_DATE, String.valueOf(config.getDate().getTime()));
+		configElement.setAttribute(IConfigurationConstants.CFG_TRANSIENT, config.isTransient() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		Configuration linkedConfig = config.getLinkedConfig();
+		if (linkedConfig != null)
+			configElement.setAttribute(IConfigurationConstants.CFG_SHARED_URL, Utils.makeRelative(config.getInstallURL(), linkedConfig.getURL()).toExternalForm());
+		SiteEntry[] sites = config.getSites();
+		for (int i = 0; i < sites.length; i++) {
+			if (linkedConfig != null && linkedConfig.getSiteEntry(sites[i].getURL().toExternalForm()) != null)
+				continue;
+			configElement.appendChild(toElement(doc, sites[i]));
+		}
+		doc.appendChild(configElement);
+		return doc;
+	}
+
+	private static Element toElement(Document doc, SiteEntry site) {
+		Element siteElement = doc.createElement(IConfigurationConstants.CFG_SITE);
+		Configuration config = site.getConfig();
+		URL url = (config == null || config.isTransient()) ? site.getURL() : Utils.makeRelative(Utils.getInstallURL(), site.getURL());
+		siteElement.setAttribute(IConfigurationConstants.CFG_URL, url.toString());
+		siteElement.setAttribute(IConfigurationConstants.CFG_ENABLED, site.isEnabled() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		siteElement.setAttribute(IConfigurationConstants.CFG_UPDATEABLE, site.isUpdateable() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (site.isExternallyLinkedSite())
+			siteElement.setAttribute(IConfigurationConstants.CFG_LINK_FILE, site.getLinkFileName().trim().replace(File.separatorChar, '/'));
+		siteElement.setAttribute(IConfigurationConstants.CFG_POLICY, IConfigurationConstants.CFG_POLICY_TYPE[site.getSitePolicy().getType()]);
+		String[] list = site.getSitePolicy().getList();
+		if (list.length > 0) {
+			StringBuffer sb = new StringBuffer();
+			for (int i = 0; i < list.length; i++) {
+				if (i > 0)
+					sb.append(',');
+				sb.append(list[i]);
+			}
+			siteElement.setAttribute(IConfigurationConstants.CFG_LIST, sb.toString());
+		}
+		FeatureEntry[] features = site.getFeatureEntries();
+		for (int i = 0; i < features.length; i++)
+			siteElement.appendChild(toElement(doc, features[i]));
+		return siteElement;
+	}
+
+	private static Element toElement(Document doc, FeatureEntry feature) {
+		URL installURL = feature.getSite().getConfig().getInstallURL();
+		Element featureElement = doc.createElement(IConfigurationConstants.CFG_FEATURE_ENTRY);
+		String id = feature.getFeatureIdentifier();
+		String version = feature.getFeatureVersion();
+		featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_ID, id);
+		if (feature.canBePrimary())
+			featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_PRIMARY, "true"); //$NON-NLS-1$
+		if (version != null)
+			featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_VERSION, version);
+		String pluginVersion = feature.getFeaturePluginVersion();
+		if (pluginVersion != null && !pluginVersion.equals(version))
+			featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_PLUGIN_VERSION, pluginVersion);
+		if (!feature.getFeaturePluginIdentifier().equals(id))
+			featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_PLUGIN_IDENTIFIER, feature.getFeaturePluginIdentifier());
+		if (feature.getFeatureApplication() != null)
+			featureElement.setAttribute(IConfigurationConstants.CFG_FEATURE_ENTRY_APPLICATION, feature.getFeatureApplication());
+		if (feature.getURL() != null)
+			featureElement.setAttribute(IConfigurationConstants.CFG_URL, Utils.makeRelative(installURL, feature.getURL()));
+		URL[] roots = feature.getFeatureRootURLs();
+		for (int i = 0; i < roots.length; i++) {
+			String root = Utils.makeRelative(installURL, roots[i]).toExternalForm();
+			if (root.trim().length() > 0) {
+				Element rootElement = doc.createElement(IConfigurationConstants.CFG_FEATURE_ENTRY_ROOT);
+				rootElement.appendChild(doc.createTextNode(root));
+				featureElement.appendChild(rootElement);
+			}
+		}
+		return featureElement;
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
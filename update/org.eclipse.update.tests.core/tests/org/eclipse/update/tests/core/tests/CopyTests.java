@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.core.UpdateManagerUtils;
+
+/**
+ * Tests the copies of UpdateManagerUtils: local files are copied with file
+ * channels and must stop at the expected length, as the copy of other
+ * streams does.
+ */
+public class CopyTests extends TestCase {
+	private static final int LENGTH = 300000;
+
+	private File source;
+	private File target;
+	private byte[] content;
+
+	public CopyTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		content = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++)
+			content[i] = (byte) (i * 31);
+		source = File.createTempFile("copysource", null); //$NON-NLS-1$
+		target = File.createTempFile("copytarget", null); //$NON-NLS-1$
+		OutputStream out = new FileOutputStream(source);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		source.delete();
+		target.delete();
+	}
+
+	public void testFileCopy() throws Exception {
+		assertEquals(-1, copy(new FileInputStream(source), 0, LENGTH));
+	}
+
+	public void testFileCopyOfExpectedLength() throws Exception {
+		assertEquals(-1, copy(new FileInputStream(source), LENGTH, LENGTH));
+	}
+
+	public void testFileCopyStopsAtExpectedLength() throws Exception {
+		assertEquals(-1, copy(new FileInputStream(source), 1000, 1000));
+	}
+
+	public void testFileCopyOfShorterFileFails() throws Exception {
+		assertEquals(LENGTH, copy(new FileInputStream(source), LENGTH + 1, LENGTH));
+	}
+
+	public void testStreamCopy() throws Exception {
+		assertEquals(-1, copy(new ByteArrayInputStream(content), LENGTH, LENGTH));
+	}
+
+	public void testStreamCopyOfShorterStreamFails() throws Exception {
+		assertEquals(LENGTH, copy(new ByteArrayInputStream(content), LENGTH + 1, LENGTH));
+	}
+
+	/*
+	 * Copies the stream to the target file, checks the copied bytes and
+	 * that the stream is left after them. Returns the result of the copy.
+	 */
+	private long copy(InputStream in, long expectedLength, int copiedLength) throws IOException {
+		long result;
+		try {
+			OutputStream out = new FileOutputStream(target);
+			try {
+				result = UpdateManagerUtils.copy(in, out, null, expectedLength);
+			} finally {
+				out.close();
+			}
+			if (copiedLength < LENGTH)
+				assertEquals(content[copiedLength] & 0xff, in.read());
+			else
+				assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+		assertEquals(copiedLength, target.length());
+		byte[] copied = new byte[copiedLength];
+		DataInputStream data = new DataInputStream(new FileInputStream(target));
+		try {
+			data.readFully(copied);
+		} finally {
+			data.close();
+		}
+		for (int i = 0; i < copiedLength; i++)
+			assertEquals("byte " + i, content[i], copied[i]); //$NON-NLS-1$
+		return result;
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.core.*;
+
+/**
+ * Tests the digest cache and the format of its digest files.
+ */
+public class DigestCacheTests extends TestCase {
+	private static final long TIMESTAMP = 1000;
+	private static final int FEATURES = 10;
+
+	private File dir;
+	private URL url;
+
+	public DigestCacheTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("digestcache", null); //$NON-NLS-1$
+		dir.delete();
+		url = new URL("http://update.example.org/site/digest.zip"); //$NON-NLS-1$
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	public void testFeaturesAreParsedOnDemand() throws Exception {
+		CachedDigest digest = put(new DigestCache(dir), url, TIMESTAMP);
+		assertEquals(FEATURES, digest.size());
+		VersionedIdentifier[] ids = digest.getIdentifiers();
+		for (int i = 0; i < FEATURES; i++) {
+			VersionedIdentifier id = new VersionedIdentifier("digest.feature" + i, "1.0." + i); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(id, ids[i]);
+			assertTrue(digest.contains(id));
+			LiteFeature feature = digest.getFeature(id);
+			assertNotNull(feature);
+			assertEquals(id, feature.getVersionedIdentifier());
+			assertEquals("Feature " + i + " & <co>", feature.getLabel()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		assertEquals(FEATURES, digest.getFeatures().length);
+		VersionedIdentifier unknown = new VersionedIdentifier("digest.feature0", "2.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse(digest.contains(unknown));
+		assertNull(digest.getFeature(unknown));
+	}
+
+	public void testDigestIsReadByTheNextSession() throws Exception {
+		put(new DigestCache(dir), url, TIMESTAMP);
+		DigestCache cache = new DigestCache(dir);
+		CachedDigest digest = cache.get(url, TIMESTAMP);
+		assertNotNull(digest);
+		assertEquals(FEATURES, digest.getFeatures().length);
+		// a changed digest is not answered from the cache
+		assertNull(cache.get(url, TIMESTAMP + 1));
+	}
+
+	public void testDigestFileIsNotKeptOpen() throws Exception {
+		put(new DigestCache(dir), url, TIMESTAMP);
+		CachedDigest digest = new DigestCache(dir).get(url, TIMESTAMP);
+		File[] files = getDigestFiles();
+		assertEquals(1, files.length);
+		assertTrue(files[0].delete());
+		assertEquals(FEATURES, digest.getFeatures().length);
+	}
+
+	public void testTruncatedDigestFileIsDropped() throws Exception {
+		put(new DigestCache(dir), url, TIMESTAMP);
+		File file = getDigestFiles()[0];
+		byte[] content = read(file);
+		byte[] truncated = new byte[content.length - 20];
+		System.arraycopy(content, 0, truncated, 0, truncated.length);
+		write(file, truncated);
+		assertNull(new DigestCache(dir).get(url, TIMESTAMP));
+		// and removed from the index
+		assertNull(new DigestCache(dir).get(url, TIMESTAMP));
+		assertEquals(0, getDigestFiles().length);
+	}
+
+	public void testCorruptedTableIsRejected() throws Exception {
+		put(new DigestCache(dir), url, TIMESTAMP);
+		File file = getDigestFiles()[0];
+		byte[] content = read(file);
+		// the count of the table, after the version
+		DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(content, content.length - 12, 8));
+		int countOffset = (int) trailer.readLong() + 4;
+		content[countOffset] = (byte) 0x7f;
+		write(file, content);
+		try {
+			new CachedDigest(file);
+			fail("Corrupted digest file was read"); //$NON-NLS-1$
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testOtherFileIsRejected() throws Exception {
+		dir.mkdirs();
+		File file = new File(dir, "other.digest"); //$NON-NLS-1$
+		write(file, "<digest></digest>".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			new CachedDigest(file);
+			fail("Other file was read"); //$NON-NLS-1$
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testLeastRecentlyUsedDigestIsEvicted() throws Exception {
+		DigestCache cache = new DigestCache(dir);
+		for (int i = 0; i <= 16; i++)
+			put(cache, new URL(url, "digest" + i + ".zip"), TIMESTAMP); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull(cache.get(new URL(url, "digest0.zip"), TIMESTAMP)); //$NON-NLS-1$
+		assertNotNull(cache.get(new URL(url, "digest1.zip"), TIMESTAMP)); //$NON-NLS-1$
+		assertEquals(16, getDigestFiles().length);
+	}
+
+	private static CachedDigest put(DigestCache cache, URL url, long timestamp) throws Exception {
+		StringBuffer digest = new StringBuffer();
+		digest.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<digest>\n"); //$NON-NLS-1$
+		for (int i = 0; i < FEATURES; i++) {
+			digest.append("<feature id=\"digest.feature").append(i).append("\" version=\"1.0.").append(i); //$NON-NLS-1$ //$NON-NLS-2$
+			digest.append("\" label=\"Feature ").append(i).append(" &amp; &lt;co&gt;\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			digest.append("<description>A &lt;b&gt;feature&lt;/b&gt;</description>\n"); //$NON-NLS-1$
+			digest.append("<plugin id=\"digest.plugin").append(i).append("\" version=\"1.0.0\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			digest.append("</feature>\n"); //$NON-NLS-1$
+		}
+		digest.append("</digest>\n"); //$NON-NLS-1$
+		return cache.put(url, timestamp, new ByteArrayInputStream(digest.toString().getBytes("UTF-8"))); //$NON-NLS-1$
+	}
+
+	private File[] getDigestFiles() {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File parent, String name) {
+				return name.endsWith(".digest"); //$NON-NLS-1$
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.*;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.core.connection.*;
+
+/**
+ * Tests the cache of update site metadata, and the conditional requests
+ * made on it, against an HTTP server embedded in the test.
+ */
+public class HttpMetadataCacheTests extends TestCase {
+	private static final String ETAG = "\"1\""; //$NON-NLS-1$
+
+	private File dir;
+	private Server server;
+	private URL url;
+
+	/*
+	 * Serves one resource, answering 304 to requests made conditional on
+	 * its current ETag
+	 */
+	private static class Server implements Runnable {
+		private ServerSocket socket;
+		private Thread thread;
+		byte[] body;
+		String etag = ETAG;
+		// removed from the cache before the server answers 304
+		URL evicted;
+		int okCount;
+		int notModifiedCount;
+
+		Server() throws IOException {
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+			thread = new Thread(this, "HttpMetadataCacheTests server"); //$NON-NLS-1$
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int getPort() {
+			return socket.getLocalPort();
+		}
+
+		public void run() {
+			while (true) {
+				Socket client;
+				try {
+					client = socket.accept();
+				} catch (IOException e) {
+					return; // closed
+				}
+				try {
+					try {
+						serve(client);
+					} finally {
+						client.close();
+					}
+				} catch (IOException e) {
+					// next request
+				}
+			}
+		}
+
+		private void serve(Socket client) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "ISO-8859-1")); //$NON-NLS-1$
+			String ifNoneMatch = null;
+			for (String line = in.readLine(); line != null && line.length() > 0; line = in.readLine()) {
+				if (line.toLowerCase().startsWith("if-none-match:")) //$NON-NLS-1$
+					ifNoneMatch = line.substring(line.indexOf(':') + 1).trim();
+			}
+			OutputStream out = new BufferedOutputStream(client.getOutputStream());
+			String headers;
+			byte[] content;
+			synchronized (this) {
+				if (etag.equals(ifNoneMatch)) {
+					if (evicted != null)
+						HttpMetadataCache.getDefault().remove(evicted);
+					notModifiedCount++;
+					headers = "HTTP/1.1 304 Not Modified\r\nETag: " + etag + "\r\nConnection: close\r\n\r\n"; //$NON-NLS-1$ //$NON-NLS-2$
+					content = new byte[0];
+				} else {
+					okCount++;
+					headers = "HTTP/1.1 200 OK\r\nETag: " + etag + "\r\nContent-Type: text/xml\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					content = body;
+				}
+			}
+			out.write(headers.getBytes("ISO-8859-1")); //$NON-NLS-1$
+			out.write(content);
+			out.flush();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	public HttpMetadataCacheTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("httpcache", null); //$NON-NLS-1$
+		dir.delete();
+		server = new Server();
+		server.body = getBody(1000, 'a');
+		// a resource of its own for each test, the default cache is shared
+		url = new URL("http://127.0.0.1:" + server.getPort() + "/" + getName() + "/site.xml"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+		HttpMetadataCache cache = HttpMetadataCache.getDefault();
+		if (cache != null)
+			cache.remove(url);
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	public void testUnchangedResourceIsServedFromTheCache() throws Exception {
+		assertNotNull("No HTTP metadata cache", HttpMetadataCache.getDefault()); //$NON-NLS-1$
+		assertFalse(get(url, server.body));
+		HttpResponse response = (HttpResponse) ConnectionFactory.get(url);
+		try {
+			read(response, server.body);
+			assertTrue(response.isConditional());
+			assertTrue(response.isNotModified());
+			assertEquals(server.body.length, response.getContentLength());
+		} finally {
+			response.close();
+		}
+		assertEquals(1, server.okCount);
+		assertEquals(1, server.notModifiedCount);
+	}
+
+	public void testChangedResourceIsDownloaded() throws Exception {
+		assertNotNull("No HTTP metadata cache", HttpMetadataCache.getDefault()); //$NON-NLS-1$
+		get(url, server.body);
+		synchronized (server) {
+			server.body = getBody(1000, 'b');
+			server.etag = "\"2\""; //$NON-NLS-1$
+		}
+		assertFalse(get(url, server.body));
+		// and the new body is cached
+		assertTrue(get(url, server.body));
+		assertEquals(2, server.okCount);
+		assertEquals(1, server.notModifiedCount);
+	}
+
+	public void testEvictedResourceIsRequestedAgain() throws Exception {
+		HttpMetadataCache cache = HttpMetadataCache.getDefault();
+		assertNotNull("No HTTP metadata cache", cache); //$NON-NLS-1$
+		get(url, server.body);
+		server.evicted = url;
+		HttpResponse response = (HttpResponse) ConnectionFactory.get(url);
+		try {
+			read(response, server.body);
+			// the second request is not run by the connection manager
+			assertTrue("No read timeout", getReadTimeout(response) > 0); //$NON-NLS-1$
+		} finally {
+			response.close();
+		}
+		assertFalse(response.isConditional());
+		assertEquals(2, server.okCount);
+		assertEquals(1, server.notModifiedCount);
+		assertNotNull(cache.get(url));
+	}
+
+	public void testLeastRecentlyUsedBodyIsEvicted() throws Exception {
+		HttpMetadataCache cache = new HttpMetadataCache(dir, 4000);
+		for (int i = 0; i < 4; i++)
+			put(cache, i, 900);
+		// used again, the first body is kept
+		assertNotNull(cache.get(getURL(0)));
+		put(cache, 4, 900);
+		assertEquals(3600, cache.getSize());
+		assertNotNull(cache.get(getURL(0)));
+		assertNull(cache.get(getURL(1)));
+		for (int i = 2; i <= 4; i++)
+			assertNotNull(cache.get(getURL(i)));
+	}
+
+	public void testOrderSurvivesRestart() throws Exception {
+		HttpMetadataCache cache = new HttpMetadataCache(dir, 4000);
+		for (int i = 0; i < 4; i++)
+			put(cache, i, 900);
+		cache = new HttpMetadataCache(dir, 4000);
+		assertEquals(3600, cache.getSize());
+		put(cache, 4, 900);
+		assertNull(cache.get(getURL(0)));
+		for (int i = 1; i <= 4; i++)
+			assertNotNull(cache.get(getURL(i)));
+		assertEquals(4, dir.listFiles(new FilenameFilter() {
+			public boolean accept(File parent, String name) {
+				return name.endsWith(".body"); //$NON-NLS-1$
+			}
+		}).length);
+	}
+
+	public void testLargeBodyIsNotCached() throws Exception {
+		HttpMetadataCache cache = new HttpMetadataCache(dir, 4000);
+		put(cache, 0, 1001);
+		assertNull(cache.get(getURL(0)));
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testIncompleteBodyIsNotCached() throws Exception {
+		HttpMetadataCache cache = new HttpMetadataCache(dir, 4000);
+		InputStream in = cache.record(getURL(0), new ByteArrayInputStream(getBody(900, 'a')), ETAG, 0);
+		in.read(new byte[100]);
+		in.close();
+		assertNull(cache.get(getURL(0)));
+	}
+
+	public void testBodyWithoutValidatorIsNotCached() throws Exception {
+		HttpMetadataCache cache = new HttpMetadataCache(dir, 4000);
+		InputStream body = new ByteArrayInputStream(getBody(900, 'a'));
+		assertSame(body, cache.record(getURL(0), body, null, 0));
+	}
+
+	/*
+	 * Requests a resource and checks its body. Returns whether the body was
+	 * served from the cache.
+	 */
+	private static boolean get(URL url, byte[] body) throws IOException {
+		HttpResponse response = (HttpResponse) ConnectionFactory.get(url);
+		try {
+			read(response, body);
+			return response.isNotModified();
+		} finally {
+			response.close();
+		}
+	}
+
+	private static void read(HttpResponse response, byte[] body) throws IOException {
+		InputStream in = response.getInputStream();
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		for (int count = in.read(buffer); count != -1; count = in.read(buffer))
+			read.write(buffer, 0, count);
+		in.close();
+		assertEquals(new String(body, "UTF-8"), new String(read.toByteArray(), "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/*
+	 * Returns the read timeout of the last connection of a response, read
+	 * reflectively as the cache and the response do
+	 */
+	private static int getReadTimeout(HttpResponse response) throws Exception {
+		Field field = AbstractResponse.class.getDeclaredField("connection"); //$NON-NLS-1$
+		field.setAccessible(true);
+		URLConnection connection = (URLConnection) field.get(response);
+		assertNotNull(connection);
+		Method method = URLConnection.class.getMethod("getReadTimeout", new Class[0]); //$NON-NLS-1$
+		return ((Integer) method.invoke(connection, new Object[0])).intValue();
+	}
+
+	private static void put(HttpMetadataCache cache, int index, int length) throws IOException {
+		InputStream in = cache.record(getURL(index), new ByteArrayInputStream(getBody(length, 'a')), ETAG, 0);
+		try {
+			while (in.read(new byte[256]) != -1) {
+				// read the body to its end
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static URL getURL(int index) throws MalformedURLException {
+		return new URL("http://update.example.org/site" + index + "/site.xml"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static byte[] getBody(int length, char c) {
+		byte[] body = new byte[length];
+		for (int i = 0; i < length; i++)
+			body[i] = (byte) c;
+		return body;
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.File;
+import java.net.URL;
+import java.util.*;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.configurator.IPlatformConfiguration.ISitePolicy;
+import org.eclipse.update.configurator.IPlatformConfiguration.ISiteEntry;
+import org.eclipse.update.internal.configurator.*;
+
+/**
+ * Tests that the record of the installed plug-ins only contributes the
+ * plug-ins of the sites that changed, and that the bundles are compared
+ * with the whole plug-in path when the record does not match them.
+ */
+public class InstalledPluginsTests extends TestCase {
+	private File dir;
+	private File file;
+	private URL installURL;
+
+	/*
+	 * A site that includes the plug-ins of its policy, with a change stamp
+	 * set by the test instead of computed from its directories
+	 */
+	private static class TestSite extends SiteEntry {
+		long stamp = 1;
+		int detected;
+
+		TestSite(URL url, String[] plugins) {
+			super(url, new SitePolicy(ISitePolicy.USER_INCLUDE, plugins));
+		}
+
+		public long getChangeStamp() {
+			return stamp;
+		}
+
+		public String[] getPlugins() {
+			detected++;
+			return super.getPlugins();
+		}
+	}
+
+	public InstalledPluginsTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("installedplugins", null); //$NON-NLS-1$
+		dir.delete();
+		dir.mkdirs();
+		file = new File(dir, InstalledPlugins.LAST_PLUGINS);
+		installURL = dir.toURL();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	public void testUnchangedSiteContributesNothing() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1", "a2"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		TestSite b = createSite("b", new String[] {"b1"}); //$NON-NLS-1$ //$NON-NLS-2$
+		ISiteEntry[] sites = new ISiteEntry[] {a, b};
+		InstalledPlugins last = install(sites);
+		assertTrue(last.matches(getInstalled(new String[] {"a/plugins/a1", "a/plugins/a2", "b/plugins/b1"}))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		InstalledPlugins plugins = last.update(sites, installURL);
+		// the plug-ins are taken from the record
+		assertEquals(1, a.detected);
+		assertEquals(1, b.detected);
+		assertLocations(new String[0], plugins.getAddedLocations(last));
+		assertLocations(new String[0], plugins.getRemovedLocations(last));
+		assertLocations(last.getLocations(), plugins.getLocations());
+	}
+
+	public void testChangedSiteContributesItsDifferences() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1", "a2"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		TestSite b = createSite("b", new String[] {"b1"}); //$NON-NLS-1$ //$NON-NLS-2$
+		InstalledPlugins last = install(new ISiteEntry[] {a, b});
+		a = createSite("a", new String[] {"a2", "a3"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		a.stamp = 2;
+		InstalledPlugins plugins = last.update(new ISiteEntry[] {a, b}, installURL);
+		assertLocations(new String[] {"a/plugins/a3"}, plugins.getAddedLocations(last)); //$NON-NLS-1$
+		assertLocations(new String[] {"a/plugins/a1"}, plugins.getRemovedLocations(last)); //$NON-NLS-1$
+		assertLocations(new String[] {"a/plugins/a2", "a/plugins/a3", "b/plugins/b1"}, plugins.getLocations()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public void testChangedPolicyContributesItsDifferences() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1"}); //$NON-NLS-1$ //$NON-NLS-2$
+		InstalledPlugins last = install(new ISiteEntry[] {a});
+		// the same change stamp, another policy
+		a = createSite("a", new String[] {"a2"}); //$NON-NLS-1$ //$NON-NLS-2$
+		InstalledPlugins plugins = last.update(new ISiteEntry[] {a}, installURL);
+		assertLocations(new String[] {"a/plugins/a2"}, plugins.getAddedLocations(last)); //$NON-NLS-1$
+		assertLocations(new String[] {"a/plugins/a1"}, plugins.getRemovedLocations(last)); //$NON-NLS-1$
+	}
+
+	public void testRemovedSiteContributesItsPlugins() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1"}); //$NON-NLS-1$ //$NON-NLS-2$
+		TestSite b = createSite("b", new String[] {"b1", "../a/plugins/a1"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		InstalledPlugins last = install(new ISiteEntry[] {a, b});
+		assertLocations(new String[] {"a/plugins/a1", "b/plugins/b1"}, last.getLocations()); //$NON-NLS-1$ //$NON-NLS-2$
+		InstalledPlugins plugins = last.update(new ISiteEntry[] {a}, installURL);
+		assertLocations(new String[0], plugins.getAddedLocations(last));
+		// the plug-in of the remaining site stays installed
+		assertLocations(new String[] {"b/plugins/b1"}, plugins.getRemovedLocations(last)); //$NON-NLS-1$
+	}
+
+	public void testFailedPluginIsRetried() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1", "a2"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		TestSite b = createSite("b", new String[] {"b1"}); //$NON-NLS-1$ //$NON-NLS-2$
+		InstalledPlugins installed = InstalledPlugins.load(file).update(new ISiteEntry[] {a, b}, installURL);
+		installed.setFailed("a/plugins/a2"); //$NON-NLS-1$
+		installed.setFailed("b/plugins/b1"); //$NON-NLS-1$
+		installed.save();
+		InstalledPlugins last = InstalledPlugins.load(file);
+		// the failed plug-ins are not installed
+		assertTrue(last.matches(getInstalled(new String[] {"a/plugins/a1"}))); //$NON-NLS-1$
+		assertFalse(last.matches(getInstalled(new String[] {"a/plugins/a1", "a/plugins/a2", "b/plugins/b1"}))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		// the site of a failed plug-in did not change, the other one is removed
+		InstalledPlugins plugins = last.update(new ISiteEntry[] {a}, installURL);
+		assertLocations(new String[] {"a/plugins/a2"}, plugins.getAddedLocations(last)); //$NON-NLS-1$
+		assertLocations(new String[0], plugins.getRemovedLocations(last));
+	}
+
+	public void testMismatchedRecordIsNotUsed() throws Exception {
+		TestSite a = createSite("a", new String[] {"a1", "a2"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		InstalledPlugins last = install(new ISiteEntry[] {a});
+		// installed or uninstalled since the record was saved
+		assertFalse(last.matches(getInstalled(new String[] {"a/plugins/a1", "a/plugins/a2", "c/plugins/c1"}))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(last.matches(getInstalled(new String[] {"a/plugins/a1"}))); //$NON-NLS-1$
+		assertFalse(last.matches(getInstalled(new String[] {"a/plugins/a1", "c/plugins/c1"}))); //$NON-NLS-1$ //$NON-NLS-2$
+		// and the bundles are compared with the whole plug-in path
+		assertLocations(new String[] {"a/plugins/a1", "a/plugins/a2"}, last.update(new ISiteEntry[] {a}, installURL).getLocations()); //$NON-NLS-1$ //$NON-NLS-2$
+		// so is a missing record
+		assertFalse(InstalledPlugins.load(new File(dir, "missing")).matches(getInstalled(new String[] {"a/plugins/a1", "a/plugins/a2"}))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/*
+	 * Records the plug-ins of the sites as installed, and reads the saved record
+	 */
+	private InstalledPlugins install(ISiteEntry[] sites) {
+		InstalledPlugins.load(file).update(sites, installURL).save();
+		return InstalledPlugins.load(file);
+	}
+
+	private TestSite createSite(String name, String[] plugins) throws Exception {
+		String[] paths = new String[plugins.length];
+		for (int i = 0; i < plugins.length; i++)
+			paths[i] = plugins[i].startsWith("../") ? plugins[i] : "plugins/" + plugins[i]; //$NON-NLS-1$ //$NON-NLS-2$
+		// the url of a site directory ends with a slash once it exists
+		File siteDir = new File(dir, name);
+		siteDir.mkdirs();
+		return new TestSite(siteDir.toURL(), paths);
+	}
+
+	private static Map getInstalled(String[] locations) {
+		Map installed = new HashMap();
+		for (int i = 0; i < locations.length; i++)
+			installed.put(locations[i], Boolean.TRUE);
+		return installed;
+	}
+
+	private static void assertLocations(String[] expected, String[] locations) {
+		assertEquals(Arrays.asList(expected).toString(), Arrays.asList(locations).toString());
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.jarprocessor.CommandStep;
+import org.eclipse.update.internal.jarprocessor.IBufferProcessStep;
+import org.eclipse.update.internal.jarprocessor.JarProcessor;
+import org.eclipse.update.internal.jarprocessor.Utils;
+
+/**
+ * Tests the processing of nested jars in memory by the JarProcessor.
+ */
+public class JarProcessorTests extends TestCase {
+	private static final String ADJUSTED = "test.adjusted"; //$NON-NLS-1$
+
+	private File tempDir;
+	private File input;
+
+	/*
+	 * A step that changes nothing but the eclipse.inf files, and records
+	 * whether the jars were processed on disk or in memory.
+	 */
+	private static class RecordingStep implements IBufferProcessStep {
+		List onDisk = new ArrayList();
+		List inMemory = new ArrayList();
+
+		public String recursionEffect(String entryName) {
+			return entryName.endsWith(".jar") ? entryName : null; //$NON-NLS-1$
+		}
+
+		public File preProcess(File file, File workingDirectory, List containers) {
+			onDisk.add(file.getName());
+			return null;
+		}
+
+		public File postProcess(File file, File workingDirectory, List containers) {
+			return null;
+		}
+
+		public void adjustInf(File file, Properties inf, List containers) {
+			inf.put(ADJUSTED, "true"); //$NON-NLS-1$
+		}
+
+		public byte[] preProcess(String entryName, byte[] content, List containers) {
+			inMemory.add(entryName);
+			return null;
+		}
+
+		public byte[] postProcess(String entryName, byte[] content, List containers) {
+			return null;
+		}
+
+		public void adjustInf(String entryName, Properties inf, List containers) {
+			inf.put(ADJUSTED, "true"); //$NON-NLS-1$
+		}
+
+		public String getStepName() {
+			return "Recording"; //$NON-NLS-1$
+		}
+	}
+
+	/*
+	 * A step that works on files, as the command steps do, and adds an
+	 * entry to the jars after the recursion.
+	 */
+	private static class TouchStep extends CommandStep implements IBufferProcessStep {
+		TouchStep() {
+			super(null, null, null, false);
+		}
+
+		public String recursionEffect(String entryName) {
+			return entryName.endsWith(".jar") ? entryName : null; //$NON-NLS-1$
+		}
+
+		public File preProcess(File file, File workingDirectory, List containers) {
+			return null;
+		}
+
+		public File postProcess(File file, File workingDirectory, List containers) {
+			File touched = new File(workingDirectory, "touched_" + file.getName()); //$NON-NLS-1$
+			try {
+				InputStream in = new FileInputStream(file);
+				Map entries = new TreeMap();
+				try {
+					readJar(in, null, entries);
+				} finally {
+					in.close();
+				}
+				entries.put("touched.txt", file.getName().getBytes()); //$NON-NLS-1$
+				OutputStream out = new FileOutputStream(touched);
+				try {
+					out.write(createJar(entries));
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				return null;
+			}
+			return touched;
+		}
+
+		public byte[] preProcess(String entryName, byte[] content, List containers) {
+			return null;
+		}
+
+		public byte[] postProcess(String entryName, byte[] content, List containers) throws IOException {
+			return processBuffer(entryName, content, containers, false);
+		}
+
+		public String getStepName() {
+			return "Touch"; //$NON-NLS-1$
+		}
+	}
+
+	public JarProcessorTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		tempDir = File.createTempFile("jarprocessortests", null); //$NON-NLS-1$
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		Map deep = new TreeMap();
+		deep.put("deep.txt", "deep".getBytes()); //$NON-NLS-1$ //$NON-NLS-2$
+		Map inner = new TreeMap();
+		inner.put("inner.txt", "inner".getBytes()); //$NON-NLS-1$ //$NON-NLS-2$
+		inner.put("lib/deep.jar", createJar(deep)); //$NON-NLS-1$
+		Map large = new TreeMap();
+		byte[] random = new byte[16 * 1024];
+		new Random(0).nextBytes(random);
+		large.put("random.bin", random); //$NON-NLS-1$
+		Map outer = new TreeMap();
+		outer.put("outer.txt", "outer".getBytes()); //$NON-NLS-1$ //$NON-NLS-2$
+		outer.put("nested/inner.jar", createJar(inner)); //$NON-NLS-1$
+		outer.put("nested/large.jar", createJar(large)); //$NON-NLS-1$
+
+		input = new File(tempDir, "in/outer.jar"); //$NON-NLS-1$
+		input.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(input);
+		try {
+			out.write(createJar(outer));
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		Utils.clear(tempDir);
+	}
+
+	public void testNestedJarsInMemory() throws IOException {
+		RecordingStep step = new RecordingStep();
+		Map result = readJar(process(step, 64 * 1024, "memory")); //$NON-NLS-1$
+		assertEquals(Arrays.asList(new String[] {"outer.jar"}), step.onDisk); //$NON-NLS-1$
+		assertEquals(Arrays.asList(new String[] {"nested/inner.jar", "lib/deep.jar", "nested/large.jar"}), step.inMemory); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertAdjusted(result);
+	}
+
+	public void testLargeNestedJarOnDisk() throws IOException {
+		RecordingStep step = new RecordingStep();
+		Map result = readJar(process(step, 8 * 1024, "mixed")); //$NON-NLS-1$
+		assertEquals(Arrays.asList(new String[] {"outer.jar", "large.jar"}), step.onDisk); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(Arrays.asList(new String[] {"nested/inner.jar", "lib/deep.jar"}), step.inMemory); //$NON-NLS-1$ //$NON-NLS-2$
+		assertAdjusted(result);
+	}
+
+	public void testThresholdDisabled() throws IOException {
+		RecordingStep step = new RecordingStep();
+		Map result = readJar(process(step, 0, "disk")); //$NON-NLS-1$
+		assertEquals(Arrays.asList(new String[] {"outer.jar", "inner.jar", "deep.jar", "large.jar"}), step.onDisk); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		assertTrue(step.inMemory.isEmpty());
+		assertAdjusted(result);
+	}
+
+	public void testSameContent() throws IOException {
+		Map onDisk = readJar(process(new RecordingStep(), 0, "disk")); //$NON-NLS-1$
+		Map inMemory = readJar(process(new RecordingStep(), 64 * 1024, "memory")); //$NON-NLS-1$
+		assertEquals(onDisk.keySet(), inMemory.keySet());
+		for (Iterator it = onDisk.keySet().iterator(); it.hasNext();) {
+			String name = (String) it.next();
+			if (name.endsWith(Utils.MARK_FILE_NAME))
+				assertEquals(name, loadProperties((byte[]) onDisk.get(name)), loadProperties((byte[]) inMemory.get(name)));
+			else
+				assertTrue(name, Arrays.equals((byte[]) onDisk.get(name), (byte[]) inMemory.get(name)));
+		}
+	}
+
+	public void testCommandStepInMemory() throws IOException {
+		Map result = readJar(process(new TouchStep(), 64 * 1024, "touched")); //$NON-NLS-1$
+		assertEquals("outer.jar", new String((byte[]) result.get("touched.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("inner.jar", new String((byte[]) result.get("nested/inner.jar!/touched.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("deep.jar", new String((byte[]) result.get("nested/inner.jar!/lib/deep.jar!/touched.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("inner", new String((byte[]) result.get("nested/inner.jar!/inner.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testPackInMemory() throws IOException {
+		if (!JarProcessor.canPerformPack())
+			return;
+		JarProcessor processor = JarProcessor.getPackProcessor(new Properties());
+		processor.setProcessAll(true);
+		processor.setWorkingDirectory(new File(tempDir, "packed").getPath()); //$NON-NLS-1$
+		processor.setInMemoryThreshold(64 * 1024);
+		Map result = readJar(processor.processJar(input));
+		assertTrue(result.containsKey("nested/inner.jar.pack.gz")); //$NON-NLS-1$
+		assertTrue(result.containsKey("nested/large.jar.pack.gz")); //$NON-NLS-1$
+	}
+
+	private File process(IBufferProcessStep step, long threshold, String output) throws IOException {
+		JarProcessor processor = new JarProcessor();
+		processor.addProcessStep(step);
+		processor.setProcessAll(true);
+		processor.setWorkingDirectory(new File(tempDir, output).getPath());
+		processor.setInMemoryThreshold(threshold);
+		return processor.processJar(input);
+	}
+
+	private void assertAdjusted(Map result) throws IOException {
+		String[] jars = new String[] {"", "nested/inner.jar!/", "nested/inner.jar!/lib/deep.jar!/", "nested/large.jar!/"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		for (int i = 0; i < jars.length; i++) {
+			byte[] inf = (byte[]) result.get(jars[i] + Utils.MARK_FILE_NAME);
+			assertNotNull(jars[i], inf);
+			assertEquals(jars[i], "true", loadProperties(inf).getProperty(ADJUSTED)); //$NON-NLS-1$
+		}
+		assertEquals("deep", new String((byte[]) result.get("nested/inner.jar!/lib/deep.jar!/deep.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static byte[] createJar(Map entries) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream out = new JarOutputStream(bytes);
+		for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			out.putNextEntry(new JarEntry((String) entry.getKey()));
+			out.write((byte[]) entry.getValue());
+			out.closeEntry();
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Reads the entries of a jar and of its nested jars, the names of the
+	 * nested entries are prefixed by the name of their jar and "!/". The
+	 * nested jars are not read when the prefix is null.
+	 */
+	private static Map readJar(File jar) throws IOException {
+		InputStream in = new FileInputStream(jar);
+		try {
+			Map result = new TreeMap();
+			readJar(in, "", result); //$NON-NLS-1$
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void readJar(InputStream in, String prefix, Map result) throws IOException {
+		ZipInputStream zip = new ZipInputStream(in);
+		for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = zip.read(buffer)) != -1)
+				content.write(buffer, 0, count);
+			if (prefix == null)
+				result.put(entry.getName(), content.toByteArray());
+			else if (entry.getName().endsWith(".jar")) //$NON-NLS-1$
+				readJar(new ByteArrayInputStream(content.toByteArray()), prefix + entry.getName() + "!/", result); //$NON-NLS-1$
+			else
+				result.put(prefix + entry.getName(), content.toByteArray());
+		}
+	}
+
+	private static Properties loadProperties(byte[] content) throws IOException {
+		Properties properties = new Properties();
+		properties.load(new ByteArrayInputStream(content));
+		return properties;
+	}
+}
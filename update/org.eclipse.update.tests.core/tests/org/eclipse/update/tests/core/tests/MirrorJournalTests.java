@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.mirror.MirrorJournal;
+
+/**
+ * Tests the journal of the archives stored on a mirror site.
+ */
+public class MirrorJournalTests extends TestCase {
+	private File siteDir;
+	private File archive;
+
+	public MirrorJournalTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		siteDir = File.createTempFile("mirror", null); //$NON-NLS-1$
+		siteDir.delete();
+		new File(siteDir, "plugins").mkdirs(); //$NON-NLS-1$
+		archive = new File(siteDir, "plugins/a_1.0.0.jar"); //$NON-NLS-1$
+		write(archive, "content of a".getBytes()); //$NON-NLS-1$
+	}
+
+	protected void tearDown() throws Exception {
+		delete(siteDir);
+	}
+
+	public void testRecordedArchiveIsComplete() throws Exception {
+		MirrorJournal journal = new MirrorJournal(siteDir);
+		journal.record(archive, md5(archive));
+		assertTrue(journal.isComplete(archive));
+		journal.close(1);
+		// an interrupted run is resumed from the journal file
+		assertTrue(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	public void testUnknownArchiveIsNotComplete() {
+		assertFalse(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	public void testChangedArchiveIsNotComplete() throws Exception {
+		record(md5(archive));
+		// same length, other content
+		write(archive, "content of b".getBytes()); //$NON-NLS-1$
+		assertFalse(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	public void testTruncatedArchiveIsNotComplete() throws Exception {
+		record(md5(archive));
+		write(archive, "content".getBytes()); //$NON-NLS-1$
+		assertFalse(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	public void testArchiveWithoutChecksumIsNotComplete() throws Exception {
+		record("-"); //$NON-NLS-1$
+		assertFalse(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	public void testPartialLineIsIgnored() throws Exception {
+		write(new File(siteDir, MirrorJournal.JOURNAL_FILE), "plugins/a_1.0.0.jar\t12".getBytes()); //$NON-NLS-1$
+		assertFalse(new MirrorJournal(siteDir).isComplete(archive));
+	}
+
+	private void record(String checksum) {
+		MirrorJournal journal = new MirrorJournal(siteDir);
+		journal.record(archive, checksum);
+		journal.close(1);
+	}
+
+	private static String md5(File file) throws IOException, NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+		byte[] bytes = digest.digest(read(file));
+		StringBuffer buffer = new StringBuffer();
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+			buffer.append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return buffer.toString();
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
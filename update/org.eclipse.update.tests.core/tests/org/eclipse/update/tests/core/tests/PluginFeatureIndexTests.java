@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.configurator.IPlatformConfiguration;
+import org.eclipse.update.core.*;
+import org.eclipse.update.internal.core.*;
+
+/**
+ * Tests that the index of the features referencing each plug-in of a
+ * configured site follows the changes made to the site and to its
+ * configuration policy without the configured site.
+ */
+public class PluginFeatureIndexTests extends TestCase {
+	private static final String VERSION = "1.0.0"; //$NON-NLS-1$
+	private static final int FEATURES = 3;
+
+	private File siteDir;
+	private Site site;
+	private ConfigurationPolicy policy;
+	private PluginFeatureIndex index;
+
+	public PluginFeatureIndexTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		siteDir = File.createTempFile("pluginindex", null); //$NON-NLS-1$
+		siteDir.delete();
+		new File(siteDir, "features").mkdirs(); //$NON-NLS-1$
+		for (int i = 0; i <= FEATURES; i++)
+			createFeature(i);
+		// the features of a parsed site cannot change, as those of a local site
+		site = new Site();
+		site.setSiteContentProvider(new SiteFileContentProvider(siteDir.toURL()));
+		// the last feature is not on the site yet
+		for (int i = 0; i < FEATURES; i++)
+			site.addFeatureReferenceModel(createReference(i));
+		site.resolve(siteDir.toURL(), null);
+		ConfiguredSite configuredSite = new ConfiguredSite();
+		configuredSite.setSiteModel(site);
+		policy = new ConfigurationPolicy();
+		policy.setPolicy(IPlatformConfiguration.ISitePolicy.USER_EXCLUDE);
+		policy.setConfiguredSiteModel(configuredSite);
+		configuredSite.setConfigurationPolicyModel(policy);
+		index = configuredSite.getPluginFeatureIndex();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(siteDir);
+	}
+
+	public void testFeaturesOfPlugins() throws Exception {
+		for (int i = 0; i < FEATURES; i++)
+			assertFeatures(getPluginId(i), new String[] {getFeatureId(i)});
+		// shared by all the features of the site
+		String[] features = new String[FEATURES];
+		for (int i = 0; i < FEATURES; i++)
+			features[i] = getFeatureId(i);
+		assertFeatures(getSharedPluginId(), features);
+		assertFeatures(getPluginId(FEATURES), new String[0]);
+	}
+
+	public void testFeatureAddedToTheSiteIsIndexed() throws Exception {
+		assertFeatures(getPluginId(FEATURES), new String[0]);
+		int stamp = site.getFeatureReferenceStamp();
+		SiteFeatureReference reference = createReference(FEATURES);
+		reference.resolve(siteDir.toURL(), null);
+		site.addFeatureReferenceModel(reference);
+		assertTrue(stamp != site.getFeatureReferenceStamp());
+		assertFeatures(getPluginId(FEATURES), new String[] {getFeatureId(FEATURES)});
+		assertEquals(FEATURES + 1, index.getFeatures(getSharedPluginId()).length);
+	}
+
+	public void testFeatureRemovedFromTheSiteIsDropped() throws Exception {
+		assertFeatures(getPluginId(0), new String[] {getFeatureId(0)});
+		int stamp = site.getFeatureReferenceStamp();
+		site.removeFeatureReferenceModel(site.getFeatureReferenceModels()[0]);
+		assertTrue(stamp != site.getFeatureReferenceStamp());
+		assertFeatures(getPluginId(0), new String[0]);
+		assertEquals(FEATURES - 1, index.getFeatures(getSharedPluginId()).length);
+	}
+
+	public void testConfiguredFeaturesFollowThePolicy() throws Exception {
+		assertNull(index.getConfiguredFeature(getPluginId(0)));
+		SiteFeatureReferenceModel reference = site.getFeatureReferenceModels()[0];
+		int stamp = policy.getModificationStamp();
+		policy.addConfiguredFeatureReference(reference);
+		assertTrue(stamp != policy.getModificationStamp());
+		IFeature feature = index.getConfiguredFeature(getPluginId(0));
+		assertNotNull(feature);
+		assertEquals(getFeatureId(0), feature.getVersionedIdentifier().getIdentifier());
+		assertNotNull(index.getConfiguredFeature(getSharedPluginId()));
+
+		stamp = policy.getModificationStamp();
+		policy.addUnconfiguredFeatureReference(reference);
+		assertTrue(stamp != policy.getModificationStamp());
+		assertNull(index.getConfiguredFeature(getPluginId(0)));
+		assertNull(index.getConfiguredFeature(getSharedPluginId()));
+	}
+
+	public void testEntriesOnlyReferencedByAFeature() throws Exception {
+		IFeature feature = site.getFeatureReferenceModels()[0].getFeature(null);
+		IPluginEntry[] entries = index.getEntriesOnlyReferencedBy(feature, feature.getPluginEntries());
+		assertEquals(1, entries.length);
+		assertEquals(getPluginId(0), entries[0].getVersionedIdentifier());
+		// the other features are removed from the site
+		SiteFeatureReferenceModel[] references = site.getFeatureReferenceModels();
+		for (int i = 1; i < references.length; i++)
+			site.removeFeatureReferenceModel(references[i]);
+		assertEquals(2, index.getEntriesOnlyReferencedBy(feature, feature.getPluginEntries()).length);
+	}
+
+	private SiteFeatureReference createReference(int i) {
+		SiteFeatureReference reference = new SiteFeatureReference();
+		reference.setSiteModel(site);
+		reference.setURLString(getFeaturePath(i));
+		reference.setFeatureIdentifier(getFeatureId(i));
+		reference.setFeatureVersion(VERSION);
+		return reference;
+	}
+
+	private void assertFeatures(VersionedIdentifier pluginId, String[] expected) {
+		IFeature[] features = index.getFeatures(pluginId);
+		assertEquals(pluginId.toString(), expected.length, features.length);
+		for (int i = 0; i < expected.length; i++) {
+			boolean found = false;
+			for (int j = 0; j < features.length && !found; j++)
+				found = expected[i].equals(features[j].getVersionedIdentifier().getIdentifier());
+			assertTrue(expected[i], found);
+		}
+	}
+
+	private static String getFeatureId(int i) {
+		return "index.feature" + i; //$NON-NLS-1$
+	}
+
+	private static String getFeaturePath(int i) {
+		return "features/" + getFeatureId(i) + '_' + VERSION + ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static VersionedIdentifier getPluginId(int i) {
+		return new VersionedIdentifier(getFeatureId(i) + ".plugin", VERSION); //$NON-NLS-1$
+	}
+
+	private static VersionedIdentifier getSharedPluginId() {
+		return new VersionedIdentifier("index.shared.plugin", VERSION); //$NON-NLS-1$
+	}
+
+	/*
+	 * Each feature has a plug-in of its own and the shared plug-in
+	 */
+	private void createFeature(int i) throws IOException {
+		StringBuffer feature = new StringBuffer();
+		feature.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+		feature.append("<feature id=\"").append(getFeatureId(i)).append("\" version=\"").append(VERSION).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		feature.append("<plugin id=\"").append(getPluginId(i).getIdentifier()).append("\" version=\"").append(VERSION).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		feature.append("<plugin id=\"").append(getSharedPluginId().getIdentifier()).append("\" version=\"").append(VERSION).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		feature.append("</feature>\n"); //$NON-NLS-1$
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(new File(siteDir, getFeaturePath(i))));
+		try {
+			out.putNextEntry(new ZipEntry("feature.xml")); //$NON-NLS-1$
+			out.write(feature.toString().getBytes("UTF-8")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
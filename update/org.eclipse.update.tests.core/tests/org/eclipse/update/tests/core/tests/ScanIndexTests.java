@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.configurator.ScanIndex;
+
+/**
+ * Tests that the scan index is only used with the platform.xml it was
+ * saved with.
+ */
+public class ScanIndexTests extends TestCase {
+	private File dir;
+	private File sharedDir;
+	private File plugin;
+	private URL siteURL;
+
+	public ScanIndexTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		dir = createDir("scanindex"); //$NON-NLS-1$
+		sharedDir = createDir("sharedscanindex"); //$NON-NLS-1$
+		plugin = new File(dir, "plugin_1.0.0.jar"); //$NON-NLS-1$
+		write(plugin, "plugin"); //$NON-NLS-1$
+		siteURL = dir.toURL();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(dir);
+		delete(sharedDir);
+	}
+
+	public void testIndexIsReadWithItsConfiguration() throws Exception {
+		File platformXML = writeConfiguration(dir, 10000);
+		saveIndex(dir);
+		assertEquals(1, getRecords(ScanIndex.load(getIndexFile(dir))));
+		// another configuration replaced platform.xml since
+		platformXML.setLastModified(20000);
+		assertEquals(0, getRecords(ScanIndex.load(getIndexFile(dir))));
+	}
+
+	public void testIndexIsSavedWithTheNewConfiguration() throws Exception {
+		File platformXML = writeConfiguration(dir, 10000);
+		saveIndex(dir);
+		ScanIndex index = ScanIndex.load(getIndexFile(dir));
+		// the configuration is saved, the sites did not change
+		platformXML.setLastModified(20000);
+		index.save();
+		assertEquals(1, getRecords(ScanIndex.load(getIndexFile(dir))));
+	}
+
+	public void testUnchangedIndexIsNotSaved() throws Exception {
+		writeConfiguration(dir, 10000);
+		saveIndex(dir);
+		File indexFile = getIndexFile(dir);
+		indexFile.setLastModified(5000);
+		ScanIndex.load(indexFile).save();
+		assertEquals(5000, indexFile.lastModified());
+	}
+
+	public void testSharedIndexIsReadWithItsConfiguration() throws Exception {
+		File sharedXML = writeConfiguration(sharedDir, 10000);
+		saveIndex(sharedDir);
+		writeConfiguration(dir, 30000);
+		ScanIndex index = ScanIndex.load(getIndexFile(dir), getIndexFile(sharedDir));
+		assertEquals(1, getRecords(index));
+		// the shared index is not copied while it does not change
+		index.save();
+		assertFalse(getIndexFile(dir).exists());
+		sharedXML.setLastModified(20000);
+		assertEquals(0, getRecords(ScanIndex.load(getIndexFile(dir), getIndexFile(sharedDir))));
+	}
+
+	private void saveIndex(File configDir) {
+		ScanIndex index = ScanIndex.load(getIndexFile(configDir));
+		index.getSiteScan(siteURL).putPlugin(plugin, null, null);
+		index.save();
+	}
+
+	private int getRecords(ScanIndex index) {
+		return index.getSiteScan(siteURL).getPlugins().length;
+	}
+
+	private static File getIndexFile(File configDir) {
+		return new File(configDir, ScanIndex.SCAN_INDEX);
+	}
+
+	private static File writeConfiguration(File configDir, long timestamp) throws IOException {
+		File platformXML = new File(configDir, "platform.xml"); //$NON-NLS-1$
+		write(platformXML, "<config/>"); //$NON-NLS-1$
+		platformXML.setLastModified(timestamp);
+		return platformXML;
+	}
+
+	private static File createDir(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, null);
+		file.delete();
+		file.mkdirs();
+		return file;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8")); //$NON-NLS-1$
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.util.jar.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.update.core.*;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateMetrics;
+
+/**
+ * Times the phases of reading a generated update site through the update
+ * metrics.
+ * <p>
+ * The site is generated in a temporary directory and read from its
+ * <code>file:</code> URL. Its size is set by the system properties
+ * <code>org.eclipse.update.tests.features</code> and
+ * <code>org.eclipse.update.tests.plugins</code> (plug-ins per feature).
+ * When <code>org.eclipse.update.tests.metrics</code> names a file, the
+ * metrics of the run are written to it as JSON, so that runs can be
+ * compared with an earlier one.
+ * </p>
+ */
+public class SiteMetricsTests extends TestCase {
+	private static final String VERSION = "1.0.0"; //$NON-NLS-1$
+
+	private File siteDir;
+	private int featureCount;
+	private int pluginCount;
+
+	public SiteMetricsTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		featureCount = Integer.getInteger("org.eclipse.update.tests.features", 20).intValue(); //$NON-NLS-1$
+		pluginCount = Integer.getInteger("org.eclipse.update.tests.plugins", 5).intValue(); //$NON-NLS-1$
+		siteDir = File.createTempFile("metricsite", null); //$NON-NLS-1$
+		siteDir.delete();
+		createSite(siteDir, featureCount, pluginCount);
+		UpdateMetrics.reset();
+	}
+
+	protected void tearDown() throws Exception {
+		UpdateMetrics.setEnabled(false);
+		UpdateMetrics.reset();
+		delete(siteDir);
+	}
+
+	public void testSitePhases() throws Exception {
+		UpdateMetrics.setEnabled(true);
+		ISite site = SiteManager.getSite(siteDir.toURL(), false, null);
+		ISiteFeatureReference[] references = site.getFeatureReferences();
+		assertEquals(featureCount, references.length);
+		for (int i = 0; i < references.length; i++)
+			verifyPlugins(references[i].getFeature(null));
+
+		String metrics = UpdateMetrics.toJSON();
+		writeMetrics(metrics);
+		assertEquals(1, getCount(metrics, UpdateMetrics.SITE_RESOLUTION));
+		assertEquals(1, getCount(metrics, UpdateMetrics.DIGEST_FETCH));
+		assertTrue(getCount(metrics, UpdateMetrics.FEATURE_PARSE) >= featureCount);
+		assertTrue(getCount(metrics, UpdateMetrics.UNPACK) >= featureCount);
+		assertEquals(featureCount * pluginCount, getCount(metrics, UpdateMetrics.VERIFICATION));
+	}
+
+	public void testNothingRecordedWhenDisabled() throws Exception {
+		UpdateMetrics.setEnabled(false);
+		// the debug option of the test run would enable the metrics regardless
+		boolean showMetrics = UpdateCore.DEBUG_SHOW_METRICS;
+		UpdateCore.DEBUG_SHOW_METRICS = false;
+		try {
+			assertFalse(UpdateMetrics.isEnabled());
+			ISite site = SiteManager.getSite(siteDir.toURL(), false, null);
+			site.getFeatureReferences()[0].getFeature(null);
+		} finally {
+			UpdateCore.DEBUG_SHOW_METRICS = showMetrics;
+		}
+		assertEquals(0, getCount(UpdateMetrics.toJSON(), UpdateMetrics.SITE_RESOLUTION));
+		assertEquals(0, getCount(UpdateMetrics.toJSON(), UpdateMetrics.FEATURE_PARSE));
+	}
+
+	private void verifyPlugins(IFeature feature) throws CoreException {
+		IFeatureContentProvider provider = feature.getFeatureContentProvider();
+		IVerifier verifier = provider.getVerifier();
+		IPluginEntry[] plugins = feature.getPluginEntries();
+		for (int i = 0; i < plugins.length; i++) {
+			InstallMonitor monitor = new InstallMonitor(new NullProgressMonitor());
+			ContentReference[] archives = provider.getPluginEntryArchiveReferences(plugins[i], monitor);
+			for (int j = 0; j < archives.length; j++) {
+				IVerificationResult result = verifier.verify(feature, archives[j], false, monitor);
+				assertEquals(archives[j].getIdentifier(), IVerificationResult.TYPE_ENTRY_NOT_SIGNED, result.getVerificationCode());
+			}
+		}
+	}
+
+	/*
+	 * Returns how many times a phase ran in a snapshot of the metrics
+	 */
+	private static long getCount(String metrics, String phase) {
+		String key = "\"" + phase + "\":{\"count\":"; //$NON-NLS-1$ //$NON-NLS-2$
+		int start = metrics.indexOf(key);
+		if (start == -1)
+			return 0;
+		start += key.length();
+		int end = start;
+		while (end < metrics.length() && Character.isDigit(metrics.charAt(end)))
+			end++;
+		return Long.parseLong(metrics.substring(start, end));
+	}
+
+	private void writeMetrics(String metrics) throws IOException {
+		String path = System.getProperty("org.eclipse.update.tests.metrics"); //$NON-NLS-1$
+		if (path == null)
+			return;
+		Writer writer = new OutputStreamWriter(new FileOutputStream(path), "UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write(metrics);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/*
+	 * Generates the features, plug-ins, digest and site.xml of a site
+	 */
+	static void createSite(File siteDir, int featureCount, int pluginCount) throws IOException {
+		new File(siteDir, "features").mkdirs(); //$NON-NLS-1$
+		new File(siteDir, "plugins").mkdirs(); //$NON-NLS-1$
+		StringBuffer site = new StringBuffer();
+		site.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+		site.append("<site digestURL=\"/\">\n"); //$NON-NLS-1$
+		StringBuffer digest = new StringBuffer();
+		digest.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<digest>\n"); //$NON-NLS-1$
+		for (int i = 0; i < featureCount; i++) {
+			String featureId = "metrics.feature" + i; //$NON-NLS-1$
+			StringBuffer feature = new StringBuffer();
+			feature.append("<feature id=\"").append(featureId).append("\" label=\"").append(featureId).append("\" version=\"").append(VERSION).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			// the install validation requires a license
+			feature.append("<license>License of ").append(featureId).append("</license>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (int j = 0; j < pluginCount; j++) {
+				String pluginId = featureId + ".plugin" + j; //$NON-NLS-1$
+				feature.append("<plugin id=\"").append(pluginId).append("\" version=\"").append(VERSION).append("\" download-size=\"1\" install-size=\"1\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				createPlugin(new File(siteDir, "plugins/" + pluginId + '_' + VERSION + ".jar"), pluginId); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			feature.append("</feature>\n"); //$NON-NLS-1$
+			String featureJar = "features/" + featureId + '_' + VERSION + ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
+			createZip(new File(siteDir, featureJar), "feature.xml", feature.toString()); //$NON-NLS-1$
+			site.append("<feature url=\"").append(featureJar).append("\" id=\"").append(featureId).append("\" version=\"").append(VERSION).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			digest.append(feature);
+		}
+		site.append("</site>\n"); //$NON-NLS-1$
+		digest.append("</digest>\n"); //$NON-NLS-1$
+		createZip(new File(siteDir, "digest.zip"), "digest.xml", digest.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+		write(new File(siteDir, Site.SITE_XML), site.toString());
+	}
+
+	private static void createPlugin(File file, String pluginId) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0"); //$NON-NLS-1$
+		attributes.putValue("Bundle-SymbolicName", pluginId); //$NON-NLS-1$
+		attributes.putValue("Bundle-Version", VERSION); //$NON-NLS-1$
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest);
+		try {
+			out.putNextEntry(new JarEntry("plugin.txt")); //$NON-NLS-1$
+			out.write(pluginId.getBytes("UTF-8")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void createZip(File file, String entry, String content) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			out.putNextEntry(new ZipEntry(entry));
+			out.write(content.getBytes("UTF-8")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8")); //$NON-NLS-1$
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
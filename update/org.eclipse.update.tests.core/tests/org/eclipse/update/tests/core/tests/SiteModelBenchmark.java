@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.core.SiteFeatureReferenceModel;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.core.model.SiteModel;
+
+/**
+ * Compares the lookups of feature references by identifier on sites of
+ * 100 to 50,000 features, through the index of the site model and by
+ * scanning the references as the site did before. The time of 100,000
+ * lookups is recorded in the <code>BenchmarkResults</code>; the scans are
+ * extrapolated from fewer lookups on the larger sites.
+ */
+public class SiteModelBenchmark extends TestCase {
+	private static final int[] SIZES = {100, 1000, 10000, 50000};
+	private static final int LOOKUPS = 100000;
+	// features compared by the scans of one size
+	private static final int SCANNED = 20000000;
+
+	public SiteModelBenchmark(String name) {
+		super(name);
+	}
+
+	public void testFeatureReferenceLookups() throws Exception {
+		for (int i = 0; i < SIZES.length; i++)
+			benchmark(SIZES[i]);
+	}
+
+	private void benchmark(int size) throws Exception {
+		SiteModel site = new SiteModel();
+		VersionedIdentifier[] ids = new VersionedIdentifier[size];
+		for (int i = 0; i < size; i++) {
+			SiteFeatureReferenceModel reference = SiteModelTests.createReference("benchmark.feature" + i); //$NON-NLS-1$
+			site.addFeatureReferenceModel(reference);
+			ids[i] = reference.getVersionedIdentifier();
+		}
+		Random random = new Random(size);
+
+		long start = System.currentTimeMillis();
+		assertEquals(ids[0], site.getFeatureReferenceModel(ids[0]).getVersionedIdentifier());
+		long build = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < LOOKUPS; i++) {
+			VersionedIdentifier id = ids[random.nextInt(size)];
+			assertEquals(id, site.getFeatureReferenceModel(id).getVersionedIdentifier());
+		}
+		long indexed = System.currentTimeMillis() - start;
+
+		int scans = Math.max(1, Math.min(LOOKUPS, SCANNED / size));
+		start = System.currentTimeMillis();
+		for (int i = 0; i < scans; i++) {
+			VersionedIdentifier id = ids[random.nextInt(size)];
+			assertEquals(id, scan(site, id).getVersionedIdentifier());
+		}
+		long scanned = System.currentTimeMillis() - start;
+
+		System.out.println("SiteModel lookups, " + size + " features: index built in " + build + " ms, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ getMicros(indexed, LOOKUPS) + " us per indexed lookup, " //$NON-NLS-1$
+				+ getMicros(scanned, scans) + " us per scan"); //$NON-NLS-1$
+		BenchmarkResults.record("siteModel.index." + size, build); //$NON-NLS-1$
+		BenchmarkResults.record("siteModel.lookups.indexed." + size, indexed); //$NON-NLS-1$
+		BenchmarkResults.record("siteModel.lookups.scanned." + size, (double) scanned * LOOKUPS / scans); //$NON-NLS-1$
+	}
+
+	/*
+	 * The lookup of the site before the index
+	 */
+	private static SiteFeatureReferenceModel scan(SiteModel site, VersionedIdentifier id) {
+		SiteFeatureReferenceModel[] references = site.getFeatureReferenceModels();
+		for (int i = 0; i < references.length; i++) {
+			if (id.equals(references[i].getVersionedIdentifier()))
+				return references[i];
+		}
+		return null;
+	}
+
+	private static String getMicros(long millis, int count) {
+		return String.valueOf(millis * 1000.0 / count);
+	}
+}
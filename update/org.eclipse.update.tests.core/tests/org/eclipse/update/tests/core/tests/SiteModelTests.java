@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.core.SiteFeatureReference;
+import org.eclipse.update.core.SiteFeatureReferenceModel;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.core.model.*;
+
+/**
+ * Tests the lookups of categories, feature references and archives by
+ * name on a site model, and that they follow the changes of the site.
+ */
+public class SiteModelTests extends TestCase {
+	private static final String VERSION = "1.0.0"; //$NON-NLS-1$
+
+	private SiteModel site;
+
+	/*
+	 * A reference that does not specify its feature; the feature would
+	 * have to be read to identify it
+	 */
+	private static class UnindexedReference extends SiteFeatureReference {
+		private VersionedIdentifier id;
+		int identified;
+
+		UnindexedReference(String id) {
+			this.id = new VersionedIdentifier(id, VERSION);
+		}
+
+		public VersionedIdentifier getVersionedIdentifier() {
+			identified++;
+			return id;
+		}
+	}
+
+	public SiteModelTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		site = new SiteModel();
+	}
+
+	public void testFeatureReferences() throws Exception {
+		SiteFeatureReferenceModel[] references = new SiteFeatureReferenceModel[10];
+		for (int i = 0; i < references.length; i++) {
+			references[i] = createReference("feature" + i); //$NON-NLS-1$
+			site.addFeatureReferenceModel(references[i]);
+		}
+		for (int i = 0; i < references.length; i++)
+			assertSame(references[i], site.getFeatureReferenceModel(getId("feature" + i))); //$NON-NLS-1$
+		assertNull(site.getFeatureReferenceModel(getId("feature10"))); //$NON-NLS-1$
+		assertNull(site.getFeatureReferenceModel(new VersionedIdentifier("feature0", "2.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull(site.getFeatureReferenceModel(null));
+	}
+
+	public void testFirstFeatureReferenceIsFound() throws Exception {
+		SiteFeatureReferenceModel first = createReference("feature"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(first);
+		site.addFeatureReferenceModel(createReference("feature")); //$NON-NLS-1$
+		assertSame(first, site.getFeatureReferenceModel(getId("feature"))); //$NON-NLS-1$
+	}
+
+	public void testIndexedReferenceIsChosenOverEarlierUnindexedOne() throws Exception {
+		UnindexedReference unindexed = new UnindexedReference("feature"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(unindexed);
+		SiteFeatureReferenceModel indexed = createReference("feature"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(indexed);
+		assertSame(indexed, site.getFeatureReferenceModel(getId("feature"))); //$NON-NLS-1$
+		// and the feature of the unindexed reference is not read
+		assertEquals(0, unindexed.identified);
+	}
+
+	public void testUnindexedReferenceIsFound() throws Exception {
+		site.addFeatureReferenceModel(createReference("feature0")); //$NON-NLS-1$
+		UnindexedReference unindexed = new UnindexedReference("feature1"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(unindexed);
+		assertSame(unindexed, site.getFeatureReferenceModel(getId("feature1"))); //$NON-NLS-1$
+		assertNull(site.getFeatureReferenceModel(getId("feature2"))); //$NON-NLS-1$
+	}
+
+	public void testFeatureReferenceChanges() throws Exception {
+		SiteFeatureReferenceModel reference = createReference("feature0"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(reference);
+		int stamp = site.getFeatureReferenceStamp();
+		assertNull(site.getFeatureReferenceModel(getId("feature1"))); //$NON-NLS-1$
+		SiteFeatureReferenceModel added = createReference("feature1"); //$NON-NLS-1$
+		site.addFeatureReferenceModel(added);
+		assertSame(added, site.getFeatureReferenceModel(getId("feature1"))); //$NON-NLS-1$
+		assertTrue(stamp != site.getFeatureReferenceStamp());
+		stamp = site.getFeatureReferenceStamp();
+		site.removeFeatureReferenceModel(reference);
+		assertNull(site.getFeatureReferenceModel(getId("feature0"))); //$NON-NLS-1$
+		assertTrue(stamp != site.getFeatureReferenceStamp());
+		stamp = site.getFeatureReferenceStamp();
+		site.setFeatureReferenceModels(new FeatureReferenceModel[] {reference});
+		assertSame(reference, site.getFeatureReferenceModel(getId("feature0"))); //$NON-NLS-1$
+		assertNull(site.getFeatureReferenceModel(getId("feature1"))); //$NON-NLS-1$
+		assertTrue(stamp != site.getFeatureReferenceStamp());
+	}
+
+	public void testCategories() {
+		CategoryModel category = createCategory("category0"); //$NON-NLS-1$
+		site.setCategoryModels(new CategoryModel[] {category, createCategory("category1")}); //$NON-NLS-1$
+		assertSame(category, site.getCategoryModel("category0")); //$NON-NLS-1$
+		assertNull(site.getCategoryModel("category2")); //$NON-NLS-1$
+		CategoryModel added = createCategory("category2"); //$NON-NLS-1$
+		site.addCategoryModel(added);
+		assertSame(added, site.getCategoryModel("category2")); //$NON-NLS-1$
+		site.removeCategoryModel(category);
+		assertNull(site.getCategoryModel("category0")); //$NON-NLS-1$
+	}
+
+	public void testArchivesIgnoreCase() {
+		ArchiveReferenceModel archive = createArchive("plugins/Plugin_1.0.0.jar"); //$NON-NLS-1$
+		site.setArchiveReferenceModels(new ArchiveReferenceModel[] {archive});
+		assertSame(archive, site.getArchiveReferenceModel("plugins/Plugin_1.0.0.jar")); //$NON-NLS-1$
+		assertSame(archive, site.getArchiveReferenceModel(" PLUGINS/plugin_1.0.0.JAR ")); //$NON-NLS-1$
+		assertNull(site.getArchiveReferenceModel("plugins/plugin_2.0.0.jar")); //$NON-NLS-1$
+		ArchiveReferenceModel added = createArchive("plugins/plugin_2.0.0.jar"); //$NON-NLS-1$
+		site.addArchiveReferenceModel(added);
+		assertSame(added, site.getArchiveReferenceModel("plugins/plugin_2.0.0.jar")); //$NON-NLS-1$
+		site.removeArchiveReferenceModel(archive);
+		assertNull(site.getArchiveReferenceModel("plugins/Plugin_1.0.0.jar")); //$NON-NLS-1$
+	}
+
+	private static VersionedIdentifier getId(String id) {
+		return new VersionedIdentifier(id, VERSION);
+	}
+
+	static SiteFeatureReferenceModel createReference(String id) throws MalformedURLException {
+		SiteFeatureReference reference = new SiteFeatureReference();
+		reference.setFeatureIdentifier(id);
+		reference.setFeatureVersion(VERSION);
+		reference.setURLString("features/" + id + '_' + VERSION + ".jar"); //$NON-NLS-1$ //$NON-NLS-2$
+		// references are compared by URL
+		reference.resolve(new URL("http://update.example.org/site/"), null); //$NON-NLS-1$
+		return reference;
+	}
+
+	private static CategoryModel createCategory(String name) {
+		CategoryModel category = new CategoryModel();
+		category.setName(name);
+		return category;
+	}
+
+	private static ArchiveReferenceModel createArchive(String path) {
+		ArchiveReferenceModel archive = new ArchiveReferenceModel();
+		archive.setPath(path);
+		archive.setURLString(path);
+		return archive;
+	}
+}
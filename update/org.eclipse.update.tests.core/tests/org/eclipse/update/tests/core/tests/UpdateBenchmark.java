@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.update.configuration.IConfiguredSite;
+import org.eclipse.update.configurator.ConfiguratorUtils;
+import org.eclipse.update.configurator.IPlatformConfiguration;
+import org.eclipse.update.configurator.IPlatformConfiguration.ISiteEntry;
+import org.eclipse.update.configurator.IPlatformConfiguration.ISitePolicy;
+import org.eclipse.update.core.*;
+import org.eclipse.update.internal.configurator.PlatformConfiguration;
+import org.eclipse.update.operations.*;
+import org.eclipse.update.search.*;
+
+/**
+ * Times the phases of searches and installs on a generated update site,
+ * served from its <code>file:</code> URL and from an HTTP server embedded
+ * in the benchmark, and the save and load of the platform configuration.
+ * <p>
+ * The site is generated as by <code>SiteMetricsTests</code>, with the
+ * number of features and of plug-ins per feature set by the same system
+ * properties. Each phase runs <code>org.eclipse.update.tests.iterations</code>
+ * times, and its average time is recorded in the
+ * <code>BenchmarkResults</code>.
+ * </p>
+ */
+public class UpdateBenchmark extends TestCase {
+	private static final int ITERATIONS = Integer.getInteger("org.eclipse.update.tests.iterations", 5).intValue(); //$NON-NLS-1$
+	// sites of the benchmarked platform configuration
+	private static final int CONFIGURED_SITES = 50;
+
+	private File dir;
+	private File siteDir;
+	private int featureCount;
+	private int pluginCount;
+	private SiteServer server;
+	private URL targetURL;
+
+	/*
+	 * Serves the files of the site under any first path segment, so that
+	 * each iteration reads the site from a URL of its own and no cache
+	 * keyed by URL answers in its place
+	 */
+	private static class SiteServer implements Runnable {
+		private ServerSocket socket;
+		private File root;
+
+		SiteServer(File root) throws IOException {
+			this.root = root;
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+			Thread thread = new Thread(this, "UpdateBenchmark server"); //$NON-NLS-1$
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		URL getURL(String name) throws MalformedURLException {
+			return new URL("http://127.0.0.1:" + socket.getLocalPort() + "/" + name + "/"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		public void run() {
+			while (true) {
+				final Socket client;
+				try {
+					client = socket.accept();
+				} catch (IOException e) {
+					return; // closed
+				}
+				// the update code opens several connections at once
+				new Thread("UpdateBenchmark request") { //$NON-NLS-1$
+					public void run() {
+						try {
+							try {
+								serve(client);
+							} finally {
+								client.close();
+							}
+						} catch (IOException e) {
+							// next request
+						}
+					}
+				}.start();
+			}
+		}
+
+		void serve(Socket client) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "ISO-8859-1")); //$NON-NLS-1$
+			String request = in.readLine();
+			for (String line = in.readLine(); line != null && line.length() > 0; line = in.readLine()) {
+				// skip the headers
+			}
+			OutputStream out = new BufferedOutputStream(client.getOutputStream());
+			File file = null;
+			if (request != null) {
+				String path = request.substring(request.indexOf(' ') + 1, request.lastIndexOf(' '));
+				int start = path.indexOf('/', 1);
+				if (start != -1)
+					file = new File(root, URLDecoder.decode(path.substring(start + 1), "UTF-8")); //$NON-NLS-1$
+			}
+			if (file == null || !file.isFile()) {
+				out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+			} else {
+				out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + file.length() + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				InputStream content = new FileInputStream(file);
+				try {
+					byte[] buffer = new byte[8192];
+					for (int count = content.read(buffer); count != -1; count = content.read(buffer))
+						out.write(buffer, 0, count);
+				} finally {
+					content.close();
+				}
+			}
+			out.flush();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	public UpdateBenchmark(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		featureCount = Integer.getInteger("org.eclipse.update.tests.features", 20).intValue(); //$NON-NLS-1$
+		pluginCount = Integer.getInteger("org.eclipse.update.tests.plugins", 5).intValue(); //$NON-NLS-1$
+		dir = File.createTempFile("updatebenchmark", null); //$NON-NLS-1$
+		dir.delete();
+		siteDir = new File(dir, "site"); //$NON-NLS-1$
+		SiteMetricsTests.createSite(siteDir, featureCount, pluginCount);
+		server = new SiteServer(siteDir);
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+		if (targetURL != null) {
+			// the target site was added to the running configuration
+			IPlatformConfiguration runtimeConfiguration = ConfiguratorUtils.getCurrentPlatformConfiguration();
+			ISiteEntry siteEntry = runtimeConfiguration.findConfiguredSite(targetURL);
+			if (siteEntry != null)
+				runtimeConfiguration.unconfigureSite(siteEntry);
+		}
+		delete(dir);
+	}
+
+	public void testSiteParse() throws Exception {
+		long file = 0;
+		long http = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			file += timeSiteParse(siteDir.toURL());
+			http += timeSiteParse(server.getURL("parse" + i)); //$NON-NLS-1$
+		}
+		record("site.parse.file", file); //$NON-NLS-1$
+		record("site.parse.http", http); //$NON-NLS-1$
+	}
+
+	public void testDigestParse() throws Exception {
+		long file = 0;
+		long http = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			file += timeFeatureParse(SiteManager.getSite(siteDir.toURL(), false, null));
+			http += timeFeatureParse(SiteManager.getSite(server.getURL("digest" + i), false, null)); //$NON-NLS-1$
+		}
+		record("digest.parse.file", file); //$NON-NLS-1$
+		record("digest.parse.http", http); //$NON-NLS-1$
+	}
+
+	public void testSearch() throws Exception {
+		long time = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			UpdateSearchScope scope = new UpdateSearchScope();
+			scope.addSearchSite("benchmark", server.getURL("search" + i), null); //$NON-NLS-1$ //$NON-NLS-2$
+			UpdateSearchRequest request = new UpdateSearchRequest(UpdateSearchRequest.createDefaultSiteSearchCategory(), scope);
+			final ArrayList matches = new ArrayList();
+			long start = System.currentTimeMillis();
+			request.performSearch(new IUpdateSearchResultCollector() {
+				public void accept(IFeature match) {
+					matches.add(match);
+				}
+			}, new NullProgressMonitor());
+			time += System.currentTimeMillis() - start;
+			assertEquals(featureCount, matches.size());
+		}
+		record("search.http", time); //$NON-NLS-1$
+	}
+
+	public void testValidation() throws Exception {
+		IConfiguredSite target = createTargetSite();
+		ISiteFeatureReference[] references = SiteManager.getSite(server.getURL("validation"), false, null).getFeatureReferences(); //$NON-NLS-1$
+		IInstallFeatureOperation[] operations = new IInstallFeatureOperation[references.length];
+		for (int i = 0; i < references.length; i++)
+			operations[i] = OperationsManager.getOperationFactory().createInstallOperation(target, references[i].getFeature(null), null, null, null);
+		long time = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.currentTimeMillis();
+			IStatus status = OperationsManager.getValidator().validatePendingChanges(operations);
+			time += System.currentTimeMillis() - start;
+			assertTrue(status == null ? "" : status.toString(), status == null || status.getSeverity() != IStatus.ERROR); //$NON-NLS-1$
+		}
+		record("validation", time); //$NON-NLS-1$
+	}
+
+	public void testInstall() throws Exception {
+		IConfiguredSite target = createTargetSite();
+		ISiteFeatureReference[] references = SiteManager.getSite(server.getURL("install"), false, null).getFeatureReferences(); //$NON-NLS-1$
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < references.length; i++)
+			target.install(references[i].getFeature(null), null, new NullProgressMonitor());
+		long time = System.currentTimeMillis() - start;
+		File plugins = new File(target.getSite().getURL().getFile(), "plugins"); //$NON-NLS-1$
+		assertEquals(featureCount * pluginCount, plugins.list().length);
+		// per feature, as the features are only installed once
+		BenchmarkResults.record("install.feature.http", (double) time / references.length); //$NON-NLS-1$
+	}
+
+	public void testConfigurationSaveAndLoad() throws Exception {
+		File configDir = new File(dir, "configuration/org.eclipse.update"); //$NON-NLS-1$
+		configDir.mkdirs();
+		URL configURL = new File(configDir, "platform.xml").toURL(); //$NON-NLS-1$
+		URL installURL = dir.toURL();
+		// a new configuration, saved to the url
+		PlatformConfiguration configuration = new PlatformConfiguration(null, installURL);
+		for (int i = 0; i < CONFIGURED_SITES; i++) {
+			File configuredSiteDir = new File(dir, "sites/site" + i); //$NON-NLS-1$
+			configuredSiteDir.mkdirs();
+			ISitePolicy policy = configuration.createSitePolicy(ISitePolicy.USER_EXCLUDE, new String[0]);
+			configuration.configureSite(configuration.createSiteEntry(configuredSiteDir.toURL(), policy));
+			for (int j = 0; j < featureCount; j++) {
+				// configured on the only site that has it
+				String featureId = "benchmark.site" + i + ".feature" + j; //$NON-NLS-1$ //$NON-NLS-2$
+				new File(configuredSiteDir, "features/" + featureId + "_1.0.0").mkdirs(); //$NON-NLS-1$ //$NON-NLS-2$
+				configuration.configureFeatureEntry(configuration.createFeatureEntry(featureId, "1.0.0", "1.0.0", false, null, null)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		String snapshotProperty = System.getProperty("org.eclipse.update.configurator.configSnapshot"); //$NON-NLS-1$
+		try {
+			System.setProperty("org.eclipse.update.configurator.configSnapshot", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			timeConfiguration(configuration, configURL, installURL, "configuration.save", "configuration.load"); //$NON-NLS-1$ //$NON-NLS-2$
+			System.setProperty("org.eclipse.update.configurator.configSnapshot", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			timeConfiguration(configuration, configURL, installURL, "configuration.save.snapshot", "configuration.load.snapshot"); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			if (snapshotProperty == null)
+				System.getProperties().remove("org.eclipse.update.configurator.configSnapshot"); //$NON-NLS-1$
+			else
+				System.setProperty("org.eclipse.update.configurator.configSnapshot", snapshotProperty); //$NON-NLS-1$
+		}
+	}
+
+	private void timeConfiguration(PlatformConfiguration configuration, URL configURL, URL installURL, String save, String load) throws Exception {
+		long saveTime = 0;
+		long loadTime = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.currentTimeMillis();
+			configuration.save(configURL);
+			saveTime += System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			PlatformConfiguration loaded = new PlatformConfiguration(configURL, installURL);
+			loadTime += System.currentTimeMillis() - start;
+			assertEquals(CONFIGURED_SITES, loaded.getConfiguredSites().length);
+			assertEquals(CONFIGURED_SITES * featureCount, loaded.getConfiguredFeatureEntries().length);
+		}
+		record(save, saveTime);
+		record(load, loadTime);
+	}
+
+	private long timeSiteParse(URL url) throws Exception {
+		long start = System.currentTimeMillis();
+		ISite site = SiteManager.getSite(url, false, null);
+		assertEquals(featureCount, site.getFeatureReferences().length);
+		return System.currentTimeMillis() - start;
+	}
+
+	/*
+	 * Reads the features of a site, from its digest
+	 */
+	private long timeFeatureParse(ISite site) throws Exception {
+		ISiteFeatureReference[] references = site.getFeatureReferences();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < references.length; i++)
+			assertEquals(pluginCount, references[i].getFeature(null).getPluginEntries().length);
+		return System.currentTimeMillis() - start;
+	}
+
+	/*
+	 * Creates an empty site to install into, as the install wizard does for
+	 * a new location
+	 */
+	private IConfiguredSite createTargetSite() throws Exception {
+		IConfiguredSite target = SiteManager.getLocalSite().getCurrentConfiguration().createConfiguredSite(new File(dir, "target")); //$NON-NLS-1$
+		targetURL = target.getSite().getURL();
+		IStatus status = target.verifyUpdatableStatus();
+		assertTrue(status.getMessage(), status.isOK());
+		return target;
+	}
+
+	/*
+	 * Records the average time of an iteration
+	 */
+	private static void record(String name, long time) throws IOException {
+		BenchmarkResults.record(name, (double) time / ITERATIONS);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.*;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.*;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.osgi.signedcontent.*;
+import org.eclipse.update.core.*;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.verifier.CertVerifier;
+import org.osgi.framework.Bundle;
+
+/**
+ * Counts the checks of the signed entries of plug-in archives that are
+ * prepared ahead of their verification, as the download threads of an
+ * install do.
+ */
+public class VerifierTests extends TestCase {
+	private static final int ARCHIVES = 3;
+
+	private File dir;
+	private File[] archives;
+	private CountingFactory factory;
+
+	/*
+	 * Counts the archives opened through the signed content factory
+	 */
+	private static class CountingFactory implements SignedContentFactory {
+		private final SignedContentFactory factory;
+		private final Map counts = new HashMap();
+
+		CountingFactory(SignedContentFactory factory) {
+			this.factory = factory;
+		}
+
+		public synchronized SignedContent getSignedContent(File content) throws IOException, InvalidKeyException, SignatureException, CertificateException, NoSuchAlgorithmException, NoSuchProviderException {
+			counts.put(content.getAbsoluteFile(), new Integer(getCount(content) + 1));
+			return factory.getSignedContent(content);
+		}
+
+		public SignedContent getSignedContent(Bundle bundle) throws IOException, InvalidKeyException, SignatureException, CertificateException, NoSuchAlgorithmException, NoSuchProviderException {
+			return factory.getSignedContent(bundle);
+		}
+
+		synchronized int getCount(File content) {
+			Integer count = (Integer) counts.get(content.getAbsoluteFile());
+			return count == null ? 0 : count.intValue();
+		}
+	}
+
+	public VerifierTests(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		SignedContentFactory signedContentFactory = UpdateCore.getPlugin().getSignedContentFactory();
+		assertNotNull("No signed content factory", signedContentFactory); //$NON-NLS-1$
+		factory = new CountingFactory(signedContentFactory);
+		dir = File.createTempFile("verifier", null); //$NON-NLS-1$
+		dir.delete();
+		dir.mkdirs();
+		archives = new File[ARCHIVES];
+		for (int i = 0; i < ARCHIVES; i++) {
+			archives[i] = new File(dir, "plugin" + i + "_1.0.0.jar"); //$NON-NLS-1$ //$NON-NLS-2$
+			createJar(archives[i], "plugin" + i); //$NON-NLS-1$
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	public void testUnpreparedArchiveIsCheckedOnce() throws Exception {
+		IVerifier verifier = new CertVerifier(factory);
+		for (int i = 0; i < ARCHIVES; i++) {
+			verify(verifier, archives[i]);
+			assertEquals(archives[i].getName(), 1, factory.getCount(archives[i]));
+		}
+	}
+
+	public void testPreparedArchiveIsCheckedOnce() throws Exception {
+		CertVerifier verifier = new CertVerifier(factory);
+		for (int i = 0; i < ARCHIVES; i++)
+			verifier.prepare(reference(archives[i]));
+		for (int i = 0; i < ARCHIVES; i++) {
+			verify(verifier, archives[i]);
+			assertEquals(archives[i].getName(), 1, factory.getCount(archives[i]));
+		}
+	}
+
+	public void testArchivePreparedByAnotherVerifierIsCheckedOnce() throws Exception {
+		// the download threads and the install each get their own verifier
+		for (int i = 0; i < ARCHIVES; i++)
+			new CertVerifier(factory).prepare(reference(archives[i]));
+		IVerifier verifier = new CertVerifier(factory);
+		for (int i = 0; i < ARCHIVES; i++) {
+			verify(verifier, archives[i]);
+			assertEquals(archives[i].getName(), 1, factory.getCount(archives[i]));
+		}
+	}
+
+	public void testPreparedOutcomeIsUsedOnce() throws Exception {
+		new CertVerifier(factory).prepare(reference(archives[0]));
+		IVerifier verifier = new CertVerifier(factory);
+		verify(verifier, archives[0]);
+		verify(verifier, archives[0]);
+		assertEquals(2, factory.getCount(archives[0]));
+	}
+
+	public void testChangedArchiveIsCheckedAgain() throws Exception {
+		new CertVerifier(factory).prepare(reference(archives[0]));
+		createJar(archives[0], "changed plugin0"); //$NON-NLS-1$
+		verify(new CertVerifier(factory), archives[0]);
+		assertEquals(2, factory.getCount(archives[0]));
+	}
+
+	private static void verify(IVerifier verifier, File archive) throws Exception {
+		InstallMonitor monitor = new InstallMonitor(new NullProgressMonitor());
+		IVerificationResult result = verifier.verify(null, reference(archive), false, monitor);
+		assertEquals(archive.getName(), IVerificationResult.TYPE_ENTRY_NOT_SIGNED, result.getVerificationCode());
+	}
+
+	private static ContentReference reference(File archive) {
+		return new JarContentReference(archive.getName(), archive);
+	}
+
+	private static void createJar(File file, String content) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0"); //$NON-NLS-1$
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest);
+		try {
+			out.putNextEntry(new JarEntry("plugin.txt")); //$NON-NLS-1$
+			out.write(content.getBytes("UTF-8")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+}